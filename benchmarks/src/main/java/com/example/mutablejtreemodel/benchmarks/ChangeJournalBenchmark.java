@@ -0,0 +1,88 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.mutablejtreemodel.ChangeJournal;
+import com.example.mutablejtreemodel.ChangeJournal.SyncPolicy;
+import com.example.mutablejtreemodel.Node;
+
+/**
+ * Cost to the changing thread of changing a tree recorded by a ChangeJournal.
+ * Writing happens on the journal's own thread. Compare with NodeBenchmark.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChangeJournalBenchmark {
+
+	@Param({ "WIDE", "BALANCED" })
+	public TreeShape shape;
+
+	@Param({ "100000" })
+	public int size;
+
+	@Param({ "NEVER", "EACH_COMMIT" })
+	public SyncPolicy syncPolicy;
+
+	private Path directory;
+	private ChangeJournal journal;
+	private TreeShape.Tree tree;
+	private Node child;
+	private int renames;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		tree = shape.build(size);
+		directory = Files.createTempDirectory("journal");
+		journal = new ChangeJournal(directory, syncPolicy, 5);
+		journal.attach(tree.root);
+		child = new Node("benchmark");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		journal.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(
+					path -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public void insertRemove() {
+		Node parent = tree.parent;
+		parent.insert(child, parent.getChildCount());
+		parent.remove(child);
+	}
+
+	@Benchmark
+	public void setName() {
+		tree.leaf.setName((renames++ & 1) == 0 ? "even" : "odd");
+	}
+}
@@ -0,0 +1,101 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.tree.TreeModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.mutablejtreemodel.ColumnarTreeModel;
+import com.example.mutablejtreemodel.ColumnarTreeModel.NodeHandle;
+import com.example.mutablejtreemodel.NodeJTreeModel;
+
+/**
+ * Full tree scans through the TreeModel interface, for a tree of Node objects
+ * and for the same tree held in columns.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColumnarTreeModelBenchmark {
+
+	@Param({ "100000", "1000000" })
+	public int size;
+
+	private NodeJTreeModel nodeModel;
+	private ColumnarTreeModel columnarModel;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		nodeModel = new NodeJTreeModel();
+		nodeModel.setRoot(TreeShape.BALANCED.build(size).root);
+
+		columnarModel = new ColumnarTreeModel("root");
+		ArrayDeque<NodeHandle> parents = new ArrayDeque<>();
+		parents.add(columnarModel.getRoot());
+		int count = 1;
+		while (count < size) {
+			NodeHandle parent = parents.removeFirst();
+			List<String> names = new ArrayList<>(TreeShape.FAN_OUT);
+			for (int i = 0; i < TreeShape.FAN_OUT && count < size; i++, count++) {
+				names.add("node" + count);
+			}
+			parents.addAll(columnarModel.addAll(parent, names));
+		}
+	}
+
+	/** Visit every node the way a fully expanded JTree would. */
+	private static int scan(TreeModel model) {
+		int visited = 0;
+		ArrayDeque<Object> pending = new ArrayDeque<>();
+		pending.push(model.getRoot());
+		while (!pending.isEmpty()) {
+			Object node = pending.pop();
+			visited++;
+			int count = model.getChildCount(node);
+			for (int i = 0; i < count; i++) {
+				pending.push(model.getChild(node, i));
+			}
+		}
+		return visited;
+	}
+
+	@Benchmark
+	public int scanNodes() {
+		return scan(nodeModel);
+	}
+
+	@Benchmark
+	public int scanColumns() {
+		return scan(columnarModel);
+	}
+
+	/** The columnar model's own walk, which makes no objects. */
+	@Benchmark
+	public int visitColumns() {
+		int[] visited = new int[1];
+		columnarModel.visit((depth, name) -> visited[0]++);
+		return visited[0];
+	}
+}
@@ -0,0 +1,93 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.mutablejtreemodel.Node;
+import com.example.mutablejtreemodel.NodeJTreeModel;
+import com.example.mutablejtreemodel.TreeLock;
+
+/**
+ * Producers changing a locked tree while other threads read it through the
+ * model, as a JTree on the Event Dispatch Thread would.
+ * <p>
+ *
+ * Each writer inserts and removes its own child of the shared parent, so the
+ * parent always keeps the children it was built with and readers can ask for
+ * any of those.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ConcurrentMutationBenchmark {
+
+	@Param({ "WIDE", "BALANCED" })
+	public TreeShape shape;
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	private NodeJTreeModel model;
+	private Node parent;
+	private int stableChildren;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		TreeShape.Tree tree = shape.build(size);
+		tree.root.setTreeLock(new TreeLock());
+		model = new NodeJTreeModel();
+		model.setRoot(tree.root);
+		parent = tree.parent;
+		stableChildren = parent.getChildCount();
+	}
+
+	/** A writer's own child. */
+	@State(Scope.Thread)
+	public static class Writer {
+		final Node child = new Node("writer");
+	}
+
+	/** Where a reader is up to. */
+	@State(Scope.Thread)
+	public static class Reader {
+		int next;
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public void writer(Writer writer) {
+		parent.add(writer.child);
+		parent.remove(writer.child);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(6)
+	public int reader(Reader reader) {
+		int index = reader.next++ % stableChildren;
+		Node child = (Node) model.getChild(parent, index);
+		return model.getIndexOfChild(parent, child) + model.getChildCount(parent);
+	}
+}
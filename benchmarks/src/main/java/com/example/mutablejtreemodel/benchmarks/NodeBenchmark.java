@@ -0,0 +1,145 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreePath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.mutablejtreemodel.Node;
+import com.example.mutablejtreemodel.NodeJTreeModel;
+
+/**
+ * Cost of changing a tree of Node objects while a NodeJTreeModel, and its
+ * listeners, watch it.
+ * <p>
+ *
+ * Each mutation benchmark undoes itself so the tree keeps its shape.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeBenchmark {
+
+	/** Number of children in a batch. */
+	private static final int BATCH = 100;
+
+	@Param({ "WIDE", "DEEP", "BALANCED" })
+	public TreeShape shape;
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	/** Listeners on the model, as a JTree and friends would be. */
+	@Param({ "1", "8" })
+	public int listeners;
+
+	private TreeShape.Tree tree;
+	private Node child;
+	private List<Node> batch;
+	private int renames;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tree = shape.build(size);
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(tree.root);
+		for (int i = 0; i < listeners; i++) {
+			model.addTreeModelListener(new NullListener());
+		}
+		child = new Node("benchmark");
+		batch = new ArrayList<>(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			batch.add(new Node("batch" + i));
+		}
+	}
+
+	@Benchmark
+	public void insertRemove() {
+		Node parent = tree.parent;
+		parent.insert(child, parent.getChildCount());
+		parent.remove(child);
+	}
+
+	@Benchmark
+	public void insertRemoveFirst() {
+		Node parent = tree.parent;
+		parent.insert(child, 0);
+		parent.remove(child);
+	}
+
+	@Benchmark
+	public void addAllRemoveRange() {
+		Node parent = tree.parent;
+		int from = parent.getChildCount();
+		parent.addAll(batch);
+		parent.removeRange(from, from + BATCH);
+	}
+
+	@Benchmark
+	public void setName() {
+		tree.leaf.setName((renames++ & 1) == 0 ? "even" : "odd");
+	}
+
+	@Benchmark
+	public TreePath getPathFromRoot() {
+		return tree.leaf.getPathFromRoot();
+	}
+
+	@Benchmark
+	public void getPathFromRootAfterMove(Blackhole blackhole) {
+		// Moving a node with children invalidates cached paths below it.
+		Node parent = tree.parent;
+		Node grandparent = (Node) parent.getParent();
+		if (grandparent == null) {
+			blackhole.consume(tree.leaf.getPathFromRoot());
+			return;
+		}
+		int index = grandparent.getIndex(parent);
+		grandparent.insert(parent, index);
+		blackhole.consume(tree.leaf.getPathFromRoot());
+	}
+
+	/** Listener that ignores everything. */
+	static final class NullListener implements TreeModelListener {
+
+		@Override
+		public void treeNodesChanged(TreeModelEvent e) {
+		}
+
+		@Override
+		public void treeNodesInserted(TreeModelEvent e) {
+		}
+
+		@Override
+		public void treeNodesRemoved(TreeModelEvent e) {
+		}
+
+		@Override
+		public void treeStructureChanged(TreeModelEvent e) {
+		}
+	}
+}
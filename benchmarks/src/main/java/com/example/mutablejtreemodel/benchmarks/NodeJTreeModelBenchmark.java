@@ -0,0 +1,87 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.mutablejtreemodel.Node;
+import com.example.mutablejtreemodel.NodeJTreeModel;
+
+/**
+ * Cost of the calls a JTree makes on the model while painting and expanding.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeJTreeModelBenchmark {
+
+	@Param({ "WIDE", "DEEP", "BALANCED" })
+	public TreeShape shape;
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	private NodeJTreeModel model;
+	private Node parent;
+	private Node[] children;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		TreeShape.Tree tree = shape.build(size);
+		model = new NodeJTreeModel();
+		model.setRoot(tree.root);
+		parent = tree.parent;
+		children = new Node[parent.getChildCount()];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = (Node) parent.getChildAt(i);
+		}
+	}
+
+	/** Walk the children the way a JTree paints them. */
+	@Benchmark
+	public Object getChild() {
+		int index = next++;
+		if (next == children.length) {
+			next = 0;
+		}
+		return model.getChild(parent, index);
+	}
+
+	@Benchmark
+	public int getChildCount() {
+		return model.getChildCount(parent);
+	}
+
+	@Benchmark
+	public int getIndexOfChild() {
+		Node child = children[next++];
+		if (next == children.length) {
+			next = 0;
+		}
+		return model.getIndexOfChild(parent, child);
+	}
+
+	@Benchmark
+	public boolean isLeaf() {
+		return model.isLeaf(parent);
+	}
+}
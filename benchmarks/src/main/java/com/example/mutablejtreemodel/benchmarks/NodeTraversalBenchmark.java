@@ -0,0 +1,97 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel.benchmarks;
+
+import java.util.Enumeration;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.tree.TreeNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.mutablejtreemodel.Node;
+import com.example.mutablejtreemodel.NodeTraversal;
+import com.example.mutablejtreemodel.TreeLock;
+
+/**
+ * A CPU bound visit of every node, on one thread with a pre-order
+ * enumeration, and on a pool of threads with NodeTraversal. Run with several
+ * thread counts to see how the parallel walk scales.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NodeTraversalBenchmark {
+
+	@Param({ "WIDE", "DEEP", "BALANCED" })
+	public TreeShape shape;
+
+	@Param({ "100000" })
+	public int size;
+
+	@Param({ "1", "4", "32" })
+	public int threads;
+
+	/** Work done for each node. */
+	@Param({ "200" })
+	public int tokens;
+
+	private Node root;
+	private ForkJoinPool pool;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		root = shape.build(size).root;
+		root.setTreeLock(new TreeLock());
+		pool = new ForkJoinPool(threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public void enumeration(Blackhole blackhole) {
+		Enumeration<TreeNode> e = root.preorderEnumeration();
+		while (e.hasMoreElements()) {
+			blackhole.consume(e.nextElement());
+			Blackhole.consumeCPU(tokens);
+		}
+	}
+
+	@Benchmark
+	public void visitParallel(Blackhole blackhole) {
+		NodeTraversal.visitParallel(root, node -> {
+			blackhole.consume(node);
+			Blackhole.consumeCPU(tokens);
+		}, pool);
+	}
+
+	@Benchmark
+	public long reduceParallel() {
+		return NodeTraversal.reduceParallel(root, 0L, node -> {
+			Blackhole.consumeCPU(tokens);
+			return (long) node.getName().length();
+		}, Long::sum, pool);
+	}
+}
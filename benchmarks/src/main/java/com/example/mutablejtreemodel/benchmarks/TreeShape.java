@@ -0,0 +1,112 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.mutablejtreemodel.Node;
+
+/**
+ * The shapes of tree the benchmarks run against.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public enum TreeShape {
+
+	/** Every node is a child of the root. */
+	WIDE,
+
+	/** A single chain of nodes. Depth equals size. */
+	DEEP,
+
+	/** Every node has up to {@link #FAN_OUT} children, filled level by level. */
+	BALANCED;
+
+	/** Children per node in a balanced tree. */
+	public static final int FAN_OUT = 10;
+
+	/**
+	 * Build a tree of this shape. Children are attached in bulk so building
+	 * does not dominate setup time.
+	 *
+	 * @param size
+	 *            total number of nodes, including the root.
+	 * @return the tree.
+	 */
+	public Tree build(int size) {
+		Node root = new Node("root");
+		Node last = root;
+		switch (this) {
+		case WIDE: {
+			List<Node> children = new ArrayList<>(size - 1);
+			for (int i = 1; i < size; i++) {
+				children.add(new Node("node" + i));
+			}
+			root.addAll(children);
+			if (!children.isEmpty()) {
+				last = children.get(children.size() - 1);
+			}
+			break;
+		}
+		case DEEP: {
+			// Built from the bottom, as each add updates the totals of every
+			// node above it.
+			Node[] chain = new Node[size];
+			chain[0] = root;
+			for (int i = 1; i < size; i++) {
+				chain[i] = new Node("node" + i);
+			}
+			for (int i = size - 1; i > 0; i--) {
+				chain[i - 1].add(chain[i]);
+			}
+			last = chain[size - 1];
+			break;
+		}
+		case BALANCED: {
+			ArrayDeque<Node> parents = new ArrayDeque<>();
+			parents.add(root);
+			int count = 1;
+			while (count < size) {
+				Node parent = parents.removeFirst();
+				List<Node> children = new ArrayList<>(FAN_OUT);
+				for (int i = 0; i < FAN_OUT && count < size; i++, count++) {
+					Node child = new Node("node" + count);
+					children.add(child);
+					parents.addLast(child);
+				}
+				parent.addAll(children);
+				last = children.get(children.size() - 1);
+			}
+			break;
+		}
+		default:
+			throw new IllegalStateException("Unknown shape " + this);
+		}
+		Node parent = (last.getParent() == null) ? root : (Node) last
+				.getParent();
+		return new Tree(root, parent, last);
+	}
+
+	/**
+	 * A built tree and the nodes the benchmarks work on.
+	 */
+	public static final class Tree {
+
+		/** The root. */
+		public final Node root;
+
+		/** The parent of the last node built. The busiest parent in WIDE. */
+		public final Node parent;
+
+		/** The last node built. The deepest node in DEEP and BALANCED. */
+		public final Node leaf;
+
+		Tree(Node root, Node parent, Node leaf) {
+			this.root = root;
+			this.parent = parent;
+			this.leaf = leaf;
+		}
+	}
+}
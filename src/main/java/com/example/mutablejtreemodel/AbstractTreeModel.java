@@ -1,7 +1,5 @@
 package com.example.mutablejtreemodel;
 
-import java.util.ArrayList;
-import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -21,26 +19,13 @@ public abstract class AbstractTreeModel implements TreeModel {
 	/** class logger */
 	private static final Logger logger = LogManager.getLogger(AbstractTreeModel.class);
 
-	/**
-	 * Those that listen for changes to the model.<br>
-	 * TODO: Using weak references for listener set. It's very easy to forget
-	 * removing listeners when the actual instance isn't in use any more and
-	 * thats a source of memory leak.
-	 */
-	private List<TreeModelListener> listeners;
-
-	/**
-	 * synchronisation lock.
-	 * http://javarevisited.blogspot.com/2011/04/synchronization
-	 * -in-java-synchronized.html#ixzz2wy76gzSj
-	 */
-	private final Object objLock = new Object();
+	/** Those that listen for changes to the model. */
+	private final ListenerRegistry listeners = new ListenerRegistry();
 
 	/**
 	 * Constructor
 	 */
 	public AbstractTreeModel() {
-		listeners = new ArrayList<TreeModelListener>();
 	}
 
 	/**
@@ -52,12 +37,8 @@ public abstract class AbstractTreeModel implements TreeModel {
 	 */
 	@Override
 	public void addTreeModelListener(TreeModelListener listener) {
-		logger.debug("listener: " + listener);
-		synchronized (objLock) {
-			if (listener != null && !listeners.contains(listener)) {
-				listeners.add(listener);
-			}
-		}
+		logger.debug("listener: {}", listener);
+		listeners.add(listener);
 	}
 
 	/**
@@ -69,12 +50,8 @@ public abstract class AbstractTreeModel implements TreeModel {
 	 */
 	@Override
 	public void removeTreeModelListener(TreeModelListener listener) {
-		logger.debug("listener: " + listener);
-		synchronized (objLock) {
-			if (listener != null) {
-				listeners.remove(listener);
-			}
-		}
+		logger.debug("listener: {}", listener);
+		listeners.remove(listener);
 	}
 
 	// http://docs.oracle.com/javase/8/docs/api/javax/swing/event/TreeModelListener.html#treeNodesRemoved-javax.swing.event.TreeModelEvent-
@@ -86,17 +63,9 @@ public abstract class AbstractTreeModel implements TreeModel {
 	 */
 
 	public void fireTreeNodesChanged(TreeModelEvent e) {
-		logger.debug("TreeModelEvent=" + e);
-
-		TreeModelListener[] tmpListeners = null;
-		// Don't leak the lock.
-		synchronized (objLock) {
-			tmpListeners = listeners.toArray(new TreeModelListener[listeners
-					.size()]);
-		}
-		for (TreeModelListener listener : tmpListeners) {
-			listener.treeNodesChanged(e);
-		}
+		logger.debug("TreeModelEvent={}", e);
+
+		listeners.fireTreeNodesChanged(e);
 	}
 
 	/**
@@ -107,17 +76,9 @@ public abstract class AbstractTreeModel implements TreeModel {
 	 */
 
 	public void fireTreeNodesInserted(TreeModelEvent e) {
-		logger.debug("TreeModelEvent=" + e);
-
-		TreeModelListener[] tmpListeners = null;
-		// Don't leak the lock.
-		synchronized (objLock) {
-			tmpListeners = listeners.toArray(new TreeModelListener[listeners
-					.size()]);
-		}
-		for (TreeModelListener listener : tmpListeners) {
-			listener.treeNodesInserted(e);
-		}
+		logger.debug("TreeModelEvent={}", e);
+
+		listeners.fireTreeNodesInserted(e);
 	}
 
 	/**
@@ -128,17 +89,9 @@ public abstract class AbstractTreeModel implements TreeModel {
 	 */
 
 	public void fireTreeNodesRemoved(TreeModelEvent e) {
-		logger.debug("TreeModelEvent=" + e);
-
-		TreeModelListener[] tmpListeners = null;
-		// Don't leak the lock.
-		synchronized (objLock) {
-			tmpListeners = listeners.toArray(new TreeModelListener[listeners
-					.size()]);
-		}
-		for (TreeModelListener listener : tmpListeners) {
-			listener.treeNodesRemoved(e);
-		}
+		logger.debug("TreeModelEvent={}", e);
+
+		listeners.fireTreeNodesRemoved(e);
 	}
 
 	/**
@@ -148,17 +101,9 @@ public abstract class AbstractTreeModel implements TreeModel {
 	 *            event
 	 */
 	public void fireTreeStructureChanged(TreeModelEvent e) {
-		logger.debug("TreeModelEvent=" + e);
-
-		TreeModelListener[] tmpListeners = null;
-		// Don't leak the lock.
-		synchronized (objLock) {
-			tmpListeners = listeners.toArray(new TreeModelListener[listeners
-					.size()]);
-		}
-		for (TreeModelListener listener : tmpListeners) {
-			listener.treeStructureChanged(e);
-		}
+		logger.debug("TreeModelEvent={}", e);
+
+		listeners.fireTreeStructureChanged(e);
 	}
 
 }
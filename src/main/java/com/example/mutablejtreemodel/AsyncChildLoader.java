@@ -0,0 +1,339 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
+import javax.swing.tree.TreeNode;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Creates the children of lazy nodes in the background, so that expanding a
+ * node never waits for its {@link ChildProvider}.
+ * <p>
+ *
+ * When a model first asks for the children of a {@link LazyNode} the node is
+ * given a single placeholder child at once, and the provider is run on
+ * another thread. Its children are inserted before the placeholder in chunks,
+ * through the node's normal events, and the placeholder is removed at the
+ * end. Use with a {@link CoalescingEventDispatcher} so that the JTree hears
+ * of the inserts on the Event Dispatch Thread.
+ * <p>
+ *
+ * Add the loader as a TreeExpansionListener of the JTree to cancel a load
+ * when its node is collapsed. The node is then unloaded, and loads again when
+ * next expanded.
+ * <p>
+ *
+ * Providers run on virtual threads where the JDK has them (21 and later),
+ * otherwise on a fixed pool. Either way no more than a set number run at
+ * once.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class AsyncChildLoader implements TreeExpansionListener {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(AsyncChildLoader.class);
+
+	/** Default number of providers run at once. */
+	public static final int DEFAULT_MAX_CONCURRENT = 4;
+
+	/** Default number of children inserted at a time. */
+	public static final int DEFAULT_CHUNK_SIZE = 200;
+
+	/** Children waiting this long are inserted even if the chunk isn't full. */
+	private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+	/** Runs the providers. */
+	private final ExecutorService executor;
+
+	/** Limits how many providers run at once. */
+	private final Semaphore permits;
+
+	/** Number of children inserted at a time. */
+	private final int chunkSize;
+
+	/** synchronisation lock */
+	private final Object objLock = new Object();
+
+	/** Loads in progress, by node. Nodes are equal by name, so by identity. */
+	private final Map<LazyNode, Load> loads = new IdentityHashMap<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxConcurrent
+	 *            most providers run at once.
+	 * @param chunkSize
+	 *            most children inserted at a time.
+	 */
+	public AsyncChildLoader(int maxConcurrent, int chunkSize) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException(
+					"maxConcurrent must be positive, but I got "
+							+ maxConcurrent);
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException(
+					"chunkSize must be positive, but I got " + chunkSize);
+		}
+		this.executor = newExecutor(maxConcurrent);
+		this.permits = new Semaphore(maxConcurrent);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Constructor.
+	 */
+	public AsyncChildLoader() {
+		this(DEFAULT_MAX_CONCURRENT, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param maxConcurrent
+	 *            size of the pool if there are no virtual threads.
+	 * @return an executor of virtual threads, or failing that a pool.
+	 */
+	private static ExecutorService newExecutor(int maxConcurrent) {
+		try {
+			Method method = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			logger.debug("no virtual threads, using a pool of {}",
+					maxConcurrent);
+		}
+		return Executors.newFixedThreadPool(maxConcurrent, runnable -> {
+			Thread thread = new Thread(runnable, "AsyncChildLoader");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * @param node
+	 *            a node.
+	 * @return true if the node is the placeholder of a load.
+	 */
+	public static boolean isPlaceholder(Object node) {
+		return node instanceof Placeholder;
+	}
+
+	/**
+	 * A load keeps its placeholder last, inserting the children before it.
+	 *
+	 * @param node
+	 *            a node.
+	 * @return the number of the node's children, not counting a placeholder.
+	 */
+	static int countWithoutPlaceholder(TreeNode node) {
+		int count = node.getChildCount();
+		if (count > 0 && node instanceof LazyNode
+				&& isPlaceholder(node.getChildAt(count - 1))) {
+			return count - 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Start loading a node's children, if it isn't loaded. Returns at once.
+	 *
+	 * @param node
+	 *            the node.
+	 */
+	public void load(LazyNode node) {
+		if (node.isLoaded()) {
+			return;
+		}
+		Load load = new Load(node);
+		if (!node.startLoading(load.placeholder)) {
+			return;
+		}
+		synchronized (objLock) {
+			loads.put(node, load);
+		}
+		load.future = executor.submit(() -> run(load));
+	}
+
+	/**
+	 * @param node
+	 *            the node.
+	 * @return true while the node's children are being loaded.
+	 */
+	public boolean isLoading(LazyNode node) {
+		synchronized (objLock) {
+			return loads.containsKey(node);
+		}
+	}
+
+	/**
+	 * Stop loading a node's children, and unload those loaded so far.
+	 *
+	 * @param node
+	 *            the node.
+	 */
+	public void cancel(LazyNode node) {
+		Load load;
+		synchronized (objLock) {
+			load = loads.remove(node);
+		}
+		if (load == null) {
+			return;
+		}
+		synchronized (load) {
+			load.cancelled = true;
+		}
+		Future<?> future = load.future;
+		if (future != null) {
+			future.cancel(true);
+		}
+		node.unloadChildren();
+		logger.debug("cancelled loading '{}'", node);
+	}
+
+	/**
+	 * Stop running providers. Loads in progress are not finished.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public void treeExpanded(TreeExpansionEvent event) {
+		// Loads start when the model is asked for the children.
+	}
+
+	@Override
+	public void treeCollapsed(TreeExpansionEvent event) {
+		Object node = event.getPath().getLastPathComponent();
+		if (node instanceof LazyNode) {
+			cancel((LazyNode) node);
+		}
+	}
+
+	/**
+	 * Run a node's provider, inserting its children as they come.
+	 *
+	 * @param load
+	 *            the load.
+	 */
+	private void run(Load load) {
+		boolean permitted = false;
+		try {
+			permits.acquire();
+			permitted = true;
+			List<Node> chunk = new ArrayList<>();
+			long[] flushed = new long[] { System.nanoTime() };
+			load.node.getProvider().streamChildren(load.node, child -> {
+				if (load.cancelled || Thread.currentThread().isInterrupted()) {
+					throw new CancellationException();
+				}
+				chunk.add(child);
+				long now = System.nanoTime();
+				if (chunk.size() >= chunkSize || now - flushed[0] >= FLUSH_NANOS) {
+					insert(load, chunk);
+					flushed[0] = now;
+				}
+			});
+			insert(load, chunk);
+			finish(load);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (CancellationException e) {
+			logger.debug("load of '{}' stopped", load.node);
+		} catch (RuntimeException e) {
+			if (!load.cancelled) {
+				logger.error("loading children of '" + load.node + "'", e);
+				finish(load);
+			}
+		} finally {
+			if (permitted) {
+				permits.release();
+			}
+			synchronized (objLock) {
+				if (loads.get(load.node) == load) {
+					loads.remove(load.node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Insert a chunk of children before the placeholder.
+	 *
+	 * @param load
+	 *            the load.
+	 * @param chunk
+	 *            the children, emptied afterwards.
+	 */
+	private static void insert(Load load, List<Node> chunk) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		synchronized (load) {
+			if (load.cancelled) {
+				throw new CancellationException();
+			}
+			int index = load.node.getIndex(load.placeholder);
+			if (index < 0) {
+				index = load.node.getChildCount();
+			}
+			load.node.insertAll(index, chunk);
+		}
+		chunk.clear();
+	}
+
+	/**
+	 * Remove the placeholder once all children are in.
+	 *
+	 * @param load
+	 *            the load.
+	 */
+	private static void finish(Load load) {
+		synchronized (load) {
+			if (!load.cancelled && load.placeholder.getParent() == load.node) {
+				load.node.remove(load.placeholder);
+			}
+		}
+	}
+
+	/** A load in progress. */
+	private static class Load {
+		private final LazyNode node;
+		private final Node placeholder = new Placeholder();
+		private volatile Future<?> future;
+
+		/** Only set while holding this object's monitor. */
+		private volatile boolean cancelled;
+
+		Load(LazyNode node) {
+			this.node = node;
+		}
+	}
+
+	/** Shown in place of the children while they load. */
+	private static class Placeholder extends Node {
+		private static final long serialVersionUID = 1L;
+
+		Placeholder() {
+			super("Loading\u2026");
+			setAllowsChildren(false);
+		}
+	}
+}
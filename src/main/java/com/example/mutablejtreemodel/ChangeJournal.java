@@ -0,0 +1,987 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeNode;
+import javax.swing.tree.TreePath;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps a tree of nodes on disk, as a checkpoint of the whole tree plus a
+ * journal of the changes made since. Each change heard from the root, e.g.
+ * from insert, remove, setName or destroy, is appended to a buffer as a small
+ * binary record; a background thread writes the buffer out every few
+ * milliseconds, so many changes share one write.
+ * <p>
+ *
+ * Typical use:
+ *
+ * <pre>
+ * ChangeJournal journal = new ChangeJournal(directory, SyncPolicy.EACH_COMMIT, 5);
+ * Node root = journal.recover();
+ * if (root == null) {
+ * 	root = new Node(&quot;root&quot;);
+ * }
+ * journal.attach(root);
+ * </pre>
+ *
+ * The directory holds two files. The checkpoint is written by
+ * {@link TreeSerializer} after a header; the journal is a header then one
+ * record per change:
+ *
+ * <pre>
+ * header: int magic, long checkpoint number
+ * record: int length, int CRC-32 of payload, payload
+ * </pre>
+ *
+ * A record names the node changed by its path of child indices from the root,
+ * and carries whole subtrees for inserts, so moving a node records the node
+ * and everything below it. The journal is only replayed onto the checkpoint
+ * with the same number, so a crash part way through a checkpoint loses
+ * nothing, and replay stops at the first damaged record.
+ * <p>
+ *
+ * Changes are heard as they are made, under the tree's lock if it has one.
+ * A {@link LazyNode} loads its children without an event, so the first change
+ * heard at or below a lazy node loaded since it was last recorded is recorded
+ * as a structure change of that node, carrying all its children. Unloading is
+ * heard as a structure change. The placeholders of {@link AsyncChildLoader}
+ * are never recorded; a tree recovered while a load was in progress holds the
+ * children loaded so far.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class ChangeJournal implements TreeModelListener, Closeable {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(ChangeJournal.class);
+
+	/** When written changes are forced to the disk. */
+	public enum SyncPolicy {
+		/**
+		 * Never; the operating system writes them when it likes. Changes
+		 * survive the process dying but not the machine.
+		 */
+		NEVER,
+		/** After every group of changes is written. */
+		EACH_COMMIT
+	}
+
+	/** Start of the checkpoint file. "MJCP" */
+	private static final int CHECKPOINT_MAGIC = 0x4D4A4350;
+
+	/** Start of the journal file. "MJJL" */
+	private static final int JOURNAL_MAGIC = 0x4D4A4A4C;
+
+	/** Bytes in either header. */
+	private static final int HEADER_BYTES = 12;
+
+	/** Bytes before the payload of a record. */
+	private static final int RECORD_HEADER_BYTES = 8;
+
+	/** Size of the buffers. */
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	/** Buffers grown past this are not kept for reuse. */
+	private static final int MAX_SPARE_BYTES = 1024 * 1024;
+
+	// Record types.
+	private static final byte INSERTED = 1;
+	private static final byte REMOVED = 2;
+	private static final byte RENAMED = 3;
+	private static final byte RESTRUCTURED = 4;
+
+	/** The checkpoint. */
+	private final Path checkpointFile;
+
+	/** Where a checkpoint is written before it replaces the last one. */
+	private final Path checkpointTempFile;
+
+	/** The journal. */
+	private final Path journalFile;
+
+	/** When to force written changes to the disk. */
+	private final SyncPolicy syncPolicy;
+
+	/** How long changes are gathered before they are written. */
+	private final long commitMillis;
+
+	/**
+	 * Held while writing the journal. Taken after the tree's lock, and before
+	 * our own monitor, which guards the buffers.
+	 */
+	private final Object fileLock = new Object();
+
+	/** Records not yet written. */
+	private ByteBuffer pending = ByteBuffer.allocate(BUFFER_BYTES);
+
+	/** An empty buffer to swap with pending, or null while one is written. */
+	private ByteBuffer spare = ByteBuffer.allocate(BUFFER_BYTES);
+
+	/** Checksums records. Only used under our monitor. */
+	private final CRC32 crc = new CRC32();
+
+	/** The open journal, once attached. */
+	private FileChannel channel;
+
+	/** Number of the latest checkpoint. */
+	private long checkpointNumber;
+
+	/** The tree being recorded. */
+	private volatile Node root;
+
+	/** Writes the pending records. */
+	private Thread writer;
+
+	/** Why writing failed, if it did. Records are dropped until a checkpoint. */
+	private IOException failure;
+
+	/**
+	 * Loaded lazy nodes whose children are recorded. Nodes are equal by name,
+	 * so by identity. Only used under our monitor.
+	 */
+	private final Set<LazyNode> recordedLoads = Collections
+			.newSetFromMap(new IdentityHashMap<>());
+
+	/** Set once closed. */
+	private boolean closed;
+
+	/** Size of the journal file. */
+	private volatile long journalBytes;
+
+	/** Size of journal at which the writer makes a checkpoint. */
+	private volatile long checkpointBytes = Long.MAX_VALUE;
+
+	/**
+	 * Constructor. Nothing is read or written until {@link #recover()} or
+	 * {@link #attach(Node)}.
+	 *
+	 * @param directory
+	 *            where to keep the checkpoint and journal. Created if need be.
+	 * @param syncPolicy
+	 *            when to force written changes to the disk.
+	 * @param commitMillis
+	 *            how long to gather changes before writing them. Changes made
+	 *            meanwhile are written together.
+	 * @throws IOException
+	 *             if the directory can't be created.
+	 */
+	public ChangeJournal(Path directory, SyncPolicy syncPolicy,
+			long commitMillis) throws IOException {
+		if (syncPolicy == null) {
+			throw new IllegalArgumentException("syncPolicy is null");
+		}
+		if (commitMillis < 0) {
+			throw new IllegalArgumentException(
+					"commitMillis must not be negative, but I got "
+							+ commitMillis);
+		}
+		Files.createDirectories(directory);
+		this.checkpointFile = directory.resolve("tree.checkpoint");
+		this.checkpointTempFile = directory.resolve("tree.checkpoint.tmp");
+		this.journalFile = directory.resolve("tree.journal");
+		this.syncPolicy = syncPolicy;
+		this.commitMillis = commitMillis;
+	}
+
+	// Recovery
+
+	/**
+	 * Read the latest checkpoint and replay the journal onto it. Call before
+	 * {@link #attach(Node)}.
+	 *
+	 * @return the tree as last recorded, or null if there is no checkpoint.
+	 * @throws IOException
+	 *             if the files can't be read, or the journal doesn't fit the
+	 *             checkpoint.
+	 */
+	public Node recover() throws IOException {
+		if (!Files.exists(checkpointFile)) {
+			return null;
+		}
+		Node recovered;
+		try (FileChannel in = FileChannel.open(checkpointFile,
+				StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining()) {
+				if (in.read(header) < 0) {
+					throw new IOException("short checkpoint " + checkpointFile);
+				}
+			}
+			header.flip();
+			if (header.getInt() != CHECKPOINT_MAGIC) {
+				throw new IOException("not a checkpoint " + checkpointFile);
+			}
+			checkpointNumber = header.getLong();
+			recovered = TreeSerializer.readBinary(in);
+		}
+		if (!Files.exists(journalFile)) {
+			return recovered;
+		}
+		long records = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(journalFile), BUFFER_BYTES))) {
+			try {
+				if (in.readInt() != JOURNAL_MAGIC
+						|| in.readLong() != checkpointNumber) {
+					// Left from before the checkpoint; already in it.
+					logger.debug("ignoring journal of another checkpoint");
+					return recovered;
+				}
+			} catch (EOFException e) {
+				return recovered;
+			}
+			CRC32 check = new CRC32();
+			byte[] payload = new byte[256];
+			while (true) {
+				int length;
+				int expected;
+				try {
+					length = in.readInt();
+					expected = in.readInt();
+					if (length < 1) {
+						logger.warn("damaged journal record after {} records",
+								records);
+						break;
+					}
+					if (length > payload.length) {
+						payload = new byte[Math.max(length, payload.length * 2)];
+					}
+					in.readFully(payload, 0, length);
+				} catch (EOFException e) {
+					// The last write was cut short.
+					break;
+				}
+				check.reset();
+				check.update(payload, 0, length);
+				if ((int) check.getValue() != expected) {
+					logger.warn("damaged journal record after {} records",
+							records);
+					break;
+				}
+				records++;
+				try {
+					apply(recovered, ByteBuffer.wrap(payload, 0, length));
+				} catch (RuntimeException e) {
+					throw new IOException("journal record " + records
+							+ " does not fit the tree", e);
+				}
+			}
+		}
+		logger.debug("replayed {} journal records", records);
+		return recovered;
+	}
+
+	/**
+	 * Apply a record to a tree.
+	 *
+	 * @param tree
+	 *            root of the tree.
+	 * @param record
+	 *            the record's payload.
+	 * @throws IOException
+	 *             if the record is unknown.
+	 */
+	private static void apply(Node tree, ByteBuffer record) throws IOException {
+		byte type = record.get();
+		Node node = tree;
+		int depth = record.getInt();
+		for (int i = 0; i < depth; i++) {
+			node = (Node) node.getChildAt(record.getInt());
+		}
+		switch (type) {
+		case INSERTED: {
+			int count = record.getInt();
+			int[] indices = new int[count];
+			List<Node> children = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				indices[i] = record.getInt();
+				children.add(readSubtree(record));
+			}
+			if (isRun(indices)) {
+				node.insertAll(indices[0], children);
+			} else {
+				for (int i = 0; i < count; i++) {
+					node.insert(children.get(i), indices[i]);
+				}
+			}
+			break;
+		}
+		case REMOVED: {
+			int count = record.getInt();
+			int[] indices = new int[count];
+			for (int i = 0; i < count; i++) {
+				indices[i] = record.getInt();
+			}
+			if (isRun(indices)) {
+				node.removeRange(indices[0], indices[0] + count);
+			} else {
+				for (int i = count - 1; i >= 0; i--) {
+					node.remove(indices[i]);
+				}
+			}
+			break;
+		}
+		case RENAMED: {
+			int index = record.getInt();
+			Node renamed = (index < 0) ? node : (Node) node.getChildAt(index);
+			renamed.setName(readName(record));
+			break;
+		}
+		case RESTRUCTURED: {
+			int count = record.getInt();
+			List<Node> children = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				children.add(readSubtree(record));
+			}
+			node.removeAllChildren();
+			node.addAll(children);
+			break;
+		}
+		default:
+			throw new IOException("unknown journal record type " + type);
+		}
+	}
+
+	/**
+	 * @return true if the indices are consecutive and ascending.
+	 */
+	private static boolean isRun(int[] indices) {
+		for (int i = 1; i < indices.length; i++) {
+			if (indices[i] != indices[0] + i) {
+				return false;
+			}
+		}
+		return indices.length > 0;
+	}
+
+	/** Read a subtree, each node before its children, without events. */
+	private static Node readSubtree(ByteBuffer record) {
+		Node top = new Node(readName(record));
+		int childCount = record.getInt();
+		if (childCount == 0) {
+			return top;
+		}
+		Deque<Node> parents = new ArrayDeque<>();
+		Deque<List<Node>> children = new ArrayDeque<>();
+		Deque<int[]> remaining = new ArrayDeque<>();
+		parents.push(top);
+		children.push(new ArrayList<>(childCount));
+		remaining.push(new int[] { childCount });
+		while (!parents.isEmpty()) {
+			if (remaining.peek()[0] == 0) {
+				List<Node> done = children.pop();
+				remaining.pop();
+				parents.pop().attachChildren(0,
+						done.toArray(new Node[done.size()]));
+				continue;
+			}
+			remaining.peek()[0]--;
+			Node child = new Node(readName(record));
+			children.peek().add(child);
+			childCount = record.getInt();
+			if (childCount > 0) {
+				parents.push(child);
+				children.push(new ArrayList<>(childCount));
+				remaining.push(new int[] { childCount });
+			}
+		}
+		return top;
+	}
+
+	private static String readName(ByteBuffer record) {
+		int length = record.getInt();
+		if (length < 0) {
+			return null;
+		}
+		String name = new String(record.array(), record.arrayOffset()
+				+ record.position(), length, StandardCharsets.UTF_8);
+		record.position(record.position() + length);
+		return name;
+	}
+
+	// Recording
+
+	/**
+	 * Start recording changes to a tree. A checkpoint of the tree is made
+	 * first, replacing any earlier checkpoint and journal.
+	 *
+	 * @param tree
+	 *            root of the tree. Must stay a root.
+	 * @throws IOException
+	 *             if the checkpoint can't be written.
+	 */
+	public void attach(Node tree) throws IOException {
+		if (tree == null) {
+			throw new IllegalArgumentException("tree is null");
+		}
+		synchronized (fileLock) {
+			if (root != null) {
+				throw new IllegalStateException("already attached");
+			}
+			synchronized (this) {
+				if (closed) {
+					throw new IllegalStateException("closed");
+				}
+			}
+			channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+		TreeLock lock = tree.lockTree();
+		try {
+			root = tree;
+			checkpoint();
+			tree.addListener(this);
+		} catch (IOException e) {
+			root = null;
+			throw e;
+		} finally {
+			Node.unlockTree(lock);
+		}
+		writer = new Thread(this::write, "ChangeJournal writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Write a checkpoint of the tree and empty the journal. The tree is write
+	 * locked meanwhile, if it has a lock; if not, call from the thread that
+	 * changes the tree.
+	 *
+	 * @throws IOException
+	 *             if the checkpoint can't be written.
+	 */
+	public void checkpoint() throws IOException {
+		Node tree = root;
+		if (tree == null) {
+			throw new IllegalStateException("not attached");
+		}
+		TreeLock lock = tree.lockTree();
+		try {
+			long number = checkpointNumber + 1;
+			try (FileChannel out = FileChannel.open(checkpointTempFile,
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(CHECKPOINT_MAGIC).putLong(number).flip();
+				while (header.hasRemaining()) {
+					out.write(header);
+				}
+				TreeSerializer.writeBinary(tree, out);
+				out.force(true);
+			}
+			Files.move(checkpointTempFile, checkpointFile,
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			syncDirectory();
+			checkpointNumber = number;
+
+			// A crash from here on leaves a journal of the old checkpoint,
+			// which recovery ignores.
+			synchronized (fileLock) {
+				synchronized (this) {
+					pending.clear();
+					failure = null;
+					recordedLoads.clear();
+					noteLoads(tree);
+				}
+				channel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(JOURNAL_MAGIC).putLong(number).flip();
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+				channel.position(HEADER_BYTES);
+				channel.force(true);
+				journalBytes = HEADER_BYTES;
+			}
+			logger.debug("checkpoint {}", number);
+		} finally {
+			Node.unlockTree(lock);
+		}
+	}
+
+	/** Make a renamed file survive a crash, where the platform allows. */
+	private void syncDirectory() {
+		try (FileChannel directory = FileChannel.open(checkpointFile
+				.getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException e) {
+			// Not every platform can open a directory.
+			logger.debug("can't sync directory", e);
+		}
+	}
+
+	/**
+	 * Have the writer make a checkpoint once the journal passes a size. Only
+	 * for trees with a {@link TreeLock}, since the writer's thread isn't the
+	 * one changing the tree. Otherwise call {@link #checkpoint()} now and then,
+	 * e.g. from a Swing Timer, when {@link #getJournalBytes()} gets large.
+	 *
+	 * @param bytes
+	 *            size of journal that triggers a checkpoint.
+	 */
+	public void setCheckpointBytes(long bytes) {
+		checkpointBytes = bytes;
+	}
+
+	/**
+	 * @return the size of the journal on disk.
+	 */
+	public long getJournalBytes() {
+		return journalBytes;
+	}
+
+	/**
+	 * Write everything recorded so far, and force it to disk if the policy
+	 * says so. Returns when done.
+	 *
+	 * @throws IOException
+	 *             if writing fails, now or earlier.
+	 */
+	public void flush() throws IOException {
+		synchronized (this) {
+			if (failure != null) {
+				throw new IOException("journal writing failed", failure);
+			}
+		}
+		commit();
+	}
+
+	/**
+	 * Stop recording, write anything pending and close the journal.
+	 *
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	@Override
+	public void close() throws IOException {
+		Node tree = root;
+		if (tree != null) {
+			tree.removeListener(this);
+		}
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		if (writer != null) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			if (channel != null) {
+				flush();
+			}
+		} finally {
+			synchronized (fileLock) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+		}
+	}
+
+	/** Body of the writer thread. */
+	private void write() {
+		try {
+			while (true) {
+				synchronized (this) {
+					while (pending.position() == 0 && !closed) {
+						wait();
+					}
+					if (closed) {
+						return;
+					}
+				}
+				if (commitMillis > 0) {
+					// Let more changes join this write.
+					Thread.sleep(commitMillis);
+				}
+				try {
+					commit();
+					if (journalBytes > checkpointBytes
+							&& root.getTreeLock() != null) {
+						checkpoint();
+					}
+				} catch (IOException e) {
+					logger.error("journal writing failed", e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Write the pending records.
+	 *
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	private void commit() throws IOException {
+		synchronized (fileLock) {
+			ByteBuffer batch;
+			synchronized (this) {
+				if (pending.position() == 0) {
+					return;
+				}
+				batch = pending;
+				pending = spare;
+				spare = null;
+			}
+			try {
+				batch.flip();
+				while (batch.hasRemaining()) {
+					channel.write(batch);
+				}
+				if (syncPolicy == SyncPolicy.EACH_COMMIT) {
+					channel.force(false);
+				}
+				journalBytes = channel.position();
+			} catch (IOException e) {
+				synchronized (this) {
+					failure = e;
+				}
+				throw e;
+			} finally {
+				batch.clear();
+				synchronized (this) {
+					spare = (batch.capacity() > MAX_SPARE_BYTES) ? ByteBuffer
+							.allocate(BUFFER_BYTES) : batch;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void treeNodesChanged(TreeModelEvent e) {
+		TreePath path = e.getTreePath();
+		int[] indices = e.getChildIndices();
+		Object[] children = e.getChildren();
+		synchronized (this) {
+			if (!isRecording()) {
+				return;
+			}
+			if (recordedLoad(path)) {
+				return;
+			}
+			if (path == null) {
+				// The root itself.
+				int start = startRecord(RENAMED, null);
+				putInt(-1);
+				putName(children[0].toString());
+				endRecord(start);
+				return;
+			}
+			for (int i = 0; i < indices.length; i++) {
+				int start = startRecord(RENAMED, path);
+				putInt(indices[i]);
+				putName(children[i].toString());
+				endRecord(start);
+			}
+		}
+	}
+
+	@Override
+	public void treeNodesInserted(TreeModelEvent e) {
+		int[] indices = e.getChildIndices();
+		Object[] children = e.getChildren();
+		synchronized (this) {
+			if (!isRecording() || recordedLoad(e.getTreePath())) {
+				return;
+			}
+			int start = startRecord(INSERTED, e.getTreePath());
+			putInt(indices.length);
+			for (int i = 0; i < indices.length; i++) {
+				putInt(indices[i]);
+				putSubtree((TreeNode) children[i]);
+			}
+			endRecord(start);
+		}
+	}
+
+	@Override
+	public void treeNodesRemoved(TreeModelEvent e) {
+		int[] indices = e.getChildIndices();
+		Object[] children = e.getChildren();
+		synchronized (this) {
+			if (!isRecording()) {
+				return;
+			}
+			for (Object child : children) {
+				forgetLoads((TreeNode) child);
+			}
+			if (recordedLoad(e.getTreePath())) {
+				return;
+			}
+			int count = 0;
+			for (Object child : children) {
+				if (!AsyncChildLoader.isPlaceholder(child)) {
+					count++;
+				}
+			}
+			if (count == 0) {
+				return;
+			}
+			int start = startRecord(REMOVED, e.getTreePath());
+			putInt(count);
+			for (int i = 0; i < indices.length; i++) {
+				if (!AsyncChildLoader.isPlaceholder(children[i])) {
+					putInt(indices[i]);
+				}
+			}
+			endRecord(start);
+		}
+	}
+
+	@Override
+	public void treeStructureChanged(TreeModelEvent e) {
+		TreePath path = e.getTreePath();
+		synchronized (this) {
+			if (!isRecording()) {
+				return;
+			}
+			// Children may have gone without an event, e.g. when unloaded.
+			Node tree = root;
+			recordedLoads.removeIf(lazy -> lazy.getRoot() != tree);
+			TreePath load = unrecordedLoad(path);
+			putRestructured((load == null) ? path : load);
+		}
+	}
+
+	// Encoding, all under our monitor.
+
+	private boolean isRecording() {
+		return !closed && failure == null && channel != null;
+	}
+
+	/**
+	 * Record the children of the highest lazy node on a path that has loaded
+	 * them without it being recorded. They include the change being heard.
+	 *
+	 * @param path
+	 *            path to the node changed, or null for the root.
+	 * @return true if a load was recorded.
+	 */
+	private boolean recordedLoad(TreePath path) {
+		TreePath load = unrecordedLoad(path);
+		if (load == null) {
+			return false;
+		}
+		putRestructured(load);
+		return true;
+	}
+
+	/**
+	 * @param path
+	 *            a path, or null.
+	 * @return the path to the highest lazy node on it that has loaded its
+	 *         children without it being recorded, or null if none has.
+	 */
+	private TreePath unrecordedLoad(TreePath path) {
+		if (path == null) {
+			return null;
+		}
+		Object[] nodes = path.getPath();
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i] instanceof LazyNode) {
+				LazyNode node = (LazyNode) nodes[i];
+				if (node.isLoaded() && !recordedLoads.contains(node)) {
+					return new TreePath(Arrays.copyOf(nodes, i + 1));
+				}
+			}
+		}
+		return null;
+	}
+
+	/** Record the current children of a node as its structure change. */
+	private void putRestructured(TreePath path) {
+		TreeNode node = (TreeNode) path.getLastPathComponent();
+		noteLoad(node);
+		int start = startRecord(RESTRUCTURED, path);
+		int count = AsyncChildLoader.countWithoutPlaceholder(node);
+		putInt(count);
+		for (int i = 0; i < count; i++) {
+			putSubtree(node.getChildAt(i));
+		}
+		endRecord(start);
+	}
+
+	/** Note whether a lazy node's children are now recorded. */
+	private void noteLoad(TreeNode node) {
+		if (node instanceof LazyNode) {
+			LazyNode lazy = (LazyNode) node;
+			if (lazy.isLoaded()) {
+				recordedLoads.add(lazy);
+			} else {
+				recordedLoads.remove(lazy);
+			}
+		}
+	}
+
+	/** Note the loaded lazy nodes of a subtree, whose children are recorded. */
+	private void noteLoads(TreeNode top) {
+		Deque<TreeNode> open = new ArrayDeque<>();
+		open.push(top);
+		while (!open.isEmpty()) {
+			TreeNode node = open.pop();
+			noteLoad(node);
+			for (int i = node.getChildCount() - 1; i >= 0; i--) {
+				open.push(node.getChildAt(i));
+			}
+		}
+	}
+
+	/** Forget the lazy nodes of a subtree leaving the tree. */
+	private void forgetLoads(TreeNode top) {
+		if (recordedLoads.isEmpty()) {
+			return;
+		}
+		Deque<TreeNode> open = new ArrayDeque<>();
+		open.push(top);
+		while (!open.isEmpty()) {
+			TreeNode node = open.pop();
+			if (node instanceof LazyNode) {
+				recordedLoads.remove(node);
+			}
+			for (int i = node.getChildCount() - 1; i >= 0; i--) {
+				open.push(node.getChildAt(i));
+			}
+		}
+	}
+
+	/**
+	 * Begin a record.
+	 *
+	 * @param type
+	 *            type of record.
+	 * @param path
+	 *            path to the node changed, or null for the root.
+	 * @return where the record starts.
+	 */
+	private int startRecord(byte type, TreePath path) {
+		int start = pending.position();
+		ensure(RECORD_HEADER_BYTES + 1);
+		pending.position(start + RECORD_HEADER_BYTES);
+		pending.put(type);
+		if (path == null) {
+			putInt(0);
+			return start;
+		}
+		Object[] nodes = path.getPath();
+		ensure(4 * nodes.length);
+		pending.putInt(nodes.length - 1);
+		for (int i = 1; i < nodes.length; i++) {
+			pending.putInt(((TreeNode) nodes[i - 1])
+					.getIndex((TreeNode) nodes[i]));
+		}
+		return start;
+	}
+
+	/** Finish a record with its length and checksum. */
+	private void endRecord(int start) {
+		int length = pending.position() - start - RECORD_HEADER_BYTES;
+		crc.reset();
+		crc.update(pending.array(), start + RECORD_HEADER_BYTES, length);
+		pending.putInt(start, length);
+		pending.putInt(start + 4, (int) crc.getValue());
+		if (start == 0) {
+			notifyAll();
+		}
+	}
+
+	private void putInt(int value) {
+		ensure(4);
+		pending.putInt(value);
+	}
+
+	private void putName(String name) {
+		if (name == null) {
+			putInt(-1);
+			return;
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ensure(4 + bytes.length);
+		pending.putInt(bytes.length);
+		pending.put(bytes);
+	}
+
+	/**
+	 * Add a subtree, each node before its children, noting the lazy nodes in
+	 * it.
+	 */
+	private void putSubtree(TreeNode top) {
+		noteLoad(top);
+		putName(top.toString());
+		putInt(AsyncChildLoader.countWithoutPlaceholder(top));
+		if (top.getChildCount() == 0) {
+			return;
+		}
+		Deque<TreeNode> parents = new ArrayDeque<>();
+		Deque<int[]> nextChild = new ArrayDeque<>();
+		parents.push(top);
+		nextChild.push(new int[] { 0 });
+		while (!parents.isEmpty()) {
+			TreeNode parent = parents.peek();
+			int[] next = nextChild.peek();
+			if (next[0] == AsyncChildLoader.countWithoutPlaceholder(parent)) {
+				parents.pop();
+				nextChild.pop();
+				continue;
+			}
+			TreeNode child = parent.getChildAt(next[0]++);
+			noteLoad(child);
+			putName(child.toString());
+			putInt(AsyncChildLoader.countWithoutPlaceholder(child));
+			if (child.getChildCount() > 0) {
+				parents.push(child);
+				nextChild.push(new int[] { 0 });
+			}
+		}
+	}
+
+	/** Make room in the pending buffer. */
+	private void ensure(int bytes) {
+		if (pending.remaining() >= bytes) {
+			return;
+		}
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(
+				pending.capacity() * 2, pending.position() + bytes));
+		pending.flip();
+		larger.put(pending);
+		pending = larger;
+	}
+}
@@ -0,0 +1,62 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Creates the children of a {@link LazyNode} when they are first needed.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public interface ChildProvider {
+
+	/**
+	 * Create the children of a node. Called outside any lock, so it may be
+	 * slow. The children returned must be new and must not have a parent.
+	 * <p>
+	 *
+	 * May be called more than once for a node: again after
+	 * {@link LazyNode#unloadChildren()}, and by threads that load the node at
+	 * the same time, when only one result is kept and the rest are dropped.
+	 * So it must be safe to repeat.
+	 *
+	 * @param parent
+	 *            the node whose children are wanted.
+	 * @return the children, in order.
+	 */
+	List<? extends Node> loadChildren(LazyNode parent);
+
+	/**
+	 * Create the children of a node, handing each over as soon as it exists.
+	 * Used by {@link AsyncChildLoader} to show children while the rest are
+	 * still being created. By default calls {@link #loadChildren(LazyNode)}.
+	 *
+	 * @param parent
+	 *            the node whose children are wanted.
+	 * @param sink
+	 *            receives the children, in order.
+	 */
+	default void streamChildren(LazyNode parent, Consumer<? super Node> sink) {
+		List<? extends Node> children = loadChildren(parent);
+		if (children != null) {
+			for (Node child : children) {
+				sink.accept(child);
+			}
+		}
+	}
+
+	/**
+	 * Guess whether a node has children, without creating them. Used to tell a
+	 * JTree whether a node not yet loaded is a leaf. May be called under the
+	 * tree's lock, so it must be cheap.
+	 *
+	 * @param parent
+	 *            the node.
+	 * @return false if the node is known to have no children.
+	 */
+	default boolean hasChildren(LazyNode parent) {
+		return true;
+	}
+}
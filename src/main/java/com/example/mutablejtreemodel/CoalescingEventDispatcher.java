@@ -0,0 +1,632 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreePath;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Queues tree events raised on model threads and delivers them to the
+ * listeners of a tree model on the Event Dispatch Thread.
+ * <p>
+ *
+ * Consecutive events for the same parent are coalesced before delivery:<br>
+ * Sibling inserts (or removes) become one event with sorted child indices.<br>
+ * Repeated changes of the same child collapse into one.<br>
+ * Once a coalesced event carries more children than the structure threshold
+ * it is delivered as a single treeStructureChanged for the parent.
+ * <p>
+ *
+ * Events raised on the Event Dispatch Thread itself are delivered
+ * immediately, after anything already queued, so that the JTree sees them
+ * before it next reads the model.
+ * <p>
+ *
+ * A structure change makes listeners read the node again as it is then, so
+ * while one is queued for a node, events for the node and below it are
+ * dropped, whether queued before or after it.
+ * <p>
+ *
+ * Once told which JTree shows the model, events for parts of the tree it
+ * can't show, below a collapsed node, are not delivered one by one. Instead
+ * the highest collapsed node above them gets one treeStructureChanged in
+ * each delivery, however many changes there were below it.
+ * <p>
+ *
+ * The JTree reads the model as it is, which may be ahead of the events
+ * delivered so far. It reads the children an insert or change names, so an
+ * insert or change that no longer fits the tree, e.g. an insert whose child
+ * has been removed again, is delivered as a treeStructureChanged for the
+ * parent instead, and the parent's later events in the same delivery are
+ * dropped. It also reads ahead when it expands a node with an insert still
+ * queued.
+ * When told which JTree shows the model, events for a node it has just
+ * expanded, or below it, queued before it read the node's children become
+ * one treeStructureChanged for that node. Without a JTree to follow, a node
+ * expanded while events for it are queued may show a child twice or not at
+ * all until it is collapsed.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class CoalescingEventDispatcher implements TreeModelListener {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(CoalescingEventDispatcher.class);
+
+	/** Default number of children above which a parent is restructured. */
+	public static final int DEFAULT_STRUCTURE_THRESHOLD = 1000;
+
+	/** The kinds of event we queue. */
+	private enum Type {
+		CHANGED, INSERTED, REMOVED, STRUCTURE
+	}
+
+	/** The model whose listeners receive the events. */
+	private final AbstractTreeModel model;
+
+	/** Coalesced events above this many children become structure changes. */
+	private final int structureThreshold;
+
+	/** synchronisation lock */
+	private final Object objLock = new Object();
+
+	/** Events waiting for the Event Dispatch Thread. */
+	private List<PendingEvent> pending = new ArrayList<>();
+
+	/** The structure changes in {@link #pending}, none below another. */
+	private List<PendingEvent> covering = new ArrayList<>();
+
+	/** True while a flush is queued on the Event Dispatch Thread. */
+	private boolean flushScheduled;
+
+	/** When set, what the JTree has expanded. Only used on the EDT. */
+	private volatile ExpansionTracker tracker;
+
+	/**
+	 * Nodes the JTree expanded since their events were queued, so it read
+	 * their children ahead of the events. Only used on the EDT.
+	 */
+	private final List<TreePath> readAhead = new ArrayList<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param model
+	 *            the model whose listeners receive the events.
+	 * @param structureThreshold
+	 *            coalesced events with more children than this are delivered
+	 *            as a treeStructureChanged for the parent.
+	 */
+	public CoalescingEventDispatcher(AbstractTreeModel model,
+			int structureThreshold) {
+		if (structureThreshold < 1) {
+			throw new IllegalArgumentException(
+					"structureThreshold must be positive, but I got "
+							+ structureThreshold);
+		}
+		this.model = model;
+		this.structureThreshold = structureThreshold;
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param model
+	 *            the model whose listeners receive the events.
+	 */
+	public CoalescingEventDispatcher(AbstractTreeModel model) {
+		this(model, DEFAULT_STRUCTURE_THRESHOLD);
+	}
+
+	/**
+	 * Deliver only what a JTree can show. Events below collapsed nodes are
+	 * replaced by one structure change of the highest collapsed node. Call on
+	 * the Event Dispatch Thread.
+	 *
+	 * @param tree
+	 *            the JTree showing the model, or null to deliver every event.
+	 */
+	public void trackExpansion(JTree tree) {
+		ExpansionTracker old = tracker;
+		if (old != null) {
+			old.uninstall();
+		}
+		tracker = (tree == null) ? null : new ExpansionTracker(tree,
+				this::expanded);
+	}
+
+	/**
+	 * The JTree expanded a node, so has read or is about to read its
+	 * children, ahead of any events for them still queued. Until everything
+	 * queued by then is delivered, those events are replaced by a structure
+	 * change of the node. Called on the Event Dispatch Thread.
+	 *
+	 * @param path
+	 *            path to the node.
+	 */
+	private void expanded(TreePath path) {
+		readAhead.add(path);
+		SwingUtilities.invokeLater(() -> {
+			flush();
+			readAhead.removeIf(other -> other == path);
+		});
+	}
+
+	@Override
+	public void treeNodesChanged(TreeModelEvent e) {
+		enqueue(Type.CHANGED, e);
+	}
+
+	@Override
+	public void treeNodesInserted(TreeModelEvent e) {
+		enqueue(Type.INSERTED, e);
+	}
+
+	@Override
+	public void treeNodesRemoved(TreeModelEvent e) {
+		enqueue(Type.REMOVED, e);
+	}
+
+	@Override
+	public void treeStructureChanged(TreeModelEvent e) {
+		enqueue(Type.STRUCTURE, e);
+	}
+
+	/**
+	 * Queue an event, merging it into the previous one where possible.
+	 *
+	 * @param type
+	 *            kind of event.
+	 * @param e
+	 *            event
+	 */
+	private void enqueue(Type type, TreeModelEvent e) {
+		if (SwingUtilities.isEventDispatchThread()) {
+			flush();
+			deliver(Collections.singletonList(new PendingEvent(type, e,
+					structureThreshold)));
+			return;
+		}
+		boolean schedule = false;
+		synchronized (objLock) {
+			if (!isCovered(e.getTreePath())) {
+				int size = pending.size();
+				PendingEvent tail = (size == 0) ? null : pending.get(size - 1);
+				if (tail == null || !tail.merge(type, e)) {
+					tail = new PendingEvent(type, e, structureThreshold);
+					pending.add(tail);
+				}
+				if (tail.escalated && tail.path != null
+						&& !covering.contains(tail)) {
+					cover(tail);
+				}
+			}
+			if (!flushScheduled) {
+				flushScheduled = true;
+				schedule = true;
+			}
+		}
+		if (schedule) {
+			SwingUtilities.invokeLater(this::flush);
+		}
+	}
+
+	/**
+	 * @param path
+	 *            path to the parent of an event.
+	 * @return true if a queued structure change covers the path. Called
+	 *         holding {@link #objLock}.
+	 */
+	private boolean isCovered(TreePath path) {
+		if (path == null) {
+			return false;
+		}
+		for (PendingEvent structure : covering) {
+			if (isAtOrBelow(path, structure.path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drop the queued events a new structure change covers. Called holding
+	 * {@link #objLock}.
+	 *
+	 * @param structure
+	 *            the structure change, already queued.
+	 */
+	private void cover(PendingEvent structure) {
+		pending.removeIf(other -> other != structure && other.path != null
+				&& isAtOrBelow(other.path, structure.path));
+		covering.removeIf(other -> isAtOrBelow(other.path, structure.path));
+		covering.add(structure);
+	}
+
+	/**
+	 * Compare paths by identity, as nodes may be equal without being the same
+	 * node.
+	 *
+	 * @param path
+	 *            a path.
+	 * @param top
+	 *            another path.
+	 * @return true if path leads to the last node of top or below it.
+	 */
+	static boolean isAtOrBelow(TreePath path, TreePath top) {
+		int extra = path.getPathCount() - top.getPathCount();
+		if (extra < 0) {
+			return false;
+		}
+		TreePath tmpPath = path;
+		for (int i = 0; i < extra; i++) {
+			tmpPath = tmpPath.getParentPath();
+		}
+		for (TreePath tmpTop = top; tmpTop != null; tmpTop = tmpTop
+				.getParentPath()) {
+			if (tmpPath.getLastPathComponent() != tmpTop.getLastPathComponent()) {
+				return false;
+			}
+			tmpPath = tmpPath.getParentPath();
+		}
+		return true;
+	}
+
+	/**
+	 * Deliver all queued events. Only called on the Event Dispatch Thread.
+	 */
+	private void flush() {
+		List<PendingEvent> batch;
+		synchronized (objLock) {
+			if (pending.isEmpty()) {
+				flushScheduled = false;
+				return;
+			}
+			batch = pending;
+			pending = new ArrayList<>();
+			covering = new ArrayList<>();
+			flushScheduled = false;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("flushing {} coalesced events", batch.size());
+		}
+		deliver(batch);
+	}
+
+	/**
+	 * Send events to the model's listeners, leaving out those the JTree can't
+	 * show. Only called on the Event Dispatch Thread.
+	 *
+	 * @param batch
+	 *            the events, in order.
+	 */
+	private void deliver(List<PendingEvent> batch) {
+		ExpansionTracker tmpTracker = tracker;
+		// Parents restructured because their events no longer fit.
+		List<TreePath> restructured = null;
+		// Highest collapsed node above each hidden event, and nodes expanded
+		// ahead of their events.
+		List<TreePath> hidden = null;
+		for (PendingEvent event : batch) {
+			TreePath hider = null;
+			if (tmpTracker != null && event.path != null) {
+				hider = readAheadOf(event.path);
+				if (hider == null) {
+					hider = tmpTracker.hiddenBy(event.path);
+				}
+			}
+			if (hider == null) {
+				if (restructured != null && event.path != null
+						&& restructured.stream().anyMatch(
+								top -> isAtOrBelow(event.path, top))) {
+					continue;
+				}
+				if (!event.fits(model)) {
+					logger.debug("restructuring {}, moved on since", event.path);
+					if (restructured == null) {
+						restructured = new ArrayList<>();
+					}
+					restructured.add(event.path);
+					model.fireTreeStructureChanged(new TreeModelEvent(model,
+							event.path));
+					if (tmpTracker != null) {
+						tmpTracker.forgetBelow(event.path);
+					}
+					continue;
+				}
+				event.fire(model);
+				if (tmpTracker != null) {
+					event.forgetExpanded(tmpTracker);
+				}
+				continue;
+			}
+			if (hidden == null) {
+				hidden = new ArrayList<>();
+			}
+			Object node = hider.getLastPathComponent();
+			if (hidden.stream().noneMatch(
+					other -> other.getLastPathComponent() == node)) {
+				hidden.add(hider);
+			}
+		}
+		if (hidden == null) {
+			return;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("{} collapsed nodes changed below", hidden.size());
+		}
+		for (TreePath path : hidden) {
+			model.fireTreeStructureChanged(new TreeModelEvent(model, path));
+			tmpTracker.forgetBelow(path);
+		}
+	}
+
+	/**
+	 * @param path
+	 *            path to the parent of an event.
+	 * @return the path to a node the JTree expanded ahead of the event, at or
+	 *         above its parent, or null.
+	 */
+	private TreePath readAheadOf(TreePath path) {
+		for (TreePath expandedPath : readAhead) {
+			if (isAtOrBelow(path, expandedPath)) {
+				return expandedPath;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * An event waiting to be delivered, possibly the result of merging several
+	 * events for the same parent. Indices are kept ascending with the children
+	 * in the matching slots.
+	 */
+	private static class PendingEvent {
+
+		private final Type type;
+		private final TreeModelEvent original;
+		private final Object source;
+		private final TreePath path;
+		private final int structureThreshold;
+		private int[] indices;
+		private Object[] children;
+		private int size;
+
+		/** True once another event has been folded into this one. */
+		private boolean merged;
+
+		/** True once this event will be delivered as a structure change. */
+		private boolean escalated;
+
+		PendingEvent(Type type, TreeModelEvent e, int structureThreshold) {
+			this.type = type;
+			this.original = e;
+			this.source = e.getSource();
+			this.path = e.getTreePath();
+			this.structureThreshold = structureThreshold;
+			int[] eIndices = e.getChildIndices();
+			Object[] eChildren = e.getChildren();
+			indices = (eIndices == null) ? new int[0] : eIndices.clone();
+			children = (eChildren == null) ? new Object[0] : eChildren.clone();
+			size = children.length;
+			escalated = (type == Type.STRUCTURE);
+			if (!escalated && path != null) {
+				sort();
+				escalateIfLarge();
+			}
+		}
+
+		/**
+		 * Try to fold a later event into this one.
+		 *
+		 * @param otherType
+		 *            kind of the later event.
+		 * @param e
+		 *            the later event.
+		 * @return true if the later event is now represented by this one.
+		 */
+		boolean merge(Type otherType, TreeModelEvent e) {
+			TreePath otherPath = e.getTreePath();
+			if (path == null || otherPath == null
+					|| path.getPathCount() != otherPath.getPathCount()
+					|| !isAtOrBelow(otherPath, path)) {
+				// The root changing is the only event without a path.
+				return path == null && e.getTreePath() == null
+						&& type == Type.CHANGED && otherType == Type.CHANGED;
+			}
+			if (escalated) {
+				// A structure change of the parent covers anything below it.
+				merged = true;
+				return true;
+			}
+			if (otherType != type) {
+				return false;
+			}
+			int[] eIndices = e.getChildIndices();
+			Object[] eChildren = e.getChildren();
+			if (eIndices == null || eChildren == null) {
+				return false;
+			}
+			merged = true;
+			switch (type) {
+			case CHANGED:
+				for (int i = 0; i < eIndices.length; i++) {
+					if (indexOf(eChildren[i]) < 0) {
+						add(eIndices[i], eChildren[i]);
+					}
+				}
+				break;
+			case INSERTED:
+				// Each index is relative to the tree after the insert, so
+				// shuffle our later siblings along to make room.
+				for (int i = 0; i < eIndices.length; i++) {
+					int index = eIndices[i];
+					for (int j = 0; j < size; j++) {
+						if (indices[j] >= index) {
+							indices[j]++;
+						}
+					}
+					add(index, eChildren[i]);
+				}
+				break;
+			case REMOVED:
+				// Each index is relative to the tree after our removals, so
+				// translate back to an index before any of them.
+				int[] original = new int[eIndices.length];
+				for (int i = 0; i < eIndices.length; i++) {
+					int index = eIndices[i];
+					for (int j = 0; j < size && indices[j] <= index; j++) {
+						index++;
+					}
+					original[i] = index;
+				}
+				for (int i = 0; i < original.length; i++) {
+					add(original[i], eChildren[i]);
+				}
+				break;
+			default:
+				return false;
+			}
+			escalateIfLarge();
+			return true;
+		}
+
+		/**
+		 * A JTree reads the children named by an insert or change from the
+		 * model, so they must still be where the event says.
+		 *
+		 * @param model
+		 *            the model.
+		 * @return false if the tree has moved on so the children are not.
+		 */
+		boolean fits(AbstractTreeModel model) {
+			if (escalated || path == null
+					|| (type != Type.INSERTED && type != Type.CHANGED)) {
+				return true;
+			}
+			Object parent = path.getLastPathComponent();
+			int count = model.getChildCount(parent);
+			for (int i = 0; i < size; i++) {
+				if (indices[i] >= count
+						|| model.getChild(parent, indices[i]) != children[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Send this event to the model's listeners.
+		 *
+		 * @param model
+		 *            the model.
+		 */
+		void fire(AbstractTreeModel model) {
+			if (escalated) {
+				TreeModelEvent e = original;
+				if (merged || type != Type.STRUCTURE) {
+					e = new TreeModelEvent(source, path);
+				}
+				model.fireTreeStructureChanged(e);
+				return;
+			}
+			TreeModelEvent e = original;
+			if (merged) {
+				e = new TreeModelEvent(source, path,
+						Arrays.copyOf(indices, size), Arrays.copyOf(children,
+								size));
+			}
+			switch (type) {
+			case CHANGED:
+				model.fireTreeNodesChanged(e);
+				break;
+			case INSERTED:
+				model.fireTreeNodesInserted(e);
+				break;
+			case REMOVED:
+				model.fireTreeNodesRemoved(e);
+				break;
+			default:
+				model.fireTreeStructureChanged(e);
+				break;
+			}
+		}
+
+		/**
+		 * Forget what the JTree forgets of its expanded nodes on this event.
+		 *
+		 * @param tracker
+		 *            what the JTree has expanded.
+		 */
+		void forgetExpanded(ExpansionTracker tracker) {
+			if (escalated) {
+				tracker.forgetBelow(path);
+			} else if (type == Type.REMOVED) {
+				for (int i = 0; i < size; i++) {
+					tracker.forget(path.pathByAddingChild(children[i]));
+				}
+			}
+		}
+
+		private int indexOf(Object child) {
+			for (int i = 0; i < size; i++) {
+				if (children[i] == child) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/** Add a child keeping the indices ascending. */
+		private void add(int index, Object child) {
+			if (size == indices.length) {
+				int capacity = Math.max(8, size * 2);
+				indices = Arrays.copyOf(indices, capacity);
+				children = Arrays.copyOf(children, capacity);
+			}
+			int slot = size;
+			while (slot > 0 && indices[slot - 1] > index) {
+				indices[slot] = indices[slot - 1];
+				children[slot] = children[slot - 1];
+				slot--;
+			}
+			indices[slot] = index;
+			children[slot] = child;
+			size++;
+		}
+
+		/** Insertion sort, events from Node arrive already sorted. */
+		private void sort() {
+			int[] unsortedIndices = indices;
+			Object[] unsortedChildren = children;
+			int count = size;
+			indices = new int[count];
+			children = new Object[count];
+			size = 0;
+			for (int i = 0; i < count; i++) {
+				add(unsortedIndices[i], unsortedChildren[i]);
+			}
+		}
+
+		private void escalateIfLarge() {
+			if (size > structureThreshold && path != null) {
+				escalated = true;
+				indices = null;
+				children = null;
+				size = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,793 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.tree.TreePath;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A TreeModel holding its whole tree in columns of ints, rather than as one
+ * object per node. Suits huge trees that are mostly read.
+ * <p>
+ *
+ * Each node is a number. Its parent, first and last child, next and previous
+ * sibling, child count, position in its parent, name and generation are kept
+ * in one int array each, 36 bytes per node and no objects at all. Names are
+ * interned, so a name shared by many nodes is only stored once, and dropped
+ * once no node has it. The numbers of removed nodes are reused, and the
+ * generation of a number counts how often it has been.
+ * <p>
+ *
+ * The model hands out {@link NodeHandle}s, small objects naming a node by its
+ * number and generation. They are made on demand, equal when they name the
+ * same node, and stale once it is removed. The TreeModel methods read a stale
+ * handle as a leaf, as a JTree may still paint a node whose removal has not
+ * yet been delivered, but changing the tree through one throws
+ * IllegalStateException. A JTree walks children in order,
+ * so the last child found is remembered and the next one is a single step
+ * away.
+ * <p>
+ *
+ * The model has its own {@link TreeLock}, so it may be read and changed from
+ * any thread. Events are sent as for {@link NodeJTreeModel}, directly or
+ * through a {@link CoalescingEventDispatcher}.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class ColumnarTreeModel extends AbstractTreeModel {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(ColumnarTreeModel.class);
+
+	/** No node. */
+	private static final int NONE = -1;
+
+	/** Number of nodes there is room for at first. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Receives a full walk of the tree. */
+	public interface Visitor {
+		/**
+		 * @param depth
+		 *            how far below the root the node is.
+		 * @param name
+		 *            the node's name.
+		 */
+		void visit(int depth, String name);
+	}
+
+	/** Guards everything below. */
+	private final TreeLock lock = new TreeLock();
+
+	/** When set, events are delivered by this dispatcher. */
+	private volatile CoalescingEventDispatcher dispatcher;
+
+	// The columns, indexed by node.
+	private int[] parents;
+	private int[] firstChildren;
+	private int[] lastChildren;
+	private int[] nextSiblings;
+	private int[] prevSiblings;
+	private int[] childCounts;
+	private int[] indices;
+	private int[] nameIds;
+	private int[] generations;
+
+	/** Nodes below this number have been used. */
+	private int highWater;
+
+	/** First free node, the rest linked through nextSiblings. */
+	private int freeList = NONE;
+
+	/** Number of nodes in the tree. */
+	private int size;
+
+	/** The root node. */
+	private final int root;
+
+	/** Names by id, null for ids not in use. */
+	private String[] names = new String[INITIAL_CAPACITY];
+
+	/** Number of nodes with each name, by id. */
+	private int[] nameRefs = new int[INITIAL_CAPACITY];
+
+	/** Ids below this have been used. */
+	private int nameCount;
+
+	/** Ids no longer in use, the first freeNameCount of them. */
+	private int[] freeNames = new int[INITIAL_CAPACITY];
+	private int freeNameCount;
+
+	/** Name ids by name. */
+	private final Map<String, Integer> nameTable = new HashMap<>();
+
+	/** Bumped on every change of structure, to spot stale cursors. */
+	private int version;
+
+	/** The last child found by position. */
+	private volatile Cursor cursor;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rootName
+	 *            name of the root node.
+	 */
+	public ColumnarTreeModel(String rootName) {
+		parents = new int[INITIAL_CAPACITY];
+		firstChildren = new int[INITIAL_CAPACITY];
+		lastChildren = new int[INITIAL_CAPACITY];
+		nextSiblings = new int[INITIAL_CAPACITY];
+		prevSiblings = new int[INITIAL_CAPACITY];
+		childCounts = new int[INITIAL_CAPACITY];
+		indices = new int[INITIAL_CAPACITY];
+		nameIds = new int[INITIAL_CAPACITY];
+		generations = new int[INITIAL_CAPACITY];
+		root = allocate(NONE, internName(rootName));
+	}
+
+	/**
+	 * Set the dispatcher used to deliver events to our listeners.
+	 *
+	 * @param dispatcher
+	 *            dispatcher that delivers on the Event Dispatch Thread, or null
+	 *            to deliver on the thread that changed the tree.
+	 */
+	public void setEventDispatcher(CoalescingEventDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * @return the lock guarding the tree.
+	 */
+	public TreeLock getTreeLock() {
+		return lock;
+	}
+
+	// TreeModel
+
+	@Override
+	public NodeHandle getRoot() {
+		return lock.read(() -> new NodeHandle(this, root, generations[root]));
+	}
+
+	/**
+	 * {@inheritDoc} Null for a removed node, which has no children.
+	 */
+	@Override
+	public Object getChild(Object parent, int index) {
+		NodeHandle handle = toHandle(parent);
+		checkModel(handle);
+		Cursor found = lock.read(() -> isCurrent(handle) ? childAt(handle.id,
+				index) : null);
+		if (found == null) {
+			return null;
+		}
+		// Only a cursor from a consistent read may be reused.
+		cursor = found;
+		if (logger.isTraceEnabled()) {
+			logger.trace("parent={}, index={}, RETURN child={}", parent, index,
+					found.id);
+		}
+		return new NodeHandle(this, found.id, found.generation);
+	}
+
+	/**
+	 * {@inheritDoc} None for a removed node.
+	 */
+	@Override
+	public int getChildCount(Object parent) {
+		NodeHandle handle = toHandle(parent);
+		checkModel(handle);
+		return lock.readInt(() -> isCurrent(handle) ? childCounts[handle.id]
+				: 0);
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		return getChildCount(node) == 0;
+	}
+
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		if (!(parent instanceof NodeHandle) || !(child instanceof NodeHandle)) {
+			return -1;
+		}
+		NodeHandle parentHandle = (NodeHandle) parent;
+		NodeHandle childHandle = (NodeHandle) child;
+		if (parentHandle.model != this || childHandle.model != this) {
+			return -1;
+		}
+		return lock.readInt(() -> {
+			if (!isCurrent(parentHandle) || !isCurrent(childHandle)
+					|| parents[childHandle.id] != parentHandle.id) {
+				return -1;
+			}
+			return indices[childHandle.id];
+		});
+	}
+
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		logger.debug("path={}, newValue={}", path, newValue);
+		rename((NodeHandle) path.getLastPathComponent(), (String) newValue);
+	}
+
+	// Reading
+
+	/**
+	 * @return the number of nodes in the tree.
+	 */
+	public int size() {
+		return lock.readInt(() -> size);
+	}
+
+	/**
+	 * @param node
+	 *            a node.
+	 * @return the node's name.
+	 */
+	public String getName(NodeHandle node) {
+		return lock.read(() -> names[nameIds[check(node)]]);
+	}
+
+	/**
+	 * @param node
+	 *            a node.
+	 * @return the node's parent, or null for the root.
+	 */
+	public NodeHandle getParent(NodeHandle node) {
+		return lock.read(() -> {
+			int parent = parents[check(node)];
+			return (parent == NONE) ? null : new NodeHandle(this, parent,
+					generations[parent]);
+		});
+	}
+
+	/**
+	 * @param node
+	 *            a node.
+	 * @return the path from the root to the node.
+	 */
+	public TreePath getPath(NodeHandle node) {
+		return lock.read(() -> pathOf(check(node)));
+	}
+
+	/**
+	 * Visit every node, each before its children, without making any
+	 * objects. The tree can't change during the walk.
+	 *
+	 * @param visitor
+	 *            receives each node.
+	 */
+	public void visit(Visitor visitor) {
+		lock.readLocked(() -> {
+			int depth = 0;
+			int node = root;
+			while (true) {
+				visitor.visit(depth, names[nameIds[node]]);
+				if (firstChildren[node] != NONE) {
+					node = firstChildren[node];
+					depth++;
+					continue;
+				}
+				while (node != root && nextSiblings[node] == NONE) {
+					node = parents[node];
+					depth--;
+				}
+				if (node == root) {
+					return;
+				}
+				node = nextSiblings[node];
+			}
+		});
+	}
+
+	// Changing
+
+	/**
+	 * Append a new child.
+	 *
+	 * @param parent
+	 *            the parent.
+	 * @param name
+	 *            name of the child.
+	 * @return the child.
+	 */
+	public NodeHandle add(NodeHandle parent, String name) {
+		lock.lockWrite();
+		try {
+			return insert(parent, childCounts[check(parent)], name);
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Insert a new child.
+	 *
+	 * @param parent
+	 *            the parent.
+	 * @param index
+	 *            position of the child.
+	 * @param name
+	 *            name of the child.
+	 * @return the child.
+	 */
+	public NodeHandle insert(NodeHandle parent, int index, String name) {
+		return insertAll(parent, index, Arrays.asList(name)).get(0);
+	}
+
+	/**
+	 * Append new children. A single event is sent for all of them.
+	 *
+	 * @param parent
+	 *            the parent.
+	 * @param childNames
+	 *            names of the children, in order.
+	 * @return the children.
+	 */
+	public List<NodeHandle> addAll(NodeHandle parent, List<String> childNames) {
+		lock.lockWrite();
+		try {
+			return insertAll(parent, childCounts[check(parent)], childNames);
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Insert new children. A single event is sent for all of them.
+	 *
+	 * @param parent
+	 *            the parent.
+	 * @param index
+	 *            position of the first child.
+	 * @param childNames
+	 *            names of the children, in order.
+	 * @return the children.
+	 */
+	public List<NodeHandle> insertAll(NodeHandle parent, int index,
+			List<String> childNames) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("parent={}, {} children at index={}", parent,
+					childNames.size(), index);
+		}
+		lock.lockWrite();
+		try {
+			int p = check(parent);
+			int count = childCounts[p];
+			if (index < 0 || index > count) {
+				throw new ArrayIndexOutOfBoundsException(index + " > " + count);
+			}
+			if (childNames.isEmpty()) {
+				return Collections.emptyList();
+			}
+			version++;
+			int before = (index == count) ? NONE : childAt(p, index).id;
+			int[] added = new int[childNames.size()];
+			for (int i = 0; i < added.length; i++) {
+				String name = childNames.get(i);
+				if (name == null) {
+					throw new IllegalArgumentException("name is null");
+				}
+				int child = allocate(p, internName(name));
+				link(p, child, before);
+				added[i] = child;
+			}
+			childCounts[p] += added.length;
+			renumber(added[0], index);
+
+			NodeHandle[] children = new NodeHandle[added.length];
+			int[] childIndices = new int[added.length];
+			for (int i = 0; i < added.length; i++) {
+				children[i] = new NodeHandle(this, added[i],
+						generations[added[i]]);
+				childIndices[i] = index + i;
+			}
+			TreeModelEvent e = new TreeModelEvent(parent, pathOf(p),
+					childIndices, children);
+			CoalescingEventDispatcher tmpDispatcher = dispatcher;
+			if (tmpDispatcher == null) {
+				fireTreeNodesInserted(e);
+			} else {
+				tmpDispatcher.treeNodesInserted(e);
+			}
+			return Arrays.asList(children);
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Remove a node and everything below it. Handles to them all go stale.
+	 *
+	 * @param node
+	 *            the node.
+	 */
+	public void remove(NodeHandle node) {
+		logger.debug("node={}", node);
+		lock.lockWrite();
+		try {
+			int n = check(node);
+			if (n == root) {
+				throw new IllegalArgumentException("the root can't be removed");
+			}
+			version++;
+			int p = parents[n];
+			int index = indices[n];
+			TreePath path = pathOf(p);
+			int next = nextSiblings[n];
+			unlink(p, n);
+			childCounts[p]--;
+			if (next != NONE) {
+				renumber(next, index);
+			}
+			free(n);
+
+			TreeModelEvent e = new TreeModelEvent(new NodeHandle(this, p,
+					generations[p]), path, new int[] { index },
+					new Object[] { node });
+			CoalescingEventDispatcher tmpDispatcher = dispatcher;
+			if (tmpDispatcher == null) {
+				fireTreeNodesRemoved(e);
+			} else {
+				tmpDispatcher.treeNodesRemoved(e);
+			}
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Rename a node.
+	 *
+	 * @param node
+	 *            the node.
+	 * @param name
+	 *            the new name.
+	 */
+	public void rename(NodeHandle node, String name) {
+		logger.debug("node={}, name={}", node, name);
+		if (name == null) {
+			throw new IllegalArgumentException("name is null");
+		}
+		lock.lockWrite();
+		try {
+			int n = check(node);
+			int oldName = nameIds[n];
+			nameIds[n] = internName(name);
+			releaseName(oldName);
+			int p = parents[n];
+			TreeModelEvent e;
+			if (p == NONE) {
+				e = new TreeModelEvent(node, (TreePath) null, new int[] {},
+						new Object[] { node });
+			} else {
+				e = new TreeModelEvent(node, pathOf(p),
+						new int[] { indices[n] }, new Object[] { node });
+			}
+			CoalescingEventDispatcher tmpDispatcher = dispatcher;
+			if (tmpDispatcher == null) {
+				fireTreeNodesChanged(e);
+			} else {
+				tmpDispatcher.treeNodesChanged(e);
+			}
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName();
+	}
+
+	// Internals. Callers hold the lock, or are inside a read.
+
+	private NodeHandle toHandle(Object node) {
+		if (!(node instanceof NodeHandle)) {
+			throw new IllegalArgumentException("Expecting node to be of class "
+					+ NodeHandle.class.getCanonicalName() + ", but I got "
+					+ node.getClass().getCanonicalName());
+		}
+		return (NodeHandle) node;
+	}
+
+	private boolean isCurrent(NodeHandle node) {
+		// Freeing a node moves its generation on.
+		return node.id < highWater && generations[node.id] == node.generation;
+	}
+
+	/**
+	 * @param node
+	 *            a handle.
+	 * @throws IllegalArgumentException
+	 *             if the handle is null or of another model.
+	 */
+	private void checkModel(NodeHandle node) {
+		if (node == null) {
+			throw new IllegalArgumentException("node is null");
+		}
+		if (node.model != this) {
+			throw new IllegalArgumentException("node is from another model");
+		}
+	}
+
+	/**
+	 * @param node
+	 *            a handle.
+	 * @return the node of a handle that is of this model and not stale.
+	 */
+	private int check(NodeHandle node) {
+		checkModel(node);
+		if (!isCurrent(node)) {
+			throw new IllegalStateException("node has been removed");
+		}
+		return node.id;
+	}
+
+	/**
+	 * Find a child by position, starting from the remembered cursor, the
+	 * first or the last child, whichever is nearest.
+	 */
+	private Cursor childAt(int parent, int index) {
+		int count = childCounts[parent];
+		if (index < 0 || index >= count) {
+			throw new ArrayIndexOutOfBoundsException(index + " >= " + count);
+		}
+		int node = firstChildren[parent];
+		int at = 0;
+		Cursor c = cursor;
+		if (c != null && c.version == version && c.parent == parent
+				&& Math.abs(index - c.index) < index) {
+			node = c.id;
+			at = c.index;
+		}
+		if (count - 1 - index < Math.abs(index - at)) {
+			node = lastChildren[parent];
+			at = count - 1;
+		}
+		while (at < index) {
+			node = nextSiblings[node];
+			at++;
+		}
+		while (at > index) {
+			node = prevSiblings[node];
+			at--;
+		}
+		return new Cursor(parent, index, node, generations[node], version);
+	}
+
+	private TreePath pathOf(int node) {
+		int depth = 0;
+		for (int n = node; n != NONE; n = parents[n]) {
+			depth++;
+		}
+		Object[] path = new Object[depth];
+		for (int n = node; n != NONE; n = parents[n]) {
+			path[--depth] = new NodeHandle(this, n, generations[n]);
+		}
+		return new TreePath(path);
+	}
+
+	/** Put a child before a sibling, or last if the sibling is NONE. */
+	private void link(int parent, int child, int before) {
+		int after = (before == NONE) ? lastChildren[parent]
+				: prevSiblings[before];
+		prevSiblings[child] = after;
+		nextSiblings[child] = before;
+		if (after == NONE) {
+			firstChildren[parent] = child;
+		} else {
+			nextSiblings[after] = child;
+		}
+		if (before == NONE) {
+			lastChildren[parent] = child;
+		} else {
+			prevSiblings[before] = child;
+		}
+	}
+
+	private void unlink(int parent, int child) {
+		int prev = prevSiblings[child];
+		int next = nextSiblings[child];
+		if (prev == NONE) {
+			firstChildren[parent] = next;
+		} else {
+			nextSiblings[prev] = next;
+		}
+		if (next == NONE) {
+			lastChildren[parent] = prev;
+		} else {
+			prevSiblings[next] = prev;
+		}
+	}
+
+	/** Number siblings from a node onwards. */
+	private void renumber(int from, int index) {
+		for (int n = from; n != NONE; n = nextSiblings[n]) {
+			indices[n] = index++;
+		}
+	}
+
+	private int allocate(int parent, int nameId) {
+		int node;
+		if (freeList != NONE) {
+			node = freeList;
+			freeList = nextSiblings[node];
+		} else {
+			if (highWater == parents.length) {
+				grow();
+			}
+			node = highWater++;
+		}
+		parents[node] = parent;
+		firstChildren[node] = NONE;
+		lastChildren[node] = NONE;
+		nextSiblings[node] = NONE;
+		prevSiblings[node] = NONE;
+		childCounts[node] = 0;
+		indices[node] = 0;
+		nameIds[node] = nameId;
+		size++;
+		return node;
+	}
+
+	/** Free a node and everything below it. */
+	private void free(int top) {
+		int node = top;
+		while (true) {
+			if (firstChildren[node] != NONE) {
+				node = firstChildren[node];
+				continue;
+			}
+			// A leaf, or all its children are gone.
+			int parent = parents[node];
+			int next = nextSiblings[node];
+			parents[node] = NONE;
+			generations[node]++;
+			releaseName(nameIds[node]);
+			nextSiblings[node] = freeList;
+			freeList = node;
+			size--;
+			if (node == top) {
+				return;
+			}
+			firstChildren[parent] = next;
+			node = (next == NONE) ? parent : next;
+		}
+	}
+
+	private void grow() {
+		int capacity = parents.length + (parents.length >> 1);
+		parents = Arrays.copyOf(parents, capacity);
+		firstChildren = Arrays.copyOf(firstChildren, capacity);
+		lastChildren = Arrays.copyOf(lastChildren, capacity);
+		nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+		prevSiblings = Arrays.copyOf(prevSiblings, capacity);
+		childCounts = Arrays.copyOf(childCounts, capacity);
+		indices = Arrays.copyOf(indices, capacity);
+		nameIds = Arrays.copyOf(nameIds, capacity);
+		generations = Arrays.copyOf(generations, capacity);
+	}
+
+	/**
+	 * @param name
+	 *            a name, given to one more node.
+	 * @return the name's id.
+	 */
+	private int internName(String name) {
+		Integer known = nameTable.get(name);
+		int id;
+		if (known != null) {
+			id = known;
+		} else {
+			if (freeNameCount > 0) {
+				id = freeNames[--freeNameCount];
+			} else {
+				if (nameCount == names.length) {
+					names = Arrays.copyOf(names, nameCount * 2);
+					nameRefs = Arrays.copyOf(nameRefs, nameCount * 2);
+				}
+				id = nameCount++;
+			}
+			names[id] = name;
+			nameTable.put(name, id);
+		}
+		nameRefs[id]++;
+		return id;
+	}
+
+	/**
+	 * A node no longer has a name. Drop the name once no node has it.
+	 *
+	 * @param id
+	 *            the name's id.
+	 */
+	private void releaseName(int id) {
+		if (--nameRefs[id] > 0) {
+			return;
+		}
+		nameTable.remove(names[id]);
+		names[id] = null;
+		if (freeNameCount == freeNames.length) {
+			freeNames = Arrays.copyOf(freeNames, freeNameCount * 2);
+		}
+		freeNames[freeNameCount++] = id;
+	}
+
+	/**
+	 * @return the number of distinct names held.
+	 */
+	int nameCount() {
+		return lock.readInt(nameTable::size);
+	}
+
+	/** A child found by position. Only kept when found by a consistent read. */
+	private static final class Cursor {
+		private final int parent;
+		private final int index;
+		private final int id;
+		private final int generation;
+		private final int version;
+
+		Cursor(int parent, int index, int id, int generation, int version) {
+			this.parent = parent;
+			this.index = index;
+			this.id = id;
+			this.generation = generation;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * A node of a {@link ColumnarTreeModel}. Handles are equal when they name
+	 * the same node. A handle goes stale when its node is removed.
+	 */
+	public static final class NodeHandle {
+		private final ColumnarTreeModel model;
+		private final int id;
+		private final int generation;
+
+		NodeHandle(ColumnarTreeModel model, int id, int generation) {
+			this.model = model;
+			this.id = id;
+			this.generation = generation;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * id + generation;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof NodeHandle)) {
+				return false;
+			}
+			NodeHandle other = (NodeHandle) obj;
+			return model == other.model && id == other.id
+					&& generation == other.generation;
+		}
+
+		/**
+		 * {@inheritDoc} Note this string is used as a label in JTree. Empty
+		 * once the node is removed.
+		 */
+		@Override
+		public String toString() {
+			return model.lock.read(() -> model.isCurrent(this) ? model.names[model.nameIds[id]] : "");
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.swing.JTree;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
+import javax.swing.tree.TreePath;
+
+/**
+ * Follows which nodes of a JTree are expanded, so that a
+ * {@link CoalescingEventDispatcher} can tell which changes the JTree would
+ * show. Only used on the Event Dispatch Thread.
+ * <p>
+ *
+ * Nodes are looked up by identity, as nodes with the same name are equal and
+ * renaming a node changes its hash code.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+final class ExpansionTracker implements TreeExpansionListener {
+
+	/** The JTree followed. */
+	private final JTree tree;
+
+	/** Told of each node the JTree expands. */
+	private final Consumer<TreePath> onExpanded;
+
+	/** The expanded nodes, by identity, with their paths. */
+	private final Map<Object, TreePath> expanded = new IdentityHashMap<>();
+
+	/**
+	 * Constructor. Starts following the JTree.
+	 *
+	 * @param tree
+	 *            the JTree.
+	 * @param onExpanded
+	 *            told of each node the JTree expands, before it is tracked.
+	 */
+	ExpansionTracker(JTree tree, Consumer<TreePath> onExpanded) {
+		this.tree = tree;
+		this.onExpanded = onExpanded;
+		Object root = tree.getModel().getRoot();
+		if (root != null) {
+			Enumeration<TreePath> paths = tree
+					.getExpandedDescendants(new TreePath(root));
+			while (paths != null && paths.hasMoreElements()) {
+				TreePath path = paths.nextElement();
+				expanded.put(path.getLastPathComponent(), path);
+			}
+		}
+		tree.addTreeExpansionListener(this);
+	}
+
+	/**
+	 * Stop following the JTree.
+	 */
+	void uninstall() {
+		tree.removeTreeExpansionListener(this);
+	}
+
+	/**
+	 * Find what hides the children of a node.
+	 *
+	 * @param path
+	 *            path to the node.
+	 * @return the path to the highest collapsed node on the path, the node
+	 *         itself included, or null if the node's children are showing.
+	 */
+	TreePath hiddenBy(TreePath path) {
+		Object[] nodes = path.getPath();
+		for (int i = 0; i < nodes.length; i++) {
+			if (!expanded.containsKey(nodes[i])) {
+				TreePath hider = path;
+				for (int j = nodes.length - 1; j > i; j--) {
+					hider = hider.getParentPath();
+				}
+				return hider;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Forget a node that was removed, and the nodes below it, as the JTree
+	 * does.
+	 *
+	 * @param path
+	 *            path to the node.
+	 */
+	void forget(TreePath path) {
+		if (expanded.remove(path.getLastPathComponent()) != null) {
+			forgetBelow(path);
+		}
+	}
+
+	/**
+	 * Forget the nodes expanded below a node whose structure changed, as the
+	 * JTree does.
+	 *
+	 * @param path
+	 *            path to the node.
+	 */
+	void forgetBelow(TreePath path) {
+		if (path == null) {
+			return;
+		}
+		Iterator<TreePath> it = expanded.values().iterator();
+		while (it.hasNext()) {
+			TreePath other = it.next();
+			if (other.getPathCount() > path.getPathCount()
+					&& CoalescingEventDispatcher.isAtOrBelow(other, path)) {
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public void treeExpanded(TreeExpansionEvent event) {
+		TreePath path = event.getPath();
+		onExpanded.accept(path);
+		expanded.put(path.getLastPathComponent(), path);
+	}
+
+	@Override
+	public void treeCollapsed(TreeExpansionEvent event) {
+		expanded.remove(event.getPath().getLastPathComponent());
+	}
+}
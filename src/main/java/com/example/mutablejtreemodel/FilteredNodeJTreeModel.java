@@ -0,0 +1,830 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreePath;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A view of a {@link NodeJTreeModel} showing only the nodes that match a
+ * predicate, and their ancestors, without copying the tree.
+ * <p>
+ *
+ * The nodes to show are kept in a set, filled in parallel with
+ * {@link NodeTraversal} when the predicate is set. After that the wrapped
+ * model's events are translated as they arrive, looking again only at the
+ * nodes they name: an insert filters the inserted subtrees, a remove forgets
+ * them, a rename tests the renamed node, and each may show or hide the
+ * ancestors above. The shown children of a node are listed when first asked
+ * for, and after that changed only as our events are sent, so they stay what
+ * listeners were told even when the tree has moved on ahead of the events, as
+ * it does with a {@link CoalescingEventDispatcher}.
+ * <p>
+ *
+ * Use on the thread the wrapped model delivers its events on, the Event
+ * Dispatch Thread when it has a {@link CoalescingEventDispatcher}. Its root
+ * must not be replaced. The predicate is called from many threads when set,
+ * so must be thread safe. Lazy nodes that have not created their children are
+ * shown without any.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class FilteredNodeJTreeModel extends AbstractTreeModel implements
+		TreeModelListener {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(FilteredNodeJTreeModel.class);
+
+	/** Subtrees at least this big are filtered on many threads. */
+	private static final int PARALLEL_SIZE = 10000;
+
+	/** Shown children of a node without any. */
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	/** The model we show part of. */
+	private final NodeJTreeModel source;
+
+	/** Its root. */
+	private final Node root;
+
+	/** Which nodes to show, or null to show them all. */
+	private Predicate<? super Node> predicate;
+
+	/** Nodes that match the predicate. */
+	private final Set<Node> matching = Collections
+			.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * Nodes that are shown: the root, those matching, and their ancestors.
+	 * Each with the parent it was shown under, null for the root.
+	 */
+	private final Map<Node, Node> visible = new IdentityHashMap<>();
+
+	/**
+	 * For shown nodes with shown children, those children, so that a subtree
+	 * can be forgotten after the tree has moved on.
+	 */
+	private final Map<Node, Set<Node>> visibleBelow = new IdentityHashMap<>();
+
+	/**
+	 * For shown nodes asked about, their shown children as listeners were
+	 * last told of them.
+	 */
+	private final Map<Node, ShownChildren> shownChildren =
+			new IdentityHashMap<>();
+
+	/**
+	 * Constructor. Shows every node until a predicate is set.
+	 *
+	 * @param source
+	 *            the model to show part of. Must have a root.
+	 */
+	public FilteredNodeJTreeModel(NodeJTreeModel source) {
+		if (source == null || source.getRoot() == null) {
+			throw new IllegalArgumentException("source has no root");
+		}
+		this.source = source;
+		this.root = (Node) source.getRoot();
+		visible.put(root, null);
+		source.addTreeModelListener(this);
+	}
+
+	/**
+	 * Stop following the wrapped model.
+	 */
+	public void dispose() {
+		source.removeTreeModelListener(this);
+	}
+
+	/**
+	 * @return which nodes are shown, or null if all are.
+	 */
+	public Predicate<? super Node> getPredicate() {
+		return predicate;
+	}
+
+	/**
+	 * Choose the nodes to show. The whole tree is filtered again, in
+	 * parallel, and listeners are told the structure of the root changed.
+	 *
+	 * @param predicate
+	 *            the nodes to show, with their ancestors, or null to show all.
+	 */
+	public void setPredicate(Predicate<? super Node> predicate) {
+		this.predicate = predicate;
+		readLocked(() -> {
+			matching.clear();
+			visible.clear();
+			visibleBelow.clear();
+			shownChildren.clear();
+			visible.put(root, null);
+			if (predicate != null) {
+				for (Node match : collectMatches(root)) {
+					matching.add(match);
+					show(match);
+				}
+			}
+		});
+		logger.debug("{} nodes match, {} shown", matching.size(),
+				visible.size());
+		fireTreeStructureChanged(new TreeModelEvent(this, new TreePath(root)));
+	}
+
+	// TreeModel
+
+	@Override
+	public Object getRoot() {
+		return root;
+	}
+
+	@Override
+	public int getChildCount(Object parent) {
+		if (predicate == null) {
+			return source.getChildCount(parent);
+		}
+		Node node = toNode(parent);
+		return read(() -> shownChildren(node).length);
+	}
+
+	@Override
+	public Object getChild(Object parent, int index) {
+		if (predicate == null) {
+			return source.getChild(parent, index);
+		}
+		Node node = toNode(parent);
+		return read(() -> shownChildren(node)[index]);
+	}
+
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		if (predicate == null) {
+			return source.getIndexOfChild(parent, child);
+		}
+		Node node = toNode(parent);
+		Node tmpChild = toNode(child);
+		return read(() -> shown(node).indexOf(tmpChild));
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		if (predicate == null) {
+			return source.isLeaf(node);
+		}
+		Node tmpNode = toNode(node);
+		return read(() -> shownChildren(tmpNode).length == 0);
+	}
+
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		source.valueForPathChanged(path, newValue);
+	}
+
+	/**
+	 *
+	 * @return string representation of this object.
+	 */
+	public String toString() {
+		return this.getClass().getSimpleName();
+	}
+
+	// Events from the wrapped model.
+
+	@Override
+	public void treeNodesChanged(TreeModelEvent e) {
+		if (predicate == null) {
+			fireTreeNodesChanged(e);
+			return;
+		}
+		List<Runnable> events = new ArrayList<>();
+		readLocked(() -> changed(e, events));
+		events.forEach(Runnable::run);
+	}
+
+	@Override
+	public void treeNodesInserted(TreeModelEvent e) {
+		if (predicate == null) {
+			fireTreeNodesInserted(e);
+			return;
+		}
+		List<Runnable> events = new ArrayList<>();
+		readLocked(() -> inserted(e, events));
+		events.forEach(Runnable::run);
+	}
+
+	@Override
+	public void treeNodesRemoved(TreeModelEvent e) {
+		if (predicate == null) {
+			fireTreeNodesRemoved(e);
+			return;
+		}
+		List<Runnable> events = new ArrayList<>();
+		readLocked(() -> removed(e, events));
+		events.forEach(Runnable::run);
+	}
+
+	@Override
+	public void treeStructureChanged(TreeModelEvent e) {
+		if (predicate == null) {
+			fireTreeStructureChanged(e);
+			return;
+		}
+		List<Runnable> events = new ArrayList<>();
+		readLocked(() -> structureChanged(e, events));
+		events.forEach(Runnable::run);
+	}
+
+	/**
+	 * Follow renames. Called under the tree's read lock.
+	 *
+	 * @param e
+	 *            the event.
+	 * @param events
+	 *            our events, to send once the lock is let go.
+	 */
+	private void changed(TreeModelEvent e, List<Runnable> events) {
+		TreePath path = e.getTreePath();
+		if (path == null) {
+			// The root, which is always shown.
+			if (predicate.test(root)) {
+				matching.add(root);
+			} else {
+				matching.remove(root);
+			}
+			TreeModelEvent rootEvent = new TreeModelEvent(this, (TreePath) null,
+					e.getChildIndices(), e.getChildren());
+			events.add(() -> fireTreeNodesChanged(rootEvent));
+			return;
+		}
+		Node parent = (Node) path.getLastPathComponent();
+		for (Object child : e.getChildren()) {
+			Node node = (Node) child;
+			if (node.getParent() != parent) {
+				// Moved on since.
+				continue;
+			}
+			boolean matches = predicate.test(node);
+			if (matches && matching.add(node)) {
+				Node shown = show(node);
+				if (shown != null) {
+					addShown((Node) shown.getParent(), List.of(shown), events);
+					continue;
+				}
+			} else if (!matches && matching.remove(node)) {
+				Node hidden = hide(node);
+				if (hidden != null) {
+					removeShown((Node) hidden.getParent(), List.of(hidden),
+							null, events);
+					continue;
+				}
+			}
+			int index = shown(parent).indexOf(node);
+			if (index >= 0) {
+				TreeModelEvent changed = new TreeModelEvent(this, parent
+						.getPathFromRoot(), new int[] { index },
+						new Object[] { node });
+				events.add(() -> fireTreeNodesChanged(changed));
+			}
+		}
+	}
+
+	/**
+	 * Filter inserted subtrees. Called under the tree's read lock.
+	 *
+	 * @param e
+	 *            the event.
+	 * @param events
+	 *            our events, to send once the lock is let go.
+	 */
+	private void inserted(TreeModelEvent e, List<Runnable> events) {
+		Node parent = (Node) e.getTreePath().getLastPathComponent();
+		// The highest node shown because of the insert, if above the
+		// inserted children.
+		Node raised = null;
+		List<Node> shown = new ArrayList<>();
+		for (Object child : e.getChildren()) {
+			Node node = (Node) child;
+			if (node.getParent() != parent) {
+				continue;
+			}
+			for (Node match : collectMatches(node)) {
+				matching.add(match);
+				Node top = show(match);
+				if (top != null && parent.isNodeAncestor(top)) {
+					raised = top;
+				}
+			}
+			if (visible.containsKey(node)) {
+				shown.add(node);
+			}
+		}
+		if (raised != null) {
+			addShown((Node) raised.getParent(), List.of(raised), events);
+		} else if (visible.containsKey(parent)) {
+			addShown(parent, shown, events);
+		}
+	}
+
+	/**
+	 * Forget removed subtrees. Called under the tree's read lock.
+	 *
+	 * @param e
+	 *            the event.
+	 * @param events
+	 *            our events, to send once the lock is let go.
+	 */
+	private void removed(TreeModelEvent e, List<Runnable> events) {
+		Node parent = (Node) e.getTreePath().getLastPathComponent();
+		List<Node> gone = new ArrayList<>();
+		for (Object child : e.getChildren()) {
+			Node node = (Node) child;
+			if (visible.containsKey(node)) {
+				forgetSubtree(node);
+				gone.add(node);
+			}
+		}
+		Node hidden = hide(parent);
+		if (hidden != null) {
+			removeShown((Node) hidden.getParent(), List.of(hidden), null,
+					events);
+			return;
+		}
+		if (visible.containsKey(parent)) {
+			// Found among the shown children by identity, as the indices in
+			// the event are among all the children.
+			removeShown(parent, gone, e, events);
+		}
+	}
+
+	/**
+	 * Filter a subtree again. Called under the tree's read lock.
+	 *
+	 * @param e
+	 *            the event.
+	 * @param events
+	 *            our events, to send once the lock is let go.
+	 */
+	private void structureChanged(TreeModelEvent e, List<Runnable> events) {
+		TreePath path = e.getTreePath();
+		Node node = (Node) path.getLastPathComponent();
+		if (node == root) {
+			matching.clear();
+			visible.clear();
+			visibleBelow.clear();
+			shownChildren.clear();
+			visible.put(root, null);
+			for (Node match : collectMatches(root)) {
+				matching.add(match);
+				show(match);
+			}
+			TreeModelEvent rootEvent = new TreeModelEvent(this, new TreePath(
+					root));
+			events.add(() -> fireTreeStructureChanged(rootEvent));
+			return;
+		}
+		Object[] chain = path.getPath();
+		boolean[] before = new boolean[chain.length];
+		for (int i = 0; i < chain.length; i++) {
+			before[i] = visible.containsKey(chain[i]);
+		}
+		// What was below the node went unheard, including nodes that have
+		// left the tree, so forget what was shown there, then filter what is
+		// there now.
+		forgetSubtree(node);
+		for (Node match : collectMatches(node)) {
+			matching.add(match);
+			show(match);
+		}
+		if (!visible.containsKey(node)) {
+			hide((Node) node.getParent());
+		}
+		shownChildren.remove(node);
+		// Restructure below the highest node that changed, or the node.
+		for (int i = 1; i < chain.length; i++) {
+			if (before[i] != visible.containsKey(chain[i])) {
+				for (int j = i - 1; j < chain.length; j++) {
+					shownChildren.remove(chain[j]);
+				}
+				TreeModelEvent above = new TreeModelEvent(this, new TreePath(
+						Arrays.copyOf(chain, i)));
+				events.add(() -> fireTreeStructureChanged(above));
+				return;
+			}
+		}
+		if (visible.containsKey(node)) {
+			TreeModelEvent structure = new TreeModelEvent(this, path);
+			events.add(() -> fireTreeStructureChanged(structure));
+		}
+	}
+
+	// Bookkeeping, all under the tree's read lock.
+
+	/**
+	 * Show a node and its ancestors.
+	 *
+	 * @param node
+	 *            the node.
+	 * @return the highest node that was not shown before, or null if the node
+	 *         was already shown.
+	 */
+	private Node show(Node node) {
+		Node top = null;
+		Node next = node;
+		while (next != null && !visible.containsKey(next)) {
+			Node parent = (Node) next.getParent();
+			visible.put(next, parent);
+			if (parent != null) {
+				visibleBelow.computeIfAbsent(parent, key -> Collections
+						.newSetFromMap(new IdentityHashMap<>())).add(next);
+			}
+			top = next;
+			next = parent;
+		}
+		return top;
+	}
+
+	/**
+	 * Stop showing a node, without looking at what is below it.
+	 *
+	 * @param node
+	 *            a shown node.
+	 */
+	private void unshow(Node node) {
+		Node parent = visible.remove(node);
+		Set<Node> siblings = (parent == null) ? null : visibleBelow
+				.get(parent);
+		if (siblings != null) {
+			siblings.remove(node);
+			if (siblings.isEmpty()) {
+				visibleBelow.remove(parent);
+			}
+		}
+		shownChildren.remove(node);
+	}
+
+	/**
+	 * Hide a node, and then its ancestors, for as long as they neither match
+	 * nor have a shown child. The root is always shown.
+	 *
+	 * @param node
+	 *            the node.
+	 * @return the highest node hidden, or null if none were.
+	 */
+	private Node hide(Node node) {
+		Node top = null;
+		Node next = node;
+		while (next != null && next.getParent() != null
+				&& visible.containsKey(next) && !matching.contains(next)
+				&& !visibleBelow.containsKey(next)) {
+			unshow(next);
+			top = next;
+			next = (Node) next.getParent();
+		}
+		return top;
+	}
+
+	/**
+	 * Forget the shown nodes of a subtree, as they were shown, so that those
+	 * that have since left it are forgotten too. Takes time in proportion to
+	 * the shown nodes of the subtree.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 */
+	private void forgetSubtree(Node top) {
+		if (!visible.containsKey(top)) {
+			// Nothing below a hidden node is shown.
+			return;
+		}
+		unshow(top);
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push(top);
+		while (!pending.isEmpty()) {
+			Node node = pending.pop();
+			matching.remove(node);
+			Set<Node> below = visibleBelow.remove(node);
+			if (below == null) {
+				continue;
+			}
+			for (Node child : below) {
+				visible.remove(child);
+				shownChildren.remove(child);
+				pending.push(child);
+			}
+		}
+	}
+
+	/**
+	 * @param parent
+	 *            a node.
+	 * @return its shown children, as listeners were last told of them. Listed
+	 *         from the tree when first asked for.
+	 */
+	private Node[] shownChildren(Node parent) {
+		return shown(parent).nodes;
+	}
+
+	/**
+	 * @param parent
+	 *            a node.
+	 * @return its shown children, as listeners were last told of them. Listed
+	 *         from the tree when first asked for.
+	 */
+	private ShownChildren shown(Node parent) {
+		ShownChildren shown = shownChildren.get(parent);
+		if (shown != null) {
+			return shown;
+		}
+		if (!visible.containsKey(parent)) {
+			return ShownChildren.NONE;
+		}
+		List<Node> list = new ArrayList<>();
+		int count = parent.getChildCount();
+		for (int i = 0; i < count; i++) {
+			Node child = (Node) parent.getChildAt(i);
+			if (visible.containsKey(child)) {
+				list.add(child);
+			}
+		}
+		shown = new ShownChildren(list.toArray(NO_CHILDREN));
+		shownChildren.put(parent, shown);
+		return shown;
+	}
+
+	/**
+	 * @param parent
+	 *            a node.
+	 * @return its shown children if they have been listed, otherwise null.
+	 */
+	private Node[] listedChildren(Node parent) {
+		ShownChildren shown = shownChildren.get(parent);
+		return (shown == null) ? null : shown.nodes;
+	}
+
+	/**
+	 * Add nodes to the shown children of their parent, in their order in the
+	 * tree, with an insert for listeners.
+	 *
+	 * @param parent
+	 *            a shown node.
+	 * @param added
+	 *            children of it just shown, in any order.
+	 * @param events
+	 *            our events, to send once the lock is let go.
+	 */
+	private void addShown(Node parent, List<Node> added, List<Runnable> events) {
+		if (added.isEmpty()) {
+			return;
+		}
+		Set<Node> adding = Collections.newSetFromMap(new IdentityHashMap<>());
+		adding.addAll(added);
+		Node[] shown = listedChildren(parent);
+		if (shown == null) {
+			// Not asked for yet, so as they were before.
+			List<Node> before = new ArrayList<>(Arrays.asList(shownChildren(
+					parent)));
+			before.removeIf(adding::contains);
+			shown = before.toArray(NO_CHILDREN);
+		}
+		Set<Node> known = Collections.newSetFromMap(new IdentityHashMap<>());
+		Collections.addAll(known, shown);
+		adding.removeIf(known::contains);
+		if (adding.isEmpty()) {
+			return;
+		}
+		// Each new child goes after the known children before it in the
+		// tree; known children that have left it keep their place.
+		List<Node> order = new ArrayList<>();
+		List<Integer> knownBefore = new ArrayList<>();
+		int seen = 0;
+		int count = parent.getChildCount();
+		for (int i = 0; i < count; i++) {
+			Node child = (Node) parent.getChildAt(i);
+			if (known.contains(child)) {
+				seen++;
+			} else if (adding.contains(child)) {
+				order.add(child);
+				knownBefore.add(seen);
+			}
+		}
+		if (order.isEmpty()) {
+			return;
+		}
+		Node[] merged = new Node[shown.length + order.size()];
+		int[] indices = new int[order.size()];
+		int next = 0;
+		int to = 0;
+		int live = 0;
+		for (int from = 0; from <= shown.length; from++) {
+			while (next < order.size() && knownBefore.get(next) == live) {
+				indices[next] = to;
+				merged[to++] = order.get(next++);
+			}
+			if (from == shown.length) {
+				break;
+			}
+			merged[to++] = shown[from];
+			if (shown[from].getParent() == parent) {
+				live++;
+			}
+		}
+		shownChildren.put(parent, new ShownChildren(merged));
+		TreeModelEvent e = new TreeModelEvent(this, parent.getPathFromRoot(),
+				indices, order.toArray());
+		events.add(() -> fireTreeNodesInserted(e));
+	}
+
+	/**
+	 * Take nodes out of the shown children of a parent, with a remove for
+	 * listeners.
+	 *
+	 * @param parent
+	 *            a node.
+	 * @param gone
+	 *            nodes no longer shown there, in any order.
+	 * @param removal
+	 *            the event that took them out of the tree, or null if they are
+	 *            still children of the parent.
+	 * @param events
+	 *            our events, to send once the lock is let go.
+	 */
+	private void removeShown(Node parent, List<Node> gone,
+			TreeModelEvent removal, List<Runnable> events) {
+		if (gone.isEmpty()) {
+			return;
+		}
+		Set<Node> removing = Collections.newSetFromMap(new IdentityHashMap<>());
+		removing.addAll(gone);
+		Node[] shown = listedChildren(parent);
+		if (shown == null) {
+			// Not asked for yet, so work out what they were before.
+			shown = shownBefore(parent, removing, removal);
+		}
+		List<Node> kept = new ArrayList<>(shown.length);
+		List<Node> removed = new ArrayList<>();
+		int[] indices = new int[gone.size()];
+		for (int i = 0; i < shown.length; i++) {
+			if (removing.contains(shown[i])) {
+				indices[removed.size()] = i;
+				removed.add(shown[i]);
+			} else {
+				kept.add(shown[i]);
+			}
+		}
+		if (removed.isEmpty()) {
+			return;
+		}
+		shownChildren.put(parent,
+				new ShownChildren(kept.toArray(NO_CHILDREN)));
+		TreeModelEvent e = new TreeModelEvent(this, parent.getPathFromRoot(),
+				Arrays.copyOf(indices, removed.size()), removed.toArray());
+		events.add(() -> fireTreeNodesRemoved(e));
+	}
+
+	/**
+	 * @param parent
+	 *            a node.
+	 * @param gone
+	 *            nodes no longer shown there.
+	 * @param removal
+	 *            the event that took them out of the tree, or null if they are
+	 *            still children of the parent.
+	 * @return the shown children of the parent before the nodes went.
+	 */
+	private Node[] shownBefore(Node parent, Set<Node> gone,
+			TreeModelEvent removal) {
+		List<Node> children = new ArrayList<>();
+		int count = parent.getChildCount();
+		for (int i = 0; i < count; i++) {
+			children.add((Node) parent.getChildAt(i));
+		}
+		if (removal != null) {
+			// Put the removed children back where they were.
+			int[] indices = removal.getChildIndices();
+			Object[] removed = removal.getChildren();
+			for (int i = 0; i < indices.length; i++) {
+				children.add(Math.min(indices[i], children.size()),
+						(Node) removed[i]);
+			}
+		}
+		List<Node> shown = new ArrayList<>();
+		for (Node child : children) {
+			if (visible.containsKey(child) || gone.contains(child)) {
+				shown.add(child);
+			}
+		}
+		return shown.toArray(NO_CHILDREN);
+	}
+
+	/**
+	 * @param top
+	 *            top of a subtree.
+	 * @return the nodes of the subtree that match, found in parallel if there
+	 *         are many.
+	 */
+	private List<Node> collectMatches(Node top) {
+		Stream<Node> nodes = NodeTraversal.stream(top);
+		if (top.getDescendantCount() >= PARALLEL_SIZE) {
+			nodes = nodes.parallel();
+		}
+		return nodes.filter(predicate).collect(Collectors.toList());
+	}
+
+	// Locking.
+
+	/**
+	 * Run under the tree's read lock, if it has one.
+	 *
+	 * @param reader
+	 *            the work.
+	 */
+	private void readLocked(Runnable reader) {
+		TreeLock lock = root.getTreeLock();
+		if (lock == null) {
+			reader.run();
+		} else {
+			lock.readLocked(reader);
+		}
+	}
+
+	/**
+	 * Read under the tree's read lock, if it has one. Unlike
+	 * {@link TreeLock#read(Supplier)} the reader runs exactly once, as it may
+	 * remember what it worked out.
+	 *
+	 * @param reader
+	 *            the read.
+	 * @return what the reader returned.
+	 */
+	private <T> T read(Supplier<T> reader) {
+		List<T> result = new ArrayList<>(1);
+		readLocked(() -> result.add(reader.get()));
+		return result.get(0);
+	}
+
+	private static Node toNode(Object node) {
+		if (!(node instanceof Node)) {
+			throw new IllegalArgumentException("Expecting node to be of class "
+					+ Node.class.getCanonicalName() + ", but I got "
+					+ ((node == null) ? null : node.getClass()
+							.getCanonicalName()));
+		}
+		return (Node) node;
+	}
+
+	/**
+	 * The shown children of a node, never changed but replaced, with their
+	 * indices found by identity once first asked for.
+	 */
+	private static final class ShownChildren {
+
+		/** No shown children. */
+		static final ShownChildren NONE = new ShownChildren(NO_CHILDREN);
+
+		/** The children. */
+		final Node[] nodes;
+
+		/** Index of each child, made when first needed. */
+		private volatile Map<Node, Integer> indices;
+
+		ShownChildren(Node[] nodes) {
+			this.nodes = nodes;
+		}
+
+		/**
+		 * @param node
+		 *            a node.
+		 * @return its index among the children, or -1.
+		 */
+		int indexOf(Node node) {
+			Map<Node, Integer> map = indices;
+			if (map == null) {
+				map = new IdentityHashMap<>(nodes.length);
+				for (int i = 0; i < nodes.length; i++) {
+					map.put(nodes[i], i);
+				}
+				indices = map;
+			}
+			Integer index = map.get(node);
+			return (index == null) ? -1 : index;
+		}
+	}
+}
@@ -0,0 +1,593 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.Arrays;
+
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * A TreeModel of one version of a tree, taken by
+ * {@link VersionedTree#snapshot()}. It never changes, so it may be read from
+ * any number of threads at once without locking, and has no events to send.
+ * <p>
+ *
+ * Versions share every subtree that did not change between them, so holding
+ * on to a snapshot costs only what has changed since. A node with many
+ * children also shares all but a few short arrays of them with its earlier
+ * versions.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public final class FrozenTreeModel implements TreeModel {
+
+	/** The root of this version. */
+	private final FrozenNode root;
+
+	/** Number of this version. Later versions have larger numbers. */
+	private final long version;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param root
+	 *            the root of the version.
+	 * @param version
+	 *            number of the version.
+	 */
+	FrozenTreeModel(FrozenNode root, long version) {
+		this.root = root;
+		this.version = version;
+	}
+
+	/**
+	 * @return the number of this version. Later versions have larger
+	 *         numbers.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the number of nodes in this version.
+	 */
+	public long size() {
+		return root.size;
+	}
+
+	@Override
+	public FrozenNode getRoot() {
+		return root;
+	}
+
+	@Override
+	public Object getChild(Object parent, int index) {
+		return toFrozen(parent).children.get(index);
+	}
+
+	@Override
+	public int getChildCount(Object parent) {
+		return toFrozen(parent).children.size();
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		return toFrozen(node).children.size() == 0;
+	}
+
+	/**
+	 * {@inheritDoc} Versions share nodes, so a node can't know its own index;
+	 * this looks through the children.
+	 */
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		if (!(parent instanceof FrozenNode) || child == null) {
+			return -1;
+		}
+		return ((FrozenNode) parent).children.indexOf(child);
+	}
+
+	/**
+	 * Snapshots are read only.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             always.
+	 */
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		throw new UnsupportedOperationException("snapshots are read only");
+	}
+
+	/**
+	 * {@inheritDoc} Snapshots never change, so listeners are not kept.
+	 */
+	@Override
+	public void addTreeModelListener(TreeModelListener listener) {
+		// Nothing will ever happen.
+	}
+
+	@Override
+	public void removeTreeModelListener(TreeModelListener listener) {
+		// Never kept.
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + " version " + version;
+	}
+
+	private static FrozenNode toFrozen(Object node) {
+		if (!(node instanceof FrozenNode)) {
+			throw new IllegalArgumentException("Expecting node to be of class "
+					+ FrozenNode.class.getCanonicalName() + ", but I got "
+					+ ((node == null) ? null : node.getClass()
+							.getCanonicalName()));
+		}
+		return (FrozenNode) node;
+	}
+
+	/**
+	 * A node of a snapshot. Never changes; a change to the tree makes new
+	 * nodes for the changed node and its ancestors, and shares the rest.
+	 */
+	public static final class FrozenNode {
+
+		/** Children of a leaf. */
+		static final FrozenNode[] NO_CHILDREN = new FrozenNode[0];
+
+		private final String name;
+
+		/** Never changed, only replaced. */
+		private final FrozenChildren children;
+
+		/** Number of nodes here and below. */
+		private final long size;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name
+		 *            the name.
+		 * @param children
+		 *            the children. Must not be changed afterwards.
+		 */
+		FrozenNode(String name, FrozenNode[] children) {
+			this.name = name;
+			this.children = FrozenChildren.of(children);
+			long total = 1;
+			for (FrozenNode child : children) {
+				total += child.size;
+			}
+			this.size = total;
+		}
+
+		private FrozenNode(String name, FrozenChildren children, long size) {
+			this.name = name;
+			this.children = children;
+			this.size = size;
+		}
+
+		/**
+		 * @return the name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the number of children.
+		 */
+		public int getChildCount() {
+			return children.size();
+		}
+
+		/**
+		 * @param index
+		 *            index of a child.
+		 * @return the child.
+		 */
+		public FrozenNode getChildAt(int index) {
+			return children.get(index);
+		}
+
+		/**
+		 * @return the number of nodes here and below.
+		 */
+		public long size() {
+			return size;
+		}
+
+		/**
+		 * Note this string is used as a label in JTree.
+		 */
+		@Override
+		public String toString() {
+			return name;
+		}
+
+		// Making changed copies.
+
+		FrozenNode withName(String newName) {
+			return new FrozenNode(newName, children, size);
+		}
+
+		FrozenNode withChild(int index, FrozenNode child) {
+			return new FrozenNode(name, children.with(index, child), size
+					- children.get(index).size + child.size);
+		}
+
+		/**
+		 * @param indices
+		 *            ascending positions the children will have.
+		 * @param added
+		 *            the children.
+		 */
+		FrozenNode withInserted(int[] indices, FrozenNode[] added) {
+			long total = size;
+			for (FrozenNode child : added) {
+				total += child.size;
+			}
+			if (added.length > FrozenChildren.WIDTH) {
+				// Cheaper to lay them all out again than to add each.
+				FrozenNode[] current = children.toArray();
+				FrozenNode[] copy = new FrozenNode[current.length
+						+ added.length];
+				int from = 0;
+				int next = 0;
+				for (int i = 0; i < copy.length; i++) {
+					if (next < indices.length && indices[next] == i) {
+						copy[i] = added[next++];
+					} else {
+						copy[i] = current[from++];
+					}
+				}
+				return new FrozenNode(name, FrozenChildren.of(copy), total);
+			}
+			FrozenChildren changed = children;
+			for (int i = 0; i < indices.length; i++) {
+				changed = changed.withInserted(indices[i], added[i]);
+			}
+			return new FrozenNode(name, changed, total);
+		}
+
+		/**
+		 * @param indices
+		 *            ascending positions the children had.
+		 */
+		FrozenNode withRemoved(int[] indices) {
+			long total = size;
+			for (int index : indices) {
+				total -= children.get(index).size;
+			}
+			if (indices.length > FrozenChildren.WIDTH) {
+				FrozenNode[] current = children.toArray();
+				FrozenNode[] copy = new FrozenNode[current.length
+						- indices.length];
+				int to = 0;
+				int next = 0;
+				for (int i = 0; i < current.length; i++) {
+					if (next < indices.length && indices[next] == i) {
+						next++;
+					} else {
+						copy[to++] = current[i];
+					}
+				}
+				return new FrozenNode(name, FrozenChildren.of(copy), total);
+			}
+			FrozenChildren changed = children;
+			// From the last, so the positions of those left to go still hold.
+			for (int i = indices.length - 1; i >= 0; i--) {
+				changed = changed.without(indices[i]);
+			}
+			return new FrozenNode(name, changed, total);
+		}
+	}
+
+	/**
+	 * The children of a FrozenNode: a list that never changes, whose changed
+	 * copies share all but a few short arrays with it. It is kept as a tree of
+	 * arrays of at most {@link #WIDTH} entries, so replacing, adding or
+	 * removing a child copies one array on each level of that tree, rather
+	 * than every child.
+	 */
+	static final class FrozenChildren {
+
+		/** Most entries in one array. */
+		static final int WIDTH = 64;
+
+		/** No children. */
+		static final FrozenChildren NONE = new FrozenChildren(
+				new FrozenNode[0]);
+
+		/** The children, on the lowest level; otherwise null. */
+		private final FrozenNode[] nodes;
+
+		/** The parts holding the children, above the lowest level. */
+		private final FrozenChildren[] parts;
+
+		/** Number of children in each part and those before it. */
+		private final int[] ends;
+
+		/** Number of children. */
+		private final int count;
+
+		private FrozenChildren(FrozenNode[] nodes) {
+			this.nodes = nodes;
+			this.parts = null;
+			this.ends = null;
+			this.count = nodes.length;
+		}
+
+		private FrozenChildren(FrozenChildren[] parts) {
+			this.nodes = null;
+			this.parts = parts;
+			this.ends = new int[parts.length];
+			int total = 0;
+			for (int i = 0; i < parts.length; i++) {
+				total += parts[i].count;
+				ends[i] = total;
+			}
+			this.count = total;
+		}
+
+		private FrozenChildren(FrozenChildren[] parts, int[] ends, int count) {
+			this.nodes = null;
+			this.parts = parts;
+			this.ends = ends;
+			this.count = count;
+		}
+
+		/**
+		 * @param all
+		 *            the children. Must not be changed afterwards.
+		 * @return the children as a list.
+		 */
+		static FrozenChildren of(FrozenNode[] all) {
+			if (all.length == 0) {
+				return NONE;
+			}
+			if (all.length <= WIDTH) {
+				return new FrozenChildren(all);
+			}
+			FrozenChildren[] level = new FrozenChildren[(all.length
+					+ WIDTH - 1) / WIDTH];
+			for (int i = 0; i < level.length; i++) {
+				level[i] = new FrozenChildren(Arrays.copyOfRange(all, i
+						* WIDTH, Math.min(all.length, (i + 1) * WIDTH)));
+			}
+			while (level.length > WIDTH) {
+				FrozenChildren[] above = new FrozenChildren[(level.length
+						+ WIDTH - 1) / WIDTH];
+				for (int i = 0; i < above.length; i++) {
+					above[i] = new FrozenChildren(Arrays.copyOfRange(level, i
+							* WIDTH, Math.min(level.length, (i + 1) * WIDTH)));
+				}
+				level = above;
+			}
+			return new FrozenChildren(level);
+		}
+
+		/**
+		 * @return the number of children.
+		 */
+		int size() {
+			return count;
+		}
+
+		/**
+		 * @param index
+		 *            index of a child.
+		 * @return the child.
+		 */
+		FrozenNode get(int index) {
+			checkIndex(index, count);
+			FrozenChildren part = this;
+			while (part.nodes == null) {
+				int k = part.partOf(index);
+				index -= part.start(k);
+				part = part.parts[k];
+			}
+			return part.nodes[index];
+		}
+
+		/**
+		 * @param child
+		 *            a possible child.
+		 * @return its index, or -1 if it is not one of the children.
+		 */
+		int indexOf(Object child) {
+			if (nodes != null) {
+				for (int i = 0; i < nodes.length; i++) {
+					if (nodes[i] == child) {
+						return i;
+					}
+				}
+				return -1;
+			}
+			for (int k = 0; k < parts.length; k++) {
+				int index = parts[k].indexOf(child);
+				if (index >= 0) {
+					return start(k) + index;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the children in a new array.
+		 */
+		FrozenNode[] toArray() {
+			FrozenNode[] all = new FrozenNode[count];
+			copyInto(all, 0);
+			return all;
+		}
+
+		private void copyInto(FrozenNode[] all, int from) {
+			if (nodes != null) {
+				System.arraycopy(nodes, 0, all, from, nodes.length);
+				return;
+			}
+			for (int k = 0; k < parts.length; k++) {
+				parts[k].copyInto(all, from + start(k));
+			}
+		}
+
+		/**
+		 * @param index
+		 *            index of a child.
+		 * @param child
+		 *            the child to have there instead.
+		 * @return the changed copy.
+		 */
+		FrozenChildren with(int index, FrozenNode child) {
+			checkIndex(index, count);
+			if (nodes != null) {
+				FrozenNode[] copy = nodes.clone();
+				copy[index] = child;
+				return new FrozenChildren(copy);
+			}
+			int k = partOf(index);
+			FrozenChildren[] copy = parts.clone();
+			copy[k] = parts[k].with(index - start(k), child);
+			// Counts are unchanged, so the ends are shared.
+			return new FrozenChildren(copy, ends, count);
+		}
+
+		/**
+		 * @param index
+		 *            where the child goes, at most the number of children.
+		 * @param child
+		 *            the new child.
+		 * @return the changed copy.
+		 */
+		FrozenChildren withInserted(int index, FrozenNode child) {
+			checkIndex(index, count + 1);
+			FrozenChildren[] halves = inserted(index, child);
+			return (halves.length == 1) ? halves[0] : new FrozenChildren(
+					halves);
+		}
+
+		/**
+		 * @return the changed copy, split in two halves if it is too wide.
+		 */
+		private FrozenChildren[] inserted(int index, FrozenNode child) {
+			if (nodes != null) {
+				FrozenNode[] copy = new FrozenNode[nodes.length + 1];
+				System.arraycopy(nodes, 0, copy, 0, index);
+				copy[index] = child;
+				System.arraycopy(nodes, index, copy, index + 1, nodes.length
+						- index);
+				if (copy.length <= WIDTH) {
+					return new FrozenChildren[] { new FrozenChildren(copy) };
+				}
+				int half = copy.length / 2;
+				return new FrozenChildren[] {
+						new FrozenChildren(Arrays.copyOfRange(copy, 0, half)),
+						new FrozenChildren(Arrays.copyOfRange(copy, half,
+								copy.length)) };
+			}
+			int k = (index == count) ? parts.length - 1 : partOf(index);
+			FrozenChildren[] changed = parts[k].inserted(index - start(k),
+					child);
+			FrozenChildren[] copy = new FrozenChildren[parts.length
+					+ changed.length - 1];
+			System.arraycopy(parts, 0, copy, 0, k);
+			System.arraycopy(changed, 0, copy, k, changed.length);
+			System.arraycopy(parts, k + 1, copy, k + changed.length,
+					parts.length - k - 1);
+			if (copy.length <= WIDTH) {
+				return new FrozenChildren[] { new FrozenChildren(copy) };
+			}
+			int half = copy.length / 2;
+			return new FrozenChildren[] {
+					new FrozenChildren(Arrays.copyOfRange(copy, 0, half)),
+					new FrozenChildren(Arrays.copyOfRange(copy, half,
+							copy.length)) };
+		}
+
+		/**
+		 * @param index
+		 *            index of the child to remove.
+		 * @return the changed copy.
+		 */
+		FrozenChildren without(int index) {
+			checkIndex(index, count);
+			FrozenChildren rest = removed(index);
+			if (rest == null) {
+				return NONE;
+			}
+			// Drop levels left with a single part.
+			while (rest.parts != null && rest.parts.length == 1) {
+				rest = rest.parts[0];
+			}
+			return rest;
+		}
+
+		/**
+		 * @return the changed copy, or null if no children are left.
+		 */
+		private FrozenChildren removed(int index) {
+			if (nodes != null) {
+				if (nodes.length == 1) {
+					return null;
+				}
+				FrozenNode[] copy = new FrozenNode[nodes.length - 1];
+				System.arraycopy(nodes, 0, copy, 0, index);
+				System.arraycopy(nodes, index + 1, copy, index, copy.length
+						- index);
+				return new FrozenChildren(copy);
+			}
+			int k = partOf(index);
+			FrozenChildren part = parts[k].removed(index - start(k));
+			FrozenChildren[] copy;
+			if (part != null) {
+				copy = parts.clone();
+				copy[k] = part;
+			} else if (parts.length == 1) {
+				return null;
+			} else {
+				copy = new FrozenChildren[parts.length - 1];
+				System.arraycopy(parts, 0, copy, 0, k);
+				System.arraycopy(parts, k + 1, copy, k, copy.length - k);
+			}
+			return new FrozenChildren(copy);
+		}
+
+		/**
+		 * @param index
+		 *            index of a child, less than the number of children.
+		 * @return the part holding it.
+		 */
+		private int partOf(int index) {
+			int low = 0;
+			int high = ends.length - 1;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (ends[middle] > index) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @param k
+		 *            a part.
+		 * @return the index of its first child.
+		 */
+		private int start(int k) {
+			return (k == 0) ? 0 : ends[k - 1];
+		}
+
+		private static void checkIndex(int index, int limit) {
+			if (index < 0 || index >= limit) {
+				throw new ArrayIndexOutOfBoundsException(index + " of "
+						+ limit);
+			}
+		}
+	}
+}
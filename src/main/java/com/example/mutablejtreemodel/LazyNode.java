@@ -0,0 +1,159 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A Node whose children are only created, by a {@link ChildProvider}, when a
+ * model first asks for them. A JTree asks when the node is expanded, so only
+ * the visible part of a large tree is ever created.
+ * <p>
+ *
+ * Until then the node reports itself a leaf only if the provider says it has
+ * no children. Loading sends no event, as no listener has seen the children
+ * before. Adding children also loads the node first, but removing does not.
+ * <p>
+ *
+ * Calling {@link #getChildCount()} directly on a node that is not loaded
+ * returns the children added so far. Call {@link #prepareChildren()} first to
+ * load them.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class LazyNode extends Node {
+
+	/** class logger */
+	private static final Logger logger = LogManager.getLogger(LazyNode.class);
+
+	/** serial id. */
+	private static final long serialVersionUID = 1L;
+
+	/** Creates our children. */
+	private final transient ChildProvider provider;
+
+	/** True once our children have been created. */
+	private volatile boolean loaded;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *            name of node.
+	 * @param provider
+	 *            creates our children.
+	 */
+	public LazyNode(String name, ChildProvider provider) {
+		super(name);
+		if (provider == null) {
+			throw new IllegalArgumentException("provider is null");
+		}
+		this.provider = provider;
+	}
+
+	/**
+	 * @return the provider creating our children.
+	 */
+	public ChildProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * @return true once our children have been created.
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Create our children if that hasn't happened yet.
+	 */
+	@Override
+	public void prepareChildren() {
+		if (loaded) {
+			return;
+		}
+		// The provider may be slow, so don't keep others waiting for it.
+		List<? extends Node> nodes = provider.loadChildren(this);
+		Node[] added = (nodes == null) ? new Node[0] : nodes
+				.toArray(new Node[nodes.size()]);
+		for (Node child : added) {
+			if (child == null || child.getParent() != null) {
+				throw new IllegalStateException(
+						"provider returned a null child or one with a parent");
+			}
+		}
+		TreeLock lock = lockTree();
+		try {
+			if (loaded) {
+				// Someone else got there first.
+				return;
+			}
+			if (added.length > 0) {
+				attachChildren(getChildCount(), added);
+			}
+			loaded = true;
+		} finally {
+			unlockTree(lock);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("this='{}' loaded {} children", this, added.length);
+		}
+	}
+
+	/**
+	 * Mark us loaded, with a single placeholder child, so that our children
+	 * can be added later. Sends no event.
+	 *
+	 * @param placeholder
+	 *            shown until the real children arrive.
+	 * @return false if we were already loaded.
+	 */
+	boolean startLoading(Node placeholder) {
+		TreeLock lock = lockTree();
+		try {
+			if (loaded) {
+				return false;
+			}
+			attachChildren(getChildCount(), new Node[] { placeholder });
+			loaded = true;
+			return true;
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	/**
+	 * Remove all our children, so that they are created again when next
+	 * needed. Listeners are told our structure changed, rather than of each
+	 * removed child.
+	 */
+	public void unloadChildren() {
+		TreeLock lock = lockTree();
+		try {
+			int count = getChildCount();
+			if (count > 0) {
+				detachChildren(0, count);
+			}
+			loaded = false;
+			fireTreeStructureChanged();
+		} finally {
+			unlockTree(lock);
+		}
+		logger.debug("this='{}' unloaded", this);
+	}
+
+	/**
+	 * {@inheritDoc} Does not create our children.
+	 */
+	@Override
+	public boolean isLeaf() {
+		if (!loaded) {
+			return !provider.hasChildren(this);
+		}
+		return super.isLeaf();
+	}
+}
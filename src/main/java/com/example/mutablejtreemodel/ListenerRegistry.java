@@ -0,0 +1,146 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.Arrays;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+
+/**
+ * A set of TreeModelListener objects, and the sending of events to them.
+ * <p>
+ *
+ * The listeners are held in an immutable array which is replaced on every add
+ * or remove. Sending an event just reads the current array, so it takes no
+ * lock and allocates nothing. This suits listener sets that are read far more
+ * often than they change.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class ListenerRegistry {
+
+	/** Shared by all empty registries. */
+	private static final TreeModelListener[] NO_LISTENERS = new TreeModelListener[0];
+
+	/** The current listeners. Never modified, only replaced. */
+	private volatile TreeModelListener[] listeners = NO_LISTENERS;
+
+	/** synchronisation lock. Only taken when changing the listeners. */
+	private final Object objLock = new Object();
+
+	/**
+	 * Add a listener. Null and listeners already present are ignored.
+	 *
+	 * @param listener
+	 *            listener to add.
+	 */
+	public void add(TreeModelListener listener) {
+		if (listener == null) {
+			return;
+		}
+		synchronized (objLock) {
+			TreeModelListener[] current = listeners;
+			for (TreeModelListener existing : current) {
+				if (existing == listener) {
+					return;
+				}
+			}
+			TreeModelListener[] replacement = Arrays.copyOf(current,
+					current.length + 1);
+			replacement[current.length] = listener;
+			listeners = replacement;
+		}
+	}
+
+	/**
+	 * Remove a listener.
+	 *
+	 * @param listener
+	 *            listener to remove.
+	 */
+	public void remove(TreeModelListener listener) {
+		if (listener == null) {
+			return;
+		}
+		synchronized (objLock) {
+			TreeModelListener[] current = listeners;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i] == listener) {
+					if (current.length == 1) {
+						listeners = NO_LISTENERS;
+					} else {
+						TreeModelListener[] replacement = new TreeModelListener[current.length - 1];
+						System.arraycopy(current, 0, replacement, 0, i);
+						System.arraycopy(current, i + 1, replacement, i,
+								current.length - i - 1);
+						listeners = replacement;
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if there are no listeners.
+	 */
+	public boolean isEmpty() {
+		return listeners.length == 0;
+	}
+
+	/**
+	 * @return a copy of the current listeners.
+	 */
+	public TreeModelListener[] getListeners() {
+		return listeners.clone();
+	}
+
+	/**
+	 * Notify listeners that node(s) have changed.
+	 *
+	 * @param e
+	 *            event
+	 */
+	public void fireTreeNodesChanged(TreeModelEvent e) {
+		for (TreeModelListener listener : listeners) {
+			listener.treeNodesChanged(e);
+		}
+	}
+
+	/**
+	 * Notify listeners that node(s) have been inserted.
+	 *
+	 * @param e
+	 *            event
+	 */
+	public void fireTreeNodesInserted(TreeModelEvent e) {
+		for (TreeModelListener listener : listeners) {
+			listener.treeNodesInserted(e);
+		}
+	}
+
+	/**
+	 * Notify listeners that node(s) have been removed.
+	 *
+	 * @param e
+	 *            event
+	 */
+	public void fireTreeNodesRemoved(TreeModelEvent e) {
+		for (TreeModelListener listener : listeners) {
+			listener.treeNodesRemoved(e);
+		}
+	}
+
+	/**
+	 * Notify listeners that node(s) have changed structure.
+	 *
+	 * @param e
+	 *            event
+	 */
+	public void fireTreeStructureChanged(TreeModelEvent e) {
+		for (TreeModelListener listener : listeners) {
+			listener.treeStructureChanged(e);
+		}
+	}
+}
@@ -42,7 +42,7 @@ public class Main {
 			// TODO fix - root.setName("Root Node Name "+i);
 			for (int j = 0; j < 2; j++) {
 				var name = "CHILD_NODE_" + i + "_" + j;
-				logger.info("Adding node: "+name);
+				logger.info("Adding node: {}", name);
 				Thread.sleep(1000);
 				child = new Node(name);
 				parent.add(child);
@@ -58,7 +58,7 @@ public class Main {
 
 		while(!nodes.isEmpty()){
 			var node = nodes.removeLast();
-			logger.info("Removing node: "+node);
+			logger.info("Removing node: {}", node);
 			node.destroy();
 			Thread.sleep(1000);
 		}
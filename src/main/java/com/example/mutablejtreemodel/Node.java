@@ -1,8 +1,16 @@
 /** This document is AS-IS. No claims are made for suitability for any purpose. */
 package com.example.mutablejtreemodel;
 
+import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.Vector;
 
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
@@ -22,6 +30,20 @@ import org.apache.logging.log4j.Logger;
  * Nodes will also listen for tree change events in their neighbours.
  * <p>
  *
+ * Listeners of a node hear about the changes that node makes. Listeners of the
+ * root node also hear about changes made anywhere in its tree, so a model only
+ * needs to listen to the root, however the tree was built.
+ * <p>
+ *
+ * Each node keeps totals over its subtree: the number of nodes and leaves
+ * below it, its height, and the sum of a weight that may be given to each
+ * node, e.g. a size in bytes. These are updated along the path to the root as
+ * children come and go, so reading them takes constant time and a change
+ * costs time in proportion to its depth. A tree may also keep values given to
+ * its nodes combined some other way, set on its root as a
+ * {@link SubtreeAggregate}.
+ * <p>
+ *
  *
  * @author xenomorpheus
  * @version $Revision: 1.0 $
@@ -34,22 +56,64 @@ public class Node extends DefaultMutableTreeNode {
 	/** class logger */
 	private static final Logger logger = LogManager.getLogger(Node.class);
 
-	/** synchronisation lock */
-	private final Object objLock = new Object();
+	/**
+	 * synchronisation lock. Only taken when a node gets its first listener,
+	 * so one is shared by all nodes rather than each carrying its own.
+	 */
+	private static final Object objLock = new Object();
 	// Read more:
 	// http://javarevisited.blogspot.com/2011/04/synchronization-in-java-synchronized.html#ixzz2wy76gzSj
 
-	/** The human identifiable name of this node. */
-	private String name;
+	/** Taken when two tree locks can't be ordered by identity hash. */
+	private static final Object TIE_LOCK = new Object();
+
+	/** Index meaning after the last child, whatever the count is by then. */
+	private static final int APPEND = -1;
+
+	/** Our path from the root, valid while its epoch is current. */
+	private transient volatile CachedPath cachedPath;
+
+	/**
+	 * When this node is a root, moved on whenever a node with children leaves
+	 * its place in our tree. Paths cached from an earlier epoch of their root
+	 * may be stale and are rebuilt when next used. Only changed under the
+	 * tree's lock.
+	 */
+	private transient volatile long pathEpoch;
+
+	/**
+	 * Our position in our parent's children. Kept up to date by the parent on
+	 * insert and remove, and checked before use.
+	 */
+	private transient int indexInParent;
 
 	/**
 	 * Those that listen for changes to this node. E.g. other nodes or
-	 * JTreeModel. <br>
+	 * JTreeModel. Created when the first listener is added.<br>
 	 * TODO Using weak references for listener set. It's very easy to forget
 	 * removing listeners when the actual instance isn't in use any more and
 	 * thats a source of memory leak.
 	 */
-	private List<TreeModelListener> listeners = new ArrayList<>();
+	private transient volatile ListenerRegistry listeners;
+
+	/**
+	 * When this node is a root, the lock shared by its tree. Null if the tree
+	 * is not shared between threads. Also lent to a node for the moment it is
+	 * without a parent while being moved out of a locked tree.
+	 */
+	private transient volatile TreeLock treeLock;
+
+	/**
+	 * When this node is a root, how the values of its tree's nodes are
+	 * combined. Null if they are not.
+	 */
+	private transient volatile SubtreeAggregate<Object> aggregate;
+
+	/**
+	 * Totals over our subtree. Null until we first have children or a weight,
+	 * so that most leaves don't carry them.
+	 */
+	private Totals totals;
 
 	/**
 	 * Constructor.
@@ -58,8 +122,9 @@ public class Node extends DefaultMutableTreeNode {
 	 *            the human identifiable name of this node.
 	 */
 	public Node(String name) {
-		super();
-		setName(name);
+		// The name is kept as the user object, saving a field per node.
+		// Nobody can be listening yet.
+		super(name);
 	}
 
 	/** Constructor. */
@@ -68,6 +133,13 @@ public class Node extends DefaultMutableTreeNode {
 	}
 
 	// Getters and Setters
+	/**
+	 * @return the human identifiable name of this node.
+	 */
+	public String getName() {
+		return (String) userObject;
+	}
+
 	/**
 	 * Set the name.
 	 *
@@ -75,14 +147,52 @@ public class Node extends DefaultMutableTreeNode {
 	 *            the new name.
 	 */
 	public void setName(String name) {
-		this.name = name;
-		fireNodeChanged();
+		TreeLock lock = lockTree();
+		try {
+			String oldName = getName();
+			super.setUserObject(name);
+			fireNodeChanged(oldName);
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Our user object is our name, so this sets the name.
+	 */
+	@Override
+	public void setUserObject(Object userObject) {
+		setName((userObject == null) ? null : userObject.toString());
+	}
+
+	/**
+	 * Share this tree between threads. Call on the root before other threads
+	 * see the tree. From then on changes to any node in the tree take the
+	 * lock's write lock, and NodeJTreeModel reads the tree through the lock.
+	 * Other readers should do the same with {@link TreeLock#read}.
+	 *
+	 * @param treeLock
+	 *            the lock, or null to stop locking.
+	 */
+	public void setTreeLock(TreeLock treeLock) {
+		this.treeLock = treeLock;
+	}
+
+	/**
+	 * @return the lock of the tree this node is in, or null if the tree is
+	 *         not locked.
+	 */
+	public TreeLock getTreeLock() {
+		return findTreeRoot().treeLock;
 	}
 
 	/**
 	 * Send Events to listeners to inform them of changes to this node.
+	 *
+	 * @param oldName
+	 *            our name before the change.
 	 */
-	private void fireNodeChanged() {
+	private void fireNodeChanged(String oldName) {
 		TreePath path = null;
 		Node parent = (Node) getParent();
 		int[] childIndices = new int[] {};
@@ -91,8 +201,8 @@ public class Node extends DefaultMutableTreeNode {
 			int index = parent.getIndex(this);
 			childIndices = new int[] { index };
 		}
-		TreeModelEvent e = new TreeModelEvent(this, path, childIndices,
-				new TreeNode[] { this });
+		TreeModelEvent e = new NodeRenameEvent(this, path, childIndices,
+				new TreeNode[] { this }, oldName);
 		fireTreeNodesChanged(e);
 	}
 
@@ -102,19 +212,20 @@ public class Node extends DefaultMutableTreeNode {
 	 */
 	@Override
 	public void insert(MutableTreeNode child, int index) {
-		logger.debug("this='" + this + "', child='" + child + "' at index="
-				+ index);
-
-		// If child has existing parent then super will remove it.
-		// TODO Fire event on old parent for losing a node.
-		super.insert(child, index);
+		if (logger.isDebugEnabled()) {
+			logger.debug("this='{}', child='{}' at index={}", this, child,
+					index);
+		}
+		insertAll(index, Collections.singletonList(toNode(child)));
+	}
 
-		// Inform our listeners that we have inserted node(s).
-		// https://docs.oracle.com/javase/7/docs/api/javax/swing/tree/DefaultTreeModel.html#fireTreeNodesInserted(java.lang.Object,%20java.lang.Object[],%20int[],%20java.lang.Object[])
-		TreeModelEvent e = new TreeModelEvent(this, getPathFromRoot(),
-				new int[] { index }, new TreeNode[] { child });
-		logger.debug("this=" + this + " fire event " + e);
-		fireTreeNodesInserted(e);
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void add(MutableTreeNode child) {
+		logger.debug("this='{}', child='{}'", this, child);
+		insertChildren(APPEND, Collections.singletonList(toNode(child)));
 	}
 
 	// MutableTreeNode
@@ -123,53 +234,910 @@ public class Node extends DefaultMutableTreeNode {
 	 */
 	@Override
 	public void remove(MutableTreeNode child) {
-		logger.debug("this=" + this);
+		logger.debug("this={}", this);
+		Node node = toNode(child);
+		TreeLock lock = lockTree();
+		try {
+			int index = getIndex(node);
+			if (index < 0) {
+				throw new IllegalArgumentException("argument is not a child");
+			}
+			removeRange(index, index + 1);
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	// MutableTreeNode
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void remove(int childIndex) {
+		removeRange(childIndex, childIndex + 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeAllChildren() {
+		TreeLock lock = lockTree();
+		try {
+			int count = getChildCount();
+			if (count > 0) {
+				removeRange(0, count);
+			}
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	// Bulk mutation.
+
+	/**
+	 * Append children to the end of this node's children. A single event is
+	 * sent for all of them.
+	 *
+	 * @param nodes
+	 *            the children to append, in order.
+	 */
+	public void addAll(Collection<? extends Node> nodes) {
+		insertChildren(APPEND, new ArrayList<Node>(nodes));
+	}
+
+	/**
+	 * Insert children into this node's children. Any existing parent of a
+	 * child loses that child first. A single event is sent for all of the
+	 * inserted children.
+	 *
+	 * @param index
+	 *            the position of the first new child.
+	 * @param nodes
+	 *            the children to insert, in order.
+	 */
+	public void insertAll(int index, List<? extends Node> nodes) {
+		if (index < 0) {
+			throw new ArrayIndexOutOfBoundsException(index + " < 0");
+		}
+		insertChildren(index, nodes);
+	}
+
+	/**
+	 * Insert children.
+	 *
+	 * @param index
+	 *            the position of the first new child, or {@link #APPEND}.
+	 * @param nodes
+	 *            the children to insert, in order.
+	 */
+	private void insertChildren(int index, List<? extends Node> nodes) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("this='{}', {} children at index={}", this,
+					nodes.size(), index);
+		}
+		if (nodes.isEmpty()) {
+			return;
+		}
+		Node[] added = nodes.toArray(new Node[nodes.size()]);
+		// Nodes equal others of the same name, so compare by identity.
+		Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<>(
+				added.length));
+		for (Node child : added) {
+			if (child == null) {
+				throw new IllegalArgumentException("new child is null");
+			}
+			if (!seen.add(child)) {
+				throw new IllegalArgumentException(
+						"new child appears more than once");
+			}
+		}
+
+		prepareChildren();
+
+		// Children from other trees leave them first, under their own tree's
+		// lock, so that we never hold two trees' locks at once.
+		Node root = findTreeRoot();
+		for (Node child : added) {
+			Node oldParent = (Node) child.getParent();
+			if (oldParent != null && oldParent.findTreeRoot() != root) {
+				oldParent.remove(child);
+			}
+		}
+
+		TreeLock lock = lockTree();
+		try {
+			if (!getAllowsChildren()) {
+				throw new IllegalStateException("node does not allow children");
+			}
+			for (Node child : added) {
+				// Only a node with children can be our ancestor.
+				if (child == this
+						|| (child.getChildCount() > 0 && isNodeAncestor(child))) {
+					throw new IllegalArgumentException(
+							"new child is an ancestor");
+				}
+			}
+
+			// A child may only have one parent.
+			TreeLock[] ownLocks = lendLock(added, lock);
+			try {
+				for (Node child : added) {
+					MutableTreeNode oldParent = (MutableTreeNode) child
+							.getParent();
+					if (oldParent != null) {
+						oldParent.remove(child);
+					}
+				}
+				if (index == APPEND) {
+					index = getChildCount();
+				} else if (index > getChildCount()) {
+					throw new ArrayIndexOutOfBoundsException(index + " > "
+							+ getChildCount());
+				}
+
+				attachChildren(index, added);
+			} finally {
+				returnLock(added, ownLocks);
+			}
+			fireChildrenInserted(index, added);
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	/**
+	 * Remove a range of children. A single event is sent for all of the
+	 * removed children.
+	 *
+	 * @param from
+	 *            index of the first child to remove.
+	 * @param to
+	 *            index after the last child to remove.
+	 */
+	public void removeRange(int from, int to) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("this='{}', from={}, to={}", this, from, to);
+		}
+		TreeLock lock = lockTree();
+		try {
+			if (from < 0 || to > getChildCount() || from > to) {
+				throw new ArrayIndexOutOfBoundsException("from=" + from
+						+ ", to=" + to + ", count=" + getChildCount());
+			}
+			if (from == to) {
+				return;
+			}
+			Node[] removed = detachChildren(from, to);
+			fireChildrenRemoved(from, removed);
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	/**
+	 * Move this node, and everything below it, to a new parent. Our old
+	 * parent, if any, fires a removed event and the new parent then fires an
+	 * inserted event, both before anyone else can change or read the tree.
+	 * Nothing below this node is visited.
+	 *
+	 * @param newParent
+	 *            the new parent. May be our current parent, to reorder.
+	 * @param index
+	 *            our position among the new parent's children, counted
+	 *            without us.
+	 */
+	public void moveTo(Node newParent, int index) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("this='{}', newParent='{}' at index={}", this,
+					newParent, index);
+		}
+		if (newParent == null) {
+			throw new IllegalArgumentException("new parent is null");
+		}
+		newParent.prepareChildren();
+		TreeLock[] locks = lockTrees(this, newParent);
+		try {
+			if (!newParent.getAllowsChildren()) {
+				throw new IllegalStateException("node does not allow children");
+			}
+			if (newParent == this
+					|| (getChildCount() > 0 && newParent.isNodeAncestor(this))) {
+				throw new IllegalArgumentException(
+						"new parent is this node or below it");
+			}
+			Node oldParent = (Node) getParent();
+			int oldIndex = (oldParent == null) ? -1 : oldParent.getIndex(this);
+			int limit = newParent.getChildCount();
+			if (oldParent == newParent) {
+				limit--;
+			}
+			if (index < 0 || index > limit) {
+				throw new ArrayIndexOutOfBoundsException(index + " > " + limit);
+			}
+			if (oldParent == newParent && oldIndex == index) {
+				return;
+			}
+			Node[] moved = new Node[] { this };
+			TreeLock[] ownLocks = lendLock(moved, getTreeRoot().treeLock);
+			try {
+				if (oldParent != null) {
+					oldParent.detachChildren(oldIndex, oldIndex + 1);
+					oldParent.fireChildrenRemoved(oldIndex, moved);
+				}
+				newParent.attachChildren(index, moved);
+			} finally {
+				returnLock(moved, ownLocks);
+			}
+			newParent.fireChildrenInserted(index, moved);
+		} finally {
+			unlockTrees(locks);
+		}
+	}
+
+	/**
+	 * Tell listeners that everything below this node may have changed, so
+	 * they should read it all again.
+	 */
+	public void fireTreeStructureChanged() {
+		// https://docs.oracle.com/javase/7/docs/api/javax/swing/tree/DefaultTreeModel.html#nodeStructureChanged(javax.swing.tree.TreeNode)
+		TreeLock lock = lockTree();
+		try {
+			TreeModelEvent e = new TreeModelEvent(this, getPathFromRoot(),
+					new int[0], new Object[0]);
+			logger.debug("this={} fire event {}", this, e);
+			fireTreeStructureChanged(e);
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	/**
+	 * Called, outside any lock, before our children are read through a model
+	 * or added to. Nodes that create their children on demand do so here.
+	 */
+	protected void prepareChildren() {
+		// Our children are always present.
+	}
+
+	/**
+	 * Put children into our children, without any checks or events.
+	 *
+	 * @param index
+	 *            the position of the first new child.
+	 * @param added
+	 *            the children, none of which have a parent.
+	 */
+	void attachChildren(int index, Node[] added) {
+		if (children == null) {
+			children = new Vector<>(added.length);
+		}
+		children.addAll(index, Arrays.asList(added));
+		for (Node child : added) {
+			child.setParent(this);
+		}
+		reindexChildren(index);
+		childrenAttached(added);
+	}
+
+	/**
+	 * Take children out of our children, without any checks or events.
+	 *
+	 * @param from
+	 *            index of the first child to remove.
+	 * @param to
+	 *            index after the last child to remove.
+	 * @return the removed children.
+	 */
+	Node[] detachChildren(int from, int to) {
+		List<TreeNode> range = children.subList(from, to);
+		Node[] removed = range.toArray(new Node[range.size()]);
+		range.clear();
+		for (Node child : removed) {
+			child.setParent(null);
+		}
+		reindexChildren(from);
+		childrenDetached(removed);
+		return removed;
+	}
+
+	// Subtree totals.
+
+	/**
+	 * @return the number of nodes below this one. Children a lazy node has not
+	 *         yet created are not counted.
+	 */
+	public int getDescendantCount() {
+		Totals tmpTotals = totals;
+		return (tmpTotals == null) ? 0 : tmpTotals.descendants;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Kept up to date as the tree changes, so this takes constant time.
+	 */
+	@Override
+	public int getLeafCount() {
+		Totals tmpTotals = totals;
+		return (tmpTotals == null) ? 1 : tmpTotals.leaves;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Kept up to date as the tree changes, so this takes constant time.
+	 */
+	@Override
+	public int getDepth() {
+		Totals tmpTotals = totals;
+		return (tmpTotals == null) ? 0 : tmpTotals.height;
+	}
+
+	/**
+	 * @return the weight of this node alone. Takes time in proportion to our
+	 *         number of children, as only the totals are kept.
+	 */
+	public long getWeight() {
+		long weight = getSubtreeWeight();
+		int count = getChildCount();
+		for (int i = 0; i < count; i++) {
+			weight -= ((Node) getChildAt(i)).getSubtreeWeight();
+		}
+		return weight;
+	}
+
+	/**
+	 * Set the weight of this node alone, e.g. its size in bytes. Its
+	 * ancestors' totals change to match. No events are sent.
+	 *
+	 * @param weight
+	 *            the new weight. Nodes start with 0.
+	 */
+	public void setWeight(long weight) {
+		TreeLock lock = lockTree();
+		try {
+			long change = weight - getWeight();
+			if (change != 0) {
+				changeTotals(0, 0, change, 0, 0);
+			}
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	/**
+	 * @return the weight of this node and every node below it.
+	 */
+	public long getSubtreeWeight() {
+		Totals tmpTotals = totals;
+		return (tmpTotals == null) ? 0 : tmpTotals.weight;
+	}
+
+	/**
+	 * Combine the values of this tree's nodes over each subtree. Call on the
+	 * root. Each subtree's value is worked out now, in time in proportion to
+	 * the size of the tree, and is then kept up to date as the tree changes.
+	 * A subtree joining the tree is worked out again unless it was last kept
+	 * by the same aggregate.
+	 *
+	 * @param aggregate
+	 *            how to combine values, or null to stop.
+	 */
+	@SuppressWarnings("unchecked")
+	public void setSubtreeAggregate(SubtreeAggregate<?> aggregate) {
+		TreeLock lock = lockTree();
+		try {
+			this.aggregate = (SubtreeAggregate<Object>) aggregate;
+			if (aggregate != null) {
+				aggregate(this, this.aggregate);
+			}
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	/**
+	 * @return how the values of the tree we are in are combined, or null if
+	 *         they are not.
+	 */
+	public SubtreeAggregate<?> getSubtreeAggregate() {
+		return findTreeRoot().aggregate;
+	}
+
+	/**
+	 * @return the value of this node alone, or null if it was never given one.
+	 */
+	public Object getValue() {
+		AggregateValues values = aggregateValues();
+		return (values == null) ? null : values.own;
+	}
+
+	/**
+	 * Give this node a value to be combined over each subtree it is in. Its
+	 * ancestors' combined values change to match. No events are sent.
+	 *
+	 * @param value
+	 *            the value, or null for the aggregate's identity.
+	 */
+	public void setValue(Object value) {
+		TreeLock lock = lockTree();
+		try {
+			SubtreeAggregate<Object> treeAggregate = getTreeRoot().aggregate;
+			AggregateValues values = totals().values;
+			if (values == null) {
+				values = new AggregateValues();
+				values.by = treeAggregate;
+				values.subtree = (treeAggregate == null) ? null
+						: treeAggregate.identity();
+				totals().values = values;
+			}
+			Object old = values.own;
+			values.own = value;
+			if (treeAggregate == null) {
+				values.by = null;
+				TreeNode up = getParent();
+				if (up instanceof Node) {
+					((Node) up).forgetAggregates();
+				}
+			} else if (old != value) {
+				changeAggregates(treeAggregate, own(old, treeAggregate), own(
+						value, treeAggregate));
+			}
+		} finally {
+			unlockTree(lock);
+		}
+	}
+
+	/**
+	 * @return the values of this node and every node below it combined by the
+	 *         tree's aggregate, or null if the tree has none.
+	 */
+	public Object getSubtreeValue() {
+		SubtreeAggregate<Object> treeAggregate = findTreeRoot().aggregate;
+		if (treeAggregate == null) {
+			return null;
+		}
+		return subtreeValue(this, treeAggregate);
+	}
+
+	/**
+	 * @return our values under the tree's aggregate, or null if we have none.
+	 */
+	private AggregateValues aggregateValues() {
+		Totals tmpTotals = totals;
+		return (tmpTotals == null) ? null : tmpTotals.values;
+	}
+
+	/**
+	 * @param value
+	 *            a node's own value, or null.
+	 * @param by
+	 *            the aggregate.
+	 * @return the value, or the aggregate's identity if null.
+	 */
+	private static Object own(Object value, SubtreeAggregate<Object> by) {
+		return (value == null) ? by.identity() : value;
+	}
+
+	/**
+	 * @param node
+	 *            a node whose combined value is up to date.
+	 * @param by
+	 *            the aggregate.
+	 * @return the node's combined value.
+	 */
+	private static Object subtreeValue(Node node, SubtreeAggregate<Object> by) {
+		AggregateValues values = node.aggregateValues();
+		return (values == null) ? by.identity() : values.subtree;
+	}
+
+	/**
+	 * @param by
+	 *            an aggregate.
+	 * @return true if our combined value under the aggregate is up to date.
+	 */
+	private boolean isAggregatedBy(SubtreeAggregate<Object> by) {
+		AggregateValues values = aggregateValues();
+		if (values == null) {
+			// Counts as the identity, which is right for a leaf.
+			return getChildCount() == 0;
+		}
+		return values.by == by;
+	}
+
+	/**
+	 * Work out our combined value from our own and our children's.
+	 *
+	 * @param by
+	 *            the aggregate. Our children must be up to date under it.
+	 */
+	private void combineChildren(SubtreeAggregate<Object> by) {
+		AggregateValues values = totals().values;
+		if (values == null) {
+			values = new AggregateValues();
+			totals().values = values;
+		}
+		Object combined = own(values.own, by);
+		int count = getChildCount();
+		for (int i = 0; i < count; i++) {
+			combined = by.combine(combined, subtreeValue((Node) getChildAt(i),
+					by));
+		}
+		values.subtree = combined;
+		values.by = by;
+	}
+
+	/**
+	 * Bring the combined values of a subtree up to date, without recursion.
+	 * Parts already up to date are not visited.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 * @param by
+	 *            the aggregate.
+	 */
+	private static void aggregate(Node top, SubtreeAggregate<Object> by) {
+		// Parents come before their children here, so work back from the end.
+		List<Node> stale = new ArrayList<>();
+		ArrayDeque<Node> pending = new ArrayDeque<>();
+		pending.push(top);
+		while (!pending.isEmpty()) {
+			Node node = pending.pop();
+			if (node.isAggregatedBy(by)) {
+				continue;
+			}
+			stale.add(node);
+			int count = node.getChildCount();
+			for (int i = 0; i < count; i++) {
+				pending.push((Node) node.getChildAt(i));
+			}
+		}
+		for (int i = stale.size() - 1; i >= 0; i--) {
+			stale.get(i).combineChildren(by);
+		}
+	}
+
+	/**
+	 * Change our combined value, and those of our ancestors, walking up to
+	 * the root. Each is up to date, so the part going is subtracted and the
+	 * part coming is combined in. When the aggregate can't subtract, the
+	 * node combines its children again instead.
+	 *
+	 * @param by
+	 *            the tree's aggregate.
+	 * @param gone
+	 *            the part going, or null if none.
+	 * @param come
+	 *            the part coming, or null if none.
+	 */
+	private void changeAggregates(SubtreeAggregate<Object> by, Object gone,
+			Object come) {
+		Node node = this;
+		while (node != null) {
+			AggregateValues values = node.aggregateValues();
+			Object combined = null;
+			if (values != null && values.by == by) {
+				combined = values.subtree;
+				if (gone != null) {
+					combined = by.subtract(combined, gone);
+				}
+				if (combined != null && come != null) {
+					combined = by.combine(combined, come);
+				}
+			}
+			if (combined == null) {
+				node.combineChildren(by);
+			} else {
+				values.subtree = combined;
+			}
+			TreeNode up = node.getParent();
+			node = (up instanceof Node) ? (Node) up : null;
+		}
+	}
+
+	/**
+	 * Mark our combined value, and those of our ancestors, out of date. Used
+	 * in a tree without an aggregate, so that a subtree changed there is
+	 * worked out again if it joins a tree with one. Stops at a node already
+	 * out of date, as those above it were marked at the same time.
+	 */
+	private void forgetAggregates() {
+		Node node = this;
+		while (node != null) {
+			AggregateValues values = node.aggregateValues();
+			if (values != null) {
+				if (values.by == null) {
+					return;
+				}
+				values.by = null;
+			}
+			TreeNode up = node.getParent();
+			node = (up instanceof Node) ? (Node) up : null;
+		}
+	}
+
+	/**
+	 * Change the combined values on our way to the root for children just
+	 * attached or detached.
+	 *
+	 * @param children
+	 *            the children.
+	 * @param attached
+	 *            true if they were attached, false if detached.
+	 */
+	private void childrenAggregated(Node[] children, boolean attached) {
+		SubtreeAggregate<Object> by = getTreeRoot().aggregate;
+		if (by == null) {
+			forgetAggregates();
+			return;
+		}
+		Object part = by.identity();
+		for (Node child : children) {
+			if (attached) {
+				aggregate(child, by);
+			}
+			part = by.combine(part, subtreeValue(child, by));
+		}
+		if (attached && aggregateValues() == null) {
+			// We were a leaf without a value, so the identity.
+			combineChildren(by);
+			TreeNode up = getParent();
+			if (up instanceof Node) {
+				((Node) up).changeAggregates(by, null, part);
+			}
+		} else {
+			changeAggregates(by, attached ? null : part, attached ? part
+					: null);
+		}
+	}
+
+	/**
+	 * @return our totals, created if need be.
+	 */
+	private Totals totals() {
+		if (totals == null) {
+			totals = new Totals();
+		}
+		return totals;
+	}
+
+	/**
+	 * Add children just attached to our totals, and our ancestors'.
+	 *
+	 * @param added
+	 *            the children.
+	 */
+	private void childrenAttached(Node[] added) {
+		int descendants = 0;
+		int leaves = 0;
+		int height = 0;
+		long weight = 0;
+		for (Node child : added) {
+			descendants += child.getDescendantCount() + 1;
+			leaves += child.getLeafCount();
+			height = Math.max(height, child.getDepth() + 1);
+			weight += child.getSubtreeWeight();
+		}
+		if (getChildCount() == added.length) {
+			// We were a leaf ourselves.
+			leaves--;
+		}
+		changeTotals(descendants, leaves, weight, 0, height);
+		childrenAggregated(added, true);
+	}
+
+	/**
+	 * Take children just detached from our totals, and our ancestors'.
+	 *
+	 * @param removed
+	 *            the children.
+	 */
+	private void childrenDetached(Node[] removed) {
+		int descendants = 0;
+		int leaves = 0;
+		int height = 0;
+		long weight = 0;
+		for (Node child : removed) {
+			descendants += child.getDescendantCount() + 1;
+			leaves += child.getLeafCount();
+			height = Math.max(height, child.getDepth() + 1);
+			weight += child.getSubtreeWeight();
+		}
+		if (getChildCount() == 0) {
+			// We are a leaf again.
+			leaves--;
+		}
+		changeTotals(-descendants, -leaves, -weight, height, 0);
+		childrenAggregated(removed, false);
+	}
+
+	/**
+	 * Change our totals, and those of our ancestors, walking up to the root.
+	 * <p>
+	 *
+	 * Heights are only looked at while they change. When the tallest child
+	 * of a node gets shorter, that node's other children are looked at to
+	 * find its new height.
+	 *
+	 * @param descendants
+	 *            change in the number of nodes below.
+	 * @param leaves
+	 *            change in the number of leaves.
+	 * @param weight
+	 *            change in the total weight.
+	 * @param oldHeight
+	 *            height that some of our children gave us before, or 0.
+	 * @param newHeight
+	 *            height that those children give us now, or 0.
+	 */
+	private void changeTotals(int descendants, int leaves, long weight,
+			int oldHeight, int newHeight) {
+		Node node = this;
+		while (node != null) {
+			if (descendants == 0 && leaves == 0 && weight == 0
+					&& oldHeight == newHeight) {
+				return;
+			}
+			Totals nodeTotals = node.totals();
+			nodeTotals.descendants += descendants;
+			nodeTotals.leaves += leaves;
+			nodeTotals.weight += weight;
+			if (oldHeight != newHeight) {
+				int before = nodeTotals.height;
+				if (newHeight > before) {
+					nodeTotals.height = newHeight;
+				} else if (oldHeight == before) {
+					nodeTotals.height = node.tallestChild();
+				}
+				oldHeight = before + 1;
+				newHeight = nodeTotals.height + 1;
+			}
+			TreeNode up = node.getParent();
+			node = (up instanceof Node) ? (Node) up : null;
+		}
+	}
+
+	/**
+	 * @return one more than the height of our tallest child, or 0 if we have
+	 *         no children.
+	 */
+	private int tallestChild() {
+		int height = 0;
+		int count = getChildCount();
+		for (int i = 0; i < count; i++) {
+			height = Math.max(height, ((Node) getChildAt(i)).getDepth() + 1);
+		}
+		return height;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Children are compared by identity, not by name, and the lookup is O(1)
+	 * as each child remembers its position.
+	 */
+	@Override
+	public int getIndex(TreeNode aChild) {
+		if (aChild == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (!(aChild instanceof Node) || aChild.getParent() != this) {
+			return -1;
+		}
+		Node child = (Node) aChild;
+		int index = child.indexInParent;
+		int count = getChildCount();
+		if (index < count && getChildAt(index) == child) {
+			return index;
+		}
+		// Our children were changed behind our back, so count again.
+		reindexChildren(0);
+		index = child.indexInParent;
+		if (index < count && getChildAt(index) == child) {
+			return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tell our children their positions.
+	 *
+	 * @param from
+	 *            the first position that may have changed.
+	 */
+	private void reindexChildren(int from) {
+		int count = getChildCount();
+		for (int i = from; i < count; i++) {
+			((Node) getChildAt(i)).indexInParent = i;
+		}
+	}
+
+	/**
+	 * @param child
+	 *            a child node.
+	 * @return the child as a Node.
+	 */
+	private static Node toNode(MutableTreeNode child) {
 		if (!(child instanceof Node)) {
 			throw new IllegalArgumentException("Expecting node to be of class "
 					+ Node.class.getCanonicalName() + ", but I got "
-					+ child.getClass().getCanonicalName());
+					+ ((child == null) ? null : child.getClass()
+							.getCanonicalName()));
 		}
-
-		int index = getIndex(child);
-		// Inform listeners that we have removed node(s).
-		// https://docs.oracle.com/javase/7/docs/api/javax/swing/tree/DefaultTreeModel.html#fireTreeNodesRemoved(java.lang.Object,%20java.lang.Object[],%20int[],%20java.lang.Object[])
-		TreeModelEvent e = new TreeModelEvent(this, getPathFromRoot(),
-				new int[] { index }, new TreeNode[] { child });
-		logger.debug("this=" + this + " fire event " + e);
-		fireTreeNodesRemoved(e);
-
-		super.remove(child);
+		return (Node) child;
 	}
 
 	/**
+	 * Paths are cached per node and are built from the parent's cached path,
+	 * so in steady state this is O(1) and does not allocate. In a shared tree
+	 * call this with the tree's lock held, as paths are cached as they are
+	 * found.
+	 *
 	 * @return a path of nodes leading from root. Last node is this node.
 	 */
-
 	public TreePath getPathFromRoot() {
-		TreeNode nodePtr = this;
-		ArrayList<TreeNode> nodeArrayList = new ArrayList<>();
-		synchronized (objLock) {
-			while ((null != nodePtr)) {
-				nodeArrayList.add(0, nodePtr);
-				nodePtr = nodePtr.getParent();
+		CachedPath path = cachedPath;
+		if (path != null && path.isCurrent()) {
+			return path;
+		}
+
+		// Walk up to the nearest ancestor with a current path, then build the
+		// paths back down. Iterative so that deep trees don't overflow.
+		ArrayDeque<Node> stale = new ArrayDeque<>();
+		Node nodePtr = this;
+		path = null;
+		while (null != nodePtr) {
+			CachedPath candidate = nodePtr.cachedPath;
+			if (candidate != null && candidate.isCurrent()) {
+				path = candidate;
+				break;
 			}
-			return new TreePath(nodeArrayList.toArray(new Node[nodeArrayList
-					.size()]));
+			stale.push(nodePtr);
+			nodePtr = (Node) nodePtr.getParent();
+		}
+		long epoch = (path == null) ? stale.peek().pathEpoch : path.epoch;
+		while (!stale.isEmpty()) {
+			nodePtr = stale.pop();
+			path = new CachedPath(path, nodePtr, epoch);
+			nodePtr.cachedPath = path;
+		}
+		return path;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Our cached path is dropped. If we have children then their cached paths
+	 * are stale too; rather than walking the subtree we move on the path epoch
+	 * of the tree we leave, and let each node below us rebuild its path the
+	 * next time it is asked. Other trees keep their paths.
+	 */
+	@Override
+	public void setParent(MutableTreeNode newParent) {
+		Node oldRoot = (getChildCount() > 0) ? getTreeRoot() : null;
+		super.setParent(newParent);
+		cachedPath = null;
+		if (oldRoot != null) {
+			oldRoot.pathEpoch++;
 		}
 	}
 
 	/**
 	 * Add a listener from the list that wish to listen to events involving this
-	 * node.
+	 * node. If this node is a root the listener hears about its whole tree.
 	 *
 	 * @param listener
 	 *            listener to add.
 	 */
 	public void addListener(TreeModelListener listener) {
-		logger.debug("this='" + this + "', listener='" + listener + "'");
+		logger.debug("this='{}', listener='{}'", this, listener);
 		synchronized (objLock) {
-			listeners.add(listener);
+			if (listeners == null) {
+				listeners = new ListenerRegistry();
+			}
 		}
+		listeners.add(listener);
 	}
 
 	/**
@@ -180,9 +1148,10 @@ public class Node extends DefaultMutableTreeNode {
 	 *            listener to remove.
 	 */
 	public void removeListener(TreeModelListener listener) {
-		logger.debug("this='" + this + "', listener=" + listener);
-		synchronized (objLock) {
-			listeners.remove(listener);
+		logger.debug("this='{}', listener={}", this, listener);
+		ListenerRegistry tmpListeners = listeners;
+		if (tmpListeners != null) {
+			tmpListeners.remove(listener);
 		}
 	}
 
@@ -191,11 +1160,16 @@ public class Node extends DefaultMutableTreeNode {
 	 * of the death.
 	 */
 	public void destroy() {
-		logger.debug("node=" + this);
+		logger.debug("node={}", this);
 
 		// If parent still set, remove this node from parent.
-		if (null != parent) {
-			parent.remove(this);
+		TreeLock lock = lockTree();
+		try {
+			if (null != parent) {
+				parent.remove(this);
+			}
+		} finally {
+			unlockTree(lock);
 		}
 		// TODO free resources of this node at this subtype.
 		// TODO call parent class's destroy.
@@ -217,14 +1191,16 @@ public class Node extends DefaultMutableTreeNode {
 
 	private void fireTreeNodesChanged(TreeModelEvent e) {
 
-		TreeModelListener[] tmpListeners = null;
-		// Don't leak the lock.
-		synchronized (objLock) {
-			tmpListeners = listeners.toArray(new TreeModelListener[listeners
-					.size()]);
+		ListenerRegistry tmpListeners = listeners;
+		if (tmpListeners != null) {
+			tmpListeners.fireTreeNodesChanged(e);
 		}
-		for (TreeModelListener listener : tmpListeners) {
-			listener.treeNodesChanged(e);
+		Node root = getTreeRoot();
+		if (root != this) {
+			tmpListeners = root.listeners;
+			if (tmpListeners != null) {
+				tmpListeners.fireTreeNodesChanged(e);
+			}
 		}
 	}
 
@@ -241,14 +1217,16 @@ public class Node extends DefaultMutableTreeNode {
 
 	private void fireTreeNodesInserted(TreeModelEvent e) {
 
-		TreeModelListener[] tmpListeners = null;
-		// Don't leak the lock.
-		synchronized (objLock) {
-			tmpListeners = listeners.toArray(new TreeModelListener[listeners
-					.size()]);
+		ListenerRegistry tmpListeners = listeners;
+		if (tmpListeners != null) {
+			tmpListeners.fireTreeNodesInserted(e);
 		}
-		for (TreeModelListener listener : tmpListeners) {
-			listener.treeNodesInserted(e);
+		Node root = getTreeRoot();
+		if (root != this) {
+			tmpListeners = root.listeners;
+			if (tmpListeners != null) {
+				tmpListeners.fireTreeNodesInserted(e);
+			}
 		}
 	}
 
@@ -261,19 +1239,339 @@ public class Node extends DefaultMutableTreeNode {
 
 	private void fireTreeNodesRemoved(TreeModelEvent e) {
 
-		TreeModelListener[] tmpListeners = null;
-		// Don't leak the lock.
-		synchronized (objLock) {
-			tmpListeners = listeners.toArray(new TreeModelListener[listeners
-					.size()]);
+		ListenerRegistry tmpListeners = listeners;
+		if (tmpListeners != null) {
+			tmpListeners.fireTreeNodesRemoved(e);
+		}
+		Node root = getTreeRoot();
+		if (root != this) {
+			tmpListeners = root.listeners;
+			if (tmpListeners != null) {
+				tmpListeners.fireTreeNodesRemoved(e);
+			}
+		}
+	}
+
+	/**
+	 * Notify listeners that node(s) have changed structure.
+	 *
+	 * @param e
+	 *            event
+	 */
+	private void fireTreeStructureChanged(TreeModelEvent e) {
+
+		ListenerRegistry tmpListeners = listeners;
+		if (tmpListeners != null) {
+			tmpListeners.fireTreeStructureChanged(e);
+		}
+		Node root = getTreeRoot();
+		if (root != this) {
+			tmpListeners = root.listeners;
+			if (tmpListeners != null) {
+				tmpListeners.fireTreeStructureChanged(e);
+			}
+		}
+	}
+
+	/**
+	 * Inform our listeners that we have inserted node(s).
+	 *
+	 * @param index
+	 *            index of the first inserted child.
+	 * @param added
+	 *            the inserted children.
+	 */
+	private void fireChildrenInserted(int index, Node[] added) {
+		// https://docs.oracle.com/javase/7/docs/api/javax/swing/tree/DefaultTreeModel.html#fireTreeNodesInserted(java.lang.Object,%20java.lang.Object[],%20int[],%20java.lang.Object[])
+		int[] childIndices = new int[added.length];
+		for (int i = 0; i < childIndices.length; i++) {
+			childIndices[i] = index + i;
+		}
+		TreeModelEvent e = new TreeModelEvent(this, getPathFromRoot(),
+				childIndices, added);
+		logger.debug("this={} fire event {}", this, e);
+		fireTreeNodesInserted(e);
+	}
+
+	/**
+	 * Inform listeners that we have removed node(s).
+	 *
+	 * @param from
+	 *            index the first removed child had.
+	 * @param removed
+	 *            the removed children.
+	 */
+	private void fireChildrenRemoved(int from, Node[] removed) {
+		// https://docs.oracle.com/javase/7/docs/api/javax/swing/tree/DefaultTreeModel.html#fireTreeNodesRemoved(java.lang.Object,%20java.lang.Object[],%20int[],%20java.lang.Object[])
+		int[] childIndices = new int[removed.length];
+		for (int i = 0; i < childIndices.length; i++) {
+			childIndices[i] = from + i;
+		}
+		TreeModelEvent e = new TreeModelEvent(this, getPathFromRoot(),
+				childIndices, removed);
+		logger.debug("this={} fire event {}", this, e);
+		fireTreeNodesRemoved(e);
+	}
+
+	/**
+	 * @return the root of the tree we are in. O(1) as it comes from our cached
+	 *         path. Only call with the tree's lock held.
+	 */
+	private Node getTreeRoot() {
+		if (parent == null) {
+			return this;
+		}
+		return ((CachedPath) getPathFromRoot()).root;
+	}
+
+	/**
+	 * Find the root of the tree we are in without caching any path, so that
+	 * it may be called without the tree's lock. Paths are only cached with
+	 * the lock held, so once the lock of the tree found is held, asking again
+	 * says for sure whether we are in that tree. Usually O(1), from the
+	 * cached path of us or a near ancestor.
+	 *
+	 * @return the root of the tree we seem to be in.
+	 */
+	private Node findTreeRoot() {
+		Node up = this;
+		while (true) {
+			CachedPath path = up.cachedPath;
+			if (path != null && path.isCurrent()) {
+				return path.root;
+			}
+			Node next = (Node) up.getParent();
+			if (next == null) {
+				return up;
+			}
+			up = next;
+		}
+	}
+
+	/**
+	 * Take the write lock of the tree we are in, if it has one. The tree we
+	 * are in may change while we wait, so check again once we have the lock.
+	 *
+	 * @return the lock taken, or null.
+	 */
+	TreeLock lockTree() {
+		while (true) {
+			TreeLock lock = findTreeRoot().treeLock;
+			if (lock == null) {
+				return null;
+			}
+			lock.lockWrite();
+			if (findTreeRoot().treeLock == lock) {
+				return lock;
+			}
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * @param lock
+	 *            lock returned by {@link #lockTree()}.
+	 */
+	static void unlockTree(TreeLock lock) {
+		if (lock != null) {
+			lock.unlockWrite();
+		}
+	}
+
+	/**
+	 * Lend the lock of their tree, which we hold, to nodes about to be moved.
+	 * Between leaving their parent and joining the new one they would seem to
+	 * be trees of their own, not shared, so whoever finds them meanwhile
+	 * takes the lent lock instead, waits for the move, then looks again.
+	 *
+	 * @param nodes
+	 *            the nodes to be moved.
+	 * @param lock
+	 *            the lock of their tree, or null if it has none.
+	 * @return their own locks, for {@link #returnLock(Node[], TreeLock[])}.
+	 */
+	private static TreeLock[] lendLock(Node[] nodes, TreeLock lock) {
+		TreeLock[] ownLocks = new TreeLock[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			Node node = nodes[i];
+			ownLocks[i] = node.treeLock;
+			if (lock != null && node.getParent() != null) {
+				node.treeLock = lock;
+			}
+		}
+		return ownLocks;
+	}
+
+	/**
+	 * @param nodes
+	 *            nodes given to {@link #lendLock(Node[], TreeLock)}, now moved.
+	 * @param ownLocks
+	 *            what it returned.
+	 */
+	private static void returnLock(Node[] nodes, TreeLock[] ownLocks) {
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].treeLock = ownLocks[i];
+		}
+	}
+
+	/**
+	 * Take the write locks of the trees two nodes are in. When they are
+	 * different locks they are always taken in the same order, so two threads
+	 * moving nodes in opposite directions can't deadlock.
+	 *
+	 * @param a
+	 *            a node.
+	 * @param b
+	 *            another node.
+	 * @return the locks taken, for {@link #unlockTrees(TreeLock[])}.
+	 */
+	private static TreeLock[] lockTrees(Node a, Node b) {
+		while (true) {
+			TreeLock lockA = a.findTreeRoot().treeLock;
+			TreeLock lockB = b.findTreeRoot().treeLock;
+			TreeLock first = lockA;
+			TreeLock second = lockB;
+			if (first == second) {
+				second = null;
+			} else if (first == null) {
+				first = second;
+				second = null;
+			} else if (second != null
+					&& System.identityHashCode(first) > System
+							.identityHashCode(second)) {
+				first = lockB;
+				second = lockA;
+			}
+			TreeLock[] locks = new TreeLock[] { first, second };
+			if (second != null
+					&& System.identityHashCode(first) == System
+							.identityHashCode(second)) {
+				// Rare enough to settle by taking them one pair at a time.
+				synchronized (TIE_LOCK) {
+					first.lockWrite();
+					second.lockWrite();
+				}
+			} else {
+				if (first != null) {
+					first.lockWrite();
+				}
+				if (second != null) {
+					second.lockWrite();
+				}
+			}
+			if (a.findTreeRoot().treeLock == lockA
+					&& b.findTreeRoot().treeLock == lockB) {
+				return locks;
+			}
+			unlockTrees(locks);
+		}
+	}
+
+	/**
+	 * @param locks
+	 *            locks returned by {@link #lockTrees(Node, Node)}.
+	 */
+	private static void unlockTrees(TreeLock[] locks) {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			unlockTree(locks[i]);
+		}
+	}
+
+	/**
+	 * Totals over the subtree of a node. Only changed under the tree's lock.
+	 */
+	private static final class Totals implements Serializable {
+
+		/** serial id. */
+		private static final long serialVersionUID = 1L;
+
+		/** Number of nodes below. */
+		int descendants;
+
+		/** Number of leaves here and below. */
+		int leaves = 1;
+
+		/** Longest distance to a leaf below. */
+		int height;
+
+		/** Sum of the weights here and below. */
+		long weight;
+
+		/** Our values under the tree's aggregate, or null if none. */
+		transient AggregateValues values;
+	}
+
+	/**
+	 * The values of a node under its tree's {@link SubtreeAggregate}. Only
+	 * changed under the tree's lock.
+	 */
+	private static final class AggregateValues {
+
+		/** The aggregate the subtree value is up to date under, or null. */
+		SubtreeAggregate<Object> by;
+
+		/** The node's own value, or null for the identity. */
+		Object own;
+
+		/** The own value combined with those of every node below. */
+		Object subtree;
+	}
+
+	/**
+	 * A TreePath that remembers the path epoch it was built in.
+	 */
+	private static final class CachedPath extends TreePath {
+
+		/** serial id. */
+		private static final long serialVersionUID = 1L;
+
+		/** The path epoch of our root this path was built in. */
+		private final transient long epoch;
+
+		/** The first node of the path. */
+		private final transient Node root;
+
+		CachedPath(CachedPath parent, Node last, long epoch) {
+			super(parent, last);
+			this.epoch = epoch;
+			this.root = (parent == null) ? last : parent.root;
 		}
-		for (TreeModelListener listener : tmpListeners) {
-			listener.treeNodesRemoved(e);
+
+		/**
+		 * @return true if no node with children has left its place in our
+		 *         root's tree since this path was built.
+		 */
+		boolean isCurrent() {
+			return epoch == root.pathEpoch;
 		}
 	}
 
 	// Misc. methods.
 
+	/**
+	 * {@inheritDoc} The clone has no parent, children, listeners, lock or
+	 * aggregate, but has our weight and value.
+	 */
+	@Override
+	public Object clone() {
+		long weight = getWeight();
+		Object value = getValue();
+		Node copy = (Node) super.clone();
+		copy.cachedPath = null;
+		copy.listeners = null;
+		copy.treeLock = null;
+		copy.aggregate = null;
+		copy.totals = null;
+		if (weight != 0) {
+			copy.totals().weight = weight;
+		}
+		if (value != null) {
+			copy.totals().values = new AggregateValues();
+			copy.totals().values.own = value;
+		}
+		return copy;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * Note this string is used as a label in JTree.
@@ -281,7 +1579,7 @@ public class Node extends DefaultMutableTreeNode {
 	 */
 	@Override
 	public String toString() {
-		return name;
+		return getName();
 	}
 
 	/**
@@ -291,6 +1589,7 @@ public class Node extends DefaultMutableTreeNode {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		String name = getName();
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		return result;
 	}
@@ -307,10 +1606,11 @@ public class Node extends DefaultMutableTreeNode {
 		if (getClass() != obj.getClass())
 			return false;
 		Node other = (Node) obj;
+		String name = getName();
 		if (name == null) {
-			if (other.name != null)
+			if (other.getName() != null)
 				return false;
-		} else if (!name.equals(other.name))
+		} else if (!name.equals(other.getName()))
 			return false;
 		return true;
 	}
@@ -12,6 +12,7 @@ import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTree;
+import javax.swing.undo.UndoManager;
 
 /**
  * UI that allows the user to alter the tree structure of nodes.
@@ -25,6 +26,7 @@ public class NodeJTreeEditor {
 
 	static final String KEY_JTREE = "jTree";
 	static final String KEY_NODE_ID = "Node Id";
+	static final String KEY_UNDO_MANAGER = "Undo Manager";
 
 	/** The add button's action. */
 	AbstractAction addButtonAction = new AbstractAction("Add") {
@@ -84,6 +86,46 @@ public class NodeJTreeEditor {
 	/** The remove button. */
 	private final JButton removeButton = new JButton(removeButtonAction);
 
+	/** The undo button's action. */
+	AbstractAction undoButtonAction = new AbstractAction("Undo") {
+
+		/**
+		 * serial id.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void actionPerformed(ActionEvent event) {
+			UndoManager undoManager = (UndoManager) getValue(KEY_UNDO_MANAGER);
+			if (undoManager.canUndo()) {
+				undoManager.undo();
+			}
+		}
+	};
+
+	/** The undo button. */
+	private final JButton undoButton = new JButton(undoButtonAction);
+
+	/** The redo button's action. */
+	AbstractAction redoButtonAction = new AbstractAction("Redo") {
+
+		/**
+		 * serial id.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void actionPerformed(ActionEvent event) {
+			UndoManager undoManager = (UndoManager) getValue(KEY_UNDO_MANAGER);
+			if (undoManager.canRedo()) {
+				undoManager.redo();
+			}
+		}
+	};
+
+	/** The redo button. */
+	private final JButton redoButton = new JButton(redoButtonAction);
+
 	/**
 	 * Constructor.
 	 *
@@ -95,10 +137,25 @@ public class NodeJTreeEditor {
 		// nodes.
 		NodeJTreeModel treeModel = new NodeJTreeModel();
 		treeModel.setRoot(rootNode);
+		// The nodes are changed on other threads, so hand the events to the
+		// JTree on the Event Dispatch Thread.
+		treeModel.setEventDispatcher(new CoalescingEventDispatcher(treeModel));
+		// Children of lazy nodes are created in the background.
+		AsyncChildLoader childLoader = new AsyncChildLoader();
+		treeModel.setChildLoader(childLoader);
+
+		// Remember changes, including renames made in the JTree, so that
+		// they can be undone. Only the user's; not those of other threads.
+		NodeUndoManager undoManager = new NodeUndoManager(rootNode);
+		undoManager.setEventDispatchThreadOnly(true);
 
 		// UI for Tree. Create a JTree and tell it to display our model
 		JTree jTree = new JTree();
 		jTree.setModel(treeModel);
+		// Collapsing a node stops the loading of its children.
+		jTree.addTreeExpansionListener(childLoader);
+		// Changes below collapsed nodes cost the JTree one event per delivery.
+		treeModel.trackExpansion(jTree);
 		jTree.setEditable(true);
 		jTree.setSelectionRow(0);
 
@@ -111,6 +168,10 @@ public class NodeJTreeEditor {
 		controlPanel.add(addButton);
 		removeButtonAction.putValue(KEY_JTREE, jTree);
 		controlPanel.add(removeButton);
+		undoButtonAction.putValue(KEY_UNDO_MANAGER, undoManager);
+		controlPanel.add(undoButton);
+		redoButtonAction.putValue(KEY_UNDO_MANAGER, undoManager);
+		controlPanel.add(redoButton);
 
 		// Setup frame.
 		JFrame frame = new JFrame("MyNode Creator");
@@ -1,6 +1,7 @@
 /** This document is AS-IS. No claims are made for suitability for any purpose. */
 package com.example.mutablejtreemodel;
 
+import javax.swing.JTree;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -27,6 +28,15 @@ public class NodeJTreeModel extends AbstractTreeModel implements TreeModelListen
 	/** We specify the root directory when we create the model. */
 	private Node root;
 
+	/**
+	 * When set, events from the nodes are queued and delivered on the Event
+	 * Dispatch Thread by this dispatcher rather than on the mutating thread.
+	 */
+	private CoalescingEventDispatcher dispatcher;
+
+	/** When set, lazy nodes load their children in the background. */
+	private volatile AsyncChildLoader childLoader;
+
 	/**
 	 * Constructor.
 	 */
@@ -51,13 +61,81 @@ public class NodeJTreeModel extends AbstractTreeModel implements TreeModelListen
 	 *
 	 * @param root
 	 *            set the root node. This TreeModel will start listening to root
-	 *            for Tree events.
+	 *            for Tree events, which covers every node below it.
 	 */
 	public void setRoot(Node root) {
+		if (this.root != null) {
+			this.root.removeListener(this);
+		}
 		this.root = root;
 		root.addListener(this);
 	}
 
+	/**
+	 * Set the dispatcher used to deliver events to our listeners.
+	 *
+	 * @param dispatcher
+	 *            dispatcher that delivers on the Event Dispatch Thread, or null
+	 *            to deliver on the thread that changed the nodes.
+	 */
+	public void setEventDispatcher(CoalescingEventDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Deliver only the events that a JTree showing this model can show.
+	 * Changes below a collapsed node become one treeStructureChanged for the
+	 * highest collapsed node. Call on the Event Dispatch Thread, after
+	 * {@link #setEventDispatcher(CoalescingEventDispatcher)}.
+	 *
+	 * @param tree
+	 *            the JTree, or null to deliver every event.
+	 * @throws IllegalStateException
+	 *             if there is no dispatcher.
+	 */
+	public void trackExpansion(JTree tree) {
+		CoalescingEventDispatcher tmpDispatcher = dispatcher;
+		if (tmpDispatcher == null) {
+			throw new IllegalStateException(
+					"expansion is only tracked by a dispatcher");
+		}
+		tmpDispatcher.trackExpansion(tree);
+	}
+
+	/**
+	 * Set the loader used to create the children of lazy nodes in the
+	 * background.
+	 *
+	 * @param childLoader
+	 *            the loader, or null to create children when first asked for.
+	 */
+	public void setChildLoader(AsyncChildLoader childLoader) {
+		this.childLoader = childLoader;
+	}
+
+	/**
+	 * Make sure a node's children are there to be read.
+	 *
+	 * @param node
+	 *            the node.
+	 */
+	private void prepareChildren(Node node) {
+		AsyncChildLoader loader = childLoader;
+		if (loader != null && node instanceof LazyNode) {
+			loader.load((LazyNode) node);
+		} else {
+			node.prepareChildren();
+		}
+	}
+
+	/**
+	 * @return the lock of our tree, or null if it is not locked.
+	 */
+	private TreeLock getTreeLock() {
+		Node tmpRoot = root;
+		return (tmpRoot == null) ? null : tmpRoot.getTreeLock();
+	}
+
 	// Misc methods
 
 	/**
@@ -76,7 +154,12 @@ public class NodeJTreeModel extends AbstractTreeModel implements TreeModelListen
 					+ Node.class.getCanonicalName() + ", but I got "
 					+ node.getClass().getCanonicalName());
 		}
-		return ((Node) node).isLeaf();
+		Node tmpNode = (Node) node;
+		TreeLock lock = getTreeLock();
+		if (lock == null) {
+			return tmpNode.isLeaf();
+		}
+		return lock.read(() -> tmpNode.isLeaf());
 	}
 
 	/**
@@ -95,8 +178,14 @@ public class NodeJTreeModel extends AbstractTreeModel implements TreeModelListen
 					+ Node.class.getCanonicalName() + ", but I got "
 					+ node.getClass().getCanonicalName());
 		}
-		int count = ((Node) node).getChildCount();
-		logger.debug("node='" + node + "', count=" + count);
+		Node tmpNode = (Node) node;
+		prepareChildren(tmpNode);
+		TreeLock lock = getTreeLock();
+		int count = (lock == null) ? tmpNode.getChildCount() : lock
+				.readInt(tmpNode::getChildCount);
+		if (logger.isTraceEnabled()) {
+			logger.trace("node='{}', count={}", node, count);
+		}
 		return count;
 	}
 
@@ -120,9 +209,17 @@ public class NodeJTreeModel extends AbstractTreeModel implements TreeModelListen
 							+ ", but I got "
 							+ parent.getClass().getCanonicalName());
 		}
-		Object child = ((DefaultMutableTreeNode) parent).getChildAt(index);
-		logger.debug("parent=" + parent + ", index=" + index
-				+ ", RETURN child=" + child);
+		DefaultMutableTreeNode tmpParent = (DefaultMutableTreeNode) parent;
+		if (tmpParent instanceof Node) {
+			prepareChildren((Node) tmpParent);
+		}
+		TreeLock lock = getTreeLock();
+		Object child = (lock == null) ? tmpParent.getChildAt(index) : lock
+				.read(() -> tmpParent.getChildAt(index));
+		if (logger.isTraceEnabled()) {
+			logger.trace("parent={}, index={}, RETURN child={}", parent, index,
+					child);
+		}
 		return child;
 	}
 
@@ -150,9 +247,16 @@ public class NodeJTreeModel extends AbstractTreeModel implements TreeModelListen
 							+ Node.class.getCanonicalName() + ", but I got "
 							+ child.getClass().getCanonicalName());
 		}
-		int index = ((Node) parent).getIndex((Node) child);
-		logger.debug("parent=" + parent + ", child=" + child
-				+ ", RETURN index=" + index);
+		Node tmpParent = (Node) parent;
+		Node tmpChild = (Node) child;
+		prepareChildren(tmpParent);
+		TreeLock lock = getTreeLock();
+		int index = (lock == null) ? tmpParent.getIndex(tmpChild) : lock
+				.readInt(() -> tmpParent.getIndex(tmpChild));
+		if (logger.isTraceEnabled()) {
+			logger.trace("parent={}, child={}, RETURN index={}", parent, child,
+					index);
+		}
 		return index;
 	}
 
@@ -167,7 +271,7 @@ public class NodeJTreeModel extends AbstractTreeModel implements TreeModelListen
 	 */
 	@Override
 	public void valueForPathChanged(TreePath path, Object newValue) {
-		logger.debug("path=" + path + ", newValue=" + newValue);
+		logger.debug("path={}, newValue={}", path, newValue);
 		Node node = (Node) path.getLastPathComponent();
 		node.setName((String) newValue);
 	}
@@ -182,42 +286,46 @@ public class NodeJTreeModel extends AbstractTreeModel implements TreeModelListen
 
 	@Override
 	public void treeNodesChanged(TreeModelEvent e) {
-		logger.debug("TreeModelEvent=" + e);
-		fireTreeNodesChanged(e);
+		logger.debug("TreeModelEvent={}", e);
+		CoalescingEventDispatcher tmpDispatcher = dispatcher;
+		if (tmpDispatcher == null) {
+			fireTreeNodesChanged(e);
+		} else {
+			tmpDispatcher.treeNodesChanged(e);
+		}
 	}
 
 	@Override
 	public void treeNodesInserted(TreeModelEvent e) {
-		logger.debug("TreeModelEvent=" + e);
-		// TODO thread safe?
-		Object children[] = e.getChildren();
-		for (Object child : children) {
-			if (child instanceof Node) {
-				Node node = (Node) child;
-				node.addListener(this);
-			}
+		logger.debug("TreeModelEvent={}", e);
+		CoalescingEventDispatcher tmpDispatcher = dispatcher;
+		if (tmpDispatcher == null) {
+			fireTreeNodesInserted(e);
+		} else {
+			tmpDispatcher.treeNodesInserted(e);
 		}
-		fireTreeNodesInserted(e);
 	}
 
 	@Override
 	public void treeNodesRemoved(TreeModelEvent e) {
-		logger.debug("TreeModelEvent=" + e);
-		// TODO thread safe?
-		Object children[] = e.getChildren();
-		for (Object child : children) {
-			if (child instanceof Node) {
-				Node node = (Node) child;
-				node.removeListener(this);
-			}
+		logger.debug("TreeModelEvent={}", e);
+		CoalescingEventDispatcher tmpDispatcher = dispatcher;
+		if (tmpDispatcher == null) {
+			fireTreeNodesRemoved(e);
+		} else {
+			tmpDispatcher.treeNodesRemoved(e);
 		}
-		fireTreeNodesRemoved(e);
 	}
 
 	@Override
 	public void treeStructureChanged(TreeModelEvent e) {
-		logger.debug("TreeModelEvent=" + e);
-		fireTreeStructureChanged(e);
+		logger.debug("TreeModelEvent={}", e);
+		CoalescingEventDispatcher tmpDispatcher = dispatcher;
+		if (tmpDispatcher == null) {
+			fireTreeStructureChanged(e);
+		} else {
+			tmpDispatcher.treeStructureChanged(e);
+		}
 	}
 
 }
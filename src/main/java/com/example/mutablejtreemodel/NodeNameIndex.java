@@ -0,0 +1,455 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreePath;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An index of the names of the nodes in a tree, for finding nodes by exact
+ * name, by the start of their name, or by any part of their name, without
+ * walking the tree.
+ * <p>
+ *
+ * Listens to the root, so renames, inserts and removes anywhere in the tree
+ * keep it up to date as they happen, under the tree's lock if it has one.
+ * Searches take the tree's read lock, so the paths they return are in the
+ * tree as it is. A tree without a lock is searched and followed while
+ * holding this index's monitor instead. Names are kept sorted for prefix
+ * searches, and each distinct name is listed under every run of one to three
+ * characters in it for substring searches, which then only check names
+ * sharing the rarest run of the text sought. Names are compared as they are,
+ * case and all.
+ * <p>
+ *
+ * The children indexed below each node are remembered, so that a structure
+ * change forgets the subtree indexed below the changed node, walking only
+ * that, and indexes its children again. Children that a node loads without
+ * events, e.g. a lazy node's, are not seen until an event covers them.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class NodeNameIndex implements TreeModelListener {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(NodeNameIndex.class);
+
+	/** Length of the longest runs of characters names are listed under. */
+	private static final int GRAM = 3;
+
+	/** The root of the tree. */
+	private final Node root;
+
+	/**
+	 * The nodes with each name, sorted by name. Each value is the one Node
+	 * with the name, or a Set of them when there are more, as most names are
+	 * not shared.
+	 */
+	private final NavigableMap<String, Object> byName = new TreeMap<>();
+
+	/** The distinct names containing each run of characters. */
+	private final Map<Long, Set<String>> byGram = new HashMap<>();
+
+	/**
+	 * The name each node was indexed under, by identity. A node out of the
+	 * tree may be renamed unheard, so its name then is no guide.
+	 */
+	private final Map<Node, String> names = new IdentityHashMap<>();
+
+	/** The children indexed below each node that has any, by identity. */
+	private final Map<Node, Set<Node>> below = new IdentityHashMap<>();
+
+	/**
+	 * Constructor. Indexes the tree, so takes time in proportion to its size.
+	 *
+	 * @param root
+	 *            the root of the tree. Must stay a root.
+	 */
+	public NodeNameIndex(Node root) {
+		if (root == null) {
+			throw new IllegalArgumentException("root is null");
+		}
+		this.root = root;
+		TreeLock lock = root.lockTree();
+		try {
+			addSubtree(root);
+			root.addListener(this);
+		} finally {
+			Node.unlockTree(lock);
+		}
+	}
+
+	/**
+	 * Stop following the tree.
+	 */
+	public void dispose() {
+		root.removeListener(this);
+	}
+
+	/**
+	 * @return the number of nodes indexed.
+	 */
+	public int size() {
+		return readLocked(() -> names.size());
+	}
+
+	/**
+	 * Find the nodes with a name.
+	 *
+	 * @param name
+	 *            the name.
+	 * @return paths to the nodes, in no particular order.
+	 */
+	public List<TreePath> find(String name) {
+		if (name == null) {
+			return Collections.emptyList();
+		}
+		return readLocked(() -> {
+			List<TreePath> found = new ArrayList<>();
+			addPaths(byName.get(name), found, Integer.MAX_VALUE);
+			return found;
+		});
+	}
+
+	/**
+	 * Find nodes whose name starts with some text.
+	 *
+	 * @param prefix
+	 *            the start of the name.
+	 * @param limit
+	 *            most paths to return.
+	 * @return paths to the nodes, by name.
+	 */
+	public List<TreePath> findByPrefix(String prefix, int limit) {
+		if (prefix == null) {
+			return Collections.emptyList();
+		}
+		return readLocked(() -> {
+			List<TreePath> found = new ArrayList<>();
+			for (Map.Entry<String, Object> entry : byName.tailMap(prefix, true)
+					.entrySet()) {
+				if (found.size() >= limit || !entry.getKey().startsWith(prefix)) {
+					break;
+				}
+				addPaths(entry.getValue(), found, limit);
+			}
+			return found;
+		});
+	}
+
+	/**
+	 * Find nodes whose name contains some text.
+	 *
+	 * @param text
+	 *            part of the name.
+	 * @param limit
+	 *            most paths to return.
+	 * @return paths to the nodes, in no particular order.
+	 */
+	public List<TreePath> findBySubstring(String text, int limit) {
+		if (text == null) {
+			return Collections.emptyList();
+		}
+		return readLocked(() -> {
+			List<TreePath> found = new ArrayList<>();
+			Iterable<String> candidates = byName.keySet();
+			if (!text.isEmpty()) {
+				// Only names with every run of the text can hold it, so
+				// check those with the rarest.
+				int length = Math.min(GRAM, text.length());
+				Set<String> rarest = null;
+				for (int i = 0; i + length <= text.length(); i++) {
+					Set<String> listed = byGram.get(gram(text, i, length));
+					if (listed == null) {
+						return found;
+					}
+					if (rarest == null || listed.size() < rarest.size()) {
+						rarest = listed;
+					}
+				}
+				candidates = rarest;
+			}
+			for (String name : candidates) {
+				if (found.size() >= limit) {
+					break;
+				}
+				if (name.contains(text)) {
+					addPaths(byName.get(name), found, limit);
+				}
+			}
+			return found;
+		});
+	}
+
+	/**
+	 * Run a search under the tree's read lock, or our monitor if the tree has
+	 * no lock.
+	 *
+	 * @param search
+	 *            the search.
+	 * @return what the search found.
+	 */
+	private <T> T readLocked(Supplier<T> search) {
+		TreeLock lock = root.getTreeLock();
+		if (lock == null) {
+			synchronized (this) {
+				return search.get();
+			}
+		}
+		// Not an optimistic read, as the maps may be changing meanwhile.
+		List<T> result = new ArrayList<>(1);
+		lock.readLocked(() -> result.add(search.get()));
+		return result.get(0);
+	}
+
+	/**
+	 * Add paths to the nodes with a name.
+	 *
+	 * @param nodes
+	 *            a value of {@link #byName}, or null.
+	 * @param found
+	 *            the paths found so far.
+	 * @param limit
+	 *            most paths to find.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void addPaths(Object nodes, List<TreePath> found, int limit) {
+		if (nodes instanceof Node) {
+			found.add(((Node) nodes).getPathFromRoot());
+		} else if (nodes != null) {
+			for (Node node : (Set<Node>) nodes) {
+				if (found.size() >= limit) {
+					return;
+				}
+				found.add(node.getPathFromRoot());
+			}
+		}
+	}
+
+	/**
+	 * @param name
+	 *            a name.
+	 * @param from
+	 *            where the run starts.
+	 * @param length
+	 *            length of the run, at most {@link #GRAM}.
+	 * @return a run of characters as a key of {@link #byGram}.
+	 */
+	private static Long gram(String name, int from, int length) {
+		// The length goes above the characters, so "ab" isn't "\0ab".
+		long key = length;
+		for (int i = from; i < from + length; i++) {
+			key = (key << 16) | name.charAt(i);
+		}
+		return key;
+	}
+
+	/**
+	 * Index a node under its name, forgetting any name it had.
+	 *
+	 * @param node
+	 *            the node.
+	 */
+	private void add(Node node) {
+		String name = node.getName();
+		if (names.containsKey(node)) {
+			String oldName = names.get(node);
+			if (name == null ? oldName == null : name.equals(oldName)) {
+				return;
+			}
+			unlist(oldName, node);
+		}
+		names.put(node, name);
+		if (name != null) {
+			list(name, node);
+		}
+	}
+
+	/**
+	 * Forget a node, if it is indexed, but not those below it.
+	 *
+	 * @param node
+	 *            the node.
+	 */
+	private void remove(Node node) {
+		if (names.containsKey(node)) {
+			unlist(names.remove(node), node);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void list(String name, Node node) {
+		Object nodes = byName.get(name);
+		if (nodes == null) {
+			byName.put(name, node);
+			for (int length = 1; length <= GRAM; length++) {
+				for (int i = 0; i + length <= name.length(); i++) {
+					byGram.computeIfAbsent(gram(name, i, length),
+							k -> new HashSet<>()).add(name);
+				}
+			}
+		} else if (nodes instanceof Node) {
+			// Nodes are equal by name, so compare them by identity.
+			Set<Node> shared = Collections
+					.newSetFromMap(new IdentityHashMap<>());
+			shared.add((Node) nodes);
+			shared.add(node);
+			byName.put(name, shared);
+		} else {
+			((Set<Node>) nodes).add(node);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void unlist(String name, Node node) {
+		if (name == null) {
+			return;
+		}
+		Object nodes = byName.get(name);
+		if (nodes instanceof Set) {
+			Set<Node> shared = (Set<Node>) nodes;
+			shared.remove(node);
+			if (shared.size() == 1) {
+				byName.put(name, shared.iterator().next());
+			}
+			return;
+		}
+		if (nodes != node) {
+			return;
+		}
+		byName.remove(name);
+		for (int length = 1; length <= GRAM; length++) {
+			for (int i = 0; i + length <= name.length(); i++) {
+				Long key = gram(name, i, length);
+				Set<String> listed = byGram.get(key);
+				if (listed != null && listed.remove(name) && listed.isEmpty()) {
+					byGram.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Index a subtree as it is now, without recursion. Forgets what was
+	 * indexed below its top before.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 */
+	private void addSubtree(Node top) {
+		removeSubtree(top);
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push(top);
+		while (!pending.isEmpty()) {
+			Node node = pending.pop();
+			add(node);
+			int count = node.getChildCount();
+			if (count == 0) {
+				continue;
+			}
+			Set<Node> children = Collections
+					.newSetFromMap(new IdentityHashMap<>(count));
+			for (int i = 0; i < count; i++) {
+				Node child = (Node) node.getChildAt(i);
+				children.add(child);
+				pending.push(child);
+			}
+			below.put(node, children);
+		}
+	}
+
+	/**
+	 * Take a subtree, as it was indexed, out of the index, without recursion.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 */
+	private void removeSubtree(Node top) {
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push(top);
+		while (!pending.isEmpty()) {
+			Node node = pending.pop();
+			remove(node);
+			Set<Node> children = below.remove(node);
+			if (children != null) {
+				pending.addAll(children);
+			}
+		}
+	}
+
+	/**
+	 * @param e
+	 *            an event.
+	 * @return the node whose children the event is about.
+	 */
+	private static Node parentOf(TreeModelEvent e) {
+		return (Node) e.getTreePath().getLastPathComponent();
+	}
+
+	@Override
+	public synchronized void treeNodesChanged(TreeModelEvent e) {
+		if (!(e instanceof NodeRenameEvent)) {
+			// Only a rename changes what we index.
+			return;
+		}
+		Node node = ((NodeRenameEvent) e).getNode();
+		if (names.containsKey(node)) {
+			add(node);
+		}
+	}
+
+	@Override
+	public synchronized void treeNodesInserted(TreeModelEvent e) {
+		Set<Node> children = below.computeIfAbsent(parentOf(e),
+				k -> Collections.newSetFromMap(new IdentityHashMap<>()));
+		for (Object child : e.getChildren()) {
+			addSubtree((Node) child);
+			children.add((Node) child);
+		}
+	}
+
+	@Override
+	public synchronized void treeNodesRemoved(TreeModelEvent e) {
+		Node parent = parentOf(e);
+		Set<Node> children = below.get(parent);
+		for (Object child : e.getChildren()) {
+			removeSubtree((Node) child);
+			if (children != null) {
+				children.remove(child);
+			}
+		}
+		if (children != null && children.isEmpty()) {
+			below.remove(parent);
+		}
+	}
+
+	@Override
+	public synchronized void treeStructureChanged(TreeModelEvent e) {
+		// What was below the node may have gone unheard, so forget what we
+		// indexed below it, and index its children again.
+		Node top = parentOf(e);
+		logger.debug("indexing again below {}", top);
+		if (names.containsKey(top)) {
+			addSubtree(top);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.tree.TreePath;
+
+/**
+ * The event sent when a node is renamed. As any nodes changed event, plus the
+ * name the node had before, so that listeners such as
+ * {@link NodeUndoManager} can put it back.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class NodeRenameEvent extends TreeModelEvent {
+
+	/** serial id. */
+	private static final long serialVersionUID = 1L;
+
+	/** The name before the change. */
+	private final String oldName;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source
+	 *            the renamed node.
+	 * @param path
+	 *            path to the node's parent, or null if the node is a root.
+	 * @param childIndices
+	 *            the node's index in its parent, or none if a root.
+	 * @param children
+	 *            the node.
+	 * @param oldName
+	 *            the name before the change.
+	 */
+	public NodeRenameEvent(Node source, TreePath path, int[] childIndices,
+			Object[] children, String oldName) {
+		super(source, path, childIndices, children);
+		this.oldName = oldName;
+	}
+
+	/**
+	 * @return the renamed node.
+	 */
+	public Node getNode() {
+		return (Node) getSource();
+	}
+
+	/**
+	 * @return the name before the change.
+	 */
+	public String getOldName() {
+		return oldName;
+	}
+}
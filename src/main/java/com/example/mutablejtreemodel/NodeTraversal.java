@@ -0,0 +1,410 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks trees of nodes on many threads at once.
+ * <p>
+ *
+ * The walk is split by subtree, using the totals each node keeps, so every
+ * part has about the same number of nodes however lopsided the tree is. Parts
+ * are handed out by a ForkJoinPool, which lets idle threads take work from
+ * busy ones. Nodes are reported in pre-order, as
+ * {@link javax.swing.tree.DefaultMutableTreeNode#preorderEnumeration()}
+ * does, where order matters.
+ * <p>
+ *
+ * {@link #visitParallel} and {@link #reduceParallel} hold the tree's read lock
+ * for the whole walk, so the tree can't change under them. They need the tree
+ * to have a {@link TreeLock}, and throw IllegalStateException otherwise, as
+ * nothing would keep the tree still while the pool's threads walk it. The
+ * visitor and mapper must not change the tree, as the lock is held for them
+ * by another thread. Children a lazy node has not yet created are not walked.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public final class NodeTraversal {
+
+	/** Parts a walk is split into for each thread, to even out the work. */
+	private static final int PARTS_PER_THREAD = 16;
+
+	/** Utility class. */
+	private NodeTraversal() {
+	}
+
+	/**
+	 * A spliterator over a subtree, splitting by subtree size. The tree must
+	 * not change while it is used; hold the tree's read lock, e.g. with
+	 * {@link TreeLock#readLocked(Runnable)}.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 * @return a spliterator reporting the top and every node below it.
+	 */
+	public static Spliterator<Node> spliterator(Node top) {
+		if (top == null) {
+			throw new IllegalArgumentException("top is null");
+		}
+		return new SubtreeSpliterator(null, new Node[] { top }, 0, 1,
+				weight(top));
+	}
+
+	/**
+	 * A stream of a subtree, which may be made parallel. The tree must not
+	 * change until the stream is finished; run it under the tree's read lock,
+	 * e.g. with {@link TreeLock#readLocked(Runnable)}.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 * @return a sequential stream of the top and every node below it.
+	 */
+	public static Stream<Node> stream(Node top) {
+		return StreamSupport.stream(spliterator(top), false);
+	}
+
+	/**
+	 * Visit every node of a subtree, on the common ForkJoinPool.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 * @param visitor
+	 *            called once for each node, from any thread, in no
+	 *            particular order.
+	 * @throws IllegalStateException
+	 *             if the tree has no lock.
+	 */
+	public static void visitParallel(Node top, Consumer<? super Node> visitor) {
+		visitParallel(top, visitor, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Visit every node of a subtree.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 * @param visitor
+	 *            called once for each node, from any thread, in no
+	 *            particular order.
+	 * @param pool
+	 *            the threads to visit with.
+	 * @throws IllegalStateException
+	 *             if the tree has no lock.
+	 */
+	public static void visitParallel(Node top, Consumer<? super Node> visitor,
+			ForkJoinPool pool) {
+		SubtreeSpliterator all = (SubtreeSpliterator) spliterator(top);
+		readLocked(top, () -> pool.invoke(new VisitTask(all, visitor,
+				threshold(all, pool))));
+	}
+
+	/**
+	 * Combine a value from every node of a subtree, on the common
+	 * ForkJoinPool.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 * @param identity
+	 *            the value of no nodes.
+	 * @param mapper
+	 *            the value of one node. Called from any thread.
+	 * @param combiner
+	 *            combines the values of consecutive nodes, in pre-order. Must
+	 *            be associative.
+	 * @return the combined value.
+	 * @throws IllegalStateException
+	 *             if the tree has no lock.
+	 */
+	public static <R> R reduceParallel(Node top, R identity,
+			Function<? super Node, ? extends R> mapper,
+			BinaryOperator<R> combiner) {
+		return reduceParallel(top, identity, mapper, combiner,
+				ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Combine a value from every node of a subtree.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 * @param identity
+	 *            the value of no nodes.
+	 * @param mapper
+	 *            the value of one node. Called from any thread.
+	 * @param combiner
+	 *            combines the values of consecutive nodes, in pre-order. Must
+	 *            be associative.
+	 * @param pool
+	 *            the threads to work with.
+	 * @return the combined value.
+	 * @throws IllegalStateException
+	 *             if the tree has no lock.
+	 */
+	public static <R> R reduceParallel(Node top, R identity,
+			Function<? super Node, ? extends R> mapper,
+			BinaryOperator<R> combiner, ForkJoinPool pool) {
+		SubtreeSpliterator all = (SubtreeSpliterator) spliterator(top);
+		List<R> result = new ArrayList<>(1);
+		readLocked(top, () -> result.add(pool.invoke(new ReduceTask<R>(all,
+				identity, mapper, combiner, threshold(all, pool)))));
+		return result.get(0);
+	}
+
+	/**
+	 * Run a walk under the tree's read lock.
+	 *
+	 * @param top
+	 *            a node of the tree.
+	 * @param walk
+	 *            the walk.
+	 * @throws IllegalStateException
+	 *             if the tree has no lock.
+	 */
+	private static void readLocked(Node top, Runnable walk) {
+		TreeLock lock = top.getTreeLock();
+		if (lock == null) {
+			throw new IllegalStateException("tree of " + top
+					+ " has no TreeLock to keep it still while walked");
+		}
+		lock.readLocked(walk);
+	}
+
+	/**
+	 * @param all
+	 *            the whole walk.
+	 * @param pool
+	 *            the threads to walk with.
+	 * @return the most nodes a part is walked by one thread without splitting.
+	 */
+	private static long threshold(SubtreeSpliterator all, ForkJoinPool pool) {
+		return Math.max(1, all.estimateSize()
+				/ ((long) pool.getParallelism() * PARTS_PER_THREAD));
+	}
+
+	/**
+	 * @param top
+	 *            top of a subtree.
+	 * @return the number of nodes in the subtree.
+	 */
+	private static long weight(Node top) {
+		return top.getDescendantCount() + 1L;
+	}
+
+	/**
+	 * Visits a part of a walk, handing out halves of it to other threads
+	 * until it is small enough.
+	 */
+	private static final class VisitTask extends RecursiveAction {
+
+		/** serial id. */
+		private static final long serialVersionUID = 1L;
+
+		private final transient SubtreeSpliterator part;
+		private final transient Consumer<? super Node> visitor;
+		private final long threshold;
+
+		VisitTask(SubtreeSpliterator part, Consumer<? super Node> visitor,
+				long threshold) {
+			this.part = part;
+			this.visitor = visitor;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			List<VisitTask> split = new ArrayList<>();
+			SubtreeSpliterator prefix;
+			while (part.estimateSize() > threshold
+					&& (prefix = part.trySplit()) != null) {
+				VisitTask task = new VisitTask(prefix, visitor, threshold);
+				if (prefix.estimateSize() == 1) {
+					// Not worth another thread, e.g. going down a chain.
+					task.invoke();
+				} else {
+					task.fork();
+					split.add(task);
+				}
+			}
+			part.forEachRemaining(visitor);
+			for (VisitTask task : split) {
+				task.join();
+			}
+		}
+	}
+
+	/**
+	 * Reduces a part of a walk, handing out halves of it to other threads
+	 * until it is small enough.
+	 */
+	private static final class ReduceTask<R> extends RecursiveTask<R> {
+
+		/** serial id. */
+		private static final long serialVersionUID = 1L;
+
+		private final transient SubtreeSpliterator part;
+		private final transient R identity;
+		private final transient Function<? super Node, ? extends R> mapper;
+		private final transient BinaryOperator<R> combiner;
+		private final long threshold;
+
+		/** The part's value so far, while it is walked. */
+		private transient R value;
+
+		ReduceTask(SubtreeSpliterator part, R identity,
+				Function<? super Node, ? extends R> mapper,
+				BinaryOperator<R> combiner, long threshold) {
+			this.part = part;
+			this.identity = identity;
+			this.mapper = mapper;
+			this.combiner = combiner;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected R compute() {
+			// Each prefix split off comes before the ones after it, and all
+			// come before what is left.
+			List<ReduceTask<R>> split = new ArrayList<>();
+			SubtreeSpliterator prefix;
+			while (part.estimateSize() > threshold
+					&& (prefix = part.trySplit()) != null) {
+				ReduceTask<R> task = new ReduceTask<>(prefix, identity, mapper,
+						combiner, threshold);
+				if (prefix.estimateSize() == 1) {
+					task.invoke();
+				} else {
+					task.fork();
+				}
+				split.add(task);
+			}
+			value = identity;
+			part.forEachRemaining(node -> value = combiner.apply(value,
+					mapper.apply(node)));
+			R result = identity;
+			for (ReduceTask<R> task : split) {
+				result = combiner.apply(result, task.join());
+			}
+			return combiner.apply(result, value);
+		}
+	}
+
+	/**
+	 * Reports subtrees in pre-order. Splits hand out whole subtrees, balanced
+	 * by their sizes, or a single subtree's top apart from its children.
+	 */
+	private static final class SubtreeSpliterator implements Spliterator<Node> {
+
+		private static final Node[] NO_NODES = new Node[0];
+
+		/** A node to report without its subtree, before the rest, or null. */
+		private Node self;
+
+		/** Tops of the subtrees to report, from {@link #from} to {@link #to}. */
+		private Node[] tops;
+		private int from;
+		private int to;
+
+		/** Number of nodes still to report. */
+		private long remaining;
+
+		/** Nodes waiting once reporting has started, or null before. */
+		private Deque<Node> pending;
+
+		SubtreeSpliterator(Node self, Node[] tops, int from, int to,
+				long remaining) {
+			this.self = self;
+			this.tops = tops;
+			this.from = from;
+			this.to = to;
+			this.remaining = remaining;
+		}
+
+		@Override
+		public SubtreeSpliterator trySplit() {
+			if (pending != null || self != null) {
+				return null;
+			}
+			if (to - from == 1) {
+				// Hand out the top, keep its children.
+				Node top = tops[from];
+				int count = top.getChildCount();
+				if (count == 0) {
+					return null;
+				}
+				Node[] children = new Node[count];
+				for (int i = 0; i < count; i++) {
+					children[i] = (Node) top.getChildAt(i);
+				}
+				tops = children;
+				from = 0;
+				to = count;
+				remaining--;
+				return new SubtreeSpliterator(top, NO_NODES, 0, 0, 1);
+			}
+			// Hand out the first subtrees, about half of the nodes.
+			long half = remaining / 2;
+			long size = weight(tops[from]);
+			int mid = from + 1;
+			while (mid < to - 1 && size + weight(tops[mid]) <= half) {
+				size += weight(tops[mid]);
+				mid++;
+			}
+			SubtreeSpliterator prefix = new SubtreeSpliterator(null, tops,
+					from, mid, size);
+			from = mid;
+			remaining -= size;
+			return prefix;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Node> action) {
+			if (self != null) {
+				Node node = self;
+				self = null;
+				remaining--;
+				action.accept(node);
+				return true;
+			}
+			if (pending == null) {
+				pending = new ArrayDeque<>();
+				for (int i = to - 1; i >= from; i--) {
+					pending.push(tops[i]);
+				}
+				tops = NO_NODES;
+			}
+			Node node = pending.poll();
+			if (node == null) {
+				return false;
+			}
+			for (int i = node.getChildCount() - 1; i >= 0; i--) {
+				pending.push((Node) node.getChildAt(i));
+			}
+			remaining--;
+			action.accept(node);
+			return true;
+		}
+
+		@Override
+		public long estimateSize() {
+			return remaining;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL;
+		}
+	}
+}
@@ -0,0 +1,585 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeNode;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Undo and redo for a tree of nodes. Listens to the root and records each
+ * insert, remove and rename as the operation that reverses it. Removed
+ * subtrees are kept by reference, so removing a subtree of any size costs
+ * the same, and undoing it puts back the very same nodes with a single
+ * inserted event.
+ * <p>
+ *
+ * Changes made between {@link #beginCompound(String)} and
+ * {@link #endCompound()} are undone and redone together. Moving a node is
+ * heard as a remove then an insert, so group moves to undo them in one step.
+ * <p>
+ *
+ * The history holds at most {@link #getLimit()} edits. Removed subtrees can
+ * be large, so {@link #setNodeLimit(long)} can also bound the nodes the
+ * history keeps alive, i.e. those it holds out of the tree; the oldest edits
+ * are dropped to keep within it.
+ * <p>
+ *
+ * Children being loaded in the background by an {@link AsyncChildLoader} are
+ * not edits and are not recorded. Changes that can't be reversed, e.g. a lazy
+ * node unloading its children, clear the history.
+ * <p>
+ *
+ * Changes are heard on whichever thread makes them, and all our state is
+ * guarded by this manager's monitor, so the tree may be changed from several
+ * threads. Undo and redo take the tree's lock before that monitor, as
+ * changes made by others arrive holding the tree's lock. To leave the changes
+ * of background threads out of the history, e.g. so that Undo in a UI only
+ * undoes the user's edits, see {@link #setEventDispatchThreadOnly(boolean)}.
+ * Undoing an edit checks the tree still has the nodes it changed where it
+ * left them, and otherwise throws CannotUndoException.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class NodeUndoManager extends UndoManager implements TreeModelListener {
+
+	/** serial id. */
+	private static final long serialVersionUID = 1L;
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(NodeUndoManager.class);
+
+	/** The root of the tree. */
+	private final Node root;
+
+	/** Most nodes the history may keep alive. */
+	private long nodeLimit = Long.MAX_VALUE;
+
+	/** Nodes kept alive by the history, if counted. */
+	private long heldNodes;
+
+	/** The compound edits begun and not yet ended, innermost first. */
+	private final Deque<CompoundEdit> compounds = new ArrayDeque<>();
+
+	/**
+	 * The thread undoing or redoing, so that we don't record its changes; or
+	 * null.
+	 */
+	private volatile Thread replaying;
+
+	/** True to record only changes made on the Event Dispatch Thread. */
+	private volatile boolean eventDispatchThreadOnly;
+
+	/**
+	 * Constructor. Starts recording changes to the tree.
+	 *
+	 * @param root
+	 *            the root of the tree.
+	 */
+	public NodeUndoManager(Node root) {
+		if (root == null) {
+			throw new IllegalArgumentException("root is null");
+		}
+		this.root = root;
+		root.addListener(this);
+	}
+
+	/**
+	 * Stop recording changes to the tree.
+	 */
+	public void dispose() {
+		root.removeListener(this);
+	}
+
+	/**
+	 * Record only changes made on the Event Dispatch Thread, e.g. those of
+	 * the user in a JTree, and not those of background threads. Undoing and
+	 * redoing then only checks the nodes it changes are where it left them;
+	 * other children may have come or gone since.
+	 *
+	 * @param eventDispatchThreadOnly
+	 *            true to record only changes made on the Event Dispatch
+	 *            Thread.
+	 */
+	public void setEventDispatchThreadOnly(boolean eventDispatchThreadOnly) {
+		this.eventDispatchThreadOnly = eventDispatchThreadOnly;
+	}
+
+	/**
+	 * @return true if only changes made on the Event Dispatch Thread are
+	 *         recorded.
+	 */
+	public boolean isEventDispatchThreadOnly() {
+		return eventDispatchThreadOnly;
+	}
+
+	/**
+	 * Bound the nodes kept alive by the history. Once set, removed subtrees
+	 * are counted, though never past the limit, so the cost of a remove is
+	 * bounded by the limit rather than the size of the subtree.
+	 *
+	 * @param nodeLimit
+	 *            most nodes to keep alive, at least those of the latest edit.
+	 */
+	public synchronized void setNodeLimit(long nodeLimit) {
+		if (nodeLimit < 0) {
+			throw new IllegalArgumentException(
+					"nodeLimit must not be negative, but I got " + nodeLimit);
+		}
+		this.nodeLimit = nodeLimit;
+		trimForNodeLimit();
+	}
+
+	/**
+	 * @return most nodes the history may keep alive.
+	 */
+	public synchronized long getNodeLimit() {
+		return nodeLimit;
+	}
+
+	/**
+	 * @return the nodes kept alive by the history, as far as counted. Zero
+	 *         unless a node limit is set.
+	 */
+	public synchronized long getHeldNodes() {
+		return heldNodes;
+	}
+
+	/**
+	 * Start grouping changes into one edit. May be nested; the group ends
+	 * with the outermost {@link #endCompound()}.
+	 *
+	 * @param presentationName
+	 *            name of the group, e.g. for the Undo button.
+	 */
+	public synchronized void beginCompound(String presentationName) {
+		compounds.push(new NamedCompoundEdit(presentationName));
+	}
+
+	/**
+	 * End a group begun by {@link #beginCompound(String)}.
+	 */
+	public synchronized void endCompound() {
+		if (compounds.isEmpty()) {
+			throw new IllegalStateException("no compound edit begun");
+		}
+		CompoundEdit compound = compounds.pop();
+		compound.end();
+		if (compound.isSignificant()) {
+			record(compound);
+		}
+	}
+
+	/**
+	 * Make changes that are undone and redone as one.
+	 *
+	 * @param presentationName
+	 *            name of the group, e.g. for the Undo button.
+	 * @param changes
+	 *            makes the changes.
+	 */
+	public void compound(String presentationName, Runnable changes) {
+		beginCompound(presentationName);
+		try {
+			changes.run();
+		} finally {
+			endCompound();
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Listeners hear one event per recorded change undone.
+	 */
+	@Override
+	public void undo() throws CannotUndoException {
+		TreeLock lock = root.lockTree();
+		try {
+			synchronized (this) {
+				if (!compounds.isEmpty()) {
+					throw new CannotUndoException();
+				}
+				replaying = Thread.currentThread();
+				try {
+					super.undo();
+				} finally {
+					replaying = null;
+				}
+			}
+		} finally {
+			Node.unlockTree(lock);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Listeners hear one event per recorded change redone.
+	 */
+	@Override
+	public void redo() throws CannotRedoException {
+		TreeLock lock = root.lockTree();
+		try {
+			synchronized (this) {
+				if (!compounds.isEmpty()) {
+					throw new CannotRedoException();
+				}
+				replaying = Thread.currentThread();
+				try {
+					super.redo();
+				} finally {
+					replaying = null;
+				}
+			}
+		} finally {
+			Node.unlockTree(lock);
+		}
+	}
+
+	/**
+	 * @return true if the change being heard is not to be recorded.
+	 */
+	private boolean isIgnored() {
+		Thread current = Thread.currentThread();
+		return replaying == current
+				|| (eventDispatchThreadOnly && !SwingUtilities
+						.isEventDispatchThread());
+	}
+
+	/**
+	 * @param edit
+	 *            an edit to add to the innermost compound, or to the history.
+	 */
+	private synchronized void record(UndoableEdit edit) {
+		CompoundEdit compound = compounds.peek();
+		if (compound != null) {
+			compound.addEdit(edit);
+			return;
+		}
+		addEdit(edit);
+		trimForNodeLimit();
+	}
+
+	/** Drop the oldest edits until the history is within the node limit. */
+	private void trimForNodeLimit() {
+		while (heldNodes > nodeLimit && edits.size() > 1) {
+			trimEdits(0, 0);
+		}
+	}
+
+	/**
+	 * @return true if a change is part of loading children in the background.
+	 */
+	private static boolean isLoading(Object parent, Object[] children) {
+		for (Object child : children) {
+			if (AsyncChildLoader.isPlaceholder(child)) {
+				return true;
+			}
+		}
+		// Loaded children are inserted before the placeholder.
+		TreeNode node = (TreeNode) parent;
+		int count = node.getChildCount();
+		return count > 0
+				&& AsyncChildLoader.isPlaceholder(node.getChildAt(count - 1));
+	}
+
+	/**
+	 * Count nodes in subtrees, from the totals they keep.
+	 *
+	 * @param tops
+	 *            tops of the subtrees.
+	 * @param limit
+	 *            most to count.
+	 * @return the count, or the limit if there are more.
+	 */
+	private static long countNodes(Node[] tops, long limit) {
+		long count = 0;
+		for (int i = 0; i < tops.length && count < limit; i++) {
+			count += tops[i].getDescendantCount() + 1L;
+		}
+		return Math.min(count, limit);
+	}
+
+	@Override
+	public void treeNodesChanged(TreeModelEvent e) {
+		if (isIgnored() || !(e instanceof NodeRenameEvent)) {
+			return;
+		}
+		NodeRenameEvent rename = (NodeRenameEvent) e;
+		record(new RenameEdit(rename.getNode(), rename.getOldName(), rename
+				.getNode().getName()));
+	}
+
+	@Override
+	public void treeNodesInserted(TreeModelEvent e) {
+		recordChildren(e, true);
+	}
+
+	@Override
+	public void treeNodesRemoved(TreeModelEvent e) {
+		recordChildren(e, false);
+	}
+
+	private void recordChildren(TreeModelEvent e, boolean inserted) {
+		Object parent = e.getTreePath().getLastPathComponent();
+		Object[] children = e.getChildren();
+		if (isIgnored() || isLoading(parent, children)) {
+			return;
+		}
+		Node[] nodes = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			nodes[i] = (Node) children[i];
+		}
+		synchronized (this) {
+			// The edit counts itself in heldNodes.
+			record(new ChildrenEdit((Node) parent, e.getChildIndices(),
+					nodes, inserted));
+		}
+	}
+
+	@Override
+	public void treeStructureChanged(TreeModelEvent e) {
+		if (replaying == Thread.currentThread()) {
+			return;
+		}
+		// Earlier edits may refer to nodes that are gone, whoever made the
+		// change.
+		logger.debug("structure changed, history cleared");
+		synchronized (this) {
+			for (CompoundEdit compound : compounds) {
+				compound.die();
+			}
+			compounds.clear();
+			discardAllEdits();
+		}
+	}
+
+	/** A compound edit with a name. */
+	private static final class NamedCompoundEdit extends CompoundEdit {
+
+		/** serial id. */
+		private static final long serialVersionUID = 1L;
+
+		private final String presentationName;
+
+		NamedCompoundEdit(String presentationName) {
+			this.presentationName = presentationName;
+		}
+
+		@Override
+		public String getPresentationName() {
+			return presentationName;
+		}
+
+		// CompoundEdit names itself after its last edit; we want our name.
+
+		@Override
+		public String getUndoPresentationName() {
+			return withName(UIManager
+					.getString("AbstractUndoableEdit.undoText"));
+		}
+
+		@Override
+		public String getRedoPresentationName() {
+			return withName(UIManager
+					.getString("AbstractUndoableEdit.redoText"));
+		}
+
+		private String withName(String text) {
+			if (presentationName == null || presentationName.isEmpty()) {
+				return text;
+			}
+			return text + " " + presentationName;
+		}
+	}
+
+	/** A node renamed. */
+	private static final class RenameEdit extends AbstractUndoableEdit {
+
+		/** serial id. */
+		private static final long serialVersionUID = 1L;
+
+		private final Node node;
+		private final String oldName;
+		private final String newName;
+
+		RenameEdit(Node node, String oldName, String newName) {
+			this.node = node;
+			this.oldName = oldName;
+			this.newName = newName;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			node.setName(oldName);
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			node.setName(newName);
+		}
+
+		@Override
+		public String getPresentationName() {
+			return "Rename";
+		}
+	}
+
+	/**
+	 * Children inserted into, or removed from, a node. Only used holding our
+	 * monitor.
+	 */
+	private final class ChildrenEdit extends AbstractUndoableEdit {
+
+		/** serial id. */
+		private static final long serialVersionUID = 1L;
+
+		private final Node parent;
+		private final int[] indices;
+		private final Node[] children;
+		private final boolean inserted;
+
+		/** Nodes this edit keeps alive while it holds them, as counted. */
+		private final long weight;
+
+		/**
+		 * True while the children are out of the tree, held only by us, i.e.
+		 * when removed and not undone, or inserted and undone.
+		 */
+		private boolean holding;
+
+		ChildrenEdit(Node parent, int[] indices, Node[] children,
+				boolean inserted) {
+			this.parent = parent;
+			this.indices = indices;
+			this.children = children;
+			this.inserted = inserted;
+			if (nodeLimit == Long.MAX_VALUE) {
+				weight = 0;
+			} else {
+				weight = countNodes(children, nodeLimit + 1);
+			}
+			setHolding(!inserted);
+		}
+
+		/**
+		 * @param holding
+		 *            true if the children are now out of the tree.
+		 */
+		private void setHolding(boolean holding) {
+			if (holding != this.holding) {
+				this.holding = holding;
+				heldNodes += holding ? weight : -weight;
+			}
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			if (inserted ? !canRemove() : !canInsert()) {
+				throw new CannotUndoException();
+			}
+			super.undo();
+			if (inserted) {
+				remove();
+			} else {
+				insert();
+			}
+			// Children put back in the tree are no longer ours to count.
+			setHolding(inserted);
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			if (inserted ? !canInsert() : !canRemove()) {
+				throw new CannotRedoException();
+			}
+			super.redo();
+			if (inserted) {
+				insert();
+			} else {
+				remove();
+			}
+			setHolding(!inserted);
+		}
+
+		@Override
+		public void die() {
+			setHolding(false);
+			super.die();
+		}
+
+		private boolean isRun() {
+			for (int i = 1; i < indices.length; i++) {
+				if (indices[i] != indices[0] + i) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return true if the children are still out of the tree, and their
+		 *         places are still in the parent.
+		 */
+		private boolean canInsert() {
+			for (int i = 0; i < children.length; i++) {
+				if (children[i].getParent() != null
+						|| indices[i] > parent.getChildCount() + i) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/** @return true if the children are still where they were put. */
+		private boolean canRemove() {
+			for (int i = 0; i < children.length; i++) {
+				if (indices[i] >= parent.getChildCount()
+						|| parent.getChildAt(indices[i]) != children[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void insert() {
+			if (isRun()) {
+				parent.insertAll(indices[0], Arrays.asList(children));
+				return;
+			}
+			for (int i = 0; i < children.length; i++) {
+				parent.insert(children[i], indices[i]);
+			}
+		}
+
+		private void remove() {
+			if (isRun()) {
+				parent.removeRange(indices[0], indices[0] + children.length);
+				return;
+			}
+			for (int i = children.length - 1; i >= 0; i--) {
+				parent.remove(indices[i]);
+			}
+		}
+
+		@Override
+		public String getPresentationName() {
+			return inserted ? "Add" : "Remove";
+		}
+	}
+}
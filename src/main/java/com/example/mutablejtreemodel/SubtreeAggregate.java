@@ -0,0 +1,56 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+/**
+ * A way to combine values given to the nodes of a tree, so that each node
+ * keeps the combined value of itself and everything below it, e.g. the
+ * largest size or the latest time stamp below each node. Set on the root
+ * with {@link Node#setSubtreeAggregate(SubtreeAggregate)}.
+ * <p>
+ *
+ * Combining must be associative and commutative, as children are added in
+ * any order and at any place. An insert then takes time in proportion to its
+ * depth. A remove, or a change to a node's value, does too if the aggregate
+ * can {@link #subtract} a value; otherwise each node on the way to the root
+ * combines its children again.
+ * <p>
+ *
+ * Values are never null. A node given no value counts as {@link #identity()}.
+ *
+ * @param <V>
+ *            the type of the values.
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public interface SubtreeAggregate<V> {
+
+	/**
+	 * @return the value that changes nothing it is combined with, e.g. 0 for
+	 *         a sum.
+	 */
+	V identity();
+
+	/**
+	 * @param a
+	 *            a value.
+	 * @param b
+	 *            another value.
+	 * @return the two combined.
+	 */
+	V combine(V a, V b);
+
+	/**
+	 * Take a value back out of one it was combined into. By default this
+	 * can't be done, as for the largest of some values.
+	 *
+	 * @param total
+	 *            a combined value.
+	 * @param part
+	 *            a value combined into it.
+	 * @return the total without the part, or null if that can't be worked
+	 *         out.
+	 */
+	default V subtract(V total, V part) {
+		return null;
+	}
+}
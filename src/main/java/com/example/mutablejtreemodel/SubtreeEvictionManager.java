@@ -0,0 +1,281 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.JTree;
+import javax.swing.Timer;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
+import javax.swing.tree.TreeNode;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the memory held by collapsed subtrees under a budget, by unloading
+ * the children of collapsed {@link LazyNode}s. Their provider creates them
+ * again if the node is expanded later.
+ * <p>
+ *
+ * Each collapsed, loaded lazy node is charged for every node below it, at
+ * {@link #ESTIMATED_NODE_BYTES} each. Once the charges pass the budget, nodes
+ * that have stayed collapsed for at least the idle time are unloaded, largest
+ * and longest collapsed first, until the charges are back under the budget.
+ * Unloading tells listeners the node's structure changed.
+ * <p>
+ *
+ * A collapsed node below another collapsed node is charged to the higher
+ * one, but is still remembered, and charged again on its own once the higher
+ * one is expanded.
+ * <p>
+ *
+ * Only used on the Event Dispatch Thread.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class SubtreeEvictionManager implements TreeExpansionListener {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(SubtreeEvictionManager.class);
+
+	/**
+	 * Rough heap used by one loaded node: the node, its name and cached path,
+	 * its place in its parent's child Vector, and its share of the totals and
+	 * Vectors of the nodes with children. Measured at about 170 bytes on a 64
+	 * bit JVM with compressed pointers, with ten children per node and short
+	 * names of their own.
+	 */
+	public static final long ESTIMATED_NODE_BYTES = 176;
+
+	/** Most bytes collapsed subtrees may hold. */
+	private final long budgetBytes;
+
+	/** A node must stay collapsed this long before it may be unloaded. */
+	private final long minIdleMillis;
+
+	/**
+	 * Collapsed, loaded lazy nodes, oldest first, including those below
+	 * another.
+	 */
+	private final Map<Key, Collapsed> collapsed = new LinkedHashMap<>();
+
+	/** Total charged for the collapsed nodes. */
+	private long residentBytes;
+
+	/** Retries eviction while installed, for nodes not yet idle long enough. */
+	private Timer timer;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param budgetBytes
+	 *            most bytes collapsed subtrees may hold.
+	 * @param minIdleMillis
+	 *            a node must stay collapsed this long before it may be
+	 *            unloaded.
+	 */
+	public SubtreeEvictionManager(long budgetBytes, long minIdleMillis) {
+		if (budgetBytes < 0) {
+			throw new IllegalArgumentException(
+					"budgetBytes must not be negative, but I got "
+							+ budgetBytes);
+		}
+		if (minIdleMillis < 0) {
+			throw new IllegalArgumentException(
+					"minIdleMillis must not be negative, but I got "
+							+ minIdleMillis);
+		}
+		this.budgetBytes = budgetBytes;
+		this.minIdleMillis = minIdleMillis;
+	}
+
+	/**
+	 * Start watching a JTree, and checking the budget now and then.
+	 *
+	 * @param tree
+	 *            the tree.
+	 */
+	public void install(JTree tree) {
+		tree.addTreeExpansionListener(this);
+		if (timer == null) {
+			int delay = (int) Math.max(1000, Math.min(Integer.MAX_VALUE,
+					minIdleMillis / 2));
+			timer = new Timer(delay, e -> evict());
+			timer.start();
+		}
+	}
+
+	/**
+	 * Stop watching a JTree.
+	 *
+	 * @param tree
+	 *            the tree.
+	 */
+	public void uninstall(JTree tree) {
+		tree.removeTreeExpansionListener(this);
+		if (timer != null) {
+			timer.stop();
+			timer = null;
+		}
+	}
+
+	/**
+	 * @return the bytes charged for the collapsed subtrees.
+	 */
+	public long getResidentBytes() {
+		return residentBytes;
+	}
+
+	@Override
+	public void treeExpanded(TreeExpansionEvent event) {
+		Object node = event.getPath().getLastPathComponent();
+		Collapsed entry = collapsed.remove(new Key(node));
+		if (entry == null) {
+			return;
+		}
+		if (!entry.nested) {
+			residentBytes -= entry.bytes;
+		}
+		// Collapsed nodes below it with no other collapsed node above them
+		// are charged on their own again.
+		for (Collapsed other : collapsed.values()) {
+			if (other.nested && other.node.isNodeAncestor(entry.node)
+					&& !isBelowCollapsed(other)) {
+				other.nested = false;
+				other.bytes = other.node.getDescendantCount()
+						* ESTIMATED_NODE_BYTES;
+				residentBytes += other.bytes;
+			}
+		}
+	}
+
+	@Override
+	public void treeCollapsed(TreeExpansionEvent event) {
+		Object last = event.getPath().getLastPathComponent();
+		if (!(last instanceof LazyNode) || !((LazyNode) last).isLoaded()) {
+			return;
+		}
+		LazyNode node = (LazyNode) last;
+		Collapsed old = collapsed.remove(new Key(node));
+		if (old != null && !old.nested) {
+			residentBytes -= old.bytes;
+		}
+		// Collapsed nodes below this one are now charged to it.
+		for (Collapsed entry : collapsed.values()) {
+			if (!entry.nested && entry.node.isNodeAncestor(node)) {
+				residentBytes -= entry.bytes;
+				entry.nested = true;
+			}
+		}
+		Collapsed entry = new Collapsed(node, node.getDescendantCount()
+				* ESTIMATED_NODE_BYTES, System.currentTimeMillis());
+		entry.nested = isBelowCollapsed(entry);
+		collapsed.put(new Key(node), entry);
+		if (!entry.nested) {
+			residentBytes += entry.bytes;
+		}
+		evict();
+	}
+
+	/**
+	 * @param entry
+	 *            a collapsed node.
+	 * @return true if another collapsed node is above it.
+	 */
+	private boolean isBelowCollapsed(Collapsed entry) {
+		for (TreeNode above = entry.node.getParent(); above != null; above = above
+				.getParent()) {
+			if (collapsed.containsKey(new Key(above))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Unload collapsed nodes until we are within budget, or no more have been
+	 * idle long enough.
+	 *
+	 * @return how many nodes were unloaded.
+	 */
+	public int evict() {
+		int evicted = 0;
+		long now = System.currentTimeMillis();
+		while (residentBytes > budgetBytes) {
+			Collapsed victim = null;
+			double victimScore = -1;
+			for (Collapsed entry : collapsed.values()) {
+				if (entry.nested) {
+					continue;
+				}
+				long idle = now - entry.since;
+				if (idle < minIdleMillis) {
+					// Later entries were collapsed more recently still.
+					break;
+				}
+				double score = (idle + 1.0) * entry.bytes;
+				if (score > victimScore) {
+					victim = entry;
+					victimScore = score;
+				}
+			}
+			if (victim == null) {
+				break;
+			}
+			collapsed.remove(new Key(victim.node));
+			residentBytes -= victim.bytes;
+			// The collapsed nodes below it go with its children.
+			LazyNode top = victim.node;
+			collapsed.values().removeIf(
+					entry -> entry.node.isNodeAncestor(top));
+			if (victim.node.isLoaded()) {
+				victim.node.unloadChildren();
+				evicted++;
+			}
+		}
+		if (evicted > 0 && logger.isDebugEnabled()) {
+			logger.debug("evicted {} subtrees, {} bytes resident", evicted,
+					residentBytes);
+		}
+		return evicted;
+	}
+
+	/** Nodes are equal by name, so we key them by identity. */
+	private static final class Key {
+		private final Object node;
+
+		Key(Object node) {
+			this.node = node;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(node);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).node == node;
+		}
+	}
+
+	/** A collapsed, loaded lazy node. */
+	private static final class Collapsed {
+		private final LazyNode node;
+		private long bytes;
+		private final long since;
+
+		/** True while charged to a collapsed node above it instead. */
+		private boolean nested;
+
+		Collapsed(LazyNode node, long bytes, long since) {
+			this.node = node;
+			this.bytes = bytes;
+			this.since = since;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A lock shared by every node of a tree, letting many threads read the tree
+ * while one thread at a time changes it.
+ * <p>
+ *
+ * Reads are first tried optimistically, without taking any lock, and are only
+ * repeated under the read lock if a write happened meanwhile. Writes take the
+ * write lock. The write lock is re-entrant, and the thread holding it may also
+ * read, so listeners told of a change may look at the tree straight away.
+ * <p>
+ *
+ * A tree uses the lock set on its root with {@link Node#setTreeLock(TreeLock)}.
+ * Trees without a lock are not locked at all.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class TreeLock {
+
+	/** The lock. */
+	private final StampedLock lock = new StampedLock();
+
+	/** The thread holding the write lock, if any. */
+	private volatile Thread writer;
+
+	/** How many times the writer has taken the write lock. */
+	private int writeHolds;
+
+	/** Stamp of the write lock. Only used by the writer. */
+	private long writeStamp;
+
+	/**
+	 * Take the write lock, waiting for readers and any other writer.
+	 */
+	public void lockWrite() {
+		Thread current = Thread.currentThread();
+		if (writer == current) {
+			writeHolds++;
+			return;
+		}
+		long stamp = lock.writeLock();
+		writeStamp = stamp;
+		writeHolds = 1;
+		writer = current;
+	}
+
+	/**
+	 * Release the write lock once for every time it was taken.
+	 */
+	public void unlockWrite() {
+		if (writer != Thread.currentThread()) {
+			throw new IllegalMonitorStateException(
+					"write lock not held by this thread");
+		}
+		if (--writeHolds == 0) {
+			writer = null;
+			lock.unlockWrite(writeStamp);
+		}
+	}
+
+	/**
+	 * @return true if the current thread holds the write lock.
+	 */
+	public boolean isWriteLockedByCurrentThread() {
+		return writer == Thread.currentThread();
+	}
+
+	/**
+	 * Read from the tree. The reader may be run more than once, so it must not
+	 * change anything. Exceptions thrown by an optimistic attempt are ignored
+	 * if a write happened meanwhile.
+	 *
+	 * @param reader
+	 *            the read.
+	 * @return what the reader returned, from a consistent tree.
+	 */
+	public <T> T read(Supplier<T> reader) {
+		if (writer == Thread.currentThread()) {
+			return reader.get();
+		}
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0L) {
+			try {
+				T result = reader.get();
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			} catch (RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+				// We saw the tree mid change. Try again properly.
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return reader.get();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Read from the tree under the read lock, so the reader runs exactly once
+	 * and the tree can't change meanwhile. For reads with side effects, such
+	 * as walks that report each node.
+	 *
+	 * @param reader
+	 *            the read.
+	 */
+	public void readLocked(Runnable reader) {
+		if (writer == Thread.currentThread()) {
+			reader.run();
+			return;
+		}
+		long stamp = lock.readLock();
+		try {
+			reader.run();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Read an int from the tree. As {@link #read(Supplier)} but without
+	 * boxing.
+	 *
+	 * @param reader
+	 *            the read.
+	 * @return what the reader returned, from a consistent tree.
+	 */
+	public int readInt(IntSupplier reader) {
+		if (writer == Thread.currentThread()) {
+			return reader.getAsInt();
+		}
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0L) {
+			try {
+				int result = reader.getAsInt();
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			} catch (RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+				// We saw the tree mid change. Try again properly.
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return reader.getAsInt();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+}
@@ -0,0 +1,600 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.swing.tree.TreeNode;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes trees of nodes to channels and reads them back, one node at a time,
+ * without recursion. Only names and structure are written, never listeners.
+ * <p>
+ *
+ * Two formats are offered. The binary one is a header, then each node before
+ * its children:
+ *
+ * <pre>
+ * header: int magic, int version
+ * node:   int length of name in bytes, or -1 for no name, UTF-8 name,
+ *         int child count
+ * </pre>
+ *
+ * The JSON lines one is one line per node, in the same order, giving the
+ * node's depth below the root and its name, null for no name:
+ *
+ * <pre>
+ * {"depth":0,"name":"root"}
+ * </pre>
+ *
+ * Reading builds the tree without sending any events, attaching the children
+ * of each node all at once. Memory used besides the tree itself grows only
+ * with the tree's depth.
+ * <p>
+ *
+ * Writing a locked tree holds its read lock throughout. The placeholders of
+ * {@link AsyncChildLoader} are left out.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public final class TreeSerializer {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(TreeSerializer.class);
+
+	/** Start of the binary format. "MJTB" */
+	private static final int MAGIC = 0x4D4A5442;
+
+	/** Version of the binary format. 2 added nodes without a name. */
+	private static final int VERSION = 2;
+
+	/** Name length written for a node without a name. */
+	private static final int NO_NAME = -1;
+
+	/**
+	 * Most children room is made for before they are read, so a damaged
+	 * count can't use up the heap.
+	 */
+	private static final int MAX_INITIAL_CHILDREN = 1024;
+
+	/** Size of the buffers between us and the channels. */
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	/** Don't instantiate. */
+	private TreeSerializer() {
+	}
+
+	// Binary
+
+	/**
+	 * Write a tree in the binary format.
+	 *
+	 * @param root
+	 *            the root of the tree.
+	 * @param channel
+	 *            where to write. Left open.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public static void writeBinary(Node root, WritableByteChannel channel)
+			throws IOException {
+		ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+		out.putInt(MAGIC).putInt(VERSION);
+		long count = walk(root, (node, depth) -> {
+			String text = node.toString();
+			byte[] name = (text == null) ? new byte[0] : text
+					.getBytes(StandardCharsets.UTF_8);
+			if (out.remaining() < 4) {
+				drain(out, channel);
+			}
+			out.putInt((text == null) ? NO_NAME : name.length);
+			int written = 0;
+			while (written < name.length) {
+				if (!out.hasRemaining()) {
+					drain(out, channel);
+				}
+				int length = Math.min(out.remaining(), name.length - written);
+				out.put(name, written, length);
+				written += length;
+			}
+			if (out.remaining() < 4) {
+				drain(out, channel);
+			}
+			out.putInt(AsyncChildLoader.countWithoutPlaceholder(node));
+		});
+		drain(out, channel);
+		logger.debug("wrote {} nodes", count);
+	}
+
+	/**
+	 * Read a tree in the binary format, as Node objects.
+	 *
+	 * @param channel
+	 *            where to read. Left open.
+	 * @return the root of the tree.
+	 * @throws IOException
+	 *             if reading fails or the data is not a tree.
+	 */
+	public static Node readBinary(ReadableByteChannel channel)
+			throws IOException {
+		return readBinary(channel, Node::new);
+	}
+
+	/**
+	 * Read a tree in the binary format.
+	 *
+	 * @param channel
+	 *            where to read. Left open.
+	 * @param factory
+	 *            makes a node from a name, e.g. the constructor of a Node
+	 *            subclass.
+	 * @return the root of the tree.
+	 * @throws IOException
+	 *             if reading fails or the data is not a tree.
+	 */
+	public static Node readBinary(ReadableByteChannel channel,
+			Function<String, ? extends Node> factory) throws IOException {
+		Input in = new Input(channel);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not a binary tree");
+		}
+		int version = in.readInt();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("unknown binary tree version " + version);
+		}
+		Node root = factory.apply(in.readName());
+		Deque<Frame> open = new ArrayDeque<>();
+		long count = 1;
+		int childCount = in.readCount();
+		if (childCount > 0) {
+			open.push(new Frame(root, childCount));
+		}
+		while (!open.isEmpty()) {
+			Frame top = open.peek();
+			if (top.remaining == 0) {
+				top.attach();
+				open.pop();
+				continue;
+			}
+			top.remaining--;
+			Node child = factory.apply(in.readName());
+			count++;
+			top.children.add(child);
+			childCount = in.readCount();
+			if (childCount > 0) {
+				open.push(new Frame(child, childCount));
+			}
+		}
+		logger.debug("read {} nodes", count);
+		return root;
+	}
+
+	// JSON lines
+
+	/**
+	 * Write a tree in the JSON lines format.
+	 *
+	 * @param root
+	 *            the root of the tree.
+	 * @param channel
+	 *            where to write. Left open.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public static void writeJsonLines(Node root, WritableByteChannel channel)
+			throws IOException {
+		// Not closed, as that would close the channel.
+		Writer out = new BufferedWriter(Channels.newWriter(channel,
+				StandardCharsets.UTF_8.newEncoder(), -1), BUFFER_BYTES);
+		StringBuilder line = new StringBuilder();
+		long count = walk(root, (node, depth) -> {
+			line.setLength(0);
+			line.append("{\"depth\":").append(depth).append(",\"name\":");
+			String name = node.toString();
+			if (name == null) {
+				line.append("null");
+			} else {
+				quote(name, line);
+			}
+			line.append("}\n");
+			out.append(line);
+		});
+		out.flush();
+		logger.debug("wrote {} nodes", count);
+	}
+
+	/**
+	 * Read a tree in the JSON lines format, as Node objects.
+	 *
+	 * @param channel
+	 *            where to read. Left open.
+	 * @return the root of the tree.
+	 * @throws IOException
+	 *             if reading fails or the data is not a tree.
+	 */
+	public static Node readJsonLines(ReadableByteChannel channel)
+			throws IOException {
+		return readJsonLines(channel, Node::new);
+	}
+
+	/**
+	 * Read a tree in the JSON lines format. Only lines as written by
+	 * {@link #writeJsonLines(Node, WritableByteChannel)} are understood, though
+	 * spaces between the tokens are allowed.
+	 *
+	 * @param channel
+	 *            where to read. Left open.
+	 * @param factory
+	 *            makes a node from a name, e.g. the constructor of a Node
+	 *            subclass.
+	 * @return the root of the tree.
+	 * @throws IOException
+	 *             if reading fails or the data is not a tree.
+	 */
+	public static Node readJsonLines(ReadableByteChannel channel,
+			Function<String, ? extends Node> factory) throws IOException {
+		// Not closed, as that would close the channel.
+		BufferedReader in = new BufferedReader(Channels.newReader(channel,
+				StandardCharsets.UTF_8.newDecoder(), -1), BUFFER_BYTES);
+		// The nodes from the root down to the last one read, each with the
+		// children it has so far.
+		List<Frame> open = new ArrayList<>();
+		Node root = null;
+		long count = 0;
+		String text;
+		while ((text = in.readLine()) != null) {
+			if (text.trim().isEmpty()) {
+				continue;
+			}
+			count++;
+			JsonLine line = new JsonLine(text, count);
+			if (root == null) {
+				if (line.depth != 0) {
+					throw new IOException("line 1: the root must have depth 0");
+				}
+				root = factory.apply(line.name);
+				open.add(new Frame(root, 0));
+				continue;
+			}
+			if (line.depth < 1 || line.depth > open.size()) {
+				throw new IOException("line " + count + ": depth "
+						+ line.depth + " does not follow depth "
+						+ (open.size() - 1));
+			}
+			while (open.size() > line.depth) {
+				open.remove(open.size() - 1).attach();
+			}
+			Node node = factory.apply(line.name);
+			open.get(open.size() - 1).children.add(node);
+			open.add(new Frame(node, 0));
+		}
+		if (root == null) {
+			throw new IOException("no nodes");
+		}
+		while (!open.isEmpty()) {
+			open.remove(open.size() - 1).attach();
+		}
+		logger.debug("read {} nodes", count);
+		return root;
+	}
+
+	// Helpers
+
+	/** Receives each node of a walk. */
+	private interface NodeWriter {
+		void write(TreeNode node, int depth) throws IOException;
+	}
+
+	/**
+	 * Walk a tree, each node before its children, holding the tree's read
+	 * lock if it has one.
+	 *
+	 * @return the number of nodes.
+	 */
+	private static long walk(Node root, NodeWriter writer) throws IOException {
+		TreeLock lock = root.getTreeLock();
+		if (lock == null) {
+			return walkUnlocked(root, writer);
+		}
+		long[] count = new long[1];
+		try {
+			lock.readLocked(() -> {
+				try {
+					count[0] = walkUnlocked(root, writer);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return count[0];
+	}
+
+	private static long walkUnlocked(TreeNode root, NodeWriter writer)
+			throws IOException {
+		// Parents of the next node, and the index of the next child of each.
+		Deque<TreeNode> parents = new ArrayDeque<>();
+		Deque<int[]> nextChild = new ArrayDeque<>();
+		long count = 1;
+		writer.write(root, 0);
+		parents.push(root);
+		nextChild.push(new int[] { 0 });
+		while (!parents.isEmpty()) {
+			TreeNode parent = parents.peek();
+			int[] next = nextChild.peek();
+			if (next[0] == AsyncChildLoader.countWithoutPlaceholder(parent)) {
+				parents.pop();
+				nextChild.pop();
+				continue;
+			}
+			TreeNode child = parent.getChildAt(next[0]++);
+			writer.write(child, parents.size());
+			count++;
+			if (child.getChildCount() > 0) {
+				parents.push(child);
+				nextChild.push(new int[] { 0 });
+			}
+		}
+		return count;
+	}
+
+	private static void drain(ByteBuffer out, WritableByteChannel channel)
+			throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/** Append a string as a JSON string. */
+	private static void quote(String text, StringBuilder out) {
+		out.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+	/** A node being read, with the children read so far. */
+	private static final class Frame {
+		private final Node node;
+		private int remaining;
+		private final List<Node> children;
+
+		Frame(Node node, int remaining) {
+			this.node = node;
+			this.remaining = remaining;
+			this.children = new ArrayList<>(Math.min(remaining,
+					MAX_INITIAL_CHILDREN));
+		}
+
+		/** Give the node its children, without events. */
+		void attach() {
+			if (!children.isEmpty()) {
+				node.attachChildren(0, children.toArray(new Node[children
+						.size()]));
+			}
+		}
+	}
+
+	/** Buffered reads from a channel. */
+	private static final class Input {
+		private final ReadableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+		Input(ReadableByteChannel channel) {
+			this.channel = channel;
+			buffer.flip();
+		}
+
+		/** Make sure there are at least this many bytes buffered. */
+		private void require(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) {
+				return;
+			}
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("unexpected end of tree");
+				}
+			}
+			buffer.flip();
+		}
+
+		int readInt() throws IOException {
+			require(4);
+			return buffer.getInt();
+		}
+
+		int readCount() throws IOException {
+			int count = readInt();
+			if (count < 0) {
+				throw new IOException("damaged tree: child count " + count);
+			}
+			return count;
+		}
+
+		String readName() throws IOException {
+			int length = readInt();
+			if (length == NO_NAME) {
+				return null;
+			}
+			if (length < 0) {
+				throw new IOException("damaged tree: name length " + length);
+			}
+			byte[] bytes = new byte[length];
+			int read = 0;
+			while (read < length) {
+				require(1);
+				int chunk = Math.min(buffer.remaining(), length - read);
+				buffer.get(bytes, read, chunk);
+				read += chunk;
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/** One parsed line of the JSON lines format. */
+	private static final class JsonLine {
+		private final String text;
+		private final long number;
+		private int at;
+		private int depth;
+		private String name;
+
+		JsonLine(String text, long number) throws IOException {
+			this.text = text;
+			this.number = number;
+			expect('{');
+			expectKey("depth");
+			depth = readNumber();
+			expect(',');
+			expectKey("name");
+			skipSpaces();
+			if (text.startsWith("null", at)) {
+				at += 4;
+			} else {
+				name = readString();
+			}
+			expect('}');
+			skipSpaces();
+			if (at != text.length()) {
+				throw error("text after the node");
+			}
+		}
+
+		private IOException error(String message) {
+			return new IOException("line " + number + ": " + message);
+		}
+
+		private void skipSpaces() {
+			while (at < text.length() && Character.isWhitespace(text.charAt(at))) {
+				at++;
+			}
+		}
+
+		private void expect(char c) throws IOException {
+			skipSpaces();
+			if (at >= text.length() || text.charAt(at) != c) {
+				throw error("expecting '" + c + "'");
+			}
+			at++;
+		}
+
+		private void expectKey(String key) throws IOException {
+			skipSpaces();
+			if (!key.equals(readString())) {
+				throw error("expecting \"" + key + "\"");
+			}
+			expect(':');
+		}
+
+		private int readNumber() throws IOException {
+			skipSpaces();
+			int start = at;
+			while (at < text.length() && Character.isDigit(text.charAt(at))) {
+				at++;
+			}
+			try {
+				return Integer.parseInt(text.substring(start, at));
+			} catch (NumberFormatException e) {
+				throw error("expecting a depth");
+			}
+		}
+
+		private String readString() throws IOException {
+			expect('"');
+			StringBuilder out = new StringBuilder();
+			while (at < text.length()) {
+				char c = text.charAt(at++);
+				if (c == '"') {
+					return out.toString();
+				}
+				if (c != '\\') {
+					out.append(c);
+					continue;
+				}
+				if (at >= text.length()) {
+					break;
+				}
+				char escaped = text.charAt(at++);
+				switch (escaped) {
+				case 'n':
+					out.append('\n');
+					break;
+				case 'r':
+					out.append('\r');
+					break;
+				case 't':
+					out.append('\t');
+					break;
+				case 'b':
+					out.append('\b');
+					break;
+				case 'f':
+					out.append('\f');
+					break;
+				case 'u':
+					if (at + 4 > text.length()) {
+						throw error("short \\u escape");
+					}
+					try {
+						out.append((char) Integer.parseInt(text.substring(at,
+								at + 4), 16));
+					} catch (NumberFormatException e) {
+						throw error("bad \\u escape");
+					}
+					at += 4;
+					break;
+				default:
+					// \" \\ \/
+					out.append(escaped);
+				}
+			}
+			throw error("unterminated string");
+		}
+	}
+}
@@ -0,0 +1,332 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.tree.TreeNode;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A tree of nodes saved to a file, and read back through a memory mapping so
+ * that opening it takes the same time whatever its size.
+ * <p>
+ *
+ * The file holds a header, then a fixed size record per node, then the
+ * names. Nodes are numbered breadth first, so the children of a node are
+ * consecutive and a record only needs its first child and child count:
+ *
+ * <pre>
+ * header: int magic, int version, int node count, int start of names
+ * record: int offset of name, int first child, int child count
+ * name:   int length in bytes, UTF-8 bytes
+ * </pre>
+ *
+ * {@link #getRoot()} returns a {@link LazyNode} with the snapshot as its
+ * {@link ChildProvider}. Nodes are only created as a model asks for them,
+ * i.e. as a JTree expands them, and from then on are ordinary nodes that may
+ * be edited. The file must stay unchanged while open, and may be at most 2 GB.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class TreeSnapshot implements ChildProvider {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(TreeSnapshot.class);
+
+	/** Start of every snapshot file. "MJTS" */
+	private static final int MAGIC = 0x4D4A5453;
+
+	/** Version of the format. */
+	private static final int VERSION = 1;
+
+	/** Bytes before the first record. */
+	private static final int HEADER_BYTES = 16;
+
+	/** Bytes per node record. */
+	private static final int RECORD_BYTES = 12;
+
+	/** Size of the buffer used when writing. */
+	private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+	/** The mapped file. Only read with absolute gets, so threads may share. */
+	private final ByteBuffer buffer;
+
+	/** Number of nodes. */
+	private final int size;
+
+	/** Where the names start. */
+	private final int namesStart;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param buffer
+	 *            the file's contents.
+	 * @throws IOException
+	 *             if it isn't a snapshot.
+	 */
+	private TreeSnapshot(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+			throw new IOException("not a tree snapshot");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("unknown snapshot version "
+					+ buffer.getInt(4));
+		}
+		size = buffer.getInt(8);
+		namesStart = buffer.getInt(12);
+		if (size < 1 || namesStart != HEADER_BYTES + (long) size * RECORD_BYTES
+				|| namesStart > buffer.capacity()) {
+			throw new IOException("damaged tree snapshot");
+		}
+	}
+
+	/**
+	 * Open a snapshot.
+	 *
+	 * @param file
+	 *            the file.
+	 * @return the snapshot.
+	 * @throws IOException
+	 *             if the file can't be read or isn't a snapshot.
+	 */
+	public static TreeSnapshot open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			// The mapping outlives the channel.
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			TreeSnapshot snapshot = new TreeSnapshot(buffer);
+			logger.debug("opened {} with {} nodes", file, snapshot.size);
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Save a tree. Only children already present are saved, so lazy nodes
+	 * that were never loaded are saved without children. A tree of Nodes is
+	 * read under its read lock, if it has one, so it can't change between
+	 * the passes over it.
+	 *
+	 * @param root
+	 *            the root of the tree.
+	 * @param file
+	 *            the file, replaced if it exists.
+	 * @throws IOException
+	 *             if the file can't be written, or would pass 2 GB.
+	 */
+	public static void write(TreeNode root, Path file) throws IOException {
+		TreeLock lock = (root instanceof Node) ? ((Node) root).getTreeLock()
+				: null;
+		if (lock == null) {
+			writeUnlocked(root, file);
+			return;
+		}
+		try {
+			lock.readLocked(() -> {
+				try {
+					writeUnlocked(root, file);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void writeUnlocked(TreeNode root, Path file)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+			channel.position(HEADER_BYTES);
+
+			// First pass writes the records, numbering breadth first.
+			int count = 0;
+			int next = 1;
+			long nameOffset = 0;
+			ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+			pending.add(root);
+			while (!pending.isEmpty()) {
+				TreeNode node = pending.removeFirst();
+				int childCount = node.getChildCount();
+				if (out.remaining() < RECORD_BYTES) {
+					drain(out, channel);
+				}
+				out.putInt((int) nameOffset);
+				out.putInt(next);
+				out.putInt(childCount);
+				count++;
+				next += childCount;
+				nameOffset += 4 + encode(node).length;
+				for (int i = 0; i < childCount; i++) {
+					pending.addLast(node.getChildAt(i));
+				}
+			}
+			long namesStart = HEADER_BYTES + (long) count * RECORD_BYTES;
+			if (namesStart + nameOffset > Integer.MAX_VALUE) {
+				throw new IOException("tree too large for a snapshot");
+			}
+
+			// Second pass writes the names in the same order.
+			pending.add(root);
+			while (!pending.isEmpty()) {
+				TreeNode node = pending.removeFirst();
+				byte[] name = encode(node);
+				if (out.remaining() < 4) {
+					drain(out, channel);
+				}
+				out.putInt(name.length);
+				int written = 0;
+				while (written < name.length) {
+					if (!out.hasRemaining()) {
+						drain(out, channel);
+					}
+					int length = Math.min(out.remaining(), name.length
+							- written);
+					out.put(name, written, length);
+					written += length;
+				}
+				int childCount = node.getChildCount();
+				for (int i = 0; i < childCount; i++) {
+					pending.addLast(node.getChildAt(i));
+				}
+			}
+			drain(out, channel);
+
+			out.putInt(MAGIC).putInt(VERSION).putInt(count)
+					.putInt((int) namesStart);
+			out.flip();
+			while (out.hasRemaining()) {
+				channel.write(out, out.position());
+			}
+			logger.debug("wrote {} nodes to {}", count, file);
+		}
+	}
+
+	private static byte[] encode(TreeNode node) {
+		String name = node.toString();
+		return (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void drain(ByteBuffer out, FileChannel channel)
+			throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/**
+	 * @return the number of nodes in the snapshot.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a new root node, whose children are read from the snapshot as
+	 *         they are needed.
+	 */
+	public LazyNode getRoot() {
+		return new SnapshotNode(this, 0);
+	}
+
+	/**
+	 * @param record
+	 *            number of a node.
+	 * @return the node's name.
+	 */
+	public String getName(int record) {
+		int at = namesStart + buffer.getInt(recordStart(record));
+		int length = buffer.getInt(at);
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(at + 4);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param record
+	 *            number of a node.
+	 * @return the number of children of the node.
+	 */
+	public int getChildCount(int record) {
+		return buffer.getInt(recordStart(record) + 8);
+	}
+
+	/**
+	 * @param record
+	 *            number of a node.
+	 * @return the number of the node's first child. The rest follow it.
+	 */
+	public int getFirstChild(int record) {
+		return buffer.getInt(recordStart(record) + 4);
+	}
+
+	private int recordStart(int record) {
+		if (record < 0 || record >= size) {
+			throw new ArrayIndexOutOfBoundsException(record + " >= " + size);
+		}
+		return HEADER_BYTES + record * RECORD_BYTES;
+	}
+
+	@Override
+	public List<? extends Node> loadChildren(LazyNode parent) {
+		int record = toRecord(parent);
+		int first = getFirstChild(record);
+		int count = getChildCount(record);
+		List<Node> children = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			children.add(new SnapshotNode(this, first + i));
+		}
+		return children;
+	}
+
+	@Override
+	public boolean hasChildren(LazyNode parent) {
+		return getChildCount(toRecord(parent)) > 0;
+	}
+
+	private int toRecord(LazyNode node) {
+		if (!(node instanceof SnapshotNode)
+				|| ((SnapshotNode) node).getProvider() != this) {
+			throw new IllegalArgumentException(
+					"Expecting node to be from this snapshot, but I got "
+							+ node);
+		}
+		return ((SnapshotNode) node).record;
+	}
+
+	/** A node read from a snapshot. */
+	private static final class SnapshotNode extends LazyNode {
+		private static final long serialVersionUID = 1L;
+
+		/** Our number in the snapshot. */
+		private final int record;
+
+		SnapshotNode(TreeSnapshot snapshot, int record) {
+			super(snapshot.getName(record), snapshot);
+			this.record = record;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.UnaryOperator;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeNode;
+import javax.swing.tree.TreePath;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.example.mutablejtreemodel.FrozenTreeModel.FrozenNode;
+
+/**
+ * Keeps an immutable copy of a tree of nodes, so that readers can take a
+ * consistent snapshot at any time without stopping writers.
+ * <p>
+ *
+ * Listens to the root and, for each change, makes a new version by copying
+ * only the changed node and its ancestors; the rest is shared with the
+ * previous version. {@link #snapshot()} just returns the latest version, so
+ * it never blocks, and readers of a snapshot take no locks however long they
+ * take. A change costs the depth of the changed node, times a copy of at most
+ * 64 children for each level of a node's children along its path; inserting
+ * or moving a subtree also costs its size.
+ * <p>
+ *
+ * Versions are made as changes are heard, under the tree's lock if it has
+ * one. Children that a node loads without events, e.g. a lazy node's or the
+ * placeholder of an {@link AsyncChildLoader}, are not seen until a change is
+ * heard at or below that node. The copy then no longer has the node's child
+ * count, so the node is copied again instead.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class VersionedTree implements TreeModelListener {
+
+	/** class logger */
+	private static final Logger logger = LogManager
+			.getLogger(VersionedTree.class);
+
+	/** The root of the tree. */
+	private final Node root;
+
+	/** The latest version. */
+	private volatile FrozenTreeModel latest;
+
+	/**
+	 * Constructor. Copies the tree, so takes time in proportion to its size.
+	 *
+	 * @param root
+	 *            the root of the tree. Must stay a root.
+	 */
+	public VersionedTree(Node root) {
+		if (root == null) {
+			throw new IllegalArgumentException("root is null");
+		}
+		this.root = root;
+		TreeLock lock = root.lockTree();
+		try {
+			latest = new FrozenTreeModel(freeze(root), 0);
+			root.addListener(this);
+		} finally {
+			Node.unlockTree(lock);
+		}
+	}
+
+	/**
+	 * Stop making versions. Snapshots already taken stay valid.
+	 */
+	public void dispose() {
+		root.removeListener(this);
+	}
+
+	/**
+	 * @return the latest version of the tree. Never blocks, and never
+	 *         changes.
+	 */
+	public FrozenTreeModel snapshot() {
+		return latest;
+	}
+
+	/**
+	 * Copy a subtree, without recursion.
+	 *
+	 * @param top
+	 *            top of the subtree.
+	 * @return the copy.
+	 */
+	private static FrozenNode freeze(TreeNode top) {
+		if (top.getChildCount() == 0) {
+			return new FrozenNode(top.toString(), FrozenNode.NO_CHILDREN);
+		}
+		// Each node waiting for its children, with those copied so far.
+		Deque<TreeNode> parents = new ArrayDeque<>();
+		Deque<FrozenNode[]> copies = new ArrayDeque<>();
+		Deque<int[]> nextChild = new ArrayDeque<>();
+		parents.push(top);
+		copies.push(new FrozenNode[top.getChildCount()]);
+		nextChild.push(new int[] { 0 });
+		while (true) {
+			TreeNode parent = parents.peek();
+			FrozenNode[] children = copies.peek();
+			int[] next = nextChild.peek();
+			if (next[0] == children.length) {
+				parents.pop();
+				copies.pop();
+				nextChild.pop();
+				FrozenNode done = new FrozenNode(parent.toString(), children);
+				if (parents.isEmpty()) {
+					return done;
+				}
+				copies.peek()[nextChild.peek()[0]++] = done;
+				continue;
+			}
+			TreeNode child = parent.getChildAt(next[0]);
+			int childCount = child.getChildCount();
+			if (childCount == 0) {
+				children[next[0]++] = new FrozenNode(child.toString(),
+						FrozenNode.NO_CHILDREN);
+			} else {
+				parents.push(child);
+				copies.push(new FrozenNode[childCount]);
+				nextChild.push(new int[] { 0 });
+			}
+		}
+	}
+
+	/**
+	 * Make a new version by changing one node and copying its ancestors. A
+	 * node on the way whose copy has missed children loaded without events is
+	 * copied again instead.
+	 *
+	 * @param path
+	 *            path to the node to change, or null for the root.
+	 * @param added
+	 *            number of children the change added to the node, negative if
+	 *            it removed them.
+	 * @param change
+	 *            makes the changed copy of the node.
+	 */
+	private void update(TreePath path, int added,
+			UnaryOperator<FrozenNode> change) {
+		FrozenTreeModel current = latest;
+		Object[] nodes = (path == null) ? new Object[] { root } : path
+				.getPath();
+		FrozenNode[] chain = new FrozenNode[nodes.length];
+		int[] indices = new int[nodes.length];
+		chain[0] = current.getRoot();
+		int last = nodes.length - 1;
+		FrozenNode replacement = null;
+		for (int i = 1; i <= last; i++) {
+			TreeNode parent = (TreeNode) nodes[i - 1];
+			if (chain[i - 1].getChildCount() != parent.getChildCount()) {
+				logger.debug("copying again below {}", parent);
+				replacement = freeze(parent);
+				last = i - 1;
+				break;
+			}
+			indices[i] = parent.getIndex((TreeNode) nodes[i]);
+			chain[i] = chain[i - 1].getChildAt(indices[i]);
+		}
+		if (replacement == null) {
+			TreeNode node = (TreeNode) nodes[last];
+			if (chain[last].getChildCount() == node.getChildCount() - added) {
+				replacement = change.apply(chain[last]);
+			} else {
+				logger.debug("copying again below {}", node);
+				replacement = freeze(node);
+			}
+		}
+		for (int i = last; i > 0; i--) {
+			replacement = chain[i - 1].withChild(indices[i], replacement);
+		}
+		latest = new FrozenTreeModel(replacement, current.getVersion() + 1);
+	}
+
+	@Override
+	public void treeNodesChanged(TreeModelEvent e) {
+		TreePath path = e.getTreePath();
+		Object[] children = e.getChildren();
+		if (path == null) {
+			// The root itself.
+			update(null, 0, node -> node.withName(children[0].toString()));
+			return;
+		}
+		int[] indices = e.getChildIndices();
+		update(path, 0, parent -> {
+			FrozenNode changed = parent;
+			for (int i = 0; i < indices.length; i++) {
+				changed = changed.withChild(indices[i], changed.getChildAt(
+						indices[i]).withName(children[i].toString()));
+			}
+			return changed;
+		});
+	}
+
+	@Override
+	public void treeNodesInserted(TreeModelEvent e) {
+		Object[] children = e.getChildren();
+		FrozenNode[] copies = new FrozenNode[children.length];
+		for (int i = 0; i < children.length; i++) {
+			// A subtree may have changed while out of the tree, unheard, so
+			// even a moved one is copied afresh.
+			copies[i] = freeze((TreeNode) children[i]);
+		}
+		int[] indices = e.getChildIndices();
+		update(e.getTreePath(), indices.length, parent -> parent.withInserted(
+				indices, copies));
+	}
+
+	@Override
+	public void treeNodesRemoved(TreeModelEvent e) {
+		int[] indices = e.getChildIndices();
+		update(e.getTreePath(), -indices.length, parent -> parent
+				.withRemoved(indices));
+	}
+
+	@Override
+	public void treeStructureChanged(TreeModelEvent e) {
+		TreePath path = e.getTreePath();
+		logger.debug("copying again below {}", path);
+		update(path, 0, node -> freeze((TreeNode) path.getLastPathComponent()));
+	}
+}
@@ -0,0 +1,119 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.swing.event.TreeExpansionEvent;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class AsyncChildLoaderTest {
+
+	private final AsyncChildLoader loader = new AsyncChildLoader(2, 3);
+
+	/** Streams a number of children once released. */
+	private static class GatedProvider implements ChildProvider {
+		private final int count;
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		GatedProvider(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public List<? extends Node> loadChildren(LazyNode parent) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void streamChildren(LazyNode parent, Consumer<? super Node> sink) {
+			started.countDown();
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			for (int i = 0; i < count; i++) {
+				sink.accept(new Node("child" + i));
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		loader.shutdown();
+	}
+
+	private void awaitLoaded(LazyNode node) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (loader.isLoading(node) && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertFalse("still loading", loader.isLoading(node));
+	}
+
+	/** test a placeholder shows at once and the children arrive in chunks */
+	@Test
+	public void testPlaceholderThenChunks() throws Exception {
+		GatedProvider provider = new GatedProvider(7);
+		LazyNode root = new LazyNode("root", provider);
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+		model.setChildLoader(loader);
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+
+		assertEquals("count while loading", 1, model.getChildCount(root));
+		assertTrue("placeholder", AsyncChildLoader.isPlaceholder(model
+				.getChild(root, 0)));
+		provider.gate.countDown();
+		awaitLoaded(root);
+
+		assertEquals("count", 7, model.getChildCount(root));
+		for (int i = 0; i < 7; i++) {
+			assertEquals("child" + i, "child" + i, model.getChild(root, i)
+					.toString());
+		}
+		// Chunks of at most three, or fewer if the provider is slow.
+		int inserts = listener.getNodesInserted().size();
+		assertTrue("Insert count " + inserts, inserts >= 3 && inserts <= 7);
+		assertEquals("Removed count", 1, listener.getNodesRemoved().size());
+		assertTrue("removed placeholder", AsyncChildLoader
+				.isPlaceholder(listener.getNodesRemoved().get(0)
+						.getChildren()[0]));
+	}
+
+	/** test collapsing cancels the load and unloads the node */
+	@Test
+	public void testCollapseCancels() throws Exception {
+		GatedProvider provider = new GatedProvider(5);
+		LazyNode root = new LazyNode("root", provider);
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+		model.setChildLoader(loader);
+		model.getChildCount(root);
+		assertTrue("started", provider.started.await(10, TimeUnit.SECONDS));
+
+		loader.treeCollapsed(new TreeExpansionEvent(this, root
+				.getPathFromRoot()));
+		provider.gate.countDown();
+
+		assertFalse("loading", loader.isLoading(root));
+		assertFalse("loaded", root.isLoaded());
+		assertEquals("count", 0, root.getChildCount());
+	}
+}
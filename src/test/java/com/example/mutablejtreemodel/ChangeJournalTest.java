@@ -0,0 +1,291 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.tree.TreeNode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.example.mutablejtreemodel.ChangeJournal.SyncPolicy;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class ChangeJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Node buildTree() {
+		Node root = new Node("root");
+		for (int i = 0; i < 3; i++) {
+			Node child = new Node("child" + i);
+			for (int j = 0; j < 2; j++) {
+				child.add(new Node("grandchild" + i + "." + j));
+			}
+			root.add(child);
+		}
+		return root;
+	}
+
+	/** Make changes of every kind. */
+	private static void edit(Node root) {
+		Node child0 = (Node) root.getChildAt(0);
+		Node child1 = (Node) root.getChildAt(1);
+		Node child2 = (Node) root.getChildAt(2);
+		root.setName("root renamed");
+		child0.setName("grüß");
+		Node added = new Node("added");
+		added.add(new Node("added child"));
+		child1.insert(added, 1);
+		List<Node> batch = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			batch.add(new Node("batch" + i));
+		}
+		child2.addAll(batch);
+		child2.removeRange(1, 3);
+		((Node) child0.getChildAt(0)).destroy();
+		child1.moveTo(child2, 0);
+		child0.setName(null);
+		child0.setName("named again");
+	}
+
+	/** Check two trees are the same. */
+	private static void assertSameTree(TreeNode expected, TreeNode actual) {
+		assertEquals("name", expected.toString(), actual.toString());
+		assertEquals("count of " + expected, expected.getChildCount(), actual
+				.getChildCount());
+		for (int i = 0; i < expected.getChildCount(); i++) {
+			assertSameTree(expected.getChildAt(i), actual.getChildAt(i));
+		}
+	}
+
+	private ChangeJournal open(File directory) throws IOException {
+		return new ChangeJournal(directory.toPath(), SyncPolicy.EACH_COMMIT, 1);
+	}
+
+	/** test nothing is recovered from an empty directory */
+	@Test
+	public void testRecoverNothing() throws IOException {
+		try (ChangeJournal journal = open(folder.getRoot())) {
+			assertNull(journal.recover());
+		}
+	}
+
+	/** test changes are replayed onto the checkpoint */
+	@Test
+	public void testReplay() throws IOException {
+		File directory = folder.getRoot();
+		Node root = buildTree();
+		try (ChangeJournal journal = open(directory)) {
+			journal.attach(root);
+			long empty = journal.getJournalBytes();
+			edit(root);
+			journal.flush();
+			assertTrue("journal grew", journal.getJournalBytes() > empty);
+		}
+		try (ChangeJournal journal = open(directory)) {
+			assertSameTree(root, journal.recover());
+		}
+	}
+
+	/** test a checkpoint empties the journal */
+	@Test
+	public void testCheckpoint() throws IOException {
+		File directory = folder.getRoot();
+		Node root = buildTree();
+		try (ChangeJournal journal = open(directory)) {
+			journal.attach(root);
+			long empty = journal.getJournalBytes();
+			edit(root);
+			journal.checkpoint();
+			assertEquals(empty, journal.getJournalBytes());
+			root.add(new Node("after checkpoint"));
+		}
+		try (ChangeJournal journal = open(directory)) {
+			Node recovered = journal.recover();
+			assertSameTree(root, recovered);
+
+			// Recording continues from the recovered tree.
+			journal.attach(recovered);
+			recovered.remove(0);
+		}
+		root.remove(0);
+		try (ChangeJournal journal = open(directory)) {
+			assertSameTree(root, journal.recover());
+		}
+	}
+
+	/** test replay stops at a record cut short by a crash */
+	@Test
+	public void testTornRecord() throws IOException {
+		File directory = folder.getRoot();
+		Node root = buildTree();
+		try (ChangeJournal journal = open(directory)) {
+			journal.attach(root);
+			root.setName("kept");
+			journal.flush();
+			root.add(new Node("lost"));
+		}
+		Path journalFile = directory.toPath().resolve("tree.journal");
+		try (FileChannel channel = FileChannel.open(journalFile,
+				StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		try (ChangeJournal journal = open(directory)) {
+			Node recovered = journal.recover();
+			assertEquals("kept", recovered.getName());
+			assertEquals(3, recovered.getChildCount());
+		}
+	}
+
+	/** test a journal left by a crash during a checkpoint is ignored */
+	@Test
+	public void testStaleJournal() throws IOException {
+		File directory = folder.getRoot();
+		Path journalFile = directory.toPath().resolve("tree.journal");
+		Path saved = folder.newFile("saved").toPath();
+		Node root = buildTree();
+		try (ChangeJournal journal = open(directory)) {
+			journal.attach(root);
+			root.add(new Node("added once"));
+			journal.flush();
+			Files.copy(journalFile, saved, StandardCopyOption.REPLACE_EXISTING);
+			journal.checkpoint();
+		}
+		// As if the journal was not yet emptied.
+		Files.copy(saved, journalFile, StandardCopyOption.REPLACE_EXISTING);
+		try (ChangeJournal journal = open(directory)) {
+			assertSameTree(root, journal.recover());
+		}
+	}
+
+	/** test the writer makes checkpoints for locked trees */
+	@Test
+	public void testAutomaticCheckpoint() throws Exception {
+		File directory = folder.getRoot();
+		Node root = buildTree();
+		root.setTreeLock(new TreeLock());
+		try (ChangeJournal journal = open(directory)) {
+			journal.attach(root);
+			journal.setCheckpointBytes(journal.getJournalBytes());
+			root.add(new Node("added"));
+			long deadline = System.currentTimeMillis() + 5000;
+			while (checkpointChildCount(directory) != 4) {
+				assertTrue("checkpoint made",
+						System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+		}
+		assertEquals("journal emptied", 12, Files.size(directory.toPath()
+				.resolve("tree.journal")));
+		try (ChangeJournal journal = open(directory)) {
+			assertSameTree(root, journal.recover());
+		}
+	}
+
+	/** Gives every node three plain children, once the gate opens. */
+	private static ChildProvider provider(CountDownLatch gate) {
+		return parent -> {
+			try {
+				gate.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			List<Node> children = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				children.add(new Node(parent.getName() + "." + i));
+			}
+			return children;
+		};
+	}
+
+	/** test the children lazy nodes load without events are recovered */
+	@Test
+	public void testLazyLoadsReplayed() throws IOException {
+		File directory = folder.getRoot();
+		ChildProvider provider = provider(new CountDownLatch(0));
+		Node root = buildTree();
+		LazyNode lazy = new LazyNode("lazy", provider);
+		root.add(lazy);
+		LazyNode loadedFirst = new LazyNode("loaded first", provider);
+		root.add(loadedFirst);
+		loadedFirst.prepareChildren();
+		try (ChangeJournal journal = open(directory)) {
+			journal.attach(root);
+			lazy.prepareChildren();
+			((Node) lazy.getChildAt(1)).setName("renamed");
+			lazy.remove(0);
+			LazyNode inner = new LazyNode("inner", provider);
+			lazy.add(inner);
+			inner.prepareChildren();
+			inner.add(new Node("added"));
+			loadedFirst.unloadChildren();
+			loadedFirst.prepareChildren();
+			loadedFirst.remove(2);
+		}
+		try (ChangeJournal journal = open(directory)) {
+			assertSameTree(root, journal.recover());
+		}
+	}
+
+	/** test the placeholders of loads in the background are not recorded */
+	@Test
+	public void testPlaceholdersLeftOut() throws Exception {
+		File directory = folder.getRoot();
+		CountDownLatch gate = new CountDownLatch(1);
+		Node root = buildTree();
+		root.setTreeLock(new TreeLock());
+		LazyNode before = new LazyNode("before", provider(gate));
+		LazyNode after = new LazyNode("after", provider(gate));
+		root.add(before);
+		root.add(after);
+		AsyncChildLoader loader = new AsyncChildLoader(2, 1);
+		try (ChangeJournal journal = open(directory)) {
+			journal.attach(root);
+			loader.load(before);
+			journal.checkpoint();
+			loader.load(after);
+			gate.countDown();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (loader.isLoading(before) || loader.isLoading(after)) {
+				assertTrue("loaded", System.currentTimeMillis() < deadline);
+				Thread.sleep(5);
+			}
+		} finally {
+			loader.shutdown();
+		}
+		assertEquals("loaded children", 6, before.getChildCount()
+				+ after.getChildCount());
+		try (ChangeJournal journal = open(directory)) {
+			assertSameTree(root, journal.recover());
+		}
+	}
+
+	/** @return the number of children of the root in the checkpoint. */
+	private static int checkpointChildCount(File directory) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory.toPath()
+				.resolve("tree.checkpoint"), StandardOpenOption.READ)) {
+			channel.position(12);
+			return TreeSerializer.readBinary(channel).getChildCount();
+		}
+	}
+}
@@ -0,0 +1,378 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TreeModelEvent;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class CoalescingEventDispatcherTest {
+
+	/** Wait until the Event Dispatch Thread has delivered queued events. */
+	private static void drainEventQueue() throws Exception {
+		SwingUtilities.invokeAndWait(() -> {
+		});
+	}
+
+	/**
+	 * Keep the Event Dispatch Thread busy so that events queue up.
+	 *
+	 * @return latch to count down once the events are queued.
+	 */
+	private static CountDownLatch holdEventDispatchThread() {
+		CountDownLatch latch = new CountDownLatch(1);
+		SwingUtilities.invokeLater(() -> {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		return latch;
+	}
+
+	private static NodeJTreeModel createModel(Node root, int threshold,
+			TestTreeModelListener listener) {
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+		model.setEventDispatcher(new CoalescingEventDispatcher(model,
+				threshold));
+		model.addTreeModelListener(listener);
+		return model;
+	}
+
+	/** sibling inserts are merged into one event with sorted indices */
+	@Test
+	public void testInsertsMerged() throws Exception {
+		Node root = new Node("root");
+		TestTreeModelListener listener = new TestTreeModelListener();
+		createModel(root, 100, listener);
+		Node a = new Node("a");
+		Node b = new Node("b");
+		Node c = new Node("c");
+		CountDownLatch latch = holdEventDispatchThread();
+		root.insert(a, 0);
+		root.insert(b, 0);
+		root.insert(c, 1);
+		latch.countDown();
+		drainEventQueue();
+
+		assertEquals("Insert count", 1, listener.getNodesInserted().size());
+		TreeModelEvent e = listener.getNodesInserted().get(0);
+		assertEquals("e path", root.getPathFromRoot(), e.getTreePath());
+		assertArrayEquals("e childIndices", new int[] { 0, 1, 2 },
+				e.getChildIndices());
+		assertArrayEquals("e children", new Object[] { b, c, a },
+				e.getChildren());
+	}
+
+	/** sibling removes are merged with indices from before any removal */
+	@Test
+	public void testRemovesMerged() throws Exception {
+		Node root = new Node("root");
+		TestTreeModelListener listener = new TestTreeModelListener();
+		createModel(root, 100, listener);
+		Node[] children = new Node[5];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = new Node("child" + i);
+			root.add(children[i]);
+		}
+		drainEventQueue();
+		CountDownLatch latch = holdEventDispatchThread();
+		root.remove(children[1]);
+		root.remove(children[3]);
+		root.remove(children[0]);
+		latch.countDown();
+		drainEventQueue();
+
+		assertEquals("Removed count", 1, listener.getNodesRemoved().size());
+		TreeModelEvent e = listener.getNodesRemoved().get(0);
+		assertArrayEquals("e childIndices", new int[] { 0, 1, 3 },
+				e.getChildIndices());
+		assertArrayEquals("e children", new Object[] { children[0],
+				children[1], children[3] }, e.getChildren());
+	}
+
+	/** repeated changes of the same node collapse into one */
+	@Test
+	public void testChangesCollapsed() throws Exception {
+		Node root = new Node("root");
+		TestTreeModelListener listener = new TestTreeModelListener();
+		createModel(root, 100, listener);
+		Node child = new Node("child");
+		root.add(child);
+		drainEventQueue();
+		listener.getNodesInserted().clear();
+		CountDownLatch latch = holdEventDispatchThread();
+		child.setName("one");
+		child.setName("two");
+		child.setName("three");
+		latch.countDown();
+		drainEventQueue();
+
+		assertEquals("Changed count", 1, listener.getNodesChanged().size());
+		TreeModelEvent e = listener.getNodesChanged().get(0);
+		assertArrayEquals("e childIndices", new int[] { 0 },
+				e.getChildIndices());
+		assertArrayEquals("e children", new Object[] { child },
+				e.getChildren());
+	}
+
+	/** too many merged children become a structure change */
+	@Test
+	public void testEscalatesToStructureChanged() throws Exception {
+		Node root = new Node("root");
+		TestTreeModelListener listener = new TestTreeModelListener();
+		createModel(root, 2, listener);
+		CountDownLatch latch = holdEventDispatchThread();
+		root.add(new Node("a"));
+		root.add(new Node("b"));
+		root.add(new Node("c"));
+		root.add(new Node("d"));
+		latch.countDown();
+		drainEventQueue();
+
+		assertEquals("Insert count", 0, listener.getNodesInserted().size());
+		assertEquals("StructureChanged count", 1, listener
+				.getStructureChanged().size());
+		assertEquals("e path", root.getPathFromRoot(), listener
+				.getStructureChanged().get(0).getTreePath());
+	}
+
+	/** events for different parents keep their order */
+	@Test
+	public void testDifferentParentsNotMerged() throws Exception {
+		Node root = new Node("root");
+		TestTreeModelListener listener = new TestTreeModelListener();
+		createModel(root, 100, listener);
+		Node child = new Node("child");
+		root.add(child);
+		drainEventQueue();
+		listener.getNodesInserted().clear();
+		CountDownLatch latch = holdEventDispatchThread();
+		child.add(new Node("grandchild"));
+		root.add(new Node("child2"));
+		latch.countDown();
+		drainEventQueue();
+
+		assertEquals("Insert count", 2, listener.getNodesInserted().size());
+		assertEquals("first parent", child, listener.getNodesInserted().get(0)
+				.getSource());
+		assertEquals("second parent", root, listener.getNodesInserted().get(1)
+				.getSource());
+	}
+
+	/** events raised on the Event Dispatch Thread are delivered at once */
+	@Test
+	public void testDeliveredImmediatelyOnEventDispatchThread()
+			throws Exception {
+		Node root = new Node("root");
+		TestTreeModelListener listener = new TestTreeModelListener();
+		createModel(root, 100, listener);
+		SwingUtilities.invokeAndWait(() -> {
+			root.add(new Node("child"));
+			assertEquals("Insert count", 1, listener.getNodesInserted().size());
+		});
+	}
+
+	/** changes below a collapsed node become one structure change for it */
+	@Test
+	public void testCollapsedChangesHidden() throws Exception {
+		Node root = new Node("root");
+		Node open = new Node("open");
+		Node closed = new Node("closed");
+		Node inner = new Node("inner");
+		open.add(new Node("open child"));
+		inner.add(new Node("inner child"));
+		closed.add(inner);
+		root.add(open);
+		root.add(closed);
+		TestTreeModelListener listener = new TestTreeModelListener();
+		NodeJTreeModel model = createModel(root, 100, listener);
+		SwingUtilities.invokeAndWait(() -> {
+			JTree tree = new JTree(model);
+			tree.expandPath(open.getPathFromRoot());
+			model.trackExpansion(tree);
+		});
+
+		CountDownLatch latch = holdEventDispatchThread();
+		open.add(new Node("shown"));
+		inner.add(new Node("hidden"));
+		inner.setName("renamed");
+		closed.add(new Node("also hidden"));
+		inner.remove(0);
+		latch.countDown();
+		drainEventQueue();
+
+		assertEquals("Insert count", 1, listener.getNodesInserted().size());
+		assertEquals("inserted under", open.getPathFromRoot(), listener
+				.getNodesInserted().get(0).getTreePath());
+		assertEquals("Change count", 0, listener.getNodesChanged().size());
+		assertEquals("Remove count", 0, listener.getNodesRemoved().size());
+		assertEquals("Structure count", 1, listener.getStructureChanged()
+				.size());
+		assertEquals("restructured", closed.getPathFromRoot(), listener
+				.getStructureChanged().get(0).getTreePath());
+	}
+
+	/** expanded nodes are known by identity, not by name */
+	@Test
+	public void testRenamedStaysExpanded() throws Exception {
+		Node root = new Node("root");
+		Node open = new Node("open");
+		Node closed = new Node("open");
+		open.add(new Node("open child"));
+		closed.add(new Node("closed child"));
+		root.add(open);
+		root.add(closed);
+		TestTreeModelListener listener = new TestTreeModelListener();
+		NodeJTreeModel model = createModel(root, 100, listener);
+		SwingUtilities.invokeAndWait(() -> {
+			JTree tree = new JTree(model);
+			tree.expandPath(open.getPathFromRoot());
+			model.trackExpansion(tree);
+		});
+
+		CountDownLatch latch = holdEventDispatchThread();
+		open.setName("renamed");
+		open.add(new Node("shown"));
+		closed.setName("renamed");
+		closed.add(new Node("hidden"));
+		latch.countDown();
+		drainEventQueue();
+
+		assertEquals("Insert count", 1, listener.getNodesInserted().size());
+		assertSame("inserted under", open, listener.getNodesInserted().get(0)
+				.getTreePath().getLastPathComponent());
+		assertEquals("Structure count", 1, listener.getStructureChanged()
+				.size());
+		assertSame("restructured", closed, listener.getStructureChanged()
+				.get(0).getTreePath().getLastPathComponent());
+	}
+
+	/** a structure change queued for a node covers events below it */
+	@Test
+	public void testStructureChangeCoversBelow() throws Exception {
+		Node root = new Node("root");
+		Node child = new Node("child");
+		Node other = new Node("child");
+		root.add(child);
+		root.add(other);
+		TestTreeModelListener listener = new TestTreeModelListener();
+		createModel(root, 100, listener);
+		drainEventQueue();
+		CountDownLatch latch = holdEventDispatchThread();
+		Node grandchild = new Node("grandchild");
+		child.add(grandchild);
+		child.fireTreeStructureChanged();
+		grandchild.add(new Node("great"));
+		child.add(new Node("late"));
+		// Same name, but not below the restructured node.
+		other.add(new Node("kept"));
+		latch.countDown();
+		drainEventQueue();
+
+		assertEquals("StructureChanged count", 1, listener
+				.getStructureChanged().size());
+		assertSame("restructured", child, listener.getStructureChanged()
+				.get(0).getTreePath().getLastPathComponent());
+		assertEquals("Insert count", 1, listener.getNodesInserted().size());
+		assertSame("inserted under", other, listener.getNodesInserted().get(0)
+				.getTreePath().getLastPathComponent());
+	}
+
+	/** a node expanded while an insert below it is queued stays in step */
+	@Test
+	public void testExpandedWhileInsertQueued() throws Exception {
+		Node root = new Node("root");
+		Node child = new Node("child");
+		child.add(new Node("first"));
+		root.add(child);
+		TestTreeModelListener listener = new TestTreeModelListener();
+		NodeJTreeModel model = createModel(root, 100, listener);
+		JTree[] tree = new JTree[1];
+		SwingUtilities.invokeAndWait(() -> {
+			tree[0] = new JTree(model);
+			model.trackExpansion(tree[0]);
+		});
+
+		// The JTree reads the new child when it expands, before the insert
+		// is delivered.
+		CountDownLatch latch = new CountDownLatch(1);
+		SwingUtilities.invokeLater(() -> {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			tree[0].expandPath(child.getPathFromRoot());
+		});
+		child.add(new Node("second"));
+		latch.countDown();
+		drainEventQueue();
+		drainEventQueue();
+
+		SwingUtilities.invokeAndWait(() -> {
+			assertEquals("rows", 4, tree[0].getRowCount());
+			assertEquals("last row", "second", tree[0].getPathForRow(3)
+					.getLastPathComponent().toString());
+		});
+		assertEquals("Insert count", 0, listener.getNodesInserted().size());
+	}
+
+	/** an insert undone before it is delivered doesn't upset the JTree */
+	@Test
+	public void testInsertThenRemoveQueued() throws Exception {
+		Node root = new Node("root");
+		for (int i = 0; i < 3; i++) {
+			root.add(new Node("child" + i));
+		}
+		TestTreeModelListener listener = new TestTreeModelListener();
+		NodeJTreeModel model = createModel(root, 100, listener);
+		JTree[] tree = new JTree[1];
+		AtomicReference<Throwable> thrown = new AtomicReference<>();
+		SwingUtilities.invokeAndWait(() -> {
+			Thread.currentThread().setUncaughtExceptionHandler(
+					(thread, e) -> thrown.set(e));
+			tree[0] = new JTree(model);
+			tree[0].expandPath(root.getPathFromRoot());
+			model.trackExpansion(tree[0]);
+		});
+
+		try {
+			CountDownLatch latch = holdEventDispatchThread();
+			Node added = new Node("added");
+			root.add(added);
+			root.remove(added);
+			latch.countDown();
+			drainEventQueue();
+			drainEventQueue();
+
+			SwingUtilities.invokeAndWait(() -> {
+				assertEquals("rows", 4, tree[0].getRowCount());
+			});
+			assertEquals("Insert count", 0, listener.getNodesInserted().size());
+			assertEquals("Remove count", 0, listener.getNodesRemoved().size());
+			assertEquals("StructureChanged count", 1, listener
+					.getStructureChanged().size());
+		} finally {
+			SwingUtilities.invokeAndWait(() -> Thread.currentThread()
+					.setUncaughtExceptionHandler(null));
+		}
+		if (thrown.get() != null) {
+			throw new AssertionError("thrown on the EDT", thrown.get());
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.tree.TreePath;
+
+import org.junit.Test;
+
+import com.example.mutablejtreemodel.ColumnarTreeModel.NodeHandle;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class ColumnarTreeModelTest {
+
+	/** test children are found by position and position by child */
+	@Test
+	public void testChildren() {
+		ColumnarTreeModel model = new ColumnarTreeModel("root");
+		NodeHandle root = model.getRoot();
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			names.add("child" + i);
+		}
+		List<NodeHandle> children = model.addAll(root, names);
+		assertEquals("count", 100, model.getChildCount(root));
+		assertEquals("size", 101, model.size());
+		// In order, as a JTree paints, then backwards and at random.
+		for (int i = 0; i < 100; i++) {
+			assertEquals("child " + i, children.get(i), model.getChild(root, i));
+		}
+		for (int i = 99; i >= 0; i--) {
+			assertEquals("child " + i, "child" + i, model.getChild(root, i)
+					.toString());
+		}
+		assertEquals("child 42", children.get(42), model.getChild(root, 42));
+		assertEquals("index", 57, model.getIndexOfChild(root, children.get(57)));
+		assertEquals("not a child", -1, model.getIndexOfChild(children.get(1),
+				children.get(2)));
+		assertTrue("isLeaf", model.isLeaf(children.get(0)));
+		assertFalse("root isLeaf", model.isLeaf(root));
+	}
+
+	/** test inserting in the middle moves later siblings along */
+	@Test
+	public void testInsert() {
+		ColumnarTreeModel model = new ColumnarTreeModel("root");
+		NodeHandle root = model.getRoot();
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+		NodeHandle a = model.add(root, "a");
+		NodeHandle c = model.add(root, "c");
+		NodeHandle b = model.insert(root, 1, "b");
+		NodeHandle grandchild = model.add(b, "grandchild");
+
+		assertEquals("b", b, model.getChild(root, 1));
+		assertEquals("index a", 0, model.getIndexOfChild(root, a));
+		assertEquals("index c", 2, model.getIndexOfChild(root, c));
+		assertEquals("path", new TreePath(new Object[] { root, b, grandchild }),
+				model.getPath(grandchild));
+		assertEquals("parent", b, model.getParent(grandchild));
+		assertNull("root parent", model.getParent(root));
+		assertEquals("Insert count", 4, listener.getNodesInserted().size());
+		TreeModelEvent e = listener.getNodesInserted().get(2);
+		assertArrayEquals("e childIndices", new int[] { 1 },
+				e.getChildIndices());
+		assertArrayEquals("e children", new Object[] { b }, e.getChildren());
+		assertEquals("e path", new TreePath(root), e.getTreePath());
+	}
+
+	/** test removing frees the subtree and stales its handles */
+	@Test
+	public void testRemove() {
+		ColumnarTreeModel model = new ColumnarTreeModel("root");
+		NodeHandle root = model.getRoot();
+		NodeHandle a = model.add(root, "a");
+		NodeHandle b = model.add(root, "b");
+		NodeHandle c = model.add(root, "c");
+		NodeHandle inner = model.add(b, "inner");
+		model.add(inner, "deeper");
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+		model.remove(b);
+
+		assertEquals("size", 3, model.size());
+		assertEquals("count", 2, model.getChildCount(root));
+		assertEquals("index c", 1, model.getIndexOfChild(root, c));
+		assertEquals("child 1", c, model.getChild(root, 1));
+		assertEquals("Removed count", 1, listener.getNodesRemoved().size());
+		TreeModelEvent e = listener.getNodesRemoved().get(0);
+		assertArrayEquals("e childIndices", new int[] { 1 },
+				e.getChildIndices());
+		assertArrayEquals("e children", new Object[] { b }, e.getChildren());
+		assertEquals("stale toString", "", inner.toString());
+		assertEquals("stale index", -1, model.getIndexOfChild(root, b));
+		// A JTree may read a removed node before hearing of it.
+		assertEquals("stale count", 0, model.getChildCount(inner));
+		assertTrue("stale isLeaf", model.isLeaf(b));
+		assertNull("stale child", model.getChild(b, 0));
+		try {
+			model.add(inner, "late");
+			throw new AssertionError("stale handle accepted");
+		} catch (IllegalStateException expected) {
+			// stale
+		}
+
+		// Reused numbers don't revive old handles.
+		NodeHandle d = model.add(a, "d");
+		assertNotEquals("reused", b, d);
+		assertEquals("size after", 4, model.size());
+	}
+
+	/** test rename fires a change and shares names */
+	@Test
+	public void testRename() {
+		ColumnarTreeModel model = new ColumnarTreeModel("root");
+		NodeHandle root = model.getRoot();
+		NodeHandle a = model.add(root, "a");
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+		model.valueForPathChanged(model.getPath(a), "renamed");
+		model.rename(root, "top");
+
+		assertEquals("name", "renamed", model.getName(a));
+		assertEquals("Changed count", 2, listener.getNodesChanged().size());
+		assertArrayEquals("e childIndices", new int[] { 0 }, listener
+				.getNodesChanged().get(0).getChildIndices());
+		assertNull("root e path", listener.getNodesChanged().get(1)
+				.getTreePath());
+	}
+
+	/** test names no node has any more are dropped */
+	@Test
+	public void testNamesDropped() {
+		ColumnarTreeModel model = new ColumnarTreeModel("root");
+		NodeHandle root = model.getRoot();
+		NodeHandle a = model.add(root, "shared");
+		NodeHandle b = model.add(root, "shared");
+		model.add(b, "below");
+		assertEquals("names", 3, model.nameCount());
+		for (int i = 0; i < 100; i++) {
+			model.rename(a, "name" + i);
+		}
+		assertEquals("after renames", 4, model.nameCount());
+		model.remove(b);
+		assertEquals("after remove", 2, model.nameCount());
+		model.rename(a, "root");
+		assertEquals("shared with root", 1, model.nameCount());
+		NodeHandle c = model.add(root, "new");
+		assertEquals("reused id", "new", model.getName(c));
+		assertEquals("root name", "root", model.getName(root));
+	}
+
+	/** test the walk visits each node before its children */
+	@Test
+	public void testVisit() {
+		ColumnarTreeModel model = new ColumnarTreeModel("root");
+		NodeHandle root = model.getRoot();
+		NodeHandle a = model.add(root, "a");
+		model.add(a, "a1");
+		model.add(a, "a2");
+		model.add(root, "b");
+		List<String> visited = new ArrayList<>();
+		model.visit((depth, name) -> visited.add(depth + name));
+		assertEquals("visited", Arrays.asList("0root", "1a", "2a1", "2a2",
+				"1b"), visited);
+	}
+}
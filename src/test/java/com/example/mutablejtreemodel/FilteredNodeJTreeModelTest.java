@@ -0,0 +1,398 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Predicate;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.tree.TreeModel;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class FilteredNodeJTreeModelTest {
+
+	private Node root;
+	private Node fruit;
+	private Node tools;
+
+	private FilteredNodeJTreeModel buildModel() {
+		NodeJTreeModel source = new NodeJTreeModel();
+		source.setRoot(buildTree());
+		return new FilteredNodeJTreeModel(source);
+	}
+
+	private Node buildTree() {
+		root = new Node("root");
+		fruit = new Node("fruit");
+		fruit.add(new Node("apple"));
+		fruit.add(new Node("banana"));
+		fruit.add(new Node("apricot"));
+		tools = new Node("tools");
+		tools.add(new Node("hammer"));
+		tools.add(new Node("saw"));
+		root.add(fruit);
+		root.add(tools);
+		return root;
+	}
+
+	private static Predicate<Node> startsWith(String prefix) {
+		return node -> node.getName() != null
+				&& node.getName().startsWith(prefix);
+	}
+
+	/** The names of the shown children of a node. */
+	private static List<String> shown(TreeModel model, Object parent) {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < model.getChildCount(parent); i++) {
+			names.add(model.getChild(parent, i).toString());
+		}
+		return names;
+	}
+
+	/** test the filtered children, indices and leaves */
+	@Test
+	public void testFiltered() {
+		FilteredNodeJTreeModel model = buildModel();
+		assertNull(model.getPredicate());
+		assertEquals(List.of("fruit", "tools"), shown(model, root));
+
+		model.setPredicate(startsWith("a"));
+		assertSame(root, model.getRoot());
+		assertEquals(List.of("fruit"), shown(model, root));
+		assertEquals(List.of("apple", "apricot"), shown(model, fruit));
+		Node apricot = (Node) fruit.getChildAt(2);
+		assertEquals(1, model.getIndexOfChild(fruit, apricot));
+		assertEquals(-1, model.getIndexOfChild(fruit, fruit.getChildAt(1)));
+		assertEquals(-1, model.getIndexOfChild(root, tools));
+		assertFalse(model.isLeaf(fruit));
+		assertTrue(model.isLeaf(apricot));
+		assertTrue(model.isLeaf(tools));
+	}
+
+	/** test a new predicate is one structure change */
+	@Test
+	public void testSetPredicate() {
+		FilteredNodeJTreeModel model = buildModel();
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+		model.setPredicate(startsWith("s"));
+		assertEquals(1, listener.getStructureChanged().size());
+		assertSame(root, listener.getStructureChanged().get(0).getTreePath()
+				.getLastPathComponent());
+		assertEquals(List.of("tools"), shown(model, root));
+		assertEquals(List.of("saw"), shown(model, tools));
+
+		model.setPredicate(null);
+		assertEquals(2, listener.getStructureChanged().size());
+		assertEquals(List.of("apple", "banana", "apricot"), shown(model, fruit));
+		assertTrue(listener.getNodesInserted().isEmpty());
+		assertTrue(listener.getNodesRemoved().isEmpty());
+	}
+
+	/** test inserts are filtered and may show ancestors */
+	@Test
+	public void testInserted() {
+		FilteredNodeJTreeModel model = buildModel();
+		model.setPredicate(startsWith("a"));
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+
+		fruit.add(new Node("cherry"));
+		assertTrue(listener.getNodesInserted().isEmpty());
+
+		Node avocado = new Node("avocado");
+		fruit.insert(avocado, 1);
+		assertEquals(1, listener.getNodesInserted().size());
+		TreeModelEvent e = listener.getNodesInserted().get(0);
+		assertSame(fruit, e.getTreePath().getLastPathComponent());
+		assertArrayEquals(new int[] { 1 }, e.getChildIndices());
+		assertSame(avocado, e.getChildren()[0]);
+		assertEquals(List.of("apple", "avocado", "apricot"), shown(model,
+				fruit));
+
+		// Tools was hidden, so it is what appears.
+		tools.add(new Node("axe"));
+		assertEquals(2, listener.getNodesInserted().size());
+		e = listener.getNodesInserted().get(1);
+		assertSame(root, e.getTreePath().getLastPathComponent());
+		assertArrayEquals(new int[] { 1 }, e.getChildIndices());
+		assertSame(tools, e.getChildren()[0]);
+		assertEquals(List.of("axe"), shown(model, tools));
+	}
+
+	/** test removes give the indices the children were shown at */
+	@Test
+	public void testRemoved() {
+		FilteredNodeJTreeModel model = buildModel();
+		model.setPredicate(startsWith("a"));
+		fruit.add(new Node("avocado"));
+		assertEquals(List.of("apple", "apricot", "avocado"), shown(model,
+				fruit));
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+
+		// banana and apricot, shown at 1.
+		fruit.removeRange(1, 3);
+		assertEquals(1, listener.getNodesRemoved().size());
+		TreeModelEvent e = listener.getNodesRemoved().get(0);
+		assertSame(fruit, e.getTreePath().getLastPathComponent());
+		assertArrayEquals(new int[] { 1 }, e.getChildIndices());
+		assertEquals("apricot", e.getChildren()[0].toString());
+		assertEquals(List.of("apple", "avocado"), shown(model, fruit));
+
+		// Removing the last matches hides fruit.
+		fruit.removeRange(0, 2);
+		assertEquals(2, listener.getNodesRemoved().size());
+		e = listener.getNodesRemoved().get(1);
+		assertSame(root, e.getTreePath().getLastPathComponent());
+		assertArrayEquals(new int[] { 0 }, e.getChildIndices());
+		assertSame(fruit, e.getChildren()[0]);
+		assertTrue(shown(model, root).isEmpty());
+	}
+
+	/** test renames show, hide or change nodes */
+	@Test
+	public void testRenamed() {
+		FilteredNodeJTreeModel model = buildModel();
+		model.setPredicate(startsWith("a"));
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+		Node apple = (Node) fruit.getChildAt(0);
+		Node saw = (Node) tools.getChildAt(1);
+
+		apple.setName("apples");
+		assertEquals(1, listener.getNodesChanged().size());
+		assertArrayEquals(new int[] { 0 }, listener.getNodesChanged().get(0)
+				.getChildIndices());
+
+		saw.setName("adze");
+		assertEquals(1, listener.getNodesInserted().size());
+		assertSame(tools, listener.getNodesInserted().get(0).getChildren()[0]);
+		assertEquals(List.of("adze"), shown(model, tools));
+
+		apple.setName("pear");
+		assertEquals(1, listener.getNodesRemoved().size());
+		TreeModelEvent e = listener.getNodesRemoved().get(0);
+		assertSame(fruit, e.getTreePath().getLastPathComponent());
+		assertArrayEquals(new int[] { 0 }, e.getChildIndices());
+		assertSame(apple, e.getChildren()[0]);
+		assertEquals(List.of("apricot"), shown(model, fruit));
+
+		// A node with shown children stays, though it no longer matches.
+		fruit.setName("afruit");
+		fruit.setName("fruit");
+		assertEquals(List.of("fruit", "tools"), shown(model, root));
+		assertEquals(1, listener.getNodesRemoved().size());
+	}
+
+	/** test the shown children stay as told while events are queued */
+	@Test
+	public void testEventsQueued() throws Exception {
+		NodeJTreeModel source = new NodeJTreeModel();
+		source.setRoot(buildTree());
+		source.setEventDispatcher(new CoalescingEventDispatcher(source, 100));
+		FilteredNodeJTreeModel model = new FilteredNodeJTreeModel(source);
+		model.setPredicate(startsWith("a"));
+		assertEquals(List.of("apple", "apricot"), shown(model, fruit));
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+		Node apple = (Node) fruit.getChildAt(0);
+		Node avocado = new Node("avocado");
+
+		// Read on the Event Dispatch Thread after the changes, before their
+		// events.
+		CountDownLatch changed = new CountDownLatch(1);
+		List<List<String>> whileQueued = new ArrayList<>();
+		SwingUtilities.invokeLater(() -> {
+			try {
+				changed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			whileQueued.add(shown(model, fruit));
+		});
+		fruit.insert(avocado, 0);
+		fruit.remove(apple);
+		changed.countDown();
+		SwingUtilities.invokeAndWait(() -> {
+		});
+		SwingUtilities.invokeAndWait(() -> {
+		});
+
+		assertEquals(List.of(List.of("apple", "apricot")), whileQueued);
+		assertEquals(1, listener.getNodesInserted().size());
+		assertArrayEquals(new int[] { 0 }, listener.getNodesInserted().get(0)
+				.getChildIndices());
+		assertEquals(1, listener.getNodesRemoved().size());
+		TreeModelEvent e = listener.getNodesRemoved().get(0);
+		assertArrayEquals(new int[] { 1 }, e.getChildIndices());
+		assertSame(apple, e.getChildren()[0]);
+		assertEquals(List.of("avocado", "apricot"), shown(model, fruit));
+	}
+
+	/** test a structure change below the root */
+	@Test
+	public void testStructureChanged() {
+		FilteredNodeJTreeModel model = buildModel();
+		model.setPredicate(startsWith("a"));
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+
+		((Node) tools.getChildAt(0)).attachChildren(0, new Node[] { new Node(
+				"anvil") });
+		tools.fireTreeStructureChanged();
+		assertEquals(1, listener.getStructureChanged().size());
+		assertSame(root, listener.getStructureChanged().get(0).getTreePath()
+				.getLastPathComponent());
+		assertEquals(List.of("fruit", "tools"), shown(model, root));
+		assertEquals(List.of("hammer"), shown(model, tools));
+	}
+
+	/** test the filtered tree matches one worked out afresh after each change */
+	@Test
+	public void testMatchesFresh() {
+		Random random = new Random(5);
+		root = new Node("root");
+		root.setTreeLock(new TreeLock());
+		NodeJTreeModel source = new NodeJTreeModel();
+		source.setRoot(root);
+		FilteredNodeJTreeModel model = new FilteredNodeJTreeModel(source);
+		Predicate<Node> predicate = node -> node.getName().endsWith("7");
+		model.setPredicate(predicate);
+		List<Node> nodes = new ArrayList<>();
+		nodes.add(root);
+		for (int i = 0; i < 3000; i++) {
+			int op = random.nextInt(10);
+			if (op < 6 || nodes.size() < 10) {
+				Node parent = nodes.get(random.nextInt(nodes.size()));
+				Node child = new Node("n" + random.nextInt(100));
+				if (random.nextBoolean()) {
+					child.add(new Node("n" + random.nextInt(100)));
+				}
+				parent.insert(child, random.nextInt(parent.getChildCount() + 1));
+				nodes.add(child);
+			} else if (op < 8) {
+				nodes.get(1 + random.nextInt(nodes.size() - 1)).setName(
+						"r" + random.nextInt(100));
+			} else {
+				Node node = nodes.get(1 + random.nextInt(nodes.size() - 1));
+				if (node.getParent() != null) {
+					Node parent = (Node) node.getParent();
+					int from = parent.getIndex(node);
+					parent.removeRange(from, Math.min(parent.getChildCount(),
+							from + 1 + random.nextInt(3)));
+				}
+			}
+			if (i % 100 == 0) {
+				assertFiltered(model, root, predicate);
+			}
+		}
+		assertFiltered(model, root, predicate);
+	}
+
+	/** test finding a shown child doesn't look through its siblings */
+	@Test
+	public void testIndexOfChildScales() {
+		indexOfMillis(2000); // warm up
+		long small = indexOfMillis(2000);
+		long large = indexOfMillis(32000);
+		// Sixteen times the children; searching them would be 256 times.
+		assertTrue("small=" + small + "ms, large=" + large + "ms",
+				large <= 48 * small + 100);
+	}
+
+	/**
+	 * @param count
+	 *            the number of shown children.
+	 * @return the time to find the index of each, in milliseconds.
+	 */
+	private static long indexOfMillis(int count) {
+		Node parent = new Node("parent");
+		List<Node> children = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			children.add(new Node("a" + i));
+		}
+		parent.addAll(children);
+		NodeJTreeModel source = new NodeJTreeModel();
+		source.setRoot(parent);
+		FilteredNodeJTreeModel model = new FilteredNodeJTreeModel(source);
+		model.setPredicate(startsWith("a"));
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, model.getIndexOfChild(parent, children.get(i)));
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/** test a structure change costs what was shown below it, not the rest */
+	@Test
+	public void testStructureChangedScales() {
+		structureChangedMillis(5000); // warm up
+		long small = structureChangedMillis(5000);
+		long large = structureChangedMillis(80000);
+		// Sixteen times the nodes elsewhere, which needn't be looked at.
+		assertTrue("small=" + small + "ms, large=" + large + "ms",
+				large <= 4 * small + 100);
+	}
+
+	/**
+	 * @param count
+	 *            the number of nodes shown outside the changed subtree.
+	 * @return the time for some structure changes of a small subtree, in
+	 *         milliseconds.
+	 */
+	private long structureChangedMillis(int count) {
+		FilteredNodeJTreeModel model = buildModel();
+		List<Node> more = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			more.add(new Node("a" + i));
+		}
+		fruit.addAll(more);
+		model.setPredicate(startsWith("a"));
+		long start = System.nanoTime();
+		for (int i = 0; i < 500; i++) {
+			Node anvil = new Node("anvil" + i);
+			tools.attachChildren(0, new Node[] { anvil });
+			tools.fireTreeStructureChanged();
+			tools.detachChildren(0, 1);
+			tools.fireTreeStructureChanged();
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		assertEquals(count + 2, model.getChildCount(fruit));
+		return millis;
+	}
+
+	/** Check the shown children of a node and below, worked out afresh. */
+	private static void assertFiltered(TreeModel model, Node parent,
+			Predicate<Node> predicate) {
+		List<Node> expected = new ArrayList<>();
+		for (int i = 0; i < parent.getChildCount(); i++) {
+			Node child = (Node) parent.getChildAt(i);
+			if (NodeTraversal.stream(child).anyMatch(predicate)) {
+				expected.add(child);
+			}
+		}
+		assertEquals(parent.toString(), expected.size(), model
+				.getChildCount(parent));
+		for (int i = 0; i < expected.size(); i++) {
+			assertSame(expected.get(i), model.getChild(parent, i));
+			assertEquals(i, model.getIndexOfChild(parent, expected.get(i)));
+			assertFiltered(model, expected.get(i), predicate);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class LazyNodeTest {
+
+	/** Gives every node below the root two children, counting the calls. */
+	private static class CountingProvider implements ChildProvider {
+		private int loads;
+
+		@Override
+		public List<? extends Node> loadChildren(LazyNode parent) {
+			loads++;
+			List<Node> children = new ArrayList<>();
+			children.add(new LazyNode(parent.toString() + ".0", this));
+			children.add(new LazyNode(parent.toString() + ".1", this));
+			return children;
+		}
+
+		@Override
+		public boolean hasChildren(LazyNode parent) {
+			return parent.toString().length() < 6;
+		}
+	}
+
+	/** test nothing is loaded until the model asks */
+	@Test
+	public void testLoadedOnDemand() {
+		CountingProvider provider = new CountingProvider();
+		LazyNode root = new LazyNode("root", provider);
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+		assertFalse("isLeaf", model.isLeaf(root));
+		assertEquals("loads before", 0, provider.loads);
+		assertFalse("loaded before", root.isLoaded());
+
+		assertEquals("count", 2, model.getChildCount(root));
+		assertEquals("count again", 2, model.getChildCount(root));
+		assertEquals("loads after", 1, provider.loads);
+		assertTrue("loaded after", root.isLoaded());
+		LazyNode child = (LazyNode) model.getChild(root, 1);
+		assertEquals("child", "root.1", child.toString());
+		assertEquals("index", 1, model.getIndexOfChild(root, child));
+		assertFalse("child loaded", child.isLoaded());
+	}
+
+	/** test the hint is used for nodes not yet loaded */
+	@Test
+	public void testHintAvoidsLoading() {
+		CountingProvider provider = new CountingProvider();
+		LazyNode root = new LazyNode("root", provider);
+		root.prepareChildren();
+		LazyNode child = (LazyNode) root.getChildAt(0);
+		assertTrue("isLeaf", child.isLeaf());
+		assertEquals("loads", 1, provider.loads);
+	}
+
+	/** test loading fires no event */
+	@Test
+	public void testLoadIsSilent() {
+		LazyNode root = new LazyNode("root", new CountingProvider());
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+		model.getChildCount(root);
+		assertEquals("Insert count", 0, listener.getNodesInserted().size());
+	}
+
+	/** test adding loads first, so provided children come first */
+	@Test
+	public void testAddLoadsFirst() {
+		CountingProvider provider = new CountingProvider();
+		LazyNode root = new LazyNode("root", provider);
+		Node extra = new Node("extra");
+		root.add(extra);
+		assertEquals("count", 3, root.getChildCount());
+		assertEquals("index", 2, root.getIndex(extra));
+		assertEquals("loads", 1, provider.loads);
+	}
+}
@@ -0,0 +1,81 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.swing.event.TreeModelEvent;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class ListenerRegistryTest {
+
+	/** test listeners are added once and removed */
+	@Test
+	public void testAddRemove() {
+		ListenerRegistry registry = new ListenerRegistry();
+		TestTreeModelListener listener1 = new TestTreeModelListener();
+		TestTreeModelListener listener2 = new TestTreeModelListener();
+		assertTrue("empty", registry.isEmpty());
+		registry.add(listener1);
+		registry.add(listener1);
+		registry.add(null);
+		registry.add(listener2);
+		assertEquals("count", 2, registry.getListeners().length);
+		registry.remove(listener1);
+		assertEquals("count after remove", 1, registry.getListeners().length);
+		assertEquals("remaining", listener2, registry.getListeners()[0]);
+		registry.remove(listener2);
+		assertTrue("empty after remove", registry.isEmpty());
+	}
+
+	/** test each kind of event reaches every listener */
+	@Test
+	public void testFire() {
+		ListenerRegistry registry = new ListenerRegistry();
+		TestTreeModelListener listener1 = new TestTreeModelListener();
+		TestTreeModelListener listener2 = new TestTreeModelListener();
+		registry.add(listener1);
+		registry.add(listener2);
+		TreeModelEvent e = new TreeModelEvent(this, new Object[] { this });
+		registry.fireTreeNodesChanged(e);
+		registry.fireTreeNodesInserted(e);
+		registry.fireTreeNodesRemoved(e);
+		registry.fireTreeStructureChanged(e);
+		for (TestTreeModelListener listener : new TestTreeModelListener[] {
+				listener1, listener2 }) {
+			assertEquals("Changed count", 1, listener.getNodesChanged().size());
+			assertEquals("Insert count", 1, listener.getNodesInserted().size());
+			assertEquals("Removed count", 1, listener.getNodesRemoved().size());
+			assertEquals("StructureChanged count", 1, listener
+					.getStructureChanged().size());
+		}
+	}
+
+	/** test a listener removing itself during an event does not disturb it */
+	@Test
+	public void testRemoveDuringFire() {
+		ListenerRegistry registry = new ListenerRegistry();
+		TestTreeModelListener listener2 = new TestTreeModelListener();
+		TestTreeModelListener listener1 = new TestTreeModelListener() {
+			@Override
+			public void treeNodesChanged(TreeModelEvent e) {
+				super.treeNodesChanged(e);
+				registry.remove(this);
+			}
+		};
+		registry.add(listener1);
+		registry.add(listener2);
+		registry.fireTreeNodesChanged(new TreeModelEvent(this,
+				new Object[] { this }));
+		assertEquals("listener2 still told", 1, listener2.getNodesChanged()
+				.size());
+		assertFalse("listener2 remains", registry.isEmpty());
+		assertEquals("count", 1, registry.getListeners().length);
+	}
+}
@@ -185,25 +185,63 @@ public class NodeJTreeModelTest {
     assertNull("child1's parent", child1.getParent());
   }
 
+  @Test
+  public void testPrebuiltSubtreeNotifies() {
+    NodeJTreeModel model = new NodeJTreeModel();
+    Node root = new Node("root");
+    Node child = new Node("child");
+    Node grandchild = new Node("grandchild");
+    child.add(grandchild);
+    root.add(child);
+    // attach the model after the tree was built
+    TestTreeModelListener listener = new TestTreeModelListener();
+    model.setRoot(root);
+    model.addTreeModelListener(listener);
+    Node greatGrandchild = new Node("greatGrandchild");
+    grandchild.add(greatGrandchild);
+    grandchild.setName("renamed");
+    var inserted = listener.getNodesInserted();
+    assertEquals(1, inserted.size());
+    assertEquals(grandchild, inserted.get(0).getSource());
+    assertEquals(3, inserted.get(0).getPath().length);
+    assertEquals(greatGrandchild, inserted.get(0).getChildren()[0]);
+    assertEquals(1, listener.getNodesChanged().size());
+    assertEquals(grandchild, listener.getNodesChanged().get(0).getChildren()[0]);
+  }
+
+  @Test
+  public void testDetachedSubtreeSilent() {
+    NodeJTreeModel model = new NodeJTreeModel();
+    Node root = new Node("root");
+    Node child = new Node("child");
+    root.add(child);
+    model.setRoot(root);
+    TestTreeModelListener listener = new TestTreeModelListener();
+    model.addTreeModelListener(listener);
+    child.removeFromParent();
+    assertEquals(1, listener.getNodesRemoved().size());
+    child.add(new Node("grandchild"));
+    assertEquals(0, listener.getNodesInserted().size());
+  }
+
   @Test
   public void testTreeStructureChanged() {
     // https://docs.oracle.com/javase/7/docs/api/javax/swing/tree/DefaultTreeModel.html#fireTreeStructureChanged(java.lang.Object,%20java.lang.Object[],%20int[],%20java.lang.Object[])
-    // NodeJTreeModel model = new NodeJTreeModel();
-    // Node root = new Node("root");
-    // TestTreeModelListener listener = new TestTreeModelListener();
-    // model.setRoot(root);
-    // root.fireTreeStructureChanged();
-    // assertEquals("Insert count", 0, listener.getNodesInserted().size());
-    // assertEquals("Removed count", 0, listener.getNodesRemoved().size());
-    // assertEquals("Changed count", 0, listener.getNodesChanged().size());
-    // var got = listener.getStructureChanged();
-    // assertEquals(1, got.size());
-    // assertEquals(root, got.get(0).getSource());
-
-    // fail("Not yet implemented");
-    // assertEquals(1, got.get(0).getPath().length);
-    // assertEquals(root, got.get(0).getPath()[0]);
-    // assertEquals(0, got.get(0).getChildren().length);
-    // assertEquals(0, got.get(0).getChildIndices().length);
+    NodeJTreeModel model = new NodeJTreeModel();
+    Node root = new Node("root");
+    TestTreeModelListener listener = new TestTreeModelListener();
+    model.addTreeModelListener(listener);
+    model.setRoot(root);
+    root.fireTreeStructureChanged();
+    assertEquals("Insert count", 0, listener.getNodesInserted().size());
+    assertEquals("Removed count", 0, listener.getNodesRemoved().size());
+    assertEquals("Changed count", 0, listener.getNodesChanged().size());
+    var got = listener.getStructureChanged();
+    assertEquals(1, got.size());
+    assertEquals(root, got.get(0).getSource());
+    assertEquals(1, got.get(0).getPath().length);
+    assertEquals(root, got.get(0).getPath()[0]);
+    assertEquals(0, got.get(0).getChildren().length);
+    assertEquals(0, got.get(0).getChildIndices().length);
   }
 }
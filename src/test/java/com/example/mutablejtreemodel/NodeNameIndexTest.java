@@ -0,0 +1,275 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.tree.TreeNode;
+import javax.swing.tree.TreePath;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class NodeNameIndexTest {
+
+	private static Node buildTree() {
+		Node root = new Node("root");
+		Node fruit = new Node("fruit");
+		fruit.add(new Node("apple"));
+		fruit.add(new Node("apricot"));
+		fruit.add(new Node("banana"));
+		Node tools = new Node("tools");
+		tools.add(new Node("hammer"));
+		tools.add(new Node("apple"));
+		root.add(fruit);
+		root.add(tools);
+		return root;
+	}
+
+	/** The last node of each path, by identity. */
+	private static Set<Object> lastNodes(List<TreePath> paths) {
+		Set<Object> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (TreePath path : paths) {
+			nodes.add(path.getLastPathComponent());
+		}
+		return nodes;
+	}
+
+	/** The names of the last node of each path. */
+	private static List<String> names(List<TreePath> paths) {
+		List<String> names = new ArrayList<>();
+		for (TreePath path : paths) {
+			names.add(path.getLastPathComponent().toString());
+		}
+		return names;
+	}
+
+	/** test exact, prefix and substring searches */
+	@Test
+	public void testSearches() {
+		Node root = buildTree();
+		NodeNameIndex index = new NodeNameIndex(root);
+		assertEquals(8, index.size());
+
+		List<TreePath> apples = index.find("apple");
+		assertEquals(2, apples.size());
+		for (TreePath path : apples) {
+			assertEquals(root, path.getPathComponent(0));
+			assertEquals(3, path.getPathCount());
+		}
+		assertTrue(index.find("pear").isEmpty());
+
+		assertEquals(List.of("apple", "apple", "apricot"), names(index
+				.findByPrefix("ap", 10)));
+		assertEquals(1, index.findByPrefix("ap", 1).size());
+		assertEquals(List.of("banana"), names(index.findByPrefix("b", 10)));
+
+		assertEquals(List.of("banana"), names(index.findBySubstring("nan", 10)));
+		assertEquals(2, index.findBySubstring("ppl", 10).size());
+		assertTrue(index.findBySubstring("xyz", 10).isEmpty());
+		// Shorter than the longest runs names are listed under.
+		assertEquals(List.of("hammer"), names(index.findBySubstring("m", 10)));
+		assertEquals(Set.of("apricot", "fruit", "root", "tools"),
+				new HashSet<>(names(index.findBySubstring("t", 10))));
+	}
+
+	/** test the index follows renames, inserts, removes and moves */
+	@Test
+	public void testFollowsChanges() {
+		Node root = buildTree();
+		NodeNameIndex index = new NodeNameIndex(root);
+		Node fruit = (Node) root.getChildAt(0);
+		Node tools = (Node) root.getChildAt(1);
+		Node banana = (Node) fruit.getChildAt(2);
+
+		banana.setName("cherry");
+		assertTrue(index.find("banana").isEmpty());
+		assertTrue(index.findBySubstring("nan", 10).isEmpty());
+		assertEquals(List.of("cherry"), names(index.findBySubstring("err", 10)));
+
+		fruit.moveTo(tools, 0);
+		TreePath moved = index.find("apricot").get(0);
+		assertEquals(4, moved.getPathCount());
+		assertEquals(tools, moved.getPathComponent(1));
+
+		tools.removeRange(1, 2);
+		assertTrue(index.find("hammer").isEmpty());
+		fruit.destroy();
+		assertEquals(List.of("apple"), names(index.findByPrefix("a", 10)));
+		assertEquals(3, index.size());
+
+		Node extra = new Node("extra");
+		extra.add(new Node("apple"));
+		root.add(extra);
+		assertEquals(2, index.find("apple").size());
+
+		index.dispose();
+		root.add(new Node("unseen"));
+		assertTrue(index.find("unseen").isEmpty());
+	}
+
+	/** test a structure change indexes again only below the changed node */
+	@Test
+	public void testStructureChanged() {
+		Node root = buildTree();
+		LazyNode lazy = new LazyNode("lazy", parent -> List.of(new Node(
+				"apple"), new Node("lime"), new Node("lemon")));
+		root.add(lazy);
+		NodeNameIndex index = new NodeNameIndex(root);
+		assertEquals(9, index.size());
+
+		// Loaded without events, so not seen, and removing one is no change.
+		lazy.prepareChildren();
+		lazy.remove(2);
+		assertEquals(9, index.size());
+		assertTrue(index.find("lime").isEmpty());
+
+		lazy.fireTreeStructureChanged();
+		assertEquals(11, index.size());
+		assertEquals(List.of("lime"), names(index.find("lime")));
+		assertEquals(3, index.find("apple").size());
+
+		lazy.unloadChildren();
+		assertEquals(9, index.size());
+		assertTrue(index.find("lime").isEmpty());
+		assertEquals(2, index.find("apple").size());
+		assertEquals(List.of("hammer"), names(index.findByPrefix("h", 10)));
+	}
+
+	/** test a structure change takes time in proportion to what it covers */
+	@Test
+	public void testStructureChangedScales() {
+		structureChangedMillis(2000); // warm up
+		long small = structureChangedMillis(2000);
+		long large = structureChangedMillis(200000);
+		assertTrue("small=" + small + "ms, large=" + large + "ms",
+				large <= 10 * small + 100);
+	}
+
+	/**
+	 * @param size
+	 *            the number of nodes beside the changed one.
+	 * @return the time a thousand structure changes of a small node took, in
+	 *         milliseconds.
+	 */
+	private static long structureChangedMillis(int size) {
+		Node root = new Node("root");
+		List<Node> others = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			others.add(new Node("n" + i));
+		}
+		root.addAll(others);
+		Node small = new Node("small");
+		small.add(new Node("leaf"));
+		root.add(small);
+		NodeNameIndex index = new NodeNameIndex(root);
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			small.fireTreeStructureChanged();
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		assertEquals(size + 3, index.size());
+		return millis;
+	}
+
+	/** test a tree without a lock may be searched while it changes */
+	@Test
+	public void testUnlockedTree() throws InterruptedException {
+		Node root = new Node("root");
+		NodeNameIndex index = new NodeNameIndex(root);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 20000; i++) {
+					root.add(new Node("n" + i));
+				}
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		writer.start();
+		while (writer.isAlive() && failure.get() == null) {
+			try {
+				index.findByPrefix("n", Integer.MAX_VALUE);
+				index.findBySubstring("n1", Integer.MAX_VALUE);
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		}
+		writer.join();
+		assertNull("failure", failure.get());
+		assertEquals(20001, index.size());
+	}
+
+	/** test searching for null finds nothing */
+	@Test
+	public void testNullSearches() {
+		NodeNameIndex index = new NodeNameIndex(buildTree());
+		assertTrue(index.find(null).isEmpty());
+		assertTrue(index.findByPrefix(null, 10).isEmpty());
+		assertTrue(index.findBySubstring(null, 10).isEmpty());
+	}
+
+	/** test searches match a walk of a random tree */
+	@Test
+	public void testMatchesWalk() {
+		Random random = new Random(3);
+		Node root = new Node("root");
+		root.setTreeLock(new TreeLock());
+		NodeNameIndex index = new NodeNameIndex(root);
+		List<Node> nodes = new ArrayList<>();
+		nodes.add(root);
+		for (int i = 0; i < 5000; i++) {
+			Node parent = nodes.get(random.nextInt(nodes.size()));
+			Node child = new Node("n" + random.nextInt(2000));
+			parent.add(child);
+			nodes.add(child);
+			if (i % 10 == 0) {
+				nodes.get(1 + random.nextInt(nodes.size() - 1)).setName(
+						"r" + random.nextInt(2000));
+			}
+		}
+		root.fireTreeStructureChanged();
+
+		for (String text : new String[] { "12", "n1", "r19", "99", "n123" }) {
+			Set<Object> expectedContains = Collections
+					.newSetFromMap(new IdentityHashMap<>());
+			Set<Object> expectedPrefix = Collections
+					.newSetFromMap(new IdentityHashMap<>());
+			Deque<TreeNode> pending = new ArrayDeque<>();
+			pending.push(root);
+			while (!pending.isEmpty()) {
+				TreeNode node = pending.pop();
+				if (node.toString().contains(text)) {
+					expectedContains.add(node);
+				}
+				if (node.toString().startsWith(text)) {
+					expectedPrefix.add(node);
+				}
+				for (int i = 0; i < node.getChildCount(); i++) {
+					pending.push(node.getChildAt(i));
+				}
+			}
+			assertEquals("contains " + text, expectedContains, lastNodes(index
+					.findBySubstring(text, Integer.MAX_VALUE)));
+			assertEquals("starts " + text, expectedPrefix, lastNodes(index
+					.findByPrefix(text, Integer.MAX_VALUE)));
+		}
+		assertEquals(5001, index.size());
+	}
+}
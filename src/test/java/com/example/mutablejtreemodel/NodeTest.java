@@ -1,11 +1,18 @@
 /** This document is AS-IS. No claims are made for suitability for any purpose. */
 package com.example.mutablejtreemodel;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import javax.swing.event.TreeModelEvent;
 import javax.swing.tree.TreePath;
 
@@ -76,6 +83,98 @@ public class NodeTest {
 		assertEquals("path", new TreePath(new Node[] { root, parent, child }), child.getPathFromRoot());
 	}
 
+	/** test pathFromRoot is cached */
+	@Test
+	public void testPathFromRootCached() {
+		Node root = new Node("Root");
+		Node child = new Node("Child");
+		root.add(child);
+		assertSame("cached", child.getPathFromRoot(), child.getPathFromRoot());
+		assertSame("parent path", root.getPathFromRoot(), child
+				.getPathFromRoot().getParentPath());
+	}
+
+	/** test pathFromRoot follows an ancestor being moved */
+	@Test
+	public void testPathFromRootAfterAncestorMoved() {
+		Node root = new Node("Root");
+		Node other = new Node("Other");
+		Node parent = new Node("Parent");
+		Node child = new Node("Child");
+		root.add(other);
+		root.add(parent);
+		parent.add(child);
+		assertEquals("before", new TreePath(new Node[] { root, parent, child }),
+				child.getPathFromRoot());
+		other.add(parent);
+		assertEquals("after", new TreePath(new Node[] { root, other, parent,
+				child }), child.getPathFromRoot());
+		parent.removeFromParent();
+		assertEquals("detached", new TreePath(new Node[] { parent, child }),
+				child.getPathFromRoot());
+	}
+
+	/** test moving a subtree in one tree keeps the paths cached in another */
+	@Test
+	public void testPathFromRootKeptByOtherTrees() {
+		Node root = new Node("Root");
+		Node parent = new Node("Parent");
+		Node child = new Node("Child");
+		root.add(parent);
+		parent.add(child);
+		TreePath before = child.getPathFromRoot();
+
+		Node otherRoot = new Node("Other");
+		Node branch = new Node("Branch");
+		Node holder = new Node("Holder");
+		branch.add(new Node("Leaf"));
+		otherRoot.add(branch);
+		otherRoot.add(holder);
+		branch.moveTo(holder, 0);
+		assertSame("kept", before, child.getPathFromRoot());
+
+		root.add(new Node("Leaf"));
+		assertSame("kept after a leaf is added", before, child
+				.getPathFromRoot());
+		parent.moveTo(root, 1);
+		assertEquals("after", new TreePath(new Node[] { root, parent, child }),
+				child.getPathFromRoot());
+	}
+
+	/** test getIndex compares children by identity */
+	@Test
+	public void testGetIndexByIdentity() {
+		Node parent = new Node("Parent");
+		Node twin1 = new Node("Twin");
+		Node twin2 = new Node("Twin");
+		parent.add(twin1);
+		parent.add(twin2);
+		assertEquals("twin1", 0, parent.getIndex(twin1));
+		assertEquals("twin2", 1, parent.getIndex(twin2));
+		assertEquals("stranger", -1, parent.getIndex(new Node("Twin")));
+
+		// removing by identity leaves the other twin in place
+		parent.remove(twin1);
+		assertEquals("twin2 after remove", 0, parent.getIndex(twin2));
+		assertNull("twin1 parent", twin1.getParent());
+	}
+
+	/** test getIndex follows inserts and removes before a child */
+	@Test
+	public void testGetIndexAfterShift() {
+		Node parent = new Node("Parent");
+		Node child0 = new Node("Child0");
+		Node child1 = new Node("Child1");
+		parent.add(child0);
+		parent.add(child1);
+		Node first = new Node("First");
+		parent.insert(first, 0);
+		assertEquals("child1 after insert", 2, parent.getIndex(child1));
+		parent.remove(child0);
+		assertEquals("child1 after remove", 1, parent.getIndex(child1));
+		assertEquals("first", 0, parent.getIndex(first));
+	}
+
 	/** test setName on root node informs listener */
 	@Test
 	public void testSetNameRootNodeFiresAction() {
@@ -163,4 +262,425 @@ public class NodeTest {
 		// TreeModelEvent e = listener.getNodesInserted().get(0);
 	};
 
+	/** test addAll informs the listener once */
+	@Test
+	public void testAddAllFiresOneEvent() {
+		TestTreeModelListener listener = new TestTreeModelListener();
+		Node parent = new Node("Parent");
+		parent.add(new Node("First"));
+		parent.addListener(listener);
+		Node child1 = new Node("Child1");
+		Node child2 = new Node("Child2");
+		parent.addAll(Arrays.asList(child1, child2));
+
+		assertEquals("child count", 3, parent.getChildCount());
+		assertEquals("child1 parent", parent, child1.getParent());
+		assertEquals("Insert count", 1, listener.getNodesInserted().size());
+		TreeModelEvent e = listener.getNodesInserted().get(0);
+		assertArrayEquals("e childIndices", new int[] { 1, 2 },
+				e.getChildIndices());
+		assertArrayEquals("e children", new Object[] { child1, child2 },
+				e.getChildren());
+	}
+
+	/** test addAll takes time in proportion to the number of children */
+	@Test
+	public void testAddAllScales() {
+		addAllMillis(25000); // warm up
+		long small = addAllMillis(25000);
+		long large = addAllMillis(200000);
+		// Eight times the children; squared time would be sixty four times.
+		assertTrue("small=" + small + "ms, large=" + large + "ms",
+				large <= 24 * small + 100);
+	}
+
+	/**
+	 * @param count
+	 *            the number of children to add.
+	 * @return the time addAll took to add them, in milliseconds.
+	 */
+	private static long addAllMillis(int count) {
+		List<Node> nodes = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			nodes.add(new Node("Child"));
+		}
+		Node parent = new Node("Parent");
+		long start = System.nanoTime();
+		parent.addAll(nodes);
+		long millis = (System.nanoTime() - start) / 1000000;
+		assertEquals("child count", count, parent.getChildCount());
+		return millis;
+	}
+
+	/** test insertAll places the children at the index */
+	@Test
+	public void testInsertAll() {
+		TestTreeModelListener listener = new TestTreeModelListener();
+		Node parent = new Node("Parent");
+		Node first = new Node("First");
+		Node last = new Node("Last");
+		parent.add(first);
+		parent.add(last);
+		parent.addListener(listener);
+		Node child1 = new Node("Child1");
+		Node child2 = new Node("Child2");
+		parent.insertAll(1, Arrays.asList(child1, child2));
+
+		assertEquals("index first", 0, parent.getIndex(first));
+		assertEquals("index child1", 1, parent.getIndex(child1));
+		assertEquals("index child2", 2, parent.getIndex(child2));
+		assertEquals("index last", 3, parent.getIndex(last));
+		assertEquals("Insert count", 1, listener.getNodesInserted().size());
+		assertArrayEquals("e childIndices", new int[] { 1, 2 }, listener
+				.getNodesInserted().get(0).getChildIndices());
+	}
+
+	/** test insertAll refuses an ancestor */
+	@Test(expected = IllegalArgumentException.class)
+	public void testInsertAllAncestor() {
+		Node parent = new Node("Parent");
+		Node child = new Node("Child");
+		parent.add(child);
+		child.insertAll(0, Arrays.asList(parent));
+	}
+
+	/** test removeRange informs the listener once */
+	@Test
+	public void testRemoveRangeFiresOneEvent() {
+		TestTreeModelListener listener = new TestTreeModelListener();
+		Node parent = new Node("Parent");
+		Node[] children = new Node[4];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = new Node("Child" + i);
+			parent.add(children[i]);
+		}
+		parent.addListener(listener);
+		parent.removeRange(1, 3);
+
+		assertEquals("child count", 2, parent.getChildCount());
+		assertNull("child1 parent", children[1].getParent());
+		assertNull("child2 parent", children[2].getParent());
+		assertEquals("index child3", 1, parent.getIndex(children[3]));
+		assertEquals("Removed count", 1, listener.getNodesRemoved().size());
+		TreeModelEvent e = listener.getNodesRemoved().get(0);
+		assertArrayEquals("e childIndices", new int[] { 1, 2 },
+				e.getChildIndices());
+		assertArrayEquals("e children", new Object[] { children[1],
+				children[2] }, e.getChildren());
+	}
+
+	/** test removeAllChildren informs the listener once */
+	@Test
+	public void testRemoveAllChildrenFiresOneEvent() {
+		TestTreeModelListener listener = new TestTreeModelListener();
+		Node parent = new Node("Parent");
+		parent.add(new Node("Child0"));
+		parent.add(new Node("Child1"));
+		parent.addListener(listener);
+		parent.removeAllChildren();
+
+		assertEquals("child count", 0, parent.getChildCount());
+		assertEquals("Removed count", 1, listener.getNodesRemoved().size());
+	}
+
+	/** test moveTo another parent fires a removed then an inserted event */
+	@Test
+	public void testMoveTo() {
+		TestTreeModelListener listener = new TestTreeModelListener();
+		Node root = new Node("Root");
+		Node from = new Node("From");
+		Node to = new Node("To");
+		Node moved = new Node("Moved");
+		Node grandchild = new Node("Grandchild");
+		root.add(from);
+		root.add(to);
+		to.add(new Node("Existing"));
+		from.add(new Node("Stays"));
+		from.add(moved);
+		moved.add(grandchild);
+		root.addListener(listener);
+		moved.moveTo(to, 0);
+
+		assertEquals("parent", to, moved.getParent());
+		assertEquals("index", 0, to.getIndex(moved));
+		assertEquals("from count", 1, from.getChildCount());
+		assertEquals("grandchild path", new TreePath(new Object[] { root, to,
+				moved, grandchild }), grandchild.getPathFromRoot());
+		assertEquals("Removed count", 1, listener.getNodesRemoved().size());
+		TreeModelEvent removed = listener.getNodesRemoved().get(0);
+		assertEquals("removed source", from, removed.getSource());
+		assertArrayEquals("removed childIndices", new int[] { 1 },
+				removed.getChildIndices());
+		assertEquals("Insert count", 1, listener.getNodesInserted().size());
+		TreeModelEvent inserted = listener.getNodesInserted().get(0);
+		assertEquals("inserted source", to, inserted.getSource());
+		assertArrayEquals("inserted childIndices", new int[] { 0 },
+				inserted.getChildIndices());
+		assertArrayEquals("inserted children", new Object[] { moved },
+				inserted.getChildren());
+	}
+
+	/** test moveTo the same parent reorders, with the index counted without us */
+	@Test
+	public void testMoveToReorders() {
+		TestTreeModelListener listener = new TestTreeModelListener();
+		Node parent = new Node("Parent");
+		Node[] children = new Node[3];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = new Node("Child" + i);
+			parent.add(children[i]);
+		}
+		parent.addListener(listener);
+		children[0].moveTo(parent, 2);
+
+		assertEquals("child0", children[1], parent.getChildAt(0));
+		assertEquals("child1", children[2], parent.getChildAt(1));
+		assertEquals("child2", children[0], parent.getChildAt(2));
+		assertEquals("index", 2, parent.getIndex(children[0]));
+		assertEquals("Removed count", 1, listener.getNodesRemoved().size());
+		assertEquals("Insert count", 1, listener.getNodesInserted().size());
+
+		children[0].moveTo(parent, 2);
+		assertEquals("no-op Removed count", 1, listener.getNodesRemoved()
+				.size());
+	}
+
+	/** test moveTo a node's own descendant is refused */
+	@Test(expected = IllegalArgumentException.class)
+	public void testMoveToDescendant() {
+		Node parent = new Node("Parent");
+		Node child = new Node("Child");
+		parent.add(child);
+		parent.moveTo(child, 0);
+	}
+
+	/** test moveTo between trees with their own locks */
+	@Test
+	public void testMoveToAnotherTree() {
+		Node rootA = new Node("RootA");
+		rootA.setTreeLock(new TreeLock());
+		Node rootB = new Node("RootB");
+		rootB.setTreeLock(new TreeLock());
+		Node moved = new Node("Moved");
+		rootA.add(moved);
+		moved.moveTo(rootB, 0);
+
+		assertEquals("rootA count", 0, rootA.getChildCount());
+		assertEquals("parent", rootB, moved.getParent());
+		assertEquals("lock", rootB.getTreeLock(), moved.getTreeLock());
+	}
+
+	/**
+	 * Check every node's totals against a count of its subtree.
+	 *
+	 * @param node
+	 *            top of the subtree.
+	 * @param counted
+	 *            set to the descendants, leaves, height and weight counted.
+	 */
+	private static void assertTotals(Node node, long[] counted) {
+		long descendants = 0;
+		long leaves = node.isLeaf() ? 1 : 0;
+		long height = 0;
+		long weight = node.getWeight();
+		for (int i = 0; i < node.getChildCount(); i++) {
+			long[] child = new long[4];
+			assertTotals((Node) node.getChildAt(i), child);
+			descendants += child[0] + 1;
+			leaves += child[1];
+			height = Math.max(height, child[2] + 1);
+			weight += child[3];
+		}
+		assertEquals("descendants of " + node, descendants,
+				node.getDescendantCount());
+		assertEquals("leaves of " + node, leaves, node.getLeafCount());
+		assertEquals("height of " + node, height, node.getDepth());
+		assertEquals("weight of " + node, weight, node.getSubtreeWeight());
+		counted[0] = descendants;
+		counted[1] = leaves;
+		counted[2] = height;
+		counted[3] = weight;
+	}
+
+	/** test subtree totals follow every kind of change */
+	@Test
+	public void testTotals() {
+		Random random = new Random(1);
+		Node root = new Node("root");
+		List<Node> nodes = new ArrayList<>();
+		nodes.add(root);
+		for (int step = 0; step < 2000; step++) {
+			Node target = nodes.get(random.nextInt(nodes.size()));
+			switch (random.nextInt(5)) {
+			case 0:
+			case 1:
+				Node child = new Node("n" + step);
+				target.insert(child, random.nextInt(target.getChildCount() + 1));
+				nodes.add(child);
+				break;
+			case 2:
+				if (target != root) {
+					Node newParent = nodes.get(random.nextInt(nodes.size()));
+					if (newParent != target && !newParent.isNodeAncestor(target)) {
+						int limit = newParent.getChildCount();
+						if (newParent == target.getParent()) {
+							limit--;
+						}
+						target.moveTo(newParent, random.nextInt(limit + 1));
+					}
+				}
+				break;
+			case 3:
+				if (target.getChildCount() > 0) {
+					int from = random.nextInt(target.getChildCount());
+					Node removed = (Node) target.getChildAt(from);
+					target.removeRange(from, from + 1);
+					// Put it back somewhere, so the tree keeps growing.
+					root.add(removed);
+				}
+				break;
+			default:
+				target.setWeight(random.nextInt(100));
+				break;
+			}
+		}
+		assertTotals(root, new long[4]);
+		assertEquals(nodes.size() - 1, root.getDescendantCount());
+
+		root.removeAllChildren();
+		assertTotals(root, new long[4]);
+		assertEquals(1, root.getLeafCount());
+	}
+
+	/** test weights are summed, and kept apart from the children's */
+	@Test
+	public void testWeight() {
+		Node root = new Node("root");
+		Node child = new Node("child");
+		Node grandchild = new Node("grandchild");
+		child.setWeight(10);
+		grandchild.setWeight(5);
+		child.add(grandchild);
+		root.add(child);
+		root.setWeight(1);
+		assertEquals(16, root.getSubtreeWeight());
+		assertEquals(15, child.getSubtreeWeight());
+		assertEquals(10, child.getWeight());
+		assertEquals(1, root.getWeight());
+
+		grandchild.destroy();
+		assertEquals(11, root.getSubtreeWeight());
+		Node copy = (Node) child.clone();
+		assertEquals(10, copy.getWeight());
+	}
+
+	/** The largest of some values, which can't be subtracted. */
+	private static final SubtreeAggregate<Integer> MAX = new SubtreeAggregate<Integer>() {
+		@Override
+		public Integer identity() {
+			return Integer.MIN_VALUE;
+		}
+
+		@Override
+		public Integer combine(Integer a, Integer b) {
+			return Math.max(a, b);
+		}
+	};
+
+	/** The sum of some values, which can be subtracted. */
+	private static final SubtreeAggregate<Long> SUM = new SubtreeAggregate<Long>() {
+		@Override
+		public Long identity() {
+			return 0L;
+		}
+
+		@Override
+		public Long combine(Long a, Long b) {
+			return a + b;
+		}
+
+		@Override
+		public Long subtract(Long total, Long part) {
+			return total - part;
+		}
+	};
+
+	/**
+	 * Check each subtree value below a node against one worked out by walking.
+	 *
+	 * @return the subtree value of the node.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <V> V assertSubtreeValues(Node node,
+			SubtreeAggregate<V> aggregate) {
+		V value = (node.getValue() == null) ? aggregate.identity() : (V) node
+				.getValue();
+		for (int i = 0; i < node.getChildCount(); i++) {
+			value = aggregate.combine(value, assertSubtreeValues((Node) node
+					.getChildAt(i), aggregate));
+		}
+		assertEquals("value of " + node, value, node.getSubtreeValue());
+		return value;
+	}
+
+	/** test subtree values follow every kind of change, in and between trees */
+	@Test
+	public void testSubtreeAggregate() {
+		for (SubtreeAggregate<?> aggregate : Arrays.asList(MAX, SUM)) {
+			Random random = new Random(2);
+			Node root = new Node("root");
+			Node plain = new Node("plain");
+			root.setSubtreeAggregate(aggregate);
+			List<Node> nodes = new ArrayList<>();
+			nodes.add(root);
+			nodes.add(plain);
+			for (int step = 0; step < 2000; step++) {
+				Node target = nodes.get(random.nextInt(nodes.size()));
+				switch (random.nextInt(5)) {
+				case 0:
+					Node child = new Node("n" + step);
+					if (random.nextBoolean()) {
+						child.setValue(aggregate == MAX ? (Object) random
+								.nextInt(1000) : (Object) (long) random
+								.nextInt(1000));
+					}
+					target.add(child);
+					nodes.add(child);
+					break;
+				case 1:
+					if (target != root && target != plain) {
+						// Moves within and between the two trees.
+						Node newParent = nodes.get(random.nextInt(nodes.size()));
+						if (newParent != target
+								&& !newParent.isNodeAncestor(target)) {
+							newParent.add(target);
+						}
+					}
+					break;
+				case 2:
+					if (target.getChildCount() > 0) {
+						Node removed = (Node) target.getChildAt(random
+								.nextInt(target.getChildCount()));
+						removed.removeFromParent();
+						(random.nextBoolean() ? root : plain).add(removed);
+					}
+					break;
+				default:
+					target.setValue(random.nextInt(4) == 0 ? null
+							: aggregate == MAX ? (Object) random.nextInt(1000)
+									: (Object) (long) random.nextInt(1000));
+					break;
+				}
+			}
+			assertSubtreeValues(root, aggregate);
+			assertNull("no aggregate", plain.getSubtreeValue());
+
+			plain.setSubtreeAggregate(aggregate);
+			assertSubtreeValues(plain, aggregate);
+			root.add(plain);
+			assertSubtreeValues(root, aggregate);
+			root.setSubtreeAggregate(null);
+			assertNull("stopped", root.getSubtreeValue());
+		}
+	}
 }
@@ -0,0 +1,136 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.swing.tree.TreeNode;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class NodeTraversalTest {
+
+	/** A lopsided tree: some wide nodes, some long chains. */
+	private static Node buildTree(int size) {
+		Random random = new Random(7);
+		Node root = new Node("root");
+		List<Node> nodes = new ArrayList<>();
+		nodes.add(root);
+		for (int i = 1; i < size; i++) {
+			Node parent = (i % 3 == 0) ? nodes.get(nodes.size() - 1) : nodes
+					.get(random.nextInt(Math.min(nodes.size(), 50)));
+			Node child = new Node("n" + i);
+			parent.add(child);
+			nodes.add(child);
+		}
+		return root;
+	}
+
+	private static List<String> preorder(Node top) {
+		List<String> names = new ArrayList<>();
+		Enumeration<TreeNode> e = top.preorderEnumeration();
+		while (e.hasMoreElements()) {
+			names.add(e.nextElement().toString());
+		}
+		return names;
+	}
+
+	/** test streams report every node in pre-order, even when parallel */
+	@Test
+	public void testStream() {
+		Node root = buildTree(20000);
+		List<String> expected = preorder(root);
+		assertEquals(expected, NodeTraversal.stream(root).map(Node::getName)
+				.collect(Collectors.toList()));
+		assertEquals(expected, NodeTraversal.stream(root).parallel().map(
+				Node::getName).collect(Collectors.toList()));
+		assertEquals(20000, NodeTraversal.stream(root).parallel().count());
+	}
+
+	/** test visiting reaches every node exactly once */
+	@Test
+	public void testVisitParallel() {
+		Node root = buildTree(20000);
+		root.setTreeLock(new TreeLock());
+		Map<Node, AtomicInteger> visits = new ConcurrentHashMap<>();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			NodeTraversal.visitParallel(root, node -> visits.computeIfAbsent(
+					node, k -> new AtomicInteger()).incrementAndGet(), pool);
+		} finally {
+			pool.shutdown();
+		}
+		// Names are unique, so nodes equal by name are the same node.
+		assertEquals(20000, visits.size());
+		for (AtomicInteger count : visits.values()) {
+			assertEquals(1, count.get());
+		}
+	}
+
+	/** test reducing keeps pre-order for an order-sensitive combiner */
+	@Test
+	public void testReduceParallel() {
+		Node root = buildTree(5000);
+		root.setTreeLock(new TreeLock());
+		String joined = NodeTraversal.reduceParallel(root, "", Node::getName,
+				(a, b) -> a.isEmpty() ? b : b.isEmpty() ? a : a + "," + b);
+		assertEquals(String.join(",", preorder(root)), joined);
+		long weight = NodeTraversal.reduceParallel((Node) root.getChildAt(0),
+				0L, node -> 1L, Long::sum);
+		assertEquals(((Node) root.getChildAt(0)).getDescendantCount() + 1,
+				weight);
+	}
+
+	/** test a deep chain neither overflows the stack nor loses nodes */
+	@Test
+	public void testChain() {
+		// Built from the bottom so each add is cheap.
+		Node root = new Node("n0");
+		for (int i = 1; i <= 100000; i++) {
+			Node parent = new Node("n" + i);
+			parent.add(root);
+			root = parent;
+		}
+		root.setTreeLock(new TreeLock());
+		Map<Node, Boolean> seen = Collections.synchronizedMap(
+				new IdentityHashMap<>());
+		NodeTraversal.visitParallel(root, node -> seen.put(node, true));
+		assertEquals(100001, seen.size());
+	}
+
+	/** test a single node, which can't be split */
+	@Test
+	public void testSingleNode() {
+		Node root = new Node("alone");
+		root.setTreeLock(new TreeLock());
+		assertNull(NodeTraversal.spliterator(root).trySplit());
+		assertEquals(List.of("alone"), NodeTraversal.stream(root).parallel()
+				.map(Node::getName).collect(Collectors.toList()));
+		assertTrue(NodeTraversal.reduceParallel(root, 0, node -> 1,
+				Integer::sum) == 1);
+	}
+
+	/** test a tree without a lock is not walked in parallel */
+	@Test(expected = IllegalStateException.class)
+	public void testUnlockedTree() {
+		NodeTraversal.visitParallel(buildTree(100), node -> {
+		});
+	}
+}
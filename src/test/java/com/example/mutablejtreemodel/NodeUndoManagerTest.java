@@ -0,0 +1,219 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TreeModelEvent;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class NodeUndoManagerTest {
+
+	/** test an insert is undone and redone */
+	@Test
+	public void testInsert() {
+		Node root = new Node("root");
+		NodeUndoManager undo = new NodeUndoManager(root);
+		Node child = new Node("child");
+		root.add(child);
+		assertTrue(undo.canUndo());
+
+		undo.undo();
+		assertEquals(0, root.getChildCount());
+		assertTrue(undo.canRedo());
+
+		undo.redo();
+		assertEquals(1, root.getChildCount());
+		assertSame(child, root.getChildAt(0));
+		assertFalse(undo.canRedo());
+	}
+
+	/** test a removed subtree is put back, the same nodes, in one event */
+	@Test
+	public void testRemoveSubtree() {
+		Node root = new Node("root");
+		Node first = new Node("first");
+		Node big = new Node("big");
+		Node last = new Node("last");
+		List<Node> grandchildren = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			grandchildren.add(new Node("grandchild" + i));
+		}
+		big.addAll(grandchildren);
+		root.add(first);
+		root.add(big);
+		root.add(last);
+		NodeUndoManager undo = new NodeUndoManager(root);
+		TestTreeModelListener listener = new TestTreeModelListener();
+		root.addListener(listener);
+
+		big.destroy();
+		undo.undo();
+		assertSame(big, root.getChildAt(1));
+		assertSame(last, root.getChildAt(2));
+		assertEquals(100000, big.getChildCount());
+		assertEquals(1, listener.getNodesInserted().size());
+		TreeModelEvent e = listener.getNodesInserted().get(0);
+		assertEquals(1, e.getChildIndices()[0]);
+	}
+
+	/** test a rename is undone */
+	@Test
+	public void testRename() {
+		Node root = new Node("root");
+		Node child = new Node("child");
+		root.add(child);
+		NodeUndoManager undo = new NodeUndoManager(root);
+		child.setName("renamed");
+		root.setName("root renamed");
+
+		undo.undo();
+		assertEquals("root", root.getName());
+		undo.undo();
+		assertEquals("child", child.getName());
+		undo.redo();
+		assertEquals("renamed", child.getName());
+	}
+
+	/** test a compound edit is undone in one step, in batches */
+	@Test
+	public void testCompound() {
+		Node root = new Node("root");
+		Node child = new Node("child");
+		root.add(child);
+		NodeUndoManager undo = new NodeUndoManager(root);
+		undo.compound("Build", () -> {
+			List<Node> batch = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				batch.add(new Node("batch" + i));
+			}
+			child.addAll(batch);
+			child.setName("parent");
+			child.moveTo(root, 0);
+		});
+		assertEquals("Undo Build", undo.getUndoPresentationName());
+		TestTreeModelListener listener = new TestTreeModelListener();
+		root.addListener(listener);
+
+		undo.undo();
+		assertFalse(undo.canUndo());
+		assertEquals("child", child.getName());
+		assertEquals(0, child.getChildCount());
+		assertSame(root, child.getParent());
+		assertEquals(1, listener.getNodesRemoved().size());
+
+		undo.redo();
+		assertEquals("parent", child.getName());
+		assertEquals(10, child.getChildCount());
+	}
+
+	/** test a new edit after undo drops the redo */
+	@Test
+	public void testEditAfterUndo() {
+		Node root = new Node("root");
+		NodeUndoManager undo = new NodeUndoManager(root);
+		root.add(new Node("a"));
+		undo.undo();
+		root.add(new Node("b"));
+		assertFalse(undo.canRedo());
+		undo.undo();
+		assertEquals(0, root.getChildCount());
+	}
+
+	/** test the oldest edits are dropped to keep within the node limit */
+	@Test
+	public void testNodeLimit() {
+		Node root = new Node("root");
+		for (int i = 0; i < 3; i++) {
+			Node child = new Node("child" + i);
+			List<Node> batch = new ArrayList<>();
+			for (int j = 0; j < 9; j++) {
+				batch.add(new Node("batch" + j));
+			}
+			child.addAll(batch);
+			root.add(child);
+		}
+		NodeUndoManager undo = new NodeUndoManager(root);
+		undo.setNodeLimit(25);
+		for (int i = 0; i < 3; i++) {
+			root.remove(0);
+			assertTrue(undo.getHeldNodes() <= 25);
+		}
+		assertEquals(20, undo.getHeldNodes());
+		undo.undo();
+		// Put back in the tree, so no longer held by the history.
+		assertEquals(10, undo.getHeldNodes());
+		undo.undo();
+		assertEquals(0, undo.getHeldNodes());
+		assertFalse(undo.canUndo());
+		assertEquals(2, root.getChildCount());
+		undo.redo();
+		assertEquals(10, undo.getHeldNodes());
+	}
+
+	/** test inserted children are only held once the insert is undone */
+	@Test
+	public void testNodeLimitInsert() {
+		Node root = new Node("root");
+		NodeUndoManager undo = new NodeUndoManager(root);
+		undo.setNodeLimit(25);
+		Node child = new Node("child");
+		child.add(new Node("grandchild"));
+		root.add(child);
+		assertEquals(0, undo.getHeldNodes());
+		undo.undo();
+		assertEquals(2, undo.getHeldNodes());
+		undo.redo();
+		assertEquals(0, undo.getHeldNodes());
+	}
+
+	/** test only changes made on the Event Dispatch Thread are recorded */
+	@Test
+	public void testEventDispatchThreadOnly() throws Exception {
+		Node root = new Node("root");
+		NodeUndoManager undo = new NodeUndoManager(root);
+		undo.setEventDispatchThreadOnly(true);
+		root.add(new Node("background"));
+		assertFalse(undo.canUndo());
+		Node edited = new Node("edited");
+		SwingUtilities.invokeAndWait(() -> root.add(edited));
+		assertTrue(undo.canUndo());
+		undo.undo();
+		assertEquals(1, root.getChildCount());
+		assertEquals("background", root.getChildAt(0).toString());
+	}
+
+	/** test a change that can't be reversed clears the history */
+	@Test
+	public void testStructureChanged() {
+		Node root = new Node("root");
+		NodeUndoManager undo = new NodeUndoManager(root);
+		root.add(new Node("a"));
+		root.fireTreeStructureChanged();
+		assertFalse(undo.canUndo());
+	}
+
+	/** test undo refuses when the tree has changed underneath */
+	@Test(expected = javax.swing.undo.CannotUndoException.class)
+	public void testCannotUndo() {
+		Node root = new Node("root");
+		Node child = new Node("child");
+		root.add(child);
+		NodeUndoManager undo = new NodeUndoManager(root);
+		child.destroy();
+		undo.dispose();
+		new Node("elsewhere").add(child);
+		undo.undo();
+	}
+}
@@ -0,0 +1,124 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.TreeExpansionEvent;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class SubtreeEvictionManagerTest {
+
+	/** Gives every node ten plain children. */
+	private static final ChildProvider PROVIDER = parent -> {
+		List<Node> children = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			children.add(new Node("child" + i));
+		}
+		return children;
+	};
+
+	private static LazyNode loadedNode(Node parent, String name) {
+		LazyNode node = new LazyNode(name, PROVIDER);
+		parent.add(node);
+		node.prepareChildren();
+		return node;
+	}
+
+	private TreeExpansionEvent event(Node node) {
+		return new TreeExpansionEvent(this, node.getPathFromRoot());
+	}
+
+	/** test collapsed subtrees over budget are unloaded, oldest first */
+	@Test
+	public void testEvictsOverBudget() {
+		Node root = new Node("root");
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+		TestTreeModelListener listener = new TestTreeModelListener();
+		model.addTreeModelListener(listener);
+		LazyNode a = loadedNode(root, "a");
+		LazyNode b = loadedNode(root, "b");
+		SubtreeEvictionManager manager = new SubtreeEvictionManager(
+				15 * SubtreeEvictionManager.ESTIMATED_NODE_BYTES, 0);
+
+		manager.treeCollapsed(event(a));
+		assertTrue("a within budget", a.isLoaded());
+		manager.treeCollapsed(event(b));
+
+		assertEquals("resident", 10 * SubtreeEvictionManager.ESTIMATED_NODE_BYTES,
+				manager.getResidentBytes());
+		assertEquals("loaded children", 10, a.getChildCount()
+				+ b.getChildCount());
+		assertEquals("StructureChanged count", 1, listener
+				.getStructureChanged().size());
+		LazyNode evicted = a.isLoaded() ? b : a;
+		assertFalse("evicted", evicted.isLoaded());
+		assertEquals("event source", evicted, listener.getStructureChanged()
+				.get(0).getSource());
+
+		// Expanding reloads it.
+		assertEquals("reloaded", 10, model.getChildCount(evicted));
+	}
+
+	/** test expanded and recently collapsed subtrees are kept */
+	@Test
+	public void testKeepsRecentAndExpanded() {
+		Node root = new Node("root");
+		LazyNode a = loadedNode(root, "a");
+		LazyNode b = loadedNode(root, "b");
+		SubtreeEvictionManager manager = new SubtreeEvictionManager(0, 60000);
+		manager.treeCollapsed(event(a));
+		manager.treeCollapsed(event(b));
+		assertEquals("evicted", 0, manager.evict());
+		manager.treeExpanded(event(a));
+		manager.treeExpanded(event(b));
+		assertEquals("resident", 0, manager.getResidentBytes());
+		assertTrue("a loaded", a.isLoaded());
+		assertTrue("b loaded", b.isLoaded());
+	}
+
+	/** test a collapsed ancestor takes over the charge of collapsed nodes below */
+	@Test
+	public void testAncestorTakesOverCharge() {
+		Node root = new Node("root");
+		LazyNode a = loadedNode(root, "a");
+		LazyNode inner = loadedNode(a, "inner");
+		SubtreeEvictionManager manager = new SubtreeEvictionManager(
+				Long.MAX_VALUE, 0);
+		manager.treeCollapsed(event(inner));
+		manager.treeCollapsed(event(a));
+		assertEquals("resident", 21 * SubtreeEvictionManager.ESTIMATED_NODE_BYTES,
+				manager.getResidentBytes());
+	}
+
+	/** test collapsed nodes below are charged again when the ancestor opens */
+	@Test
+	public void testNestedChargedAgainOnExpand() throws Exception {
+		Node root = new Node("root");
+		LazyNode a = loadedNode(root, "a");
+		LazyNode inner = loadedNode(a, "inner");
+		SubtreeEvictionManager manager = new SubtreeEvictionManager(0, 50);
+		manager.treeCollapsed(event(inner));
+		manager.treeCollapsed(event(a));
+		manager.treeExpanded(event(a));
+		assertEquals("resident", 10 * SubtreeEvictionManager.ESTIMATED_NODE_BYTES,
+				manager.getResidentBytes());
+
+		// Still collapsed, so it is unloaded once idle.
+		Thread.sleep(100);
+		assertEquals("evicted", 1, manager.evict());
+		assertFalse("inner evicted", inner.isLoaded());
+		assertTrue("a loaded", a.isLoaded());
+		assertEquals("resident", 0, manager.getResidentBytes());
+	}
+}
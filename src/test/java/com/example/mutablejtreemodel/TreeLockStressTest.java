@@ -0,0 +1,286 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.event.TreeModelEvent;
+
+import org.junit.Test;
+
+/**
+ * Stress harness for a locked tree. Writers keep changing the tree while
+ * readers check that every read through the lock sees a consistent tree.
+ *
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class TreeLockStressTest {
+
+	private static final int WRITERS = 4;
+	private static final int READERS = 12;
+	private static final long RUN_MILLIS = 1500;
+
+	/**
+	 * A consistent parent has children that know it as their parent and that
+	 * it finds at their index.
+	 */
+	private static boolean isConsistent(Node parent) {
+		int count = parent.getChildCount();
+		for (int i = 0; i < count; i++) {
+			Node child = (Node) parent.getChildAt(i);
+			if (child.getParent() != parent || parent.getIndex(child) != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** test 16 threads see no torn reads */
+	@Test
+	public void testNoTornReads() throws Exception {
+		Node root = new Node("root");
+		TreeLock lock = new TreeLock();
+		root.setTreeLock(lock);
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+		Node[] parents = new Node[WRITERS];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = new Node("parent" + i);
+			root.add(parents[i]);
+		}
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong reads = new AtomicLong();
+		AtomicLong writes = new AtomicLong();
+		Queue<String> failures = new ConcurrentLinkedQueue<>();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+
+		for (int w = 0; w < WRITERS; w++) {
+			threads.add(new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				List<Node> batch = new ArrayList<>();
+				try {
+					start.await();
+					while (running.get()) {
+						Node parent = parents[random.nextInt(parents.length)];
+						batch.clear();
+						for (int i = 0; i < 5; i++) {
+							batch.add(new Node("child"));
+						}
+						int count = parent.getTreeLock().readInt(
+								parent::getChildCount);
+						lock.lockWrite();
+						try {
+							int index = random.nextInt(parent.getChildCount() + 1);
+							parent.insertAll(index, batch);
+							if (parent.getChildCount() > 50) {
+								parent.removeRange(0, 10);
+							}
+						} finally {
+							lock.unlockWrite();
+						}
+						if (count > 0) {
+							// moves between parents
+							Node other = parents[random.nextInt(parents.length)];
+							lock.lockWrite();
+							try {
+								if (parent.getChildCount() > 0) {
+									other.add((Node) parent.getChildAt(0));
+								}
+							} finally {
+								lock.unlockWrite();
+							}
+						}
+						parent.setName("parent" + random.nextInt(10));
+						writes.incrementAndGet();
+					}
+				} catch (Throwable e) {
+					failures.add("writer: " + e);
+				}
+			}));
+		}
+		for (int r = 0; r < READERS; r++) {
+			threads.add(new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try {
+					start.await();
+					while (running.get()) {
+						Node parent = parents[random.nextInt(parents.length)];
+						// A compound read sees one version of the tree.
+						if (!lock.read(() -> isConsistent(parent))) {
+							failures.add("torn read of " + parent);
+						}
+						// Single calls through the model never fail.
+						int count = model.getChildCount(parent);
+						assertTrue("count", count >= 0);
+						Node child = lock.read(() -> parent.getChildCount() > 0
+								? (Node) parent.getChildAt(0)
+								: null);
+						if (child != null) {
+							int index = model.getIndexOfChild(parent, child);
+							assertTrue("index", index >= -1);
+						}
+						model.isLeaf(parent);
+						reads.incrementAndGet();
+					}
+				} catch (Throwable e) {
+					failures.add("reader: " + e);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		Thread.sleep(RUN_MILLIS);
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+
+		assertEquals("failures " + failures, 0, failures.size());
+		assertTrue("reads", reads.get() > 0);
+		assertTrue("writes", writes.get() > 0);
+		for (Node parent : parents) {
+			assertTrue("final " + parent, isConsistent(parent));
+		}
+	}
+
+	/**
+	 * @param root
+	 *            top of the chain.
+	 * @param depth
+	 *            number of nodes to hang below the root, one below another.
+	 * @return the bottom of the chain.
+	 */
+	private static Node chain(Node root, int depth) {
+		Node bottom = root;
+		for (int i = 0; i < depth; i++) {
+			Node next = new Node("link" + i);
+			bottom.add(next);
+			bottom = next;
+		}
+		return bottom;
+	}
+
+	/** test a leaf moving between trees is always changed under its tree's lock */
+	@Test
+	public void testLeafMovedBetweenTrees() throws Exception {
+		Queue<String> failures = new ConcurrentLinkedQueue<>();
+		Node[] roots = new Node[2];
+		Node[] bottoms = new Node[2];
+		for (int t = 0; t < roots.length; t++) {
+			Node root = new Node("root" + t);
+			TreeLock lock = new TreeLock();
+			root.setTreeLock(lock);
+			root.addListener(new TestTreeModelListener() {
+				@Override
+				public void treeNodesChanged(TreeModelEvent e) {
+					if (!lock.isWriteLockedByCurrentThread()) {
+						failures.add("renamed without the lock of " + root);
+					}
+				}
+			});
+			roots[t] = root;
+			bottoms[t] = chain(root, 100);
+		}
+		Node leaf = new Node("leaf");
+		bottoms[0].add(leaf);
+		// Moves in another tree, so that cached paths elsewhere are checked.
+		Node other = new Node("other");
+		other.setTreeLock(new TreeLock());
+		Node[] holders = new Node[] { new Node("holder0"), new Node("holder1") };
+		other.addAll(Arrays.asList(holders));
+		Node branch = new Node("branch");
+		chain(branch, 2);
+		holders[0].add(branch);
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		threads.add(new Thread(() -> {
+			try {
+				start.await();
+				for (int i = 0; running.get(); i++) {
+					leaf.moveTo(bottoms[(i + 1) % 2], 0);
+					branch.moveTo(holders[i % 2], 0);
+				}
+			} catch (Throwable e) {
+				failures.add("mover: " + e);
+			}
+		}));
+		for (int r = 0; r < WRITERS; r++) {
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+					for (int i = 0; running.get(); i++) {
+						leaf.setName("leaf" + i);
+					}
+				} catch (Throwable e) {
+					failures.add("renamer: " + e);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		Thread.sleep(RUN_MILLIS);
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+
+		assertEquals("failures " + failures, 0, failures.size());
+		Node parent = (Node) leaf.getParent();
+		assertSame("path", parent.getPathFromRoot(), leaf.getPathFromRoot()
+				.getParentPath());
+	}
+
+	/** test the write lock is re-entrant and readable by its holder */
+	@Test
+	public void testReentrantWrite() {
+		TreeLock lock = new TreeLock();
+		lock.lockWrite();
+		lock.lockWrite();
+		assertTrue("held", lock.isWriteLockedByCurrentThread());
+		assertEquals("read while writing", 1, lock.readInt(() -> 1));
+		lock.unlockWrite();
+		assertTrue("still held", lock.isWriteLockedByCurrentThread());
+		lock.unlockWrite();
+		assertTrue("released", !lock.isWriteLockedByCurrentThread());
+	}
+
+	/** test a change to a locked tree from a listener does not deadlock */
+	@Test
+	public void testListenerMayRead() {
+		Node root = new Node("root");
+		root.setTreeLock(new TreeLock());
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+		List<Integer> counts = new ArrayList<>();
+		model.addTreeModelListener(new TestTreeModelListener() {
+			@Override
+			public void treeNodesInserted(TreeModelEvent e) {
+				counts.add(model.getChildCount(root));
+			}
+		});
+		root.add(new Node("child"));
+		assertEquals("counts", 1, counts.size());
+		assertEquals("count", 1, (int) counts.get(0));
+	}
+}
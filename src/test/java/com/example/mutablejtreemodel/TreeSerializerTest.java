@@ -0,0 +1,222 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.swing.tree.TreeNode;
+
+import org.junit.Test;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class TreeSerializerTest {
+
+	/** A Node of a class of its own, to see the factory used. */
+	private static final class TaggedNode extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		TaggedNode(String name) {
+			super(name);
+		}
+	}
+
+	/** Three levels, with names needing more than ASCII or escaping. */
+	private static Node buildTree() {
+		Node root = new Node("root");
+		for (int i = 0; i < 3; i++) {
+			Node child = new Node("child \"" + i + "\"\n");
+			List<Node> grandchildren = new ArrayList<>();
+			for (int j = 0; j < i * 2; j++) {
+				grandchildren.add(new Node("grüß\t\\ " + i + "." + j));
+			}
+			child.addAll(grandchildren);
+			root.add(child);
+		}
+		root.add(new Node(""));
+		return root;
+	}
+
+	/** A chain of nodes, built from the bottom so each add is cheap. */
+	private static Node buildChain(int depth) {
+		Node node = new Node("node" + (depth - 1));
+		for (int i = depth - 2; i >= 0; i--) {
+			Node parent = new Node("node" + i);
+			parent.add(node);
+			node = parent;
+		}
+		return node;
+	}
+
+	/** Check two trees are the same, without recursion. */
+	private static void assertSameTree(TreeNode expected, TreeNode actual) {
+		Deque<TreeNode[]> pending = new ArrayDeque<>();
+		pending.push(new TreeNode[] { expected, actual });
+		while (!pending.isEmpty()) {
+			TreeNode[] pair = pending.pop();
+			assertEquals("name", pair[0].toString(), pair[1].toString());
+			int count = pair[0].getChildCount();
+			assertEquals("count of " + pair[0], count, pair[1].getChildCount());
+			for (int i = 0; i < count; i++) {
+				TreeNode child = pair[1].getChildAt(i);
+				assertTrue("parent", child.getParent() == pair[1]);
+				assertEquals("index", i, pair[1].getIndex(child));
+				pending.push(new TreeNode[] { pair[0].getChildAt(i), child });
+			}
+		}
+	}
+
+	private static ReadableByteChannel in(ByteArrayOutputStream bytes) {
+		return Channels.newChannel(new ByteArrayInputStream(bytes
+				.toByteArray()));
+	}
+
+	/** test a tree written and read in binary is the same */
+	@Test
+	public void testBinary() throws IOException {
+		Node root = buildTree();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeBinary(root, Channels.newChannel(bytes));
+		Node copy = TreeSerializer.readBinary(in(bytes));
+		assertSameTree(root, copy);
+	}
+
+	/** test a tree written and read as JSON lines is the same */
+	@Test
+	public void testJsonLines() throws IOException {
+		Node root = buildTree();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeJsonLines(root, Channels.newChannel(bytes));
+		String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(text, text.startsWith("{\"depth\":0,\"name\":\"root\"}\n"
+				+ "{\"depth\":1,\"name\":\"child \\\"0\\\"\\n\"}\n"));
+		Node copy = TreeSerializer.readJsonLines(in(bytes));
+		assertSameTree(root, copy);
+	}
+
+	/** test JSON lines written by hand, with spaces, can be read */
+	@Test
+	public void testJsonLinesByHand() throws IOException {
+		String text = "{\"depth\":0,\"name\":\"a\"}\n"
+				+ " { \"depth\" : 1 , \"name\" : \"b\\u0041\" }\n\n"
+				+ "{\"depth\":2,\"name\":\"c\"}\n"
+				+ "{\"depth\":1,\"name\":\"d\"}\n";
+		Node root = TreeSerializer.readJsonLines(Channels
+				.newChannel(new ByteArrayInputStream(text
+						.getBytes(StandardCharsets.UTF_8))));
+		assertEquals("a", root.toString());
+		assertEquals(2, root.getChildCount());
+		assertEquals("bA", root.getChildAt(0).toString());
+		assertEquals("c", root.getChildAt(0).getChildAt(0).toString());
+		assertEquals("d", root.getChildAt(1).toString());
+	}
+
+	/** test deep trees are written and read without recursion */
+	@Test
+	public void testDeep() throws IOException {
+		Node root = buildChain(100000);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeBinary(root, Channels.newChannel(bytes));
+		assertSameTree(root, TreeSerializer.readBinary(in(bytes)));
+
+		bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeJsonLines(root, Channels.newChannel(bytes));
+		assertSameTree(root, TreeSerializer.readJsonLines(in(bytes)));
+	}
+
+	/** test the factory chooses the class of the nodes read */
+	@Test
+	public void testFactory() throws IOException {
+		Node root = buildTree();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeBinary(root, Channels.newChannel(bytes));
+		Node copy = TreeSerializer.readBinary(in(bytes), TaggedNode::new);
+		assertTrue(copy instanceof TaggedNode);
+		assertTrue(copy.getChildAt(1) instanceof TaggedNode);
+		assertSameTree(root, copy);
+	}
+
+	/** test a locked tree can be written */
+	@Test
+	public void testLocked() throws IOException {
+		Node root = buildTree();
+		root.setTreeLock(new TreeLock());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeBinary(root, Channels.newChannel(bytes));
+		assertSameTree(root, TreeSerializer.readBinary(in(bytes)));
+	}
+
+	/** test nodes without a name keep no name, apart from empty ones */
+	@Test
+	public void testNullNames() throws IOException {
+		Node root = buildTree();
+		root.add(new Node(null));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeBinary(root, Channels.newChannel(bytes));
+		Node copy = TreeSerializer.readBinary(in(bytes));
+		assertSameTree(root, copy);
+		assertNull(((Node) copy.getChildAt(4)).getName());
+		assertEquals("", ((Node) copy.getChildAt(3)).getName());
+
+		bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeJsonLines(root, Channels.newChannel(bytes));
+		String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(text, text.endsWith("{\"depth\":1,\"name\":null}\n"));
+		copy = TreeSerializer.readJsonLines(in(bytes));
+		assertSameTree(root, copy);
+		assertNull(((Node) copy.getChildAt(4)).getName());
+	}
+
+	/** test a damaged child count is not taken as room to make */
+	@Test(expected = IOException.class)
+	public void testHugeChildCount() throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(17);
+		bytes.put(new byte[] { 'M', 'J', 'T', 'B' }).putInt(2).putInt(1)
+				.put((byte) 'r').putInt(Integer.MAX_VALUE);
+		TreeSerializer.readBinary(Channels.newChannel(new ByteArrayInputStream(
+				bytes.array())));
+	}
+
+	/** test data that is not a tree is rejected */
+	@Test(expected = IOException.class)
+	public void testNotBinary() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeJsonLines(buildTree(), Channels.newChannel(bytes));
+		TreeSerializer.readBinary(in(bytes));
+	}
+
+	/** test a truncated tree is rejected */
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TreeSerializer.writeBinary(buildTree(), Channels.newChannel(bytes));
+		byte[] all = bytes.toByteArray();
+		TreeSerializer.readBinary(Channels.newChannel(new ByteArrayInputStream(
+				all, 0, all.length - 6)));
+	}
+
+	/** test JSON lines that skip a level are rejected */
+	@Test(expected = IOException.class)
+	public void testJsonLinesSkippingDepth() throws IOException {
+		String text = "{\"depth\":0,\"name\":\"a\"}\n"
+				+ "{\"depth\":2,\"name\":\"b\"}\n";
+		TreeSerializer.readJsonLines(Channels.newChannel(new ByteArrayInputStream(
+				text.getBytes(StandardCharsets.UTF_8))));
+	}
+}
@@ -0,0 +1,148 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.tree.TreeModel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class TreeSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Three levels, with names needing more than ASCII. */
+	private static Node buildTree() {
+		Node root = new Node("root");
+		for (int i = 0; i < 3; i++) {
+			Node child = new Node("child" + i);
+			List<Node> grandchildren = new ArrayList<>();
+			for (int j = 0; j < i * 2; j++) {
+				grandchildren.add(new Node("grüß " + i + "." + j));
+			}
+			child.addAll(grandchildren);
+			root.add(child);
+		}
+		return root;
+	}
+
+	/** Check two models show the same tree below two nodes. */
+	private static void assertSameTree(TreeModel expected, Object expectedNode,
+			TreeModel actual, Object actualNode) {
+		assertEquals("name", expectedNode.toString(), actualNode.toString());
+		int count = expected.getChildCount(expectedNode);
+		assertEquals("count of " + expectedNode, count, actual
+				.getChildCount(actualNode));
+		for (int i = 0; i < count; i++) {
+			Object child = actual.getChild(actualNode, i);
+			assertEquals("index", i, actual.getIndexOfChild(actualNode, child));
+			assertSameTree(expected, expected.getChild(expectedNode, i),
+					actual, child);
+		}
+	}
+
+	/** test a tree written and opened again looks the same */
+	@Test
+	public void testRoundTrip() throws IOException {
+		Node original = buildTree();
+		Path file = folder.newFile("tree.snapshot").toPath();
+		TreeSnapshot.write(original, file);
+		TreeSnapshot snapshot = TreeSnapshot.open(file);
+		assertEquals("size", 10, snapshot.size());
+
+		NodeJTreeModel expected = new NodeJTreeModel();
+		expected.setRoot(original);
+		NodeJTreeModel actual = new NodeJTreeModel();
+		actual.setRoot(snapshot.getRoot());
+		assertSameTree(expected, original, actual, actual.getRoot());
+	}
+
+	/** test a tree changed by another thread is written as it was at once */
+	@Test
+	public void testWrittenWhileChanging() throws Exception {
+		Node root = new Node("root");
+		root.setTreeLock(new TreeLock());
+		for (int i = 0; i < 50; i++) {
+			root.add(new Node("n" + i));
+		}
+		AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			Random random = new Random(1);
+			while (!done.get()) {
+				Node parent = (Node) root.getChildAt(random.nextInt(50));
+				if (parent.getChildCount() > 5) {
+					parent.removeRange(0, parent.getChildCount());
+				}
+				parent.add(new Node("n" + "x".repeat(random.nextInt(20))));
+			}
+		});
+		writer.start();
+		try {
+			Path file = folder.newFile("tree.snapshot").toPath();
+			for (int i = 0; i < 50; i++) {
+				TreeSnapshot.write(root, file);
+				TreeSnapshot snapshot = TreeSnapshot.open(file);
+				int seen = 0;
+				for (int record = 0; record < snapshot.size(); record++) {
+					String name = snapshot.getName(record);
+					assertTrue(name, name.equals("root") || name.matches("n\\w*"));
+					seen++;
+				}
+				assertEquals("records", snapshot.size(), seen);
+			}
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+	}
+
+	/** test nodes are only created as the model asks for them */
+	@Test
+	public void testCreatedOnDemand() throws IOException {
+		Path file = folder.newFile("tree.snapshot").toPath();
+		TreeSnapshot.write(buildTree(), file);
+		TreeSnapshot snapshot = TreeSnapshot.open(file);
+		LazyNode root = snapshot.getRoot();
+		NodeJTreeModel model = new NodeJTreeModel();
+		model.setRoot(root);
+
+		assertFalse("root loaded", root.isLoaded());
+		assertFalse("root isLeaf", model.isLeaf(root));
+		LazyNode child0 = (LazyNode) model.getChild(root, 0);
+		assertTrue("child0 isLeaf", model.isLeaf(child0));
+		LazyNode child2 = (LazyNode) model.getChild(root, 2);
+		assertFalse("child2 loaded", child2.isLoaded());
+
+		// Loaded nodes are ordinary nodes.
+		child2.add(new Node("new"));
+		assertEquals("child2 count", 5, model.getChildCount(child2));
+		child2.setName("renamed");
+		assertEquals("name", "renamed", child2.toString());
+	}
+
+	/** test other files are refused */
+	@Test(expected = IOException.class)
+	public void testNotASnapshot() throws IOException {
+		Path file = folder.newFile("other").toPath();
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12,
+				13, 14, 15, 16 });
+		TreeSnapshot.open(file);
+	}
+}
@@ -0,0 +1,356 @@
+/** This document is AS-IS. No claims are made for suitability for any purpose. */
+package com.example.mutablejtreemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreeNode;
+
+import org.junit.Test;
+
+import com.example.mutablejtreemodel.FrozenTreeModel.FrozenNode;
+
+/**
+ * @author xenomorpheus
+ * @version $Revision: 1.0 $
+ */
+public class VersionedTreeTest {
+
+	private static Node buildTree() {
+		Node root = new Node("root");
+		for (int i = 0; i < 3; i++) {
+			Node child = new Node("child" + i);
+			List<Node> grandchildren = new ArrayList<>();
+			for (int j = 0; j < 3; j++) {
+				grandchildren.add(new Node("grandchild" + i + "." + j));
+			}
+			child.addAll(grandchildren);
+			root.add(child);
+		}
+		return root;
+	}
+
+	/** Check a snapshot shows the same tree as some nodes. */
+	private static void assertSameTree(TreeNode expected, TreeModel model,
+			Object actual) {
+		assertEquals("name", expected.toString(), actual.toString());
+		int count = expected.getChildCount();
+		assertEquals("count of " + expected, count, model.getChildCount(actual));
+		for (int i = 0; i < count; i++) {
+			Object child = model.getChild(actual, i);
+			assertEquals("index", i, model.getIndexOfChild(actual, child));
+			assertSameTree(expected.getChildAt(i), model, child);
+		}
+	}
+
+	private static void assertSnapshot(Node root, VersionedTree versions) {
+		FrozenTreeModel snapshot = versions.snapshot();
+		assertSameTree(root, snapshot, snapshot.getRoot());
+	}
+
+	/** test snapshots follow every kind of change */
+	@Test
+	public void testChanges() {
+		Node root = buildTree();
+		VersionedTree versions = new VersionedTree(root);
+		assertSnapshot(root, versions);
+		assertEquals(13, versions.snapshot().size());
+
+		Node child0 = (Node) root.getChildAt(0);
+		Node child1 = (Node) root.getChildAt(1);
+		child0.setName("renamed");
+		assertSnapshot(root, versions);
+		root.setName("root renamed");
+		assertSnapshot(root, versions);
+
+		List<Node> batch = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			batch.add(new Node("batch" + i));
+		}
+		child1.insertAll(1, batch);
+		assertSnapshot(root, versions);
+		child1.removeRange(0, 3);
+		assertSnapshot(root, versions);
+		child1.moveTo(child0, 1);
+		assertSnapshot(root, versions);
+		((Node) root.getChildAt(0)).destroy();
+		assertSnapshot(root, versions);
+		root.fireTreeStructureChanged();
+		assertSnapshot(root, versions);
+
+		long count = 0;
+		Deque<TreeNode> pending = new ArrayDeque<>();
+		pending.push(root);
+		while (!pending.isEmpty()) {
+			TreeNode node = pending.pop();
+			count++;
+			for (int i = 0; i < node.getChildCount(); i++) {
+				pending.push(node.getChildAt(i));
+			}
+		}
+		assertEquals(count, versions.snapshot().size());
+	}
+
+	/** test a snapshot does not change, and shares what did not change */
+	@Test
+	public void testImmutable() {
+		Node root = buildTree();
+		VersionedTree versions = new VersionedTree(root);
+		FrozenTreeModel before = versions.snapshot();
+		Node copy = buildTree();
+
+		((Node) root.getChildAt(1).getChildAt(2)).setName("changed");
+		root.add(new Node("added"));
+		FrozenTreeModel after = versions.snapshot();
+
+		assertSameTree(copy, before, before.getRoot());
+		assertTrue(after.getVersion() > before.getVersion());
+		FrozenNode rootBefore = before.getRoot();
+		FrozenNode rootAfter = after.getRoot();
+		assertNotSame(rootBefore, rootAfter);
+		assertSame("unchanged subtree shared", rootBefore.getChildAt(0),
+				rootAfter.getChildAt(0));
+		assertNotSame(rootBefore.getChildAt(1), rootAfter.getChildAt(1));
+		assertSame(rootBefore.getChildAt(1).getChildAt(0), rootAfter
+				.getChildAt(1).getChildAt(0));
+	}
+
+	/** test snapshots are read only */
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly() {
+		VersionedTree versions = new VersionedTree(buildTree());
+		FrozenTreeModel snapshot = versions.snapshot();
+		snapshot.valueForPathChanged(null, "x");
+	}
+
+	/** Gives every node three plain children. */
+	private static final ChildProvider PROVIDER = parent -> {
+		List<Node> children = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			children.add(new Node(parent.getName() + "." + i));
+		}
+		return children;
+	};
+
+	/** test children loaded without events are copied by the next change */
+	@Test
+	public void testLazyLoads() {
+		Node root = buildTree();
+		LazyNode lazy = new LazyNode("lazy", PROVIDER);
+		LazyNode deep = new LazyNode("deep", PROVIDER);
+		root.add(lazy);
+		((Node) root.getChildAt(0)).add(deep);
+		VersionedTree versions = new VersionedTree(root);
+
+		lazy.prepareChildren();
+		((Node) lazy.getChildAt(1)).setName("renamed");
+		assertSnapshot(root, versions);
+		lazy.remove(0);
+		assertSnapshot(root, versions);
+
+		// Loaded, then changed below.
+		deep.prepareChildren();
+		((Node) deep.getChildAt(2)).add(new Node("added"));
+		assertSnapshot(root, versions);
+
+		lazy.unloadChildren();
+		lazy.prepareChildren();
+		lazy.add(new Node("added"));
+		assertSnapshot(root, versions);
+	}
+
+	/** test loads in the background, with their placeholders, are followed */
+	@Test
+	public void testBackgroundLoad() throws Exception {
+		Node root = buildTree();
+		root.setTreeLock(new TreeLock());
+		CountDownLatch gate = new CountDownLatch(1);
+		LazyNode lazy = new LazyNode("lazy", new ChildProvider() {
+			@Override
+			public List<? extends Node> loadChildren(LazyNode parent) {
+				return PROVIDER.loadChildren(parent);
+			}
+
+			@Override
+			public void streamChildren(LazyNode parent,
+					Consumer<? super Node> sink) {
+				sink.accept(new Node("first"));
+				try {
+					gate.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				loadChildren(parent).forEach(sink);
+			}
+		});
+		root.add(lazy);
+		VersionedTree versions = new VersionedTree(root);
+		AsyncChildLoader loader = new AsyncChildLoader(1, 1);
+		try {
+			loader.load(lazy);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (versions.snapshot().getRoot().getChildAt(3)
+					.getChildCount() == 0) {
+				assertTrue("first inserted",
+						System.currentTimeMillis() < deadline);
+				Thread.sleep(5);
+			}
+			// The first child, then the placeholder.
+			TreeLock lock = root.lockTree();
+			try {
+				assertSnapshot(root, versions);
+			} finally {
+				Node.unlockTree(lock);
+			}
+			gate.countDown();
+			while (loader.isLoading(lazy)) {
+				assertTrue("loaded", System.currentTimeMillis() < deadline);
+				Thread.sleep(5);
+			}
+		} finally {
+			gate.countDown();
+			loader.shutdown();
+		}
+		assertFalse("placeholder removed", AsyncChildLoader.isPlaceholder(lazy
+				.getLastChild()));
+		assertEquals("children", 4, lazy.getChildCount());
+		assertSnapshot(root, versions);
+	}
+
+	/** test readers see consistent versions while a writer changes the tree */
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		Node root = buildTree();
+		root.setTreeLock(new TreeLock());
+		VersionedTree versions = new VersionedTree(root);
+		AtomicBoolean stop = new AtomicBoolean();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			try {
+				while (!stop.get()) {
+					FrozenTreeModel snapshot = versions.snapshot();
+					// The size kept with each version matches its nodes.
+					long count = 0;
+					Deque<FrozenNode> pending = new ArrayDeque<>();
+					pending.push(snapshot.getRoot());
+					while (!pending.isEmpty()) {
+						FrozenNode node = pending.pop();
+						count++;
+						for (int i = 0; i < node.getChildCount(); i++) {
+							pending.push(node.getChildAt(i));
+						}
+					}
+					assertEquals(snapshot.size(), count);
+				}
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		reader.start();
+		Node parent = (Node) root.getChildAt(0);
+		for (int i = 0; i < 2000; i++) {
+			Node pair = new Node("pair" + i);
+			pair.add(new Node("other half"));
+			parent.add(pair);
+			if (i % 3 == 0) {
+				parent.remove(0);
+			}
+		}
+		stop.set(true);
+		reader.join();
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertSnapshot(root, versions);
+	}
+
+	/** test snapshots follow changes among many children */
+	@Test
+	public void testManyChildren() {
+		Node root = new Node("root");
+		List<Node> children = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			children.add(new Node("child" + i));
+		}
+		root.addAll(children);
+		VersionedTree versions = new VersionedTree(root);
+		Random random = new Random(1);
+		for (int i = 0; i < 3000; i++) {
+			int count = root.getChildCount();
+			switch (random.nextInt(4)) {
+			case 0:
+				root.insert(new Node("added" + i), random.nextInt(count + 1));
+				break;
+			case 1:
+				root.remove(random.nextInt(count));
+				break;
+			case 2:
+				((Node) root.getChildAt(random.nextInt(count)))
+						.setName("renamed" + i);
+				break;
+			default:
+				List<Node> batch = new ArrayList<>();
+				for (int j = 0; j < 100; j++) {
+					batch.add(new Node("batch" + i + "." + j));
+				}
+				root.addAll(batch);
+				root.remove(random.nextInt(count));
+				break;
+			}
+		}
+		assertSnapshot(root, versions);
+	}
+
+	/** test a change among many children doesn't copy them all */
+	@Test
+	public void testChangeAmongManyChildrenScales() {
+		changeMillis(5000); // warm up
+		long small = changeMillis(5000);
+		long large = changeMillis(200000);
+		// Forty times the children; copying them all would take forty times.
+		assertTrue("small=" + small + "ms, large=" + large + "ms",
+				large <= 8 * small + 100);
+	}
+
+	/**
+	 * @param count
+	 *            the number of children to change among.
+	 * @return the time to make versions adding, renaming and removing some
+	 *         children, in milliseconds.
+	 */
+	private static long changeMillis(int count) {
+		FrozenNode[] children = new FrozenNode[count];
+		for (int i = 0; i < count; i++) {
+			children[i] = new FrozenNode("child" + i, FrozenNode.NO_CHILDREN);
+		}
+		FrozenNode parent = new FrozenNode("parent", children);
+		long start = System.nanoTime();
+		for (int i = 0; i < 2000; i++) {
+			parent = parent.withInserted(new int[] { count / 2 },
+					new FrozenNode[] { new FrozenNode("added" + i,
+							FrozenNode.NO_CHILDREN) });
+			parent = parent.withChild(i, parent.getChildAt(i).withName(
+					"renamed" + i));
+			parent = parent.withRemoved(new int[] { count / 3 });
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		assertEquals(count + 1, parent.size());
+		assertEquals("renamed0", parent.getChildAt(0).toString());
+		return millis;
+	}
+}